@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.benchmark;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.TimeValue;
+import org.openjdk.jmh.runner.options.VerboseMode;
+
+import com.ibm.fhir.core.util.ConcurrentLRUCache;
+import com.ibm.fhir.core.util.LRUCache;
+
+/**
+ * Compares the synchronized LRUCache with the ConcurrentLRUCache (lock-free reads) when several threads read (and fill)
+ * the same cache, like the expression and identifier caches of the FHIRPath evaluator
+ *
+ * <p>The benefit of the ConcurrentLRUCache depends on the threads running on several cores: on a single core, its
+ * misses (which add to the CLOCK queue and may sweep it) are slower than those of the synchronized LRUCache.
+ */
+public class ConcurrentLRUCacheBenchmark {
+    private static final int THREADS = 8;
+
+    @State(Scope.Benchmark)
+    public static class CacheState {
+        @Param({ "synchronized", "concurrent" })
+        public String cache;
+
+        @Param({ "2048" })
+        public int maxEntries;
+
+        public Map<String, String> map;
+        public String[] keys;
+
+        @Setup
+        public void setUp() {
+            map = "synchronized".equals(cache) ? LRUCache.createLRUCache(maxEntries) : new ConcurrentLRUCache<>(maxEntries);
+            // twice as many keys as entries, so that computeIfAbsent misses and evicts
+            keys = new String[maxEntries * 2];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = "Resource.expression" + i;
+            }
+            for (int i = 0; i < maxEntries; i++) {
+                map.put(keys[i], keys[i]);
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            if (map instanceof ConcurrentLRUCache) {
+                System.out.println(((ConcurrentLRUCache<?, ?>) map).getStats());
+            }
+        }
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public String benchmarkGet(CacheState state) {
+        return state.map.get(state.keys[ThreadLocalRandom.current().nextInt(state.maxEntries)]);
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public String benchmarkComputeIfAbsent(CacheState state) {
+        return state.map.computeIfAbsent(state.keys[ThreadLocalRandom.current().nextInt(state.keys.length)], k -> k);
+    }
+
+    @Benchmark
+    @Threads(THREADS)
+    public String benchmarkComputeIfAbsentOnce(CacheState state) {
+        String key = state.keys[ThreadLocalRandom.current().nextInt(state.keys.length)];
+        if (state.map instanceof ConcurrentLRUCache) {
+            return ((ConcurrentLRUCache<String, String>) state.map).computeIfAbsentOnce(key, k -> k);
+        }
+        return state.map.computeIfAbsent(key, k -> k);
+    }
+
+    public static void main(String[] args) throws Exception {
+        // FHIRBenchmarkRunner runs single-threaded benchmarks; the thread count comes from the annotations here
+        Options opt = new OptionsBuilder()
+                .include(".*" + ConcurrentLRUCacheBenchmark.class.getSimpleName() + ".*")
+                .jvmArgsPrepend("-Xms2g", "-Xmx2g")
+                .verbosity(VerboseMode.NORMAL)
+                .warmupIterations(1)
+                .warmupTime(TimeValue.seconds(10))
+                .measurementIterations(2)
+                .measurementTime(TimeValue.seconds(10))
+                .forks(1)
+                .build();
+        new Runner(opt).run();
+    }
+}
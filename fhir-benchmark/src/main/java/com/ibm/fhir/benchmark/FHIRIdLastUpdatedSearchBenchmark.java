@@ -0,0 +1,218 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.benchmark;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+import java.util.UUID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.ibm.fhir.benchmark.runner.FHIRBenchmarkRunner;
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Basic;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodecs;
+import com.ibm.fhir.persistence.jdbc.dao.impl.ParameterDAOImpl;
+import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
+import com.ibm.fhir.persistence.jdbc.dto.Resource;
+import com.ibm.fhir.persistence.jdbc.postgresql.PostgreSqlResourceDAO;
+import com.ibm.fhir.persistence.jdbc.util.IdLastUpdatedQuerySegmentAggregator;
+import com.ibm.fhir.persistence.jdbc.util.JDBCQueryBuilder;
+import com.ibm.fhir.persistence.jdbc.util.SqlQueryData;
+import com.ibm.fhir.search.SearchConstants.Prefix;
+import com.ibm.fhir.search.SearchConstants.Type;
+import com.ibm.fhir.search.context.FHIRSearchContext;
+import com.ibm.fhir.search.context.FHIRSearchContextFactory;
+import com.ibm.fhir.search.parameters.QueryParameter;
+import com.ibm.fhir.search.parameters.QueryParameterValue;
+
+/**
+ * Compares the latency of Basic searches on _lastUpdated or _id, built by the _id/_lastUpdated fast path of
+ * JDBCQueryBuilder (IdLastUpdatedQuerySegmentAggregator) and by the generic QuerySegmentAggregator.
+ * <br>
+ * Requires a PostgreSQL database with the FHIR schema deployed by the fhir-persistence-schema tool. The connection
+ * is configured with the system properties:
+ * <ul>
+ * <li>com.ibm.fhir.benchmark.pg.url (default jdbc:postgresql://localhost:5432/fhirdb?currentSchema=fhirdata)
+ * <li>com.ibm.fhir.benchmark.pg.user (default fhirserver)
+ * <li>com.ibm.fhir.benchmark.pg.password
+ * </ul>
+ * The trial generates a dataset of datasetSize Basic resources, last updated over the past 100 days, with every
+ * tenth resource updated a second time. The dataset is committed, so that the statistics of the tables reflect it,
+ * and is left in the database. The _lastUpdated searches match the resources updated during the last day, and
+ * the _id searches match 10 random resources of the dataset.
+ * <br>
+ * No results have been published yet. Covering indexes for these searches (on LAST_UPDATED and LOGICAL_ID with the
+ * resource ids) are not part of the schema; they should only be added once this benchmark shows that they pay off.
+ */
+public class FHIRIdLastUpdatedSearchBenchmark {
+    private static final String PROPERTY_URL = "com.ibm.fhir.benchmark.pg.url";
+    private static final String PROPERTY_USER = "com.ibm.fhir.benchmark.pg.user";
+    private static final String PROPERTY_PASSWORD = "com.ibm.fhir.benchmark.pg.password";
+
+    private static final int DAYS = 100;
+    private static final int COMMIT_INTERVAL = 1000;
+    private static final int PAGE_SIZE = 10;
+
+    @State(Scope.Thread)
+    public static class FHIRIdLastUpdatedSearchState {
+        Connection connection;
+        PostgreSqlResourceDAO resourceDao;
+        ParameterDAOImpl parameterDao;
+        JDBCQueryBuilder queryBuilder;
+        List<String> logicalIds = new ArrayList<>();
+        Random random = new Random(42);
+
+        // JMH will inject the value into the annotated field before any Setup method is called.
+        @Param({"fastpath", "generic"})
+        public String queryPath;
+
+        @Param({"lastUpdated", "id"})
+        public String search;
+
+        @Param({"page", "count"})
+        public String operation;
+
+        @Param({"100000"})
+        public int datasetSize;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            if (queryPath == null) {
+                System.err.println("queryPath is null; if you're in Eclipse then make sure annotation processing is on and you've ran 'mvn clean package'.");
+                System.exit(1);
+            }
+            FHIRRequestContext.get().setTenantId("default");
+            Properties props = new Properties();
+            props.setProperty("user", System.getProperty(PROPERTY_USER, "fhirserver"));
+            props.setProperty("password", System.getProperty(PROPERTY_PASSWORD, ""));
+            connection = DriverManager.getConnection(System.getProperty(PROPERTY_URL,
+                "jdbc:postgresql://localhost:5432/fhirdb?currentSchema=fhirdata"), props);
+            connection.setAutoCommit(false);
+
+            IdLastUpdatedQuerySegmentAggregator.setEnabled("fastpath".equals(queryPath));
+            resourceDao = new PostgreSqlResourceDAO(connection);
+            parameterDao = new ParameterDAOImpl(connection);
+            queryBuilder = new JDBCQueryBuilder(parameterDao, resourceDao);
+            generateDataset();
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            IdLastUpdatedQuerySegmentAggregator.setEnabled(true);
+            if (connection != null) {
+                connection.rollback();
+                connection.close();
+            }
+        }
+
+        /**
+         * Stores datasetSize Basic resources with a last updated time spread over the past DAYS days
+         */
+        private void generateDataset() throws Exception {
+            Basic basic = FHIRParser.parser(Format.JSON).parse(new StringReader(
+                    "{\"resourceType\":\"Basic\",\"code\":{\"text\":\"benchmark\"}}"));
+            byte[] payload = ResourcePayloadCodecs.encode(ResourcePayloadCodecs.getCodec(ResourcePayloadCodecs.DEFAULT_CODEC), basic);
+
+            long now = System.currentTimeMillis();
+            long interval = ChronoUnit.DAYS.getDuration().toMillis() * DAYS / datasetSize;
+            for (int i = 0; i < datasetSize; i++) {
+                String logicalId = UUID.randomUUID().toString();
+                long lastUpdated = now - (datasetSize - i) * interval;
+                store(payload, logicalId, 1, lastUpdated);
+                if (i % 10 == 0) {
+                    store(payload, logicalId, 2, lastUpdated + 1);
+                }
+                logicalIds.add(logicalId);
+                if (i % COMMIT_INTERVAL == 0) {
+                    connection.commit();
+                }
+            }
+            connection.commit();
+
+            try (Statement s = connection.createStatement()) {
+                s.executeUpdate("ANALYZE basic_logical_resources");
+                s.executeUpdate("ANALYZE basic_resources");
+            }
+            connection.commit();
+        }
+
+        private void store(byte[] payload, String logicalId, int versionId, long lastUpdated) throws Exception {
+            Resource dto = new Resource();
+            dto.setResourceType("Basic");
+            dto.setLogicalId(logicalId);
+            dto.setVersionId(versionId);
+            dto.setData(payload);
+            dto.setLastUpdated(new Timestamp(lastUpdated));
+            dto.setDeleted(false);
+            resourceDao.insert(dto, Collections.<ExtractedParameterValue>emptyList(), parameterDao);
+        }
+
+        FHIRSearchContext buildSearchContext() {
+            QueryParameterValue value = new QueryParameterValue();
+            QueryParameter queryParameter;
+            if ("lastUpdated".equals(search)) {
+                Instant since = Instant.now().minus(1, ChronoUnit.DAYS);
+                value.setPrefix(Prefix.GE);
+                value.setValueDateLowerBound(since);
+                value.setValueDateUpperBound(since);
+                queryParameter = new QueryParameter(Type.DATE, "_lastUpdated", null, null);
+                queryParameter.getValues().add(value);
+            } else {
+                queryParameter = new QueryParameter(Type.TOKEN, "_id", null, null);
+                for (int i = 0; i < 10; i++) {
+                    QueryParameterValue idValue = new QueryParameterValue();
+                    idValue.setValueCode(logicalIds.get(random.nextInt(logicalIds.size())));
+                    queryParameter.getValues().add(idValue);
+                }
+            }
+
+            FHIRSearchContext searchContext = FHIRSearchContextFactory.createSearchContext();
+            searchContext.setSearchParameters(new ArrayList<>(Collections.singletonList(queryParameter)));
+            searchContext.setPageSize(PAGE_SIZE);
+            searchContext.setPageNumber(1);
+            return searchContext;
+        }
+    }
+
+    @Benchmark
+    public Object benchmarkSearch(FHIRIdLastUpdatedSearchState state) throws Exception {
+        FHIRSearchContext searchContext = state.buildSearchContext();
+        Object result;
+        if ("count".equals(state.operation)) {
+            SqlQueryData query = state.queryBuilder.buildCountQuery(Basic.class, searchContext);
+            result = state.resourceDao.searchCount(query);
+        } else {
+            SqlQueryData query = state.queryBuilder.buildQuery(Basic.class, searchContext);
+            result = state.resourceDao.search(query);
+        }
+        state.connection.commit();
+        return result;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FHIRBenchmarkRunner(FHIRIdLastUpdatedSearchBenchmark.class).run();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.benchmark;
+
+import static com.ibm.fhir.benchmark.runner.FHIRBenchmarkRunner.PROPERTY_EXAMPLE_NAME;
+import static com.ibm.fhir.path.util.FHIRPathUtil.singleton;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.ibm.fhir.benchmark.runner.FHIRBenchmarkRunner;
+import com.ibm.fhir.benchmark.util.BenchmarkUtil;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.resource.SearchParameter;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.path.evaluator.CompiledExpression;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluationContext;
+import com.ibm.fhir.search.util.SearchUtil;
+import com.ibm.fhir.validation.FHIRValidator;
+
+/**
+ * Compares compiled and interpreted FHIRPath evaluation on the search parameter extraction and constraint
+ * validation workloads
+ */
+public class FHIRPathCompiledExpressionBenchmark {
+    private static final String EXAMPLE_NAME = "patient-example";
+
+    @State(Scope.Benchmark)
+    public static class FHIRPathCompiledExpressionState {
+        public static final String SPEC_EXAMPLE_NAME = System.getProperty(PROPERTY_EXAMPLE_NAME);
+        public static final String JSON_SPEC_EXAMPLE = BenchmarkUtil.getSpecExample(Format.JSON, SPEC_EXAMPLE_NAME);
+
+        @Param({ "compiled", "interpreted" })
+        public String mode;
+
+        public FHIRPathEvaluator evaluator;
+        public FHIRValidator validator;
+        public Resource resource;
+        public EvaluationContext evaluationContext;
+        public Collection<FHIRPathNode> initialContext;
+        public List<CompiledExpression> searchParameterExpressions;
+
+        @Setup
+        public void setUp() throws Exception {
+            FHIRPathEvaluator.setCompilationEnabled("compiled".equals(mode));
+            evaluator = FHIRPathEvaluator.evaluator();
+            validator = FHIRValidator.validator();
+            resource = FHIRParser.parser(Format.JSON).parse(new StringReader(JSON_SPEC_EXAMPLE));
+            evaluationContext = new EvaluationContext(resource);
+            initialContext = singleton(evaluationContext.getTree().getRoot());
+
+            searchParameterExpressions = new ArrayList<>();
+            for (SearchParameter searchParameter : SearchUtil.getApplicableSearchParameters(resource.getClass().getSimpleName())) {
+                if (searchParameter.getExpression() != null) {
+                    searchParameterExpressions.add(FHIRPathEvaluator.compile(searchParameter.getExpression().getValue()));
+                }
+            }
+        }
+
+        @TearDown
+        public void tearDown() {
+            FHIRPathEvaluator.setCompilationEnabled(true);
+        }
+    }
+
+    @Benchmark
+    public void benchmarkSearchParameters(FHIRPathCompiledExpressionState state, Blackhole bh) throws Exception {
+        for (CompiledExpression expression : state.searchParameterExpressions) {
+            bh.consume(state.evaluator.evaluate(state.evaluationContext, expression, state.initialContext));
+        }
+    }
+
+    @Benchmark
+    public void benchmarkConstraints(FHIRPathCompiledExpressionState state, Blackhole bh) throws Exception {
+        bh.consume(state.validator.validate(state.evaluationContext));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FHIRBenchmarkRunner(FHIRPathCompiledExpressionBenchmark.class)
+                .run(EXAMPLE_NAME);
+    }
+}
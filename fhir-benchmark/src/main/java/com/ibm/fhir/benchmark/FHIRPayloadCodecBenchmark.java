@@ -0,0 +1,118 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.benchmark;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.Collections;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.ibm.fhir.benchmark.runner.FHIRBenchmarkRunner;
+import com.ibm.fhir.benchmark.util.BenchmarkUtil;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.generator.FHIRGenerator;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodec;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodecs;
+import com.ibm.fhir.persistence.jdbc.codec.ZstdPayloadCodec;
+
+/**
+ * Compares the CPU cost and the stored size of the resource payload codecs.
+ * The "zstd-dict" codec uses a dictionary trained on the spec examples of the same resource type.
+ */
+public class FHIRPayloadCodecBenchmark {
+    private static final String ZSTD_DICT = "zstd-dict";
+
+    @State(Scope.Benchmark)
+    public static class FHIRPayloadCodecState {
+        ResourcePayloadCodec codec;
+        Resource resource;
+        byte[] payload;
+        byte[] buffer = new byte[8192];
+
+        // JMH will inject the value into the annotated field before any Setup method is called.
+        @Param({"patient-example", "observation-example", "bundle-example", "valuesets"})
+        public String exampleName;
+
+        @Param({"gzip", "lz4", "zstd", ZSTD_DICT})
+        public String codecName;
+
+        @Setup
+        public void setUp() throws Exception {
+            if (exampleName == null) {
+                System.err.println("exampleName is null; if you're in Eclipse then make sure annotation processing is on and you've ran 'mvn clean package'.");
+                System.exit(1);
+            }
+            resource = FHIRParser.parser(Format.JSON).parse(new StringReader(BenchmarkUtil.getSpecExample(Format.JSON, exampleName)));
+            String resourceType = resource.getClass().getSimpleName();
+
+            if (ZSTD_DICT.equals(codecName)) {
+                codec = new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL, Collections.singletonMap(resourceType, trainDictionary(resourceType)));
+            } else {
+                codec = ResourcePayloadCodecs.getCodec(codecName);
+            }
+
+            ByteArrayOutputStream json = new ByteArrayOutputStream();
+            FHIRGenerator.generator(Format.JSON, false).generate(resource, json);
+            payload = ResourcePayloadCodecs.encode(codec, resource);
+            System.out.println(exampleName + " (" + resourceType + ") " + codecName + ": json=" + json.size()
+                + " bytes, payload=" + payload.length + " bytes, ratio=" + String.format("%.3f", (double) payload.length / json.size()));
+        }
+
+        /**
+         * Train a dictionary on the spec examples of the passed resource type. Dictionaries are
+         * meant to be trained on data other than what they compress, but the spec offers only a
+         * few examples per type, so the example being compressed is part of the training set.
+         */
+        private byte[] trainDictionary(String resourceType) throws Exception {
+            ZstdDictTrainer trainer = new ZstdDictTrainer(4 * 1024 * 1024, 32 * 1024);
+            int samples = 0;
+            for (String name : BenchmarkUtil.getSpecExampleNames()) {
+                String json = BenchmarkUtil.getSpecExample(Format.JSON, name);
+                if (json.contains("\"resourceType\": \"" + resourceType + "\"") || json.contains("\"resourceType\":\"" + resourceType + "\"")) {
+                    if (!trainer.addSample(json.getBytes("UTF-8"))) {
+                        break;
+                    }
+                    samples++;
+                }
+            }
+            System.out.println("Training " + resourceType + " dictionary on " + samples + " samples");
+            return trainer.trainSamples();
+        }
+    }
+
+    @Benchmark
+    public byte[] benchmarkEncode(FHIRPayloadCodecState state) throws Exception {
+        return ResourcePayloadCodecs.encode(state.codec, state.resource);
+    }
+
+    @Benchmark
+    public long benchmarkDecode(FHIRPayloadCodecState state) throws Exception {
+        // decompression only; parsing the JSON is the same for every codec
+        long count = 0;
+        try (InputStream in = state.codec.decoder(new ByteArrayInputStream(state.payload))) {
+            int n;
+            while ((n = in.read(state.buffer)) > 0) {
+                count += n;
+            }
+        }
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FHIRBenchmarkRunner(FHIRPayloadCodecBenchmark.class).run();
+    }
+}
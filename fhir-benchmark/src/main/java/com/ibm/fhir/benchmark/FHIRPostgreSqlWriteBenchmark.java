@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.benchmark;
+
+import java.io.StringReader;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.Timestamp;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.UUID;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import com.ibm.fhir.benchmark.runner.FHIRBenchmarkRunner;
+import com.ibm.fhir.benchmark.util.BenchmarkUtil;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodecs;
+import com.ibm.fhir.persistence.jdbc.dao.impl.ParameterDAOImpl;
+import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
+import com.ibm.fhir.persistence.jdbc.dto.Resource;
+import com.ibm.fhir.persistence.jdbc.postgresql.PostgreSqlResourceDAO;
+
+/**
+ * Compares the latency of storing a resource in PostgreSQL with the add_any_resource function (a single
+ * round-trip) and with the individual JDBC statements of PostgreSqlResourceDAO.
+ * <br>
+ * Requires a PostgreSQL database with the FHIR schema (and the add_any_resource function) deployed by the
+ * fhir-persistence-schema tool. The connection is configured with the system properties:
+ * <ul>
+ * <li>com.ibm.fhir.benchmark.pg.url (default jdbc:postgresql://localhost:5432/fhirdb?currentSchema=fhirdata)
+ * <li>com.ibm.fhir.benchmark.pg.user (default fhirserver)
+ * <li>com.ibm.fhir.benchmark.pg.password
+ * </ul>
+ * Each invocation stores one resource and commits, so the commit is part of the measured latency.
+ * The resources are stored without search parameters, which are written the same way by both paths. An update
+ * still reads the stored parameter rows to compute the parameter delta (one query, see ParameterDeltaDAO), which
+ * is part of the measured latency of both paths.
+ * <br>
+ * No results are published with this benchmark: the gain of the function depends on the round-trip time to the
+ * database, so it must be run against a database deployed like the target environment. Until it shows a gain,
+ * the server only uses the function when fhirServer/persistence/jdbc/useAddAnyResourceFunction is set to true.
+ */
+public class FHIRPostgreSqlWriteBenchmark {
+    private static final String PROPERTY_URL = "com.ibm.fhir.benchmark.pg.url";
+    private static final String PROPERTY_USER = "com.ibm.fhir.benchmark.pg.user";
+    private static final String PROPERTY_PASSWORD = "com.ibm.fhir.benchmark.pg.password";
+
+    @State(Scope.Thread)
+    public static class FHIRPostgreSqlWriteState {
+        Connection connection;
+        PostgreSqlResourceDAO resourceDao;
+        ParameterDAOImpl parameterDao;
+        String resourceType;
+        byte[] payload;
+        String updateLogicalId;
+        int updateVersion;
+
+        // JMH will inject the value into the annotated field before any Setup method is called.
+        @Param({"function", "statements"})
+        public String writePath;
+
+        @Param({"create", "update"})
+        public String operation;
+
+        @Setup(Level.Trial)
+        public void setUp() throws Exception {
+            if (writePath == null) {
+                System.err.println("writePath is null; if you're in Eclipse then make sure annotation processing is on and you've ran 'mvn clean package'.");
+                System.exit(1);
+            }
+            Properties props = new Properties();
+            props.setProperty("user", System.getProperty(PROPERTY_USER, "fhirserver"));
+            props.setProperty("password", System.getProperty(PROPERTY_PASSWORD, ""));
+            connection = DriverManager.getConnection(System.getProperty(PROPERTY_URL,
+                "jdbc:postgresql://localhost:5432/fhirdb?currentSchema=fhirdata"), props);
+            connection.setAutoCommit(false);
+
+            PostgreSqlResourceDAO.setAddAnyResourceFunctionEnabled("function".equals(writePath));
+            resourceDao = new PostgreSqlResourceDAO(connection);
+            parameterDao = new ParameterDAOImpl(connection);
+
+            com.ibm.fhir.model.resource.Resource resource = FHIRParser.parser(Format.JSON)
+                    .parse(new StringReader(BenchmarkUtil.getSpecExample(Format.JSON, "patient-example")));
+            resourceType = resource.getClass().getSimpleName();
+            payload = ResourcePayloadCodecs.encode(ResourcePayloadCodecs.getCodec(ResourcePayloadCodecs.DEFAULT_CODEC), resource);
+
+            // the resource updated by each invocation of the update benchmark
+            updateLogicalId = UUID.randomUUID().toString();
+            updateVersion = 1;
+            store(updateLogicalId, updateVersion);
+        }
+
+        @TearDown(Level.Trial)
+        public void tearDown() throws Exception {
+            if (connection != null) {
+                connection.rollback();
+                connection.close();
+            }
+        }
+
+        Resource store(String logicalId, int versionId) throws Exception {
+            Resource dto = new Resource();
+            dto.setResourceType(resourceType);
+            dto.setLogicalId(logicalId);
+            dto.setVersionId(versionId);
+            dto.setData(payload);
+            dto.setLastUpdated(new Timestamp(System.currentTimeMillis()));
+            dto.setDeleted(false);
+            Resource result = resourceDao.insert(dto, Collections.<ExtractedParameterValue>emptyList(), parameterDao);
+            connection.commit();
+            return result;
+        }
+    }
+
+    @Benchmark
+    public Resource benchmarkWrite(FHIRPostgreSqlWriteState state) throws Exception {
+        if ("update".equals(state.operation)) {
+            return state.store(state.updateLogicalId, ++state.updateVersion);
+        }
+        return state.store(UUID.randomUUID().toString(), 1);
+    }
+
+    public static void main(String[] args) throws Exception {
+        new FHIRBenchmarkRunner(FHIRPostgreSqlWriteBenchmark.class).run();
+    }
+}
@@ -12,11 +12,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.batch.api.BatchProperty;
 import javax.batch.api.chunk.AbstractItemReader;
@@ -129,11 +131,18 @@ public class ChunkReader extends AbstractItemReader {
         super();
     }
 
-    private void fillChunkDataBuffer(List<Resource> resources) throws Exception {
+    /**
+     * Writes the resources to the chunk data buffer as they are read from the database.
+     * @return the number of resources read
+     */
+    private int fillChunkDataBuffer(Iterator<Resource> resources) throws Exception {
         TransientUserData chunkData = (TransientUserData) jobContext.getTransientUserData();
         int resSubTotal = 0;
+        int resRead = 0;
         if (chunkData != null) {
-            for (Resource res : resources) {
+            while (resources.hasNext()) {
+                Resource res = resources.next();
+                resRead++;
                 if (res == null || (isDoDuplicationCheck && loadedResourceIds.contains(res.getId()))) {
                     continue;
                 }
@@ -165,7 +174,7 @@ public class ChunkReader extends AbstractItemReader {
             logger.warning("fillChunkDataBuffer: chunkData is null, this should never happen!");
             throw new Exception("fillChunkDataBuffer: chunkData is null, this should never happen!");
         }
-
+        return resRead;
     }
 
     @Override
@@ -227,14 +236,24 @@ public class ChunkReader extends AbstractItemReader {
         searchContext = SearchUtil.parseQueryParameters(resourceType, queryParameters);
         searchContext.setPageSize(pageSize);
         searchContext.setPageNumber(pageNum);
-        List<Resource> resources = null;
+        int resourceNum;
         FHIRTransactionHelper txn = new FHIRTransactionHelper(fhirPersistence.getTransaction());
         txn.enroll();
         persistenceContext = FHIRPersistenceContextFactory.createPersistenceContext(null, searchContext);
-        resources = fhirPersistence.search(persistenceContext, resourceType).getResource();
+        // The resources of the page are streamed from the database into the chunk data buffer, so the page
+        // is never held in memory as a whole. The stream must be consumed before the transaction ends.
+        try (Stream<Resource> resources = fhirPersistence.searchStream(persistenceContext, resourceType)) {
+            pageNum++;
+            chunkData = updateChunkData(chunkData, searchContext);
+            resourceNum = fillChunkDataBuffer(resources.iterator());
+        }
         txn.unenroll();
-        pageNum++;
+        logger.fine("readItem: loaded resources number - " + resourceNum);
+
+        return resourceNum;
+    }
 
+    private TransientUserData updateChunkData(TransientUserData chunkData, FHIRSearchContext searchContext) {
         if (chunkData == null) {
             chunkData = new TransientUserData(pageNum, null, new ArrayList<PartETag>(), 1, 0, 0);
             chunkData.setLastPageNum(searchContext.getLastPageNumber());
@@ -248,15 +267,7 @@ public class ChunkReader extends AbstractItemReader {
             chunkData.setIndexOfCurrentTypeFilter(indexOfCurrentTypeFilter);
             chunkData.setLastPageNum(searchContext.getLastPageNumber());
         }
-
-        if (resources != null) {
-            logger.fine("readItem: loaded resources number - " + resources.size());
-            fillChunkDataBuffer(resources);
-        } else {
-            logger.fine("readItem: End of reading!");
-        }
-
-        return resources;
+        return chunkData;
     }
 
     @Override
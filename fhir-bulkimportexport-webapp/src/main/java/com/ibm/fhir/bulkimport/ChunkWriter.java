@@ -7,6 +7,8 @@
 package com.ibm.fhir.bulkimport;
 
 import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
@@ -29,8 +31,10 @@ import com.ibm.fhir.model.resource.OperationOutcome;
 import com.ibm.fhir.model.resource.Resource;
 import com.ibm.fhir.model.util.FHIRUtil;
 import com.ibm.fhir.persistence.FHIRPersistence;
+import com.ibm.fhir.persistence.SingleResourceResult;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.fhir.persistence.exception.FHIRPersistenceBatchRolledBackException;
 import com.ibm.fhir.persistence.helper.FHIRPersistenceHelper;
 import com.ibm.fhir.persistence.helper.FHIRTransactionHelper;
 import com.ibm.fhir.validation.exception.FHIRValidationException;
@@ -182,20 +186,58 @@ public class ChunkWriter extends AbstractItemWriter {
         // This doesn't really start the transaction, because the transaction has already been started by the JavaBatch
         // framework at this time point.
         txn.enroll();
+        List<Resource> resourcesToWrite = new ArrayList<>();
         for (Object objResJsonList : arg0) {
             @SuppressWarnings("unchecked")
             List<Resource> fhirResourceList = (List<Resource>) objResJsonList;
 
             for (Resource fhirResource : fhirResourceList) {
+                processedNum++;
+                // Skip the resources which failed the validation
+                if (!failValidationIds.contains(fhirResource.getId())) {
+                    resourcesToWrite.add(fhirResource);
+                }
+            }
+        }
+
+        List<SingleResourceResult<Resource>> results = null;
+        try {
+            // Write the whole chunk as one batch, which saves most of the database round-trips
+            results = fhirPersistence.updateBatch(persistenceContext, resourcesToWrite);
+        } catch (FHIRPersistenceBatchRolledBackException e) {
+            // Nothing of the batch is left in the transaction, so the resources can be written again one at a time
+            logger.warning("Failed to import the chunk as a batch due to error: " + e.getMessage()
+                    + "; importing the resources one at a time.");
+        } catch (FHIROperationException e) {
+            // Part of the batch may have been written in the transaction, so writing the resources again could
+            // store duplicate versions; fail the chunk, which rolls back the transaction.
+            logger.warning("Failed to import the chunk as a batch due to error: " + e.getMessage());
+            txn.unenroll();
+            throw e;
+        }
+
+        if (results != null) {
+            // When the batch could not be undone on failure (e.g. in a global transaction which doesn't allow a
+            // savepoint), the resources were stored one at a time and the failed ones have unsuccessful results
+            for (SingleResourceResult<Resource> result : results) {
+                if (result.isSuccess()) {
+                    succeededNum++;
+                } else {
+                    failedNum++;
+                }
+                if (Constants.IMPORT_IS_COLLECT_OPERATIONOUTCOMES && result.getOutcome() != null) {
+                    ByteArrayOutputStream bufferStream = result.isSuccess() ? chunkData.getBufferStreamForImport()
+                            : chunkData.getBufferStreamForImportError();
+                    FHIRGenerator.generator(Format.JSON).generate(result.getOutcome(), bufferStream);
+                    bufferStream.write(Constants.NDJSON_LINESEPERATOR);
+                }
+            }
+        } else {
+            // Fall back to writing the resources one at a time, so the failures can be reported per resource
+            for (Resource fhirResource : resourcesToWrite) {
                 try {
-                    String id = fhirResource.getId();
-                    processedNum++;
-                    // Skip the resources which failed the validation
-                    if (failValidationIds.contains(id)) {
-                        continue;
-                    }
                     OperationOutcome operationOutcome =
-                            fhirPersistence.update(persistenceContext, id, fhirResource).getOutcome();
+                            fhirPersistence.update(persistenceContext, fhirResource.getId(), fhirResource).getOutcome();
                     succeededNum++;
                     if (Constants.IMPORT_IS_COLLECT_OPERATIONOUTCOMES && operationOutcome != null) {
                         FHIRGenerator.generator(Format.JSON).generate(operationOutcome, chunkData.getBufferStreamForImport());
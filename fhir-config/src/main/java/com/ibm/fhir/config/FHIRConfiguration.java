@@ -33,6 +33,7 @@ public class FHIRConfiguration {
     public static final String PROPERTY_CHECK_REFERENCE_TYPES = "fhirServer/core/checkReferenceTypes";
     public static final String PROPERTY_CONDITIONAL_DELETE_MAX_NUMBER = "fhirServer/core/conditionalDeleteMaxNumber";
     public static final String PROPERTY_SERVER_REGISTRY_RESOURCE_PROVIDER_ENABLED = "fhirServer/core/serverRegistryResourceProviderEnabled";
+    public static final String PROPERTY_WARM_UP_ENABLED = "fhirServer/core/warmUpEnabled";
 
     public static final String PROPERTY_SEARCH_PARAMETER_FILTER = "fhirServer/searchParameterFilter";
 
@@ -65,9 +66,35 @@ public class FHIRConfiguration {
     public static final String PROPERTY_DATASOURCES = "fhirServer/persistence/datasources";
     public static final String PROPERTY_JDBC_BOOTSTRAP_DB = "fhirServer/persistence/jdbc/bootstrapDb";
     public static final String PROPERTY_JDBC_DATASOURCE_JNDINAME = "fhirServer/persistence/jdbc/dataSourceJndiName";
+    public static final String PROPERTY_JDBC_READ_REPLICA_DATASOURCE_JNDINAME = "fhirServer/persistence/jdbc/readReplicaDataSourceJndiName";
     public static final String PROPERTY_JDBC_ENABLE_CODE_SYSTEMS_CACHE = "fhirServer/persistence/jdbc/enableCodeSystemsCache";
     public static final String PROPERTY_JDBC_ENABLE_PARAMETER_NAMES_CACHE = "fhirServer/persistence/jdbc/enableParameterNamesCache";
     public static final String PROPERTY_JDBC_ENABLE_RESOURCE_TYPES_CACHE = "fhirServer/persistence/jdbc/enableResourceTypesCache";
+    public static final String PROPERTY_JDBC_ENABLE_COMMON_TOKEN_VALUES_CACHE = "fhirServer/persistence/jdbc/enableCommonTokenValuesCache";
+    public static final String PROPERTY_JDBC_COMMON_TOKEN_VALUES_CACHE_SIZE = "fhirServer/persistence/jdbc/commonTokenValuesCacheSize";
+    public static final String PROPERTY_JDBC_ENABLE_RESOURCE_READ_CACHE = "fhirServer/persistence/jdbc/enableResourceReadCache";
+    public static final String PROPERTY_JDBC_RESOURCE_READ_CACHE_SIZE = "fhirServer/persistence/jdbc/resourceReadCacheSize";
+    public static final String PROPERTY_JDBC_ENABLE_KEYSET_PAGINATION = "fhirServer/persistence/jdbc/enableKeysetPagination";
+    public static final String PROPERTY_JDBC_PAYLOAD_CODEC = "fhirServer/persistence/jdbc/payloadCodec";
+    public static final String PROPERTY_JDBC_ZSTD_COMPRESSION_LEVEL = "fhirServer/persistence/jdbc/zstdCompressionLevel";
+    public static final String PROPERTY_JDBC_ZSTD_DICTIONARY_DIR = "fhirServer/persistence/jdbc/zstdDictionaryDir";
+    public static final String PROPERTY_JDBC_EXTRACTION_PARALLELISM = "fhirServer/persistence/jdbc/searchParameterExtractionParallelism";
+    public static final String PROPERTY_JDBC_PARALLEL_EXTRACTION_THRESHOLD = "fhirServer/persistence/jdbc/parallelExtractionThreshold";
+    public static final String PROPERTY_JDBC_QUERY_SHAPE_CACHE_SIZE = "fhirServer/persistence/jdbc/queryShapeCacheSize";
+    public static final String PROPERTY_JDBC_INCLUSION_BATCH_SIZE = "fhirServer/persistence/jdbc/inclusionBatchSize";
+    public static final String PROPERTY_JDBC_ADD_ANY_RESOURCE_FUNCTION = "fhirServer/persistence/jdbc/useAddAnyResourceFunction";
+    public static final String PROPERTY_JDBC_SEQUENCE_BLOCK_SIZE = "fhirServer/persistence/jdbc/sequenceBlockSize";
+    public static final String PROPERTY_JDBC_SKIP_UNCHANGED_UPDATES = "fhirServer/persistence/jdbc/skipUnchangedUpdates";
+    public static final String PROPERTY_JDBC_DATASTORE_CACHE_SIZE = "fhirServer/persistence/jdbc/datastoreCacheSize";
+    public static final String PROPERTY_JDBC_PRELOAD_DATASTORE_CACHE = "fhirServer/persistence/jdbc/preloadDatastoreCache";
+
+    // History retention
+    public static final String PROPERTY_HISTORY_RETENTION_ENABLED = "fhirServer/persistence/historyRetention/enabled";
+    public static final String PROPERTY_HISTORY_RETENTION_INTERVAL_MINUTES = "fhirServer/persistence/historyRetention/intervalMinutes";
+    public static final String PROPERTY_HISTORY_RETENTION_BATCH_SIZE = "fhirServer/persistence/historyRetention/batchSize";
+    public static final String PROPERTY_HISTORY_RETENTION_KEEP_VERSIONS = "fhirServer/persistence/historyRetention/keepVersions";
+    public static final String PROPERTY_HISTORY_RETENTION_KEEP_DAYS = "fhirServer/persistence/historyRetention/keepDays";
+    public static final String PROPERTY_HISTORY_RETENTION_RESOURCE_TYPES = "fhirServer/persistence/historyRetention/resourceTypes";
 
     // fhir-search - Bounding area
     public static final String PROPERTY_SEARCH_BOUNDING_AREA_RADIUS_TYPE = "fhirServer/search/useBoundingRadius";
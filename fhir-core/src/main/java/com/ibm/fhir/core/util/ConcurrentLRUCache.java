@@ -0,0 +1,333 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.core.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+
+/**
+ * A thread-safe cache with approximate Least Recently Used (LRU) eviction
+ *
+ * <p>The entries are held in a {@link ConcurrentHashMap}, so that lookups take no lock. Instead of moving an entry to
+ * the end of a list on each access, a lookup only marks the entry as referenced; when the cache is full, the entries
+ * are swept in insertion order (the "CLOCK" algorithm) and the first entry that was not referenced since the last
+ * sweep is evicted, while the referenced entries it passes get a second chance.
+ *
+ * <p>Unlike a synchronized map, {@link #computeIfAbsent(Object, Function)} does not hold a lock while it computes the
+ * value, so the value of a key may be computed more than once by threads that miss at the same time; the first value
+ * stored wins and is returned to all of them. For values that are expensive to compute,
+ * {@link #computeIfAbsentOnce(Object, Function)} computes the value of a key at most once, while the threads that
+ * miss on the same key wait for it.
+ *
+ * <p>Null keys and values are not supported. The number of hits, misses and evictions are available from
+ * {@link #getStats()}.
+ */
+public class ConcurrentLRUCache<K, V> extends AbstractMap<K, V> {
+    private final int maxEntries;
+    private final ConcurrentHashMap<K, Node<K, V>> map;
+
+    // the entries in insertion order, including some that were since replaced or removed
+    private final ConcurrentLinkedQueue<Node<K, V>> clock = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger clockSize = new AtomicInteger();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * Create a cache
+     *
+     * @param maxEntries
+     *     the maximum number of entries
+     */
+    public ConcurrentLRUCache(int maxEntries) {
+        if (maxEntries < 1) {
+            throw new IllegalArgumentException("maxEntries must be positive");
+        }
+        this.maxEntries = maxEntries;
+        this.map = new ConcurrentHashMap<>(Math.min(maxEntries, 1024));
+    }
+
+    /**
+     * @return
+     *     the maximum number of entries in this cache
+     */
+    public int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * @return
+     *     a snapshot of the hit, miss and eviction counts of this cache
+     */
+    public Stats getStats() {
+        return new Stats(hits.sum(), misses.sum(), evictions.sum());
+    }
+
+    @Override
+    public V get(Object key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return node.access();
+    }
+
+    @Override
+    public V computeIfAbsent(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            hits.increment();
+            return node.access();
+        }
+        misses.increment();
+
+        // compute without holding a lock
+        V value = mappingFunction.apply(key);
+        if (value == null) {
+            return null;
+        }
+        Node<K, V> previous = add(new Node<>(key, value), true);
+        return (previous != null) ? previous.value : value;
+    }
+
+    /**
+     * Like {@link #computeIfAbsent(Object, Function)}, but the value of a key is computed at most once: a thread that
+     * misses on a key while its value is being computed waits for that value instead of computing its own. The
+     * computation holds a lock of the underlying {@link ConcurrentHashMap}, so it must be short enough not to delay
+     * the writers of other keys unduly, and it must not update this cache.
+     *
+     * @param key
+     *     the key
+     * @param mappingFunction
+     *     computes the value of the key
+     * @return
+     *     the current (existing or computed) value of the key, or null if the computed value is null
+     */
+    public V computeIfAbsentOnce(K key, Function<? super K, ? extends V> mappingFunction) {
+        Objects.requireNonNull(mappingFunction);
+        Node<K, V> node = map.get(key);
+        if (node != null) {
+            hits.increment();
+            return node.access();
+        }
+
+        List<Node<K, V>> computed = new ArrayList<>(1);
+        node = map.computeIfAbsent(key, k -> {
+            V value = mappingFunction.apply(k);
+            if (value == null) {
+                return null;
+            }
+            Node<K, V> newNode = new Node<>(k, value);
+            computed.add(newNode);
+            return newNode;
+        });
+        if (computed.isEmpty()) {
+            if (node == null) {
+                misses.increment();
+                return null;
+            }
+            // computed by another thread meanwhile
+            hits.increment();
+            return node.access();
+        }
+        misses.increment();
+        addToClock(node);
+        return node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key) {
+        return map.containsKey(key);
+    }
+
+    @Override
+    public V put(K key, V value) {
+        Node<K, V> previous = add(new Node<>(key, Objects.requireNonNull(value)), false);
+        return (previous != null) ? previous.value : null;
+    }
+
+    @Override
+    public V putIfAbsent(K key, V value) {
+        Node<K, V> previous = add(new Node<>(key, Objects.requireNonNull(value)), true);
+        return (previous != null) ? previous.access() : null;
+    }
+
+    @Override
+    public V remove(Object key) {
+        // the node is left in the clock and skipped by the next sweep
+        Node<K, V> node = map.remove(key);
+        return (node != null) ? node.value : null;
+    }
+
+    @Override
+    public int size() {
+        return map.size();
+    }
+
+    @Override
+    public void clear() {
+        synchronized (clock) {
+            map.clear();
+            clock.clear();
+            clockSize.set(0);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     *
+     * <p>The returned set is an unmodifiable snapshot of the entries of this cache
+     */
+    @Override
+    public Set<Map.Entry<K, V>> entrySet() {
+        Map<K, V> snapshot = new HashMap<>();
+        for (Node<K, V> node : map.values()) {
+            snapshot.put(node.key, node.value);
+        }
+        return Collections.unmodifiableMap(snapshot).entrySet();
+    }
+
+    /**
+     * Add the node to the map and the clock, and evict entries if the cache is full
+     *
+     * @return
+     *     the node previously mapped to the key of the node, if any
+     */
+    private Node<K, V> add(Node<K, V> node, boolean onlyIfAbsent) {
+        Node<K, V> previous = onlyIfAbsent ? map.putIfAbsent(node.key, node) : map.put(node.key, node);
+        if (onlyIfAbsent && previous != null) {
+            return previous;
+        }
+        addToClock(node);
+        return previous;
+    }
+
+    /**
+     * Add a node, just added to the map, to the clock, and evict entries if the cache is full
+     */
+    private void addToClock(Node<K, V> node) {
+        clock.offer(node);
+        clockSize.incrementAndGet();
+        if (map.size() > maxEntries || clockSize.get() > 2 * maxEntries) {
+            evict();
+        }
+    }
+
+    private void evict() {
+        synchronized (clock) {
+            // give each node at most one second chance per sweep, even if it is referenced again meanwhile
+            int secondChances = clockSize.get();
+            while (map.size() > maxEntries || clockSize.get() > 2 * maxEntries) {
+                Node<K, V> node = clock.poll();
+                if (node == null) {
+                    break;
+                }
+                clockSize.decrementAndGet();
+                if (map.get(node.key) != node) {
+                    // replaced or removed
+                    continue;
+                }
+                if (node.referenced && secondChances-- > 0) {
+                    node.referenced = false;
+                    clock.offer(node);
+                    clockSize.incrementAndGet();
+                    continue;
+                }
+                if (map.remove(node.key, node)) {
+                    evictions.increment();
+                }
+            }
+        }
+    }
+
+    private static final class Node<K, V> {
+        private final K key;
+        private final V value;
+        private volatile boolean referenced;
+
+        private Node(K key, V value) {
+            this.key = key;
+            this.value = value;
+        }
+
+        private V access() {
+            if (!referenced) {
+                // only written once between sweeps
+                referenced = true;
+            }
+            return value;
+        }
+    }
+
+    /**
+     * An immutable snapshot of the statistics of a cache
+     */
+    public static final class Stats {
+        private final long hits;
+        private final long misses;
+        private final long evictions;
+
+        private Stats(long hits, long misses, long evictions) {
+            this.hits = hits;
+            this.misses = misses;
+            this.evictions = evictions;
+        }
+
+        /**
+         * @return
+         *     the number of lookups that found a value
+         */
+        public long getHits() {
+            return hits;
+        }
+
+        /**
+         * @return
+         *     the number of lookups that did not find a value
+         */
+        public long getMisses() {
+            return misses;
+        }
+
+        /**
+         * @return
+         *     the number of entries evicted to make room for new ones
+         */
+        public long getEvictions() {
+            return evictions;
+        }
+
+        /**
+         * @return
+         *     the ratio of hits to lookups, or 0 if there were no lookups
+         */
+        public double getHitRate() {
+            long lookups = hits + misses;
+            return (lookups == 0) ? 0.0 : (double) hits / lookups;
+        }
+
+        @Override
+        public String toString() {
+            return "hits=" + hits + ", misses=" + misses + ", evictions=" + evictions;
+        }
+    }
+}
@@ -0,0 +1,146 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.core.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.core.util.ConcurrentLRUCache;
+
+public class ConcurrentLRUCacheTest {
+
+    @Test
+    public void testLeastRecentlyUsedIsEvicted() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(2);
+        cache.put("a", 1);
+        cache.put("b", 2);
+        assertEquals(cache.get("a"), Integer.valueOf(1));
+        cache.put("c", 3);
+
+        assertEquals(cache.size(), 2);
+        assertTrue(cache.containsKey("a"));
+        assertFalse(cache.containsKey("b"));
+        assertTrue(cache.containsKey("c"));
+        assertEquals(cache.getStats().getEvictions(), 1);
+    }
+
+    @Test
+    public void testStats() {
+        ConcurrentLRUCache<String, String> cache = new ConcurrentLRUCache<>(16);
+        assertEquals(cache.computeIfAbsent("a", k -> k.toUpperCase()), "A");
+        assertEquals(cache.computeIfAbsent("a", k -> k.toUpperCase()), "A");
+        assertEquals(cache.get("a"), "A");
+        assertNull(cache.get("b"));
+        assertNull(cache.computeIfAbsent("b", k -> null));
+        assertFalse(cache.containsKey("b"));
+
+        ConcurrentLRUCache.Stats stats = cache.getStats();
+        assertEquals(stats.getHits(), 2);
+        assertEquals(stats.getMisses(), 3);
+        assertEquals(stats.getEvictions(), 0);
+        assertEquals(stats.getHitRate(), 0.4, 0.0001);
+    }
+
+    @Test
+    public void testComputeIfAbsentOnce() throws Exception {
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(100);
+        AtomicInteger computations = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<Integer>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    start.await();
+                    return cache.computeIfAbsentOnce(1, k -> {
+                        computations.incrementAndGet();
+                        try {
+                            Thread.sleep(50);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return k * 2;
+                    });
+                }));
+            }
+            start.countDown();
+            for (Future<Integer> future : futures) {
+                assertEquals(future.get(), Integer.valueOf(2));
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(computations.get(), 1);
+        ConcurrentLRUCache.Stats stats = cache.getStats();
+        assertEquals(stats.getMisses(), 1);
+        assertEquals(stats.getHits(), 7);
+
+        assertNull(cache.computeIfAbsentOnce(2, k -> null));
+        assertFalse(cache.containsKey(2));
+
+        // evicts like the other insertions
+        for (int i = 3; i < 200; i++) {
+            cache.computeIfAbsentOnce(i, k -> k);
+        }
+        assertTrue(cache.size() <= 100);
+        assertTrue(cache.getStats().getEvictions() > 0);
+    }
+
+    @Test
+    public void testMapOperations() {
+        ConcurrentLRUCache<String, Integer> cache = new ConcurrentLRUCache<>(100);
+        for (int i = 0; i < 10; i++) {
+            cache.put(Integer.toString(i), i);
+        }
+        assertEquals(cache.size(), 10);
+        assertEquals(cache.entrySet().size(), 10);
+        assertEquals(cache.putIfAbsent("0", 100), Integer.valueOf(0));
+        assertEquals(cache.remove("0"), Integer.valueOf(0));
+        assertEquals(cache.size(), 9);
+        cache.clear();
+        assertTrue(cache.isEmpty());
+    }
+
+    @Test
+    public void testConcurrentAccessIsBounded() throws Exception {
+        ConcurrentLRUCache<Integer, Integer> cache = new ConcurrentLRUCache<>(100);
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < 8; t++) {
+                futures.add(executor.submit(() -> {
+                    for (int i = 0; i < 10000; i++) {
+                        int key = ThreadLocalRandom.current().nextInt(1000);
+                        assertEquals(cache.computeIfAbsent(key, k -> k * 2), Integer.valueOf(key * 2));
+                    }
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertTrue(cache.size() <= 100);
+        ConcurrentLRUCache.Stats stats = cache.getStats();
+        assertEquals(stats.getHits() + stats.getMisses(), 80000);
+        assertTrue(stats.getEvictions() > 0);
+    }
+}
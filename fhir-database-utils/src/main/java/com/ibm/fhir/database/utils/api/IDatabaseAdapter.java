@@ -6,6 +6,7 @@
 
 package com.ibm.fhir.database.utils.api;
 
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.List;
 import java.util.function.Supplier;
@@ -78,6 +79,35 @@ public interface IDatabaseAdapter {
     public void createTable(String schemaName, String name, String tenantColumnName, List<ColumnBase> columns,
             PrimaryKeyDef primaryKey, IdentityDef identity, String tablespaceName);
 
+    /**
+     * Build the create table DDL for a table partitioned by ranges of the values of the given
+     * column. Targets which don't support range partitioning create a regular table.
+     *
+     * @param schemaName
+     * @param name
+     * @param tenantColumnName optional column name to enable multi-tenancy
+     * @param columns
+     * @param primaryKey
+     * @param identity
+     * @param tablespaceName
+     * @param partitionColumn the column whose values determine the partition of each row
+     */
+    public void createRangePartitionedTable(String schemaName, String name, String tenantColumnName, List<ColumnBase> columns,
+            PrimaryKeyDef primaryKey, IdentityDef identity, String tablespaceName, String partitionColumn);
+
+    /**
+     * Add a partition to a range-partitioned table, holding the rows with a partition column value
+     * from the given lower bound (inclusive) to the given upper bound (exclusive). Nothing is done
+     * if the partition already exists.
+     *
+     * @param schemaName
+     * @param tableName
+     * @param partitionName
+     * @param from
+     * @param to
+     */
+    public void createRangePartition(String schemaName, String tableName, String partitionName, Timestamp from, Timestamp to);
+
     /**
      * Create ROW type used for passing values to stored procedures e.g.:
      *
@@ -9,6 +9,7 @@ package com.ibm.fhir.database.utils.common;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
@@ -160,6 +161,21 @@ public abstract class CommonDatabaseAdapter implements IDatabaseAdapter, IDataba
         return result.toString();
     }
 
+    @Override
+    public void createRangePartitionedTable(String schemaName, String name, String tenantColumnName, List<ColumnBase> columns,
+            PrimaryKeyDef primaryKey, IdentityDef identity, String tablespaceName, String partitionColumn) {
+        // Range partitioning is only supported by some targets, so the default is a regular table
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine("Range partitioning by " + partitionColumn + " not supported, creating regular table: " + name);
+        }
+        createTable(schemaName, name, tenantColumnName, columns, primaryKey, identity, tablespaceName);
+    }
+
+    @Override
+    public void createRangePartition(String schemaName, String tableName, String partitionName, Timestamp from, Timestamp to) {
+        logger.warning("Range partitions not supported, skipping partition: " + partitionName);
+    }
+
     @Override
     public void createUniqueIndex(String schemaName, String tableName, String indexName, String tenantColumnName,
         List<String> indexColumns, List<String> includeColumns) {
@@ -0,0 +1,101 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.database.utils.common;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.ibm.fhir.database.utils.api.IDatabaseStatement;
+import com.ibm.fhir.database.utils.api.IDatabaseTranslator;
+
+/**
+ * Create a (non-unique) index on schema.table. Used by table migrations which
+ * replace an existing index.
+ */
+public class CreateIndexStatement implements IDatabaseStatement {
+    private final String schemaName;
+    private final String indexName;
+    private final String tableName;
+    private final String tenantColumnName;
+    private final List<String> indexColumns;
+
+    /**
+     * Public constructor
+     * @param schemaName
+     * @param indexName
+     * @param tableName
+     * @param tenantColumnName optional tenant column name, which is prefixed to the index columns
+     * @param indexColumns
+     */
+    public CreateIndexStatement(String schemaName, String indexName, String tableName, String tenantColumnName, String... indexColumns) {
+        DataDefinitionUtil.assertValidName(schemaName);
+        DataDefinitionUtil.assertValidName(indexName);
+        DataDefinitionUtil.assertValidName(tableName);
+        this.schemaName = schemaName;
+        this.indexName = indexName;
+        this.tableName = tableName;
+        this.tenantColumnName = tenantColumnName;
+        this.indexColumns = Arrays.asList(indexColumns);
+    }
+
+    @Override
+    public void run(IDatabaseTranslator translator, Connection c) {
+        // Add the tenant column as a prefix to the list of columns if we have a multi-tenant table
+        List<String> cols = new ArrayList<>(indexColumns.size() + 1);
+        if (tenantColumnName != null) {
+            cols.add(tenantColumnName);
+        }
+        cols.addAll(indexColumns);
+        final String ddl = DataDefinitionUtil.createIndex(schemaName, tableName, indexName, cols, true);
+
+        try (Statement s = c.createStatement()) {
+            s.executeUpdate(ddl);
+        }
+        catch (SQLException x) {
+            throw translator.translate(x);
+        }
+    }
+
+    /**
+     * @return the schemaName
+     */
+    public String getSchemaName() {
+        return schemaName;
+    }
+
+    /**
+     * @return the indexName
+     */
+    public String getIndexName() {
+        return indexName;
+    }
+
+    /**
+     * @return the tableName
+     */
+    public String getTableName() {
+        return tableName;
+    }
+
+    /**
+     * @return the tenantColumnName
+     */
+    public String getTenantColumnName() {
+        return tenantColumnName;
+    }
+
+    /**
+     * @return the indexColumns
+     */
+    public List<String> getIndexColumns() {
+        return indexColumns;
+    }
+}
@@ -19,6 +19,7 @@ import com.ibm.fhir.database.utils.api.IDatabaseStatement;
 import com.ibm.fhir.database.utils.api.IDatabaseTarget;
 import com.ibm.fhir.database.utils.common.AddForeignKeyConstraint;
 import com.ibm.fhir.database.utils.common.CommonDatabaseAdapter;
+import com.ibm.fhir.database.utils.common.CreateIndexStatement;
 import com.ibm.fhir.database.utils.common.DataDefinitionUtil;
 import com.ibm.fhir.database.utils.model.ColumnBase;
 import com.ibm.fhir.database.utils.model.ForeignKeyConstraint;
@@ -249,6 +250,11 @@ public class DerbyAdapter extends CommonDatabaseAdapter {
                     constraint.getTargetSchema(), constraint.getTargetTable(),
                     afk.getTenantColumnName(), constraint.getColumns(), constraint.isEnforced());
             }
+        } else if (stmt instanceof CreateIndexStatement) {
+            // route through createIndex so the tenant column is handled the same way as for new tables
+            CreateIndexStatement cis = (CreateIndexStatement) stmt;
+            createIndex(cis.getSchemaName(), cis.getTableName(), cis.getIndexName(), cis.getTenantColumnName(),
+                cis.getIndexColumns());
         } else {
             super.runStatement(stmt);
         }
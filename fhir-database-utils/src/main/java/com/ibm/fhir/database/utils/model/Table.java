@@ -47,6 +47,9 @@ public class Table extends BaseObject {
     // The column to use when making this table multi-tenant (if supported by the the target)
     private final String tenantColumnName;
 
+    // The column used to partition this table by range (if supported by the target)
+    private final String rangePartitionColumn;
+
     /**
      * Public constructor
      *
@@ -69,8 +72,37 @@ public class Table extends BaseObject {
             IdentityDef identity, Collection<IndexDef> indexes, Collection<ForeignKeyConstraint> fkConstraints,
             SessionVariableDef accessControlVar, Tablespace tablespace, List<IDatabaseObject> dependencies, Map<String,String> tags,
             Collection<GroupPrivilege> privileges, List<Migration> migrations) {
+        this(schemaName, name, version, tenantColumnName, columns, pk, identity, indexes, fkConstraints, accessControlVar, tablespace,
+            dependencies, tags, privileges, migrations, null);
+    }
+
+    /**
+     * Public constructor
+     *
+     * @param schemaName
+     * @param name
+     * @param version
+     * @param tenantColumnName
+     * @param columns
+     * @param pk
+     * @param identity
+     * @param indexes
+     * @param fkConstraints
+     * @param accessControlVar
+     * @param tablespace
+     * @param dependencies
+     * @param tags
+     * @param privileges
+     * @param migrations
+     * @param rangePartitionColumn
+     */
+    public Table(String schemaName, String name, int version, String tenantColumnName, Collection<ColumnBase> columns, PrimaryKeyDef pk,
+            IdentityDef identity, Collection<IndexDef> indexes, Collection<ForeignKeyConstraint> fkConstraints,
+            SessionVariableDef accessControlVar, Tablespace tablespace, List<IDatabaseObject> dependencies, Map<String,String> tags,
+            Collection<GroupPrivilege> privileges, List<Migration> migrations, String rangePartitionColumn) {
         super(schemaName, name, DatabaseObjectType.TABLE, version, migrations);
         this.tenantColumnName = tenantColumnName;
+        this.rangePartitionColumn = rangePartitionColumn;
         this.columns.addAll(columns);
         this.primaryKey = pk;
         this.identity = identity;
@@ -109,10 +141,23 @@ public class Table extends BaseObject {
         return this.tenantColumnName;
     }
 
+    /**
+     * Getter for the optional range partition column name
+     * @return
+     */
+    public String getRangePartitionColumn() {
+        return this.rangePartitionColumn;
+    }
+
     @Override
     public void apply(IDatabaseAdapter target) {
         final String tsName = this.tablespace == null ? null : this.tablespace.getName();
-        target.createTable(getSchemaName(), getObjectName(), this.tenantColumnName, this.columns, this.primaryKey, this.identity, tsName);
+        if (this.rangePartitionColumn != null) {
+            target.createRangePartitionedTable(getSchemaName(), getObjectName(), this.tenantColumnName, this.columns, this.primaryKey,
+                this.identity, tsName, this.rangePartitionColumn);
+        } else {
+            target.createTable(getSchemaName(), getObjectName(), this.tenantColumnName, this.columns, this.primaryKey, this.identity, tsName);
+        }
 
         // Now add any indexes associated with this table
         for (IndexDef idx: this.indexes) {
@@ -207,6 +252,9 @@ public class Table extends BaseObject {
         // Is this table multi-tenant when supported?
         private String tenantColumnName;
 
+        // Is this table partitioned by range when supported?
+        private String rangePartitionColumn;
+
         // A map of tags
         private Map<String,String> tags = new HashMap<>();
 
@@ -552,7 +600,8 @@ public class Table extends BaseObject {
             // Our schema objects are immutable by design, so all initialization takes place
             // through the constructor
             return new Table(getSchemaName(), getObjectName(), this.version, this.tenantColumnName, buildColumns(), this.primaryKey, this.identity, this.indexes.values(),
-                    this.fkConstraints.values(), this.accessControlVar, this.tablespace, allDependencies, tags, privileges, migrations);
+                    this.fkConstraints.values(), this.accessControlVar, this.tablespace, allDependencies, tags, privileges, migrations,
+                    this.rangePartitionColumn);
 
         }
 
@@ -662,6 +711,19 @@ public class Table extends BaseObject {
             return this;
         }
 
+        /**
+         * Setter to partition this table by ranges of the values of the given column. Range partitioning
+         * depends on the target...which in this case means PostgreSql supports it, but Db2 and Derby
+         * create a regular table. The primary key and unique indexes must include the partition column.
+         * @param columnName
+         * @return
+         */
+        public Builder setRangePartitionColumn(String columnName) {
+            checkColumns(new String[] { columnName });
+            this.rangePartitionColumn = columnName;
+            return this;
+        }
+
         @Override
         public Builder addMigration(Migration... migration) {
             super.addMigration(migration);
@@ -6,6 +6,7 @@
 
 package com.ibm.fhir.database.utils.postgresql;
 
+import java.sql.Timestamp;
 import java.util.Collection;
 import java.util.List;
 import java.util.Set;
@@ -19,6 +20,7 @@ import com.ibm.fhir.database.utils.api.IDatabaseStatement;
 import com.ibm.fhir.database.utils.api.IDatabaseTarget;
 import com.ibm.fhir.database.utils.common.AddForeignKeyConstraint;
 import com.ibm.fhir.database.utils.common.CommonDatabaseAdapter;
+import com.ibm.fhir.database.utils.common.CreateIndexStatement;
 import com.ibm.fhir.database.utils.common.DataDefinitionUtil;
 import com.ibm.fhir.database.utils.model.ColumnBase;
 import com.ibm.fhir.database.utils.model.ForeignKeyConstraint;
@@ -92,6 +94,33 @@ public class PostgreSqlAdapter extends CommonDatabaseAdapter {
         runStatement(ddl);
     }
 
+    @Override
+    public void createRangePartitionedTable(String schemaName, String name, String tenantColumnName, List<ColumnBase> columns,
+            PrimaryKeyDef primaryKey, IdentityDef identity, String tablespaceName, String partitionColumn) {
+        if (tenantColumnName != null) {
+            warnOnce(MessageKey.MULTITENANCY, "PostgreSql does support not multi-tenancy: " + name);
+        }
+        DataDefinitionUtil.assertValidName(partitionColumn);
+
+        // The primary key (and any unique index) must include the partition column
+        String ddl = buildCreateTableStatement(schemaName, name, columns, primaryKey, identity, null)
+                + " PARTITION BY RANGE (" + partitionColumn + ")";
+        runStatement(ddl);
+
+        // Rows outside the ranges of the partitions added later go to the default partition
+        final String defaultPartition = DataDefinitionUtil.getQualifiedName(schemaName, name + "_DEFAULT");
+        runStatement("CREATE TABLE " + defaultPartition + " PARTITION OF " + DataDefinitionUtil.getQualifiedName(schemaName, name) + " DEFAULT");
+    }
+
+    @Override
+    public void createRangePartition(String schemaName, String tableName, String partitionName, Timestamp from, Timestamp to) {
+        // The bounds are our own timestamps, so it is safe to use them as literals
+        final String ddl = "CREATE TABLE IF NOT EXISTS " + DataDefinitionUtil.getQualifiedName(schemaName, partitionName)
+                + " PARTITION OF " + DataDefinitionUtil.getQualifiedName(schemaName, tableName)
+                + " FOR VALUES FROM ('" + from.toString() + "') TO ('" + to.toString() + "')";
+        runStatement(ddl);
+    }
+
     @Override
     public void createUniqueIndex(String schemaName, String tableName, String indexName, String tenantColumnName, List<String> indexColumns,
             List<String> includeColumns) {
@@ -158,6 +187,32 @@ public class PostgreSqlAdapter extends CommonDatabaseAdapter {
         warnOnce(MessageKey.DROP_PROC, "Drop procedure not supported in PostgreSql");
     }
 
+    /**
+     * Create or replace the PL/pgSQL function. The procedures of the model are written for Db2, so
+     * PostgreSql functions are not part of the model and are applied separately.
+     * @param schemaName
+     * @param functionName
+     * @param supplier provides the function definition, starting with its parameter list
+     */
+    public void createOrReplaceFunction(String schemaName, String functionName, Supplier<String> supplier) {
+        final String objectName = DataDefinitionUtil.getQualifiedName(schemaName, functionName);
+        logger.info("Create or replace function " + objectName);
+
+        // Build the create function DDL and apply it
+        final StringBuilder ddl = new StringBuilder();
+        ddl.append("CREATE OR REPLACE FUNCTION ");
+        ddl.append(objectName);
+        ddl.append(System.lineSeparator());
+        ddl.append(supplier.get());
+
+        final String ddlString = ddl.toString();
+        if (logger.isLoggable(Level.FINE)) {
+            logger.fine(ddlString);
+        }
+
+        runStatement(ddlString);
+    }
+
     @Override
     public void createTablespace(String tablespaceName) {
         warnOnce(MessageKey.TABLESPACE, "Create tablespace not supported in PostgreSql");
@@ -252,6 +307,11 @@ public class PostgreSqlAdapter extends CommonDatabaseAdapter {
                     constraint.getTargetSchema(), constraint.getTargetTable(),
                     afk.getTenantColumnName(), constraint.getColumns(), constraint.isEnforced());
             }
+        } else if (stmt instanceof CreateIndexStatement) {
+            // route through createIndex so the tenant column is handled the same way as for new tables
+            CreateIndexStatement cis = (CreateIndexStatement) stmt;
+            createIndex(cis.getSchemaName(), cis.getTableName(), cis.getIndexName(), cis.getTenantColumnName(),
+                cis.getIndexColumns());
         } else {
             super.runStatement(stmt);
         }
@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.database.utils.postgresql;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.database.utils.api.IDatabaseStatement;
+import com.ibm.fhir.database.utils.api.IDatabaseSupplier;
+import com.ibm.fhir.database.utils.api.IDatabaseTarget;
+import com.ibm.fhir.database.utils.api.IDatabaseTranslator;
+import com.ibm.fhir.database.utils.model.PhysicalDataModel;
+import com.ibm.fhir.database.utils.model.Table;
+
+/**
+ * Tests the DDL generated for PostgreSql range-partitioned tables
+ */
+public class PostgreSqlRangePartitionTest {
+    private static final String schemaName = "SCHEMA1";
+    private static final String tableName = "TABLE1";
+
+    /**
+     * Collects the DDL statements instead of running them
+     */
+    private static class CollectingTarget implements IDatabaseTarget {
+        final List<String> statements = new ArrayList<>();
+
+        @Override
+        public void runStatement(IDatabaseTranslator translator, String ddl) {
+            statements.add(ddl);
+        }
+
+        @Override
+        public void runStatementWithInt(IDatabaseTranslator translator, String sql, int value) {
+            statements.add(sql);
+        }
+
+        @Override
+        public void runStatement(IDatabaseTranslator translator, IDatabaseStatement statement) {
+            // not used by these tests
+        }
+
+        @Override
+        public <T> T runStatement(IDatabaseTranslator translator, IDatabaseSupplier<T> supplier) {
+            return null;
+        }
+    }
+
+    private Table buildTable(boolean partitioned) {
+        Table.Builder builder = Table.builder(schemaName, tableName)
+                .addBigIntColumn("RESOURCE_ID", false)
+                .addTimestampColumn("LAST_UPDATED", false);
+        if (partitioned) {
+            builder.addPrimaryKey(tableName + "_PK", "RESOURCE_ID", "LAST_UPDATED")
+                   .setRangePartitionColumn("LAST_UPDATED");
+        } else {
+            builder.addPrimaryKey(tableName + "_PK", "RESOURCE_ID");
+        }
+        return builder.build(new PhysicalDataModel());
+    }
+
+    @Test
+    public void testPartitionedTable() {
+        CollectingTarget target = new CollectingTarget();
+        Table table = buildTable(true);
+        assertEquals(table.getRangePartitionColumn(), "LAST_UPDATED");
+
+        table.apply(new PostgreSqlAdapter(target));
+        assertEquals(target.statements.size(), 2);
+        assertTrue(target.statements.get(0).startsWith("CREATE TABLE " + schemaName + "." + tableName + "("));
+        assertTrue(target.statements.get(0).endsWith(" PRIMARY KEY (RESOURCE_ID, LAST_UPDATED)) PARTITION BY RANGE (LAST_UPDATED)"));
+        assertEquals(target.statements.get(1), "CREATE TABLE " + schemaName + "." + tableName + "_DEFAULT PARTITION OF "
+                + schemaName + "." + tableName + " DEFAULT");
+    }
+
+    @Test
+    public void testRegularTable() {
+        CollectingTarget target = new CollectingTarget();
+        buildTable(false).apply(new PostgreSqlAdapter(target));
+        assertEquals(target.statements.size(), 1);
+        assertTrue(target.statements.get(0).endsWith(" PRIMARY KEY (RESOURCE_ID))"));
+    }
+
+    @Test
+    public void testRangePartition() {
+        CollectingTarget target = new CollectingTarget();
+        new PostgreSqlAdapter(target).createRangePartition(schemaName, tableName, tableName + "_P202001",
+            Timestamp.valueOf("2020-01-01 00:00:00"), Timestamp.valueOf("2020-02-01 00:00:00"));
+        assertEquals(target.statements.size(), 1);
+        assertEquals(target.statements.get(0), "CREATE TABLE IF NOT EXISTS " + schemaName + "." + tableName + "_P202001 PARTITION OF "
+                + schemaName + "." + tableName + " FOR VALUES FROM ('2020-01-01 00:00:00.0') TO ('2020-02-01 00:00:00.0')");
+    }
+
+    @Test(expectedExceptions = IllegalArgumentException.class)
+    public void testInvalidPartitionColumn() {
+        Table.builder(schemaName, tableName)
+            .addBigIntColumn("RESOURCE_ID", false)
+            .setRangePartitionColumn("LAST_UPDATED");
+    }
+}
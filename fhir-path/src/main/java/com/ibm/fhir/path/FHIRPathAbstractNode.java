@@ -9,7 +9,9 @@ package com.ibm.fhir.path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Objects;
+import java.util.function.Supplier;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -18,14 +20,19 @@ public abstract class FHIRPathAbstractNode implements FHIRPathNode {
     protected final String path;
     protected final FHIRPathType type;
     protected final FHIRPathSystemValue value;
-    protected final Collection<FHIRPathNode> children;
+    protected volatile Collection<FHIRPathNode> children;
+    private final Supplier<Collection<FHIRPathNode>> childrenSupplier;
+    private volatile ChildIndex childIndex;
     
     protected FHIRPathAbstractNode(Builder builder) {
         name = builder.name;
         path = builder.path;
         type = Objects.requireNonNull(builder.type);
         value = builder.value;
-        children = Collections.unmodifiableCollection(builder.children);
+        childrenSupplier = builder.childrenSupplier;
+        if (childrenSupplier == null) {
+            children = Collections.unmodifiableCollection(builder.children);
+        }
     }
     
     @Override
@@ -55,7 +62,34 @@ public abstract class FHIRPathAbstractNode implements FHIRPathNode {
     
     @Override
     public Collection<FHIRPathNode> children() {
-        return children;
+        Collection<FHIRPathNode> result = children;
+        if (result == null) {
+            // the children of a node in a lazy FHIRPathTree are materialized (once) on first access
+            synchronized (this) {
+                result = children;
+                if (result == null) {
+                    result = Collections.unmodifiableCollection(childrenSupplier.get());
+                    children = result;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * {@inheritDoc}
+     * 
+     * <p>The children are indexed by name on first access
+     */
+    @Override
+    public Collection<FHIRPathNode> children(String name) {
+        ChildIndex index = childIndex;
+        if (index == null) {
+            // the index is immutable, so concurrent (duplicate) initialization is harmless
+            index = new ChildIndex(children());
+            childIndex = index;
+        }
+        return index.get(name);
     }
     
     @Override
@@ -78,6 +112,45 @@ public abstract class FHIRPathAbstractNode implements FHIRPathNode {
         return nodeType.cast(this);
     }
     
+    /**
+     * The children of a node grouped by name. The model visits the elements of a resource or element in the order of
+     * their declaration (see {@link com.ibm.fhir.model.util.ModelSupport#getElementInfo(Class)}), so the children with
+     * the same name are adjacent and the index is a short list of runs that is scanned without hashing.
+     */
+    private static final class ChildIndex {
+        private final String[] names;
+        private final List<List<FHIRPathNode>> groups;
+        
+        private ChildIndex(Collection<FHIRPathNode> children) {
+            List<String> names = new ArrayList<>();
+            List<List<FHIRPathNode>> groups = new ArrayList<>();
+            for (FHIRPathNode child : children) {
+                int last = names.size() - 1;
+                int index = (last != -1 && Objects.equals(names.get(last), child.name())) ? last : names.indexOf(child.name());
+                if (index == -1) {
+                    names.add(child.name());
+                    groups.add(new ArrayList<>());
+                    index = last + 1;
+                }
+                groups.get(index).add(child);
+            }
+            for (int i = 0; i < groups.size(); i++) {
+                groups.set(i, Collections.unmodifiableList(groups.get(i)));
+            }
+            this.names = names.toArray(new String[names.size()]);
+            this.groups = groups;
+        }
+        
+        private Collection<FHIRPathNode> get(String name) {
+            for (int i = 0; i < names.length; i++) {
+                if (Objects.equals(names[i], name)) {
+                    return groups.get(i);
+                }
+            }
+            return Collections.emptyList();
+        }
+    }
+    
     /**
      * Convert this {@link FHIRPathNode} instance into a {@link FHIRPathNode.Builder} instance
      * 
@@ -95,6 +168,7 @@ public abstract class FHIRPathAbstractNode implements FHIRPathNode {
         protected String path;
         protected FHIRPathSystemValue value;
         protected Collection<FHIRPathNode> children = new ArrayList<>();
+        Supplier<Collection<FHIRPathNode>> childrenSupplier;
         
         protected Builder(FHIRPathType type) {
             super();
@@ -135,6 +209,20 @@ public abstract class FHIRPathAbstractNode implements FHIRPathNode {
             return this;
         }
         
+        /**
+         * Supply the children of the node on first access instead of at build time; the supplied children
+         * replace any children added to this builder
+         * 
+         * @param childrenSupplier
+         *     the supplier of the children
+         * @return
+         *     this builder
+         */
+        Builder children(Supplier<Collection<FHIRPathNode>> childrenSupplier) {
+            this.childrenSupplier = childrenSupplier;
+            return this;
+        }
+        
         @Override
         public abstract FHIRPathNode build();
     }
@@ -6,7 +6,10 @@
 
 package com.ibm.fhir.path;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.Objects;
 import java.util.stream.Stream;
 
 import com.ibm.fhir.path.visitor.FHIRPathNodeVisitor;
@@ -68,6 +71,25 @@ public interface FHIRPathNode extends Comparable<FHIRPathNode> {
      */
     Collection<FHIRPathNode> children();
     
+    /**
+     * The child nodes of this FHIRPathNode with the given name
+     * 
+     * @param name
+     *     the name
+     * @return
+     *     a collection of the child nodes of this FHIRPathNode with the given name, in the order of {@link #children()},
+     *     otherwise empty collection
+     */
+    default Collection<FHIRPathNode> children(String name) {
+        List<FHIRPathNode> result = new ArrayList<>();
+        for (FHIRPathNode child : children()) {
+            if (Objects.equals(name, child.name())) {
+                result.add(child);
+            }
+        }
+        return result;
+    }
+    
     /**
      * A stream-based view of this FHIRPathNode and all of its descendants
      * 
@@ -12,28 +12,41 @@ import java.time.LocalTime;
 import java.time.Year;
 import java.time.YearMonth;
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Stack;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.ibm.fhir.model.resource.Resource;
 import com.ibm.fhir.model.type.Element;
 import com.ibm.fhir.model.type.Quantity;
+import com.ibm.fhir.model.util.ModelSupport;
+import com.ibm.fhir.model.visitor.DefaultVisitor;
 import com.ibm.fhir.model.visitor.PathAwareVisitor;
+import com.ibm.fhir.model.visitor.Visitable;
 
 /**
  * A tree of {@link FHIRPathNode} nodes created from a {@link Resource} or an {@link Element}
+ * 
+ * <p>A tree is either built eagerly, with a node for every element of the resource or element, or lazily, in which
+ * case the children of a node (and their paths) are only materialized when they are first navigated to. Both kinds
+ * of tree are safe to be shared between threads.
  */
 public class FHIRPathTree {
     private final FHIRPathNode root;
     private final Map<String, FHIRPathNode> pathNodeMap;
+    private final boolean lazy;
     
-    private FHIRPathTree(FHIRPathNode root, Map<String, FHIRPathNode> pathNodeMap) {
+    private FHIRPathTree(FHIRPathNode root, Map<String, FHIRPathNode> pathNodeMap, boolean lazy) {
         this.root = root;
-        this.pathNodeMap = Collections.unmodifiableMap(pathNodeMap);
+        this.pathNodeMap = lazy ? pathNodeMap : Collections.unmodifiableMap(pathNodeMap);
+        this.lazy = lazy;
     }
     
     /**
@@ -55,7 +68,21 @@ public class FHIRPathTree {
      *     the node at the location given by the path parameter if exists, otherwise null
      */
     public FHIRPathNode getNode(String path) {
-        return pathNodeMap.get(path);
+        FHIRPathNode node = pathNodeMap.get(path);
+        if (node == null && lazy && path != null) {
+            node = findNode(path);
+        }
+        return node;
+    }
+    
+    /**
+     * Indicates whether the nodes of this FHIRPathTree are materialized on first navigation
+     * 
+     * @return
+     *     true if this FHIRPathTree was created lazily, otherwise false
+     */
+    public boolean isLazy() {
+        return lazy;
     }
     
     /**
@@ -73,12 +100,38 @@ public class FHIRPathTree {
         
         int index = node.path().lastIndexOf(".");
         if (index != -1) {
-            return pathNodeMap.get(node.path().substring(0, index));
+            return getNode(node.path().substring(0, index));
         }
         
         return null;
     }
     
+    /**
+     * Navigate from the root to the node at the location given by the path parameter, materializing the nodes
+     * along the way
+     */
+    private FHIRPathNode findNode(String path) {
+        FHIRPathNode node = root;
+        if (node.path() == null || !isPrefix(node.path(), path)) {
+            return null;
+        }
+        while (node != null && !path.equals(node.path())) {
+            FHIRPathNode next = null;
+            for (FHIRPathNode child : node.children()) {
+                if (child.path() != null && isPrefix(child.path(), path)) {
+                    next = child;
+                    break;
+                }
+            }
+            node = next;
+        }
+        return node;
+    }
+    
+    private static boolean isPrefix(String prefix, String path) {
+        return path.startsWith(prefix) && (path.length() == prefix.length() || path.charAt(prefix.length()) == '.');
+    }
+    
     /**
      * Static factory method for creating FHIRPathTree instances from a {@link Resource}
      * 
@@ -93,7 +146,7 @@ public class FHIRPathTree {
         BuildingVisitor visitor = new BuildingVisitor();
         resource.accept(visitor);
         
-        return new FHIRPathTree(visitor.getRoot(), visitor.getPathNodeMap());
+        return new FHIRPathTree(visitor.getRoot(), visitor.getPathNodeMap(), false);
     }
     
     /**
@@ -110,7 +163,46 @@ public class FHIRPathTree {
         BuildingVisitor visitor = new BuildingVisitor();
         element.accept(visitor);
         
-        return new FHIRPathTree(visitor.getRoot(), visitor.getPathNodeMap());
+        return new FHIRPathTree(visitor.getRoot(), visitor.getPathNodeMap(), false);
+    }
+    
+    /**
+     * Static factory method for creating lazy FHIRPathTree instances from a {@link Resource}
+     * 
+     * <p>The nodes of a lazy tree are the same as the nodes of a tree created by {@link #tree(Resource)}, but
+     * the children of each node are only materialized when they are first accessed
+     * 
+     * @param resource
+     *     the resource
+     * @return
+     *     a new lazy FHIRPathTree instance
+     */
+    public static FHIRPathTree lazyTree(Resource resource) {
+        Objects.requireNonNull(resource);
+        return lazyTree((Visitable) resource);
+    }
+    
+    /**
+     * Static factory method for creating lazy FHIRPathTree instances from an {@link Element}
+     * 
+     * <p>The nodes of a lazy tree are the same as the nodes of a tree created by {@link #tree(Element)}, but
+     * the children of each node are only materialized when they are first accessed
+     * 
+     * @param element
+     *     the element
+     * @return
+     *     a new lazy FHIRPathTree instance
+     */
+    public static FHIRPathTree lazyTree(Element element) {
+        Objects.requireNonNull(element);
+        return lazyTree((Visitable) element);
+    }
+    
+    private static FHIRPathTree lazyTree(Visitable visitable) {
+        Map<String, FHIRPathNode> pathNodeMap = new ConcurrentHashMap<>();
+        LazyBuildingVisitor visitor = new LazyBuildingVisitor(pathNodeMap, null, null);
+        visitable.accept(visitor);
+        return new FHIRPathTree(visitor.getChildren().get(0), pathNodeMap, true);
     }
     
     private static class BuildingVisitor extends PathAwareVisitor {
@@ -220,4 +312,166 @@ public class FHIRPathTree {
             builderStack.peek().value(FHIRPathDateTimeValue.dateTimeValue(elementName, value));
         }
     }
+    
+    /**
+     * Builds the nodes of a single level of a lazy FHIRPathTree: either the root node (when there is no parent) or the
+     * children of a parent node. The builders of the nodes receive the same values, in the same order, as those built
+     * by the {@link BuildingVisitor}, and the children of each node are supplied by another LazyBuildingVisitor.
+     */
+    private static class LazyBuildingVisitor extends DefaultVisitor {
+        private final Map<String, FHIRPathNode> pathNodeMap;
+        private final String parentPath;
+        private final FHIRPathSystemValue parentValue;
+        // the depth (in the visit) of the nodes being built
+        private final int nodeDepth;
+        private final List<FHIRPathNode> children = new ArrayList<>();
+        
+        private int depth = 0;
+        private FHIRPathAbstractNode.Builder builder;
+        private Visitable visitable;
+        
+        private LazyBuildingVisitor(Map<String, FHIRPathNode> pathNodeMap, String parentPath, FHIRPathSystemValue parentValue) {
+            super(true);
+            this.pathNodeMap = pathNodeMap;
+            this.parentPath = parentPath;
+            this.parentValue = parentValue;
+            this.nodeDepth = (parentPath == null) ? 1 : 2;
+        }
+        
+        private List<FHIRPathNode> getChildren() {
+            return children;
+        }
+        
+        private static Collection<FHIRPathNode> children(Map<String, FHIRPathNode> pathNodeMap, Visitable visitable, String path, FHIRPathSystemValue value) {
+            LazyBuildingVisitor visitor = new LazyBuildingVisitor(pathNodeMap, path, value);
+            if (value != null && visitable instanceof Quantity && FHIRPathQuantityValue.quantityValue((Quantity) visitable) != null) {
+                // the quantity value is the first child of a quantity node
+                visitor.children.add(value);
+            }
+            visitable.accept(visitor);
+            return visitor.getChildren();
+        }
+        
+        private void start(String elementName, int elementIndex, Visitable visitable, FHIRPathAbstractNode.Builder builder) {
+            depth++;
+            if (depth == nodeDepth) {
+                if (ModelSupport.isKeyword(elementName)) {
+                    elementName = ModelSupport.delimit(elementName);
+                }
+                String segment = (elementIndex != -1) ? elementName + "[" + elementIndex + "]" : elementName;
+                this.builder = builder.path((parentPath != null) ? parentPath + "." + segment : segment);
+                this.visitable = visitable;
+            }
+        }
+        
+        private void end() {
+            if (depth == nodeDepth) {
+                String path = builder.path;
+                FHIRPathSystemValue value = builder.value;
+                Visitable visitable = this.visitable;
+                FHIRPathNode node = builder.children(() -> children(pathNodeMap, visitable, path, value)).build();
+                pathNodeMap.putIfAbsent(path, node);
+                children.add(node);
+                builder = null;
+                this.visitable = null;
+            }
+            depth--;
+        }
+        
+        private void value(FHIRPathSystemValue value) {
+            if (depth == nodeDepth) {
+                builder.value(value);
+            } else if (depth == nodeDepth - 1 && parentValue != null) {
+                // the value of the parent node is one of its children, at the position of its last visited value
+                children.remove(parentValue);
+                children.add(parentValue);
+            }
+        }
+        
+        @Override
+        public boolean visit(java.lang.String elementName, int elementIndex, Visitable visitable) {
+            // visit the values, but not the children, of the nodes being built
+            return depth <= nodeDepth;
+        }
+        
+        @Override
+        public void visitStart(java.lang.String elementName, int elementIndex, Element element) {
+            if (element instanceof Quantity) {
+                Quantity quantity = (Quantity) element;
+                FHIRPathAbstractNode.Builder builder = FHIRPathQuantityNode.builder(quantity).name(elementName);
+                FHIRPathQuantityValue value = FHIRPathQuantityValue.quantityValue(quantity);
+                if (value != null) {
+                    builder.value(value);
+                }
+                start(elementName, elementIndex, element, builder);
+            } else {
+                start(elementName, elementIndex, element, FHIRPathElementNode.builder(element).name(elementName));
+            }
+        }
+        
+        @Override
+        public void visitStart(java.lang.String elementName, int elementIndex, Resource resource) {
+            start(elementName, elementIndex, resource, FHIRPathResourceNode.builder(resource).name(elementName));
+        }
+        
+        @Override
+        public void visitEnd(java.lang.String elementName, int elementIndex, Element element) {
+            end();
+        }
+        
+        @Override
+        public void visitEnd(java.lang.String elementName, int elementIndex, Resource resource) {
+            end();
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, BigDecimal value) {
+            value(FHIRPathDecimalValue.decimalValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, byte[] value) {
+            value(FHIRPathStringValue.stringValue(elementName, Base64.getEncoder().encodeToString(value)));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, java.lang.Boolean value) {
+            value(FHIRPathBooleanValue.booleanValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, java.lang.Integer value) {
+            value(FHIRPathIntegerValue.integerValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, java.lang.String value) {
+            value(FHIRPathStringValue.stringValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, LocalDate value) {
+            value(FHIRPathDateTimeValue.dateTimeValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, LocalTime value) {
+            value(FHIRPathTimeValue.timeValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, Year value) {
+            value(FHIRPathDateTimeValue.dateTimeValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, YearMonth value) {
+            value(FHIRPathDateTimeValue.dateTimeValue(elementName, value));
+        }
+        
+        @Override
+        public void visit(java.lang.String elementName, ZonedDateTime value) {
+            value(FHIRPathDateTimeValue.dateTimeValue(elementName, value));
+        }
+    }
 }
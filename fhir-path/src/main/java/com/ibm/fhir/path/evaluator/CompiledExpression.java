@@ -0,0 +1,462 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.path.evaluator;
+
+import static com.ibm.fhir.path.evaluator.FHIRPathEvaluator.SINGLETON_FALSE;
+import static com.ibm.fhir.path.evaluator.FHIRPathEvaluator.SINGLETON_TRUE;
+import static com.ibm.fhir.path.util.FHIRPathUtil.empty;
+import static com.ibm.fhir.path.util.FHIRPathUtil.evaluatesToBoolean;
+import static com.ibm.fhir.path.util.FHIRPathUtil.getString;
+import static com.ibm.fhir.path.util.FHIRPathUtil.isFalse;
+import static com.ibm.fhir.path.util.FHIRPathUtil.isTrue;
+import static com.ibm.fhir.path.util.FHIRPathUtil.singleton;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.antlr.v4.runtime.tree.RuleNode;
+
+import com.ibm.fhir.path.FHIRPathBaseVisitor;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.path.FHIRPathParser;
+import com.ibm.fhir.path.FHIRPathParser.ExpressionContext;
+import com.ibm.fhir.path.FHIRPathType;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluatingVisitor;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluationContext;
+import com.ibm.fhir.path.function.FHIRPathFunction;
+
+/**
+ * A FHIRPath expression compiled from its parse tree into a graph of operators, one per node of the parse tree, which
+ * are specialized for the operator, identifier, type or function of that node. The literals of the expression are
+ * evaluated once, at compile time.
+ *
+ * <p>A compiled expression is immutable and thread-safe: the state of an evaluation (the evaluation context and the
+ * input collection of each operator) is passed to the operators, rather than kept in a context stack. Its semantics are
+ * those of the {@link EvaluatingVisitor}, with which it shares the implementation of the FHIRPath operators.
+ *
+ * <p>An expression which uses a construct that isn't compiled ($index, $total, an unknown function or an unexpected
+ * number of function arguments) is interpreted by the {@link EvaluatingVisitor}, so that it fails (or not) exactly as
+ * it did before.
+ *
+ * @see FHIRPathEvaluator#compile(String)
+ */
+public final class CompiledExpression {
+    private static final Logger log = Logger.getLogger(CompiledExpression.class.getName());
+
+    private final String expression;
+    private final ExpressionContext expressionContext;
+    // null if the expression is interpreted
+    private final Operator operator;
+
+    /**
+     * An operator of a compiled expression
+     */
+    @FunctionalInterface
+    interface Operator {
+        /**
+         * @param evaluationContext
+         *     the evaluation context
+         * @param context
+         *     the input collection of this operator ($this)
+         * @return
+         *     the non-null result of this operator
+         */
+        Collection<FHIRPathNode> apply(EvaluationContext evaluationContext, Collection<FHIRPathNode> context);
+    }
+
+    CompiledExpression(String expression, ExpressionContext expressionContext) {
+        this.expression = expression;
+        this.expressionContext = expressionContext;
+        Operator operator = null;
+        try {
+            operator = expressionContext.accept(new Compiler());
+        } catch (RuntimeException e) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Expression '" + expression + "' will be interpreted: " + e.getMessage());
+            }
+        }
+        this.operator = operator;
+    }
+
+    /**
+     * @return
+     *     the FHIRPath expression
+     */
+    public String getExpression() {
+        return expression;
+    }
+
+    /**
+     * @return
+     *     true if the expression was compiled, false if it is interpreted
+     */
+    public boolean isCompiled() {
+        return operator != null;
+    }
+
+    ExpressionContext getExpressionContext() {
+        return expressionContext;
+    }
+
+    /**
+     * Evaluate this compiled expression
+     *
+     * @throws IllegalStateException
+     *     if the expression was not compiled
+     */
+    Collection<FHIRPathNode> evaluate(EvaluationContext evaluationContext, Collection<FHIRPathNode> initialContext) {
+        if (operator == null) {
+            throw new IllegalStateException("Expression '" + expression + "' was not compiled");
+        }
+        return Collections.unmodifiableCollection(operator.apply(evaluationContext, initialContext));
+    }
+
+    @Override
+    public String toString() {
+        return expression;
+    }
+
+    /**
+     * Compiles the nodes of a parse tree into operators
+     */
+    private static class Compiler extends FHIRPathBaseVisitor<Operator> {
+
+        private UnsupportedOperationException unsupported(String construct) {
+            return new UnsupportedOperationException(construct + " is not compiled");
+        }
+
+        @Override
+        public Operator visitChildren(RuleNode node) {
+            // every rule which is reachable from an expression is compiled by one of the methods below
+            throw unsupported(node.getClass().getSimpleName());
+        }
+
+        @Override
+        public Operator visitIndexerExpression(FHIRPathParser.IndexerExpressionContext ctx) {
+            Operator nodes = visit(ctx.expression(0));
+            Operator index = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.indexer(nodes.apply(ec, c), index.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitPolarityExpression(FHIRPathParser.PolarityExpressionContext ctx) {
+            String polarity = ctx.getChild(0).getText();
+            Operator nodes = visit(ctx.expression());
+            return (ec, c) -> EvaluatingVisitor.polarity(polarity, nodes.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitAdditiveExpression(FHIRPathParser.AdditiveExpressionContext ctx) {
+            String operator = ctx.getChild(1).getText();
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.additive(operator, left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitMultiplicativeExpression(FHIRPathParser.MultiplicativeExpressionContext ctx) {
+            String operator = ctx.getChild(1).getText();
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.multiplicative(operator, left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitUnionExpression(FHIRPathParser.UnionExpressionContext ctx) {
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.union(left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitOrExpression(FHIRPathParser.OrExpressionContext ctx) {
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            switch (ctx.getChild(1).getText()) {
+            case "or":
+                return (ec, c) -> {
+                    Collection<FHIRPathNode> leftNodes = left.apply(ec, c);
+                    if (evaluatesToBoolean(leftNodes) && isTrue(leftNodes)) {
+                        // short-circuit evaluation
+                        return SINGLETON_TRUE;
+                    }
+                    return EvaluatingVisitor.or(leftNodes, right.apply(ec, c));
+                };
+            case "xor":
+                return (ec, c) -> EvaluatingVisitor.xor(left.apply(ec, c), right.apply(ec, c));
+            default:
+                throw unsupported("Operator '" + ctx.getChild(1).getText() + "'");
+            }
+        }
+
+        @Override
+        public Operator visitAndExpression(FHIRPathParser.AndExpressionContext ctx) {
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> {
+                Collection<FHIRPathNode> leftNodes = left.apply(ec, c);
+                if (evaluatesToBoolean(leftNodes) && isFalse(leftNodes)) {
+                    // short-circuit evaluation
+                    return SINGLETON_FALSE;
+                }
+                return EvaluatingVisitor.and(leftNodes, right.apply(ec, c));
+            };
+        }
+
+        @Override
+        public Operator visitMembershipExpression(FHIRPathParser.MembershipExpressionContext ctx) {
+            String operator = ctx.getChild(1).getText();
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.membership(ec, operator, left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitInequalityExpression(FHIRPathParser.InequalityExpressionContext ctx) {
+            String operator = ctx.getChild(1).getText();
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.inequality(operator, left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitEqualityExpression(FHIRPathParser.EqualityExpressionContext ctx) {
+            String operator = ctx.getChild(1).getText();
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.equality(operator, left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitImpliesExpression(FHIRPathParser.ImpliesExpressionContext ctx) {
+            Operator left = visit(ctx.expression(0));
+            Operator right = visit(ctx.expression(1));
+            return (ec, c) -> EvaluatingVisitor.implies(left.apply(ec, c), right.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitInvocationExpression(FHIRPathParser.InvocationExpressionContext ctx) {
+            Operator input = visit(ctx.expression());
+            Operator invocation = visit(ctx.invocation());
+            return (ec, c) -> invocation.apply(ec, input.apply(ec, c));
+        }
+
+        @Override
+        public Operator visitTypeExpression(FHIRPathParser.TypeExpressionContext ctx) {
+            String operator = ctx.getChild(1).getText();
+            String qualifiedIdentifier = ctx.typeSpecifier().getText().replace("`", "");
+            FHIRPathType type = FHIRPathType.from(qualifiedIdentifier);
+            Operator nodes = visit(ctx.expression());
+            return (ec, c) -> EvaluatingVisitor.typeOperator(operator, nodes.apply(ec, c), qualifiedIdentifier, type);
+        }
+
+        @Override
+        public Operator visitTermExpression(FHIRPathParser.TermExpressionContext ctx) {
+            return visit(ctx.term());
+        }
+
+        @Override
+        public Operator visitInvocationTerm(FHIRPathParser.InvocationTermContext ctx) {
+            return visit(ctx.invocation());
+        }
+
+        @Override
+        public Operator visitLiteralTerm(FHIRPathParser.LiteralTermContext ctx) {
+            // literals don't depend on the evaluation context, so they're evaluated once
+            Collection<FHIRPathNode> literal = ctx.accept(new EvaluatingVisitor());
+            if (literal == null) {
+                throw unsupported("Literal '" + ctx.getText() + "'");
+            }
+            return (ec, c) -> literal;
+        }
+
+        @Override
+        public Operator visitExternalConstantTerm(FHIRPathParser.ExternalConstantTermContext ctx) {
+            return visit(ctx.externalConstant());
+        }
+
+        @Override
+        public Operator visitParenthesizedTerm(FHIRPathParser.ParenthesizedTermContext ctx) {
+            return visit(ctx.expression());
+        }
+
+        @Override
+        public Operator visitExternalConstant(FHIRPathParser.ExternalConstantContext ctx) {
+            if (ctx.identifier() == null) {
+                throw unsupported("External constant '" + ctx.getText() + "'");
+            }
+            String identifier = EvaluatingVisitor.identifier(ctx.identifier().getText());
+            return (ec, c) -> ec.getExternalConstant(identifier);
+        }
+
+        @Override
+        public Operator visitMemberInvocation(FHIRPathParser.MemberInvocationContext ctx) {
+            String identifier = EvaluatingVisitor.identifier(ctx.identifier().getText());
+            return (ec, c) -> EvaluatingVisitor.member(c, identifier);
+        }
+
+        @Override
+        public Operator visitFunctionInvocation(FHIRPathParser.FunctionInvocationContext ctx) {
+            return visit(ctx.function());
+        }
+
+        @Override
+        public Operator visitThisInvocation(FHIRPathParser.ThisInvocationContext ctx) {
+            return (ec, c) -> c;
+        }
+
+        @Override
+        public Operator visitIndexInvocation(FHIRPathParser.IndexInvocationContext ctx) {
+            throw unsupported("$index");
+        }
+
+        @Override
+        public Operator visitTotalInvocation(FHIRPathParser.TotalInvocationContext ctx) {
+            throw unsupported("$total");
+        }
+
+        @Override
+        public Operator visitFunction(FHIRPathParser.FunctionContext ctx) {
+            String functionName = EvaluatingVisitor.identifier(ctx.identifier().getText());
+
+            List<ExpressionContext> arguments = new ArrayList<>();
+            if (ctx.paramList() != null) {
+                arguments.addAll(ctx.paramList().expression());
+            }
+            List<Operator> operators = new ArrayList<>(arguments.size());
+            for (ExpressionContext argument : arguments) {
+                operators.add(visit(argument));
+            }
+
+            switch (functionName) {
+            case "all":
+                checkArity(functionName, operators, 1, 1);
+                return all(operators.get(0));
+            case "as":
+            case "ofType": {
+                checkArity(functionName, operators, 1, 1);
+                String identifier = EvaluatingVisitor.typeIdentifier(arguments.get(0));
+                FHIRPathType type = FHIRPathType.from(identifier);
+                return (ec, c) -> EvaluatingVisitor.ofType(c, identifier, type);
+            }
+            case "exists":
+                checkArity(functionName, operators, 0, 1);
+                return exists(operators);
+            case "iif":
+                checkArity(functionName, operators, 2, 3);
+                return iif(operators);
+            case "is": {
+                checkArity(functionName, operators, 1, 1);
+                FHIRPathType type = FHIRPathType.from(EvaluatingVisitor.typeIdentifier(arguments.get(0)));
+                return (ec, c) -> EvaluatingVisitor.is(c, type);
+            }
+            case "select":
+                checkArity(functionName, operators, 1, 1);
+                return select(operators.get(0));
+            case "trace":
+                checkArity(functionName, operators, 1, 2);
+                return trace(operators);
+            case "where":
+                checkArity(functionName, operators, 1, 1);
+                return where(operators.get(0));
+            default:
+                FHIRPathFunction function = FHIRPathFunction.registry().getFunction(functionName);
+                if (function == null) {
+                    throw unsupported("Function '" + functionName + "'");
+                }
+                checkArity(functionName, operators, function.getMinArity(), function.getMaxArity());
+                return (ec, c) -> {
+                    List<Collection<FHIRPathNode>> values = new ArrayList<>(operators.size());
+                    for (Operator operator : operators) {
+                        values.add(operator.apply(ec, c));
+                    }
+                    return function.apply(ec, c, values);
+                };
+            }
+        }
+
+        private void checkArity(String functionName, List<Operator> arguments, int minArity, int maxArity) {
+            if (arguments.size() < minArity || arguments.size() > maxArity) {
+                throw unsupported("Function '" + functionName + "' with " + arguments.size() + " arguments");
+            }
+        }
+
+        private Operator all(Operator criteria) {
+            return (ec, c) -> {
+                for (FHIRPathNode node : c) {
+                    Collection<FHIRPathNode> result = criteria.apply(ec, singleton(node));
+                    if (evaluatesToBoolean(result) && isFalse(result)) {
+                        return SINGLETON_FALSE;
+                    }
+                }
+                return SINGLETON_TRUE;
+            };
+        }
+
+        private Operator exists(List<Operator> arguments) {
+            if (arguments.isEmpty()) {
+                return (ec, c) -> !c.isEmpty() ? SINGLETON_TRUE : SINGLETON_FALSE;
+            }
+            Operator criteria = arguments.get(0);
+            return (ec, c) -> !criteria.apply(ec, c).isEmpty() ? SINGLETON_TRUE : SINGLETON_FALSE;
+        }
+
+        private Operator iif(List<Operator> arguments) {
+            Operator criterion = arguments.get(0);
+            Operator trueResult = arguments.get(1);
+            Operator otherwiseResult = arguments.size() == 3 ? arguments.get(2) : null;
+            return (ec, c) -> {
+                Collection<FHIRPathNode> result = criterion.apply(ec, c);
+                if (!evaluatesToBoolean(result) && !result.isEmpty()) {
+                    throw new IllegalArgumentException("'iff' function criterion must evaluate to a boolean or empty");
+                }
+                if (isTrue(result)) {
+                    return trueResult.apply(ec, c);
+                } else if (otherwiseResult != null) {
+                    return otherwiseResult.apply(ec, c);
+                }
+                return empty();
+            };
+        }
+
+        private Operator select(Operator projection) {
+            return (ec, c) -> {
+                Collection<FHIRPathNode> result = new ArrayList<>();
+                for (FHIRPathNode node : c) {
+                    result.addAll(projection.apply(ec, singleton(node)));
+                }
+                return result;
+            };
+        }
+
+        private Operator trace(List<Operator> arguments) {
+            Operator name = arguments.get(0);
+            Operator projection = arguments.size() == 2 ? arguments.get(1) : null;
+            return (ec, c) -> {
+                String traceName = getString(name.apply(ec, c));
+                Collection<FHIRPathNode> nodes = (projection == null) ? c : projection.apply(ec, c);
+                return EvaluatingVisitor.trace(c, traceName, nodes);
+            };
+        }
+
+        private Operator where(Operator criteria) {
+            return (ec, c) -> {
+                Collection<FHIRPathNode> result = new ArrayList<>();
+                for (FHIRPathNode node : c) {
+                    if (isTrue(criteria.apply(ec, singleton(node)))) {
+                        result.add(node);
+                    }
+                }
+                return result;
+            };
+        }
+    }
+}
@@ -6,7 +6,6 @@
 
 package com.ibm.fhir.path.evaluator;
 
-import static com.ibm.fhir.core.util.LRUCache.createLRUCache;
 import static com.ibm.fhir.path.FHIRPathDecimalValue.decimalValue;
 import static com.ibm.fhir.path.FHIRPathIntegerValue.integerValue;
 import static com.ibm.fhir.path.FHIRPathStringValue.EMPTY_STRING;
@@ -45,7 +44,7 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
-import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -60,6 +59,7 @@ import org.antlr.v4.runtime.CharStreams;
 import org.antlr.v4.runtime.CommonTokenStream;
 import org.antlr.v4.runtime.tree.ParseTree;
 
+import com.ibm.fhir.core.util.ConcurrentLRUCache;
 import com.ibm.fhir.model.annotation.Constraint;
 import com.ibm.fhir.model.resource.OperationOutcome.Issue;
 import com.ibm.fhir.model.resource.Resource;
@@ -94,10 +94,15 @@ public class FHIRPathEvaluator {
     public static final Collection<FHIRPathNode> SINGLETON_TRUE = singleton(FHIRPathBooleanValue.TRUE);
     public static final Collection<FHIRPathNode> SINGLETON_FALSE = singleton(FHIRPathBooleanValue.FALSE);
 
-    private static final int EXPRESSION_CONTEXT_CACHE_MAX_ENTRIES = 512;
-    private static final Map<String, ExpressionContext> EXPRESSION_CONTEXT_CACHE = createLRUCache(EXPRESSION_CONTEXT_CACHE_MAX_ENTRIES);
+    // Large enough to hold the expressions of all the search parameters of the specification (about 1350)
+    private static final int COMPILED_EXPRESSION_CACHE_MAX_ENTRIES = 2048;
+    private static final ConcurrentLRUCache<String, CompiledExpression> COMPILED_EXPRESSION_CACHE = new ConcurrentLRUCache<>(COMPILED_EXPRESSION_CACHE_MAX_ENTRIES);
+
+    // Evaluate the compiled expressions, rather than interpreting their parse trees
+    private static volatile boolean compilationEnabled = true;
 
     private final EvaluatingVisitor visitor = new EvaluatingVisitor();
+    private EvaluationContext evaluationContext;
 
     private FHIRPathEvaluator() { }
 
@@ -108,7 +113,7 @@ public class FHIRPathEvaluator {
      *     get the EvaluationContext associated with this FHIRPathEvaluator
      */
     public EvaluationContext getEvaluationContext() {
-        return visitor.getEvaluationContext();
+        return evaluationContext;
     }
 
     /**
@@ -245,27 +250,109 @@ public class FHIRPathEvaluator {
      *     if an exception occurs during evaluation
      */
     public Collection<FHIRPathNode> evaluate(EvaluationContext evaluationContext, String expr, Collection<FHIRPathNode> initialContext) throws FHIRPathException {
+        return evaluate(evaluationContext, compile(expr), initialContext);
+    }
+
+    /**
+     * Evaluate a compiled FHIRPath expression using an existing EvaluationContext against a collection of FHIRPath nodes
+     *
+     * @param evaluationContext
+     *     the evaluation context
+     * @param expr
+     *     the compiled FHIRPath expression to evaluate
+     * @param initialContext
+     *     the initial context as a non-null, potentially empty collection of FHIRPath nodes
+     * @return
+     *     the result of evaluation as a collection of FHIRPath nodes
+     * @throws NullPointerException
+     *     if any of the parameters are null
+     * @throws FHIRPathException
+     *     if an exception occurs during evaluation
+     */
+    public Collection<FHIRPathNode> evaluate(EvaluationContext evaluationContext, CompiledExpression expr, Collection<FHIRPathNode> initialContext) throws FHIRPathException {
         Objects.requireNonNull(evaluationContext);
+        Objects.requireNonNull(expr);
         Objects.requireNonNull(initialContext);
         try {
+            this.evaluationContext = evaluationContext;
             evaluationContext.setExternalConstant("context", initialContext);
-            return visitor.evaluate(evaluationContext, getExpressionContext(expr), initialContext);
+            if (compilationEnabled && expr.isCompiled()) {
+                return expr.evaluate(evaluationContext, initialContext);
+            }
+            return visitor.evaluate(evaluationContext, expr.getExpressionContext(), initialContext);
         } catch (Exception e) {
-            throw new FHIRPathException("An error occurred while evaluating expression: " + expr, e);
+            throw new FHIRPathException("An error occurred while evaluating expression: " + expr.getExpression(), e);
         }
     }
 
-    private static ExpressionContext getExpressionContext(String expr) {
-        return EXPRESSION_CONTEXT_CACHE.computeIfAbsent(Objects.requireNonNull(expr), FHIRPathEvaluator::compile);
+    /**
+     * Compile a FHIRPath expression into the expression cache, so that its first evaluation does not pay the parsing
+     * and compilation cost
+     *
+     * @param expr
+     *     the FHIRPath expression to compile
+     * @throws NullPointerException
+     *     if the expression is null
+     */
+    public static void precompile(String expr) {
+        compile(expr);
     }
 
-    private static ExpressionContext compile(String expr) {
+    /**
+     * Compile a FHIRPath expression, or get it from the expression cache. The compiled expression is immutable, and may be
+     * evaluated by several evaluators (for example, one per thread) at the same time.
+     *
+     * @param expr
+     *     the FHIRPath expression to compile
+     * @return
+     *     the compiled FHIRPath expression
+     * @throws NullPointerException
+     *     if the expression is null
+     */
+    public static CompiledExpression compile(String expr) {
+        return COMPILED_EXPRESSION_CACHE.computeIfAbsentOnce(Objects.requireNonNull(expr), e -> new CompiledExpression(e, parse(e)));
+    }
+
+    private static ExpressionContext parse(String expr) {
         FHIRPathLexer lexer = new FHIRPathLexer(CharStreams.fromString(expr));
         CommonTokenStream tokens = new CommonTokenStream(lexer);
         FHIRPathParser parser = new FHIRPathParser(tokens);
         return parser.expression();
     }
 
+    /**
+     * Enable or disable the evaluation of compiled expressions; when disabled, the parse tree of each expression is
+     * interpreted by a visitor, as by earlier versions of this evaluator. Compilation is enabled by default.
+     *
+     * @param enabled
+     *     true to evaluate compiled expressions, false to interpret them
+     */
+    public static void setCompilationEnabled(boolean enabled) {
+        compilationEnabled = enabled;
+    }
+
+    /**
+     * Get the statistics of the caches shared by all FHIRPathEvaluator instances
+     *
+     * @return
+     *     the statistics of the "compiledExpression", "identifier" and "literal" caches, keyed by cache name
+     */
+    public static Map<String, ConcurrentLRUCache.Stats> getCacheStats() {
+        Map<String, ConcurrentLRUCache.Stats> result = new LinkedHashMap<>();
+        result.put("compiledExpression", COMPILED_EXPRESSION_CACHE.getStats());
+        result.put("identifier", EvaluatingVisitor.IDENTIFIER_CACHE.getStats());
+        result.put("literal", EvaluatingVisitor.LITERAL_CACHE.getStats());
+        return result;
+    }
+
+    /**
+     * @return
+     *     true if compiled expressions are evaluated, false if they are interpreted
+     */
+    public static boolean isCompilationEnabled() {
+        return compilationEnabled;
+    }
+
     /**
      * Static factory method for creating FHIRPathEvaluator instances
      *
@@ -280,19 +367,19 @@ public class FHIRPathEvaluator {
         private static final String SYSTEM_NAMESPACE = "System";
 
         private static final int IDENTIFIER_CACHE_MAX_ENTRIES = 2048;
-        private static final Map<String, Collection<FHIRPathNode>> IDENTIFIER_CACHE = createLRUCache(IDENTIFIER_CACHE_MAX_ENTRIES);
+        private static final ConcurrentLRUCache<String, Collection<FHIRPathNode>> IDENTIFIER_CACHE = new ConcurrentLRUCache<>(IDENTIFIER_CACHE_MAX_ENTRIES);
 
         private static final int LITERAL_CACHE_MAX_ENTRIES = 128;
-        private static final Map<String, Collection<FHIRPathNode>> LITERAL_CACHE = createLRUCache(LITERAL_CACHE_MAX_ENTRIES);
+        private static final ConcurrentLRUCache<String, Collection<FHIRPathNode>> LITERAL_CACHE = new ConcurrentLRUCache<>(LITERAL_CACHE_MAX_ENTRIES);
 
         private EvaluationContext evaluationContext;
         private final Stack<Collection<FHIRPathNode>> contextStack = new Stack<>();
 
         private int indentLevel = 0;
 
-        private EvaluatingVisitor() { }
+        EvaluatingVisitor() { }
 
-        private Collection<FHIRPathNode> evaluate(EvaluationContext evaluationContext, ExpressionContext expressionContext, Collection<FHIRPathNode> initialContext) {
+        Collection<FHIRPathNode> evaluate(EvaluationContext evaluationContext, ExpressionContext expressionContext, Collection<FHIRPathNode> initialContext) {
             reset();
             this.evaluationContext = evaluationContext;
             contextStack.push(initialContext);
@@ -301,10 +388,6 @@ public class FHIRPathEvaluator {
             return Collections.unmodifiableCollection(result);
         }
 
-        private EvaluationContext getEvaluationContext() {
-            return evaluationContext;
-        }
-
         private void reset() {
             contextStack.clear();
             indentLevel = 0;
@@ -331,36 +414,24 @@ public class FHIRPathEvaluator {
             if (arguments.size() != 1) {
                 throw unexpectedNumberOfArguments(arguments.size(), "as");
             }
-            Collection<FHIRPathNode> result = new ArrayList<>();
-            ExpressionContext typeName = arguments.iterator().next();
-            String identifier = typeName.getText().replace("`", "");
-            FHIRPathType type = FHIRPathType.from(identifier);
-            if (type == null) {
-                throw new IllegalArgumentException(String.format("Argument '%s' cannot be resolved to a valid type identifier", identifier));
-            }
-            for (FHIRPathNode node : getCurrentContext()) {
-                FHIRPathType nodeType = node.type();
-                if (SYSTEM_NAMESPACE.equals(type.namespace()) && node.hasValue()) {
-                    nodeType = node.getValue().type();
-                }
-                if (type.isAssignableFrom(nodeType)) {
-                    result.add(node);
-                }
-            }
-            return result;
+            String identifier = typeIdentifier(arguments.iterator().next());
+            return ofType(getCurrentContext(), identifier, FHIRPathType.from(identifier));
         }
 
-        private Set<String> closure(FHIRPathType type) {
+        /**
+         * Indicates whether the type name closure of the specified (non-system) type contains the specified name
+         */
+        private static boolean isInClosure(FHIRPathType type, String name) {
             if (SYSTEM_NAMESPACE.equals(type.namespace())) {
-                return Collections.emptySet();
+                return false;
             }
-            // compute type name closure
-            Set<String> closure = new HashSet<>();
             while (!FHIRPathType.FHIR_ANY.equals(type)) {
-                closure.add(type.getName());
+                if (type.getName().equals(name)) {
+                    return true;
+                }
                 type = type.baseType();
             }
-            return closure;
+            return false;
         }
 
         private Collection<FHIRPathNode> exists(List<ExpressionContext> arguments) {
@@ -401,17 +472,23 @@ public class FHIRPathEvaluator {
             if (arguments.size() != 1) {
                 throw unexpectedNumberOfArguments(arguments.size(), "is");
             }
+            String identifier = typeIdentifier(arguments.iterator().next());
+            return is(getCurrentContext(), FHIRPathType.from(identifier));
+        }
 
-            Collection<FHIRPathNode> currentContext = getCurrentContext();
+        /**
+         * The 'is' function
+         *
+         * @param type
+         *     the type argument, or null if it doesn't name a valid type
+         */
+        static Collection<FHIRPathNode> is(Collection<FHIRPathNode> currentContext, FHIRPathType type) {
             if (currentContext.isEmpty()) {
                 return SINGLETON_FALSE;
             } else if (currentContext.size() > 1) {
                 throw new IllegalArgumentException(String.format("Input collection has %d items, but only 1 is allowed", currentContext.size()));
             }
 
-            ExpressionContext typeName = arguments.iterator().next();
-            String identifier = typeName.getText().replace("`", "");
-            FHIRPathType type = FHIRPathType.from(identifier);
             if (type == null) {
                 return SINGLETON_FALSE;
             }
@@ -423,14 +500,22 @@ public class FHIRPathEvaluator {
             if (arguments.size() != 1) {
                 throw unexpectedNumberOfArguments(arguments.size(), "ofType");
             }
-            Collection<FHIRPathNode> result = new ArrayList<>();
-            ExpressionContext typeName = arguments.get(0);
-            String identifier = typeName.getText().replace("`", "");
-            FHIRPathType type = FHIRPathType.from(identifier);
+            String identifier = typeIdentifier(arguments.get(0));
+            return ofType(getCurrentContext(), identifier, FHIRPathType.from(identifier));
+        }
+
+        /**
+         * The 'ofType' and 'as' functions
+         *
+         * @param type
+         *     the type named by the identifier, or null if it doesn't exist
+         */
+        static Collection<FHIRPathNode> ofType(Collection<FHIRPathNode> currentContext, String identifier, FHIRPathType type) {
             if (type == null) {
                 throw new IllegalArgumentException(String.format("Argument '%s' cannot be resolved to a valid type identifier", identifier));
             }
-            for (FHIRPathNode node : getCurrentContext()) {
+            Collection<FHIRPathNode> result = new ArrayList<>();
+            for (FHIRPathNode node : currentContext) {
                 FHIRPathType nodeType = node.type();
                 if (SYSTEM_NAMESPACE.equals(type.namespace()) && node.hasValue()) {
                     nodeType = node.getValue().type();
@@ -442,6 +527,13 @@ public class FHIRPathEvaluator {
             return result;
         }
 
+        /**
+         * The type identifier of a type argument (for example, of the 'ofType' function)
+         */
+        static String typeIdentifier(ExpressionContext typeName) {
+            return typeName.getText().replace("`", "");
+        }
+
         private Collection<FHIRPathNode> popContext() {
             if (!contextStack.isEmpty()) {
                 return contextStack.pop();
@@ -476,6 +568,10 @@ public class FHIRPathEvaluator {
             String name = getString(visit(arguments.get(0)));
             Collection<FHIRPathNode> currentContext = getCurrentContext();
             Collection<FHIRPathNode> nodes = (arguments.size() == 1) ? currentContext : visit(arguments.get(1));
+            return trace(currentContext, name, nodes);
+        }
+
+        static Collection<FHIRPathNode> trace(Collection<FHIRPathNode> currentContext, String name, Collection<FHIRPathNode> nodes) {
             if (!nodes.isEmpty()) {
                 if (log.isLoggable(Level.FINE)) {
                     log.fine(name + ": " + nodes);
@@ -508,19 +604,21 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitIndexerExpression(FHIRPathParser.IndexerExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = indexer(visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
+        static Collection<FHIRPathNode> indexer(Collection<FHIRPathNode> nodes, Collection<FHIRPathNode> indexNodes) {
             Collection<FHIRPathNode> result = empty();
 
-            Collection<FHIRPathNode> nodes = visit(ctx.expression(0));
-
             List<?> list = (nodes instanceof List) ? (List<?>) nodes : new ArrayList<>(nodes);
-            int index = getInteger(visit(ctx.expression(1)));
+            int index = getInteger(indexNodes);
 
             if (index >= 0 && index < list.size()) {
                 result = singleton((FHIRPathNode) list.get(index));
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -528,18 +626,19 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitPolarityExpression(FHIRPathParser.PolarityExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = polarity(ctx.getChild(0).getText(), visit(ctx.expression()));
+            indentLevel--;
+            return result;
+        }
 
-            Collection<FHIRPathNode> nodes = visit(ctx.expression());
-
+        static Collection<FHIRPathNode> polarity(String polarity, Collection<FHIRPathNode> nodes) {
             if (!isSingleton(nodes)) {
-                indentLevel--;
                 return empty();
             }
 
             Collection<FHIRPathNode> result = empty();
 
             FHIRPathSystemValue value = getSystemValue(nodes);
-            String polarity = ctx.getChild(0).getText();
 
             if (value.isNumberValue()) {
                 switch (polarity) {
@@ -552,7 +651,6 @@ public class FHIRPathEvaluator {
                 }
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -560,14 +658,14 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitAdditiveExpression(FHIRPathParser.AdditiveExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = additive(ctx.getChild(1).getText(), visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
+        static Collection<FHIRPathNode> additive(String operator, Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             Collection<FHIRPathNode> result = empty();
 
-            String operator = ctx.getChild(1).getText();
-
             if ((hasNumberValue(left) && hasNumberValue(right)) || (hasStringValue(left) && hasStringValue(right))) {
                 if (hasNumberValue(left) && hasNumberValue(right)) {
                     switch (operator) {
@@ -637,7 +735,6 @@ public class FHIRPathEvaluator {
                 throw new IllegalArgumentException("Invalid argument(s) for '" + operator + "' operator");
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -645,12 +742,13 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitMultiplicativeExpression(FHIRPathParser.MultiplicativeExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = multiplicative(ctx.getChild(1).getText(), visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
+        static Collection<FHIRPathNode> multiplicative(String operator, Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             if (!hasSystemValue(left) || !hasSystemValue(right)) {
-                indentLevel--;
                 return empty();
             }
 
@@ -659,8 +757,6 @@ public class FHIRPathEvaluator {
             FHIRPathSystemValue leftValue = getSystemValue(left);
             FHIRPathSystemValue rightValue = getSystemValue(right);
 
-            String operator = ctx.getChild(1).getText();
-
             if (leftValue.isNumberValue() && rightValue.isNumberValue()) {
                 try {
                     switch (operator) {
@@ -682,7 +778,6 @@ public class FHIRPathEvaluator {
                 }
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -690,14 +785,15 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitUnionExpression(FHIRPathParser.UnionExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = union(visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
+        static Collection<FHIRPathNode> union(Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             Set<FHIRPathNode> union = new LinkedHashSet<>(left);
             union.addAll(right);
 
-            indentLevel--;
             return new ArrayList<>(union);
         }
 
@@ -715,29 +811,17 @@ public class FHIRPathEvaluator {
 
             switch (operator) {
             case "or":
-                // Returns false if both operands evaluate to false, true if either operand evaluates to true, and empty ({ }) otherwise:
                 if (evaluatesToBoolean(left) && isTrue(left)) {
                     // short-circuit evaluation
                     result = SINGLETON_TRUE;
                 } else {
                     // evaluate right operand
-                    Collection<FHIRPathNode> right = visit(ctx.expression(1));
-                    if (evaluatesToBoolean(right) && isTrue(right)) {
-                        result = SINGLETON_TRUE;
-                    } else if (evaluatesToBoolean(left) && evaluatesToBoolean(right) &&
-                            isFalse(left) && isFalse(right)) {
-                        result = SINGLETON_FALSE;
-                    }
+                    result = or(left, visit(ctx.expression(1)));
                 }
                 break;
             case "xor":
                 // evaluate right operand
-                Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
-                // Returns true if exactly one of the operands evaluates to true, false if either both operands evaluate to true or both operands evaluate to false, and the empty collection ({ }) otherwise:
-                if (evaluatesToBoolean(left) && evaluatesToBoolean(right)) {
-                    result = ((isTrue(left) || isTrue(right)) && !(isTrue(left) && isTrue(right))) ? SINGLETON_TRUE : SINGLETON_FALSE;
-                }
+                result = xor(left, visit(ctx.expression(1)));
                 break;
             }
 
@@ -745,47 +829,70 @@ public class FHIRPathEvaluator {
             return result;
         }
 
+        static Collection<FHIRPathNode> or(Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
+            // Returns false if both operands evaluate to false, true if either operand evaluates to true, and empty ({ }) otherwise:
+            if ((evaluatesToBoolean(left) && isTrue(left)) || (evaluatesToBoolean(right) && isTrue(right))) {
+                return SINGLETON_TRUE;
+            } else if (evaluatesToBoolean(left) && evaluatesToBoolean(right) &&
+                    isFalse(left) && isFalse(right)) {
+                return SINGLETON_FALSE;
+            }
+            return empty();
+        }
+
+        static Collection<FHIRPathNode> xor(Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
+            // Returns true if exactly one of the operands evaluates to true, false if either both operands evaluate to true or both operands evaluate to false, and the empty collection ({ }) otherwise:
+            if (evaluatesToBoolean(left) && evaluatesToBoolean(right)) {
+                return ((isTrue(left) || isTrue(right)) && !(isTrue(left) && isTrue(right))) ? SINGLETON_TRUE : SINGLETON_FALSE;
+            }
+            return empty();
+        }
+
         @Override
         public Collection<FHIRPathNode> visitAndExpression(FHIRPathParser.AndExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
 
-            Collection<FHIRPathNode> result = empty();
+            Collection<FHIRPathNode> result;
 
             // evaluate left operand
             Collection<FHIRPathNode> left = visit(ctx.expression(0));
 
-            // Returns true if both operands evaluate to true, false if either operand evaluates to false, and the empty collection ({ }) otherwise.
             if (evaluatesToBoolean(left) && isFalse(left)) {
                 // short-circuit evaluation
                 result = SINGLETON_FALSE;
             } else {
                 // evaluate right operand
-                Collection<FHIRPathNode> right = visit(ctx.expression(1));
-                if (evaluatesToBoolean(right) && isFalse(right)) {
-                    result = SINGLETON_FALSE;
-                } else if (evaluatesToBoolean(left) && evaluatesToBoolean(right) &&
-                        isTrue(left) && isTrue(right)) {
-                    result = SINGLETON_TRUE;
-                }
+                result = and(left, visit(ctx.expression(1)));
             }
 
             indentLevel--;
             return result;
         }
 
+        static Collection<FHIRPathNode> and(Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
+            // Returns true if both operands evaluate to true, false if either operand evaluates to false, and the empty collection ({ }) otherwise.
+            if ((evaluatesToBoolean(left) && isFalse(left)) || (evaluatesToBoolean(right) && isFalse(right))) {
+                return SINGLETON_FALSE;
+            } else if (evaluatesToBoolean(left) && evaluatesToBoolean(right) &&
+                    isTrue(left) && isTrue(right)) {
+                return SINGLETON_TRUE;
+            }
+            return empty();
+        }
+
         @Override
         public Collection<FHIRPathNode> visitMembershipExpression(FHIRPathParser.MembershipExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = membership(evaluationContext, ctx.getChild(1).getText(), visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
+        static Collection<FHIRPathNode> membership(EvaluationContext evaluationContext, String operator, Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             Collection<FHIRPathNode> result = SINGLETON_FALSE;
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
-            String operator = ctx.getChild(1).getText();
-
             switch (operator) {
             case "in":
                 if ((isCodedElementNode(left) || isStringElementNode(left) || isUriElementNode(left)) && isStringValue(right)) {
@@ -803,7 +910,6 @@ public class FHIRPathEvaluator {
                 break;
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -811,12 +917,13 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitInequalityExpression(FHIRPathParser.InequalityExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = inequality(ctx.getChild(1).getText(), visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
+        static Collection<FHIRPathNode> inequality(String operator, Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             if (!isSingleton(left) || !isSingleton(right)) {
-                indentLevel--;
                 return SINGLETON_FALSE;
             }
 
@@ -830,8 +937,6 @@ public class FHIRPathEvaluator {
                 throw new IllegalArgumentException("Type: '" + leftNode.type().getName() + "' is not compatible with type: '" + rightNode.type().getName() + "'");
             }
 
-            String operator = ctx.getChild(1).getText();
-
             if (leftNode.isComparableTo(rightNode)) {
                 switch (operator) {
                 case "<=":
@@ -859,7 +964,6 @@ public class FHIRPathEvaluator {
                 result = empty();
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -880,29 +984,26 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitEqualityExpression(FHIRPathParser.EqualityExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = equality(ctx.getChild(1).getText(), visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
+        static Collection<FHIRPathNode> equality(String operator, Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             Collection<FHIRPathNode> result = SINGLETON_FALSE;
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
             if (left.isEmpty() || right.isEmpty()) {
-                indentLevel--;
                 return empty();
             }
 
             if (left.size() != right.size()) {
-                indentLevel--;
                 return SINGLETON_FALSE;
             }
 
             if (!isComparableTo(left, right)) {
-                indentLevel--;
                 return empty();
             }
 
-            String operator = ctx.getChild(1).getText();
-
             // TODO: "equals" and "equivalent" have different semantics
             switch (operator) {
             case "=":
@@ -919,7 +1020,6 @@ public class FHIRPathEvaluator {
                 break;
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -927,12 +1027,14 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitImpliesExpression(FHIRPathParser.ImpliesExpressionContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = implies(visit(ctx.expression(0)), visit(ctx.expression(1)));
+            indentLevel--;
+            return result;
+        }
 
+        static Collection<FHIRPathNode> implies(Collection<FHIRPathNode> left, Collection<FHIRPathNode> right) {
             Collection<FHIRPathNode> result = empty();
 
-            Collection<FHIRPathNode> left = visit(ctx.expression(0));
-            Collection<FHIRPathNode> right = visit(ctx.expression(1));
-
             // If the left operand evaluates to true, this operator returns the boolean evaluation of the right operand. If the left operand evaluates to false, this operator returns true. Otherwise, this operator returns true if the right operand evaluates to true, and the empty collection ({ }) otherwise.
             if (evaluatesToBoolean(left) && evaluatesToBoolean(right)) {
                 // !left || right
@@ -942,7 +1044,6 @@ public class FHIRPathEvaluator {
                 result = SINGLETON_TRUE;
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -961,13 +1062,22 @@ public class FHIRPathEvaluator {
             indentLevel++;
 
             Collection<FHIRPathNode> nodes = visit(ctx.expression());
+            String qualifiedIdentifier = getString(visit(ctx.typeSpecifier()));
+            Collection<FHIRPathNode> result = typeOperator(ctx.getChild(1).getText(), nodes, qualifiedIdentifier, FHIRPathType.from(qualifiedIdentifier));
 
-            String operator = ctx.getChild(1).getText();
+            indentLevel--;
+            return result;
+        }
 
+        /**
+         * The 'is' and 'as' type operators
+         *
+         * @param type
+         *     the type named by the qualified identifier, or null if it doesn't exist
+         */
+        static Collection<FHIRPathNode> typeOperator(String operator, Collection<FHIRPathNode> nodes, String qualifiedIdentifier, FHIRPathType type) {
             Collection<FHIRPathNode> result = "is".equals(operator) ? SINGLETON_FALSE : new ArrayList<>();
 
-            String qualifiedIdentifier = getString(visit(ctx.typeSpecifier()));
-            FHIRPathType type = FHIRPathType.from(qualifiedIdentifier);
             if (type == null) {
                 throw new IllegalArgumentException(String.format("Argument '%s' cannot be resolved to a valid type identifier", qualifiedIdentifier));
             }
@@ -992,7 +1102,6 @@ public class FHIRPathEvaluator {
                 break;
             }
 
-            indentLevel--;
             return result;
         }
 
@@ -1103,24 +1212,27 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitMemberInvocation(FHIRPathParser.MemberInvocationContext ctx) {
             debug(ctx);
             indentLevel++;
+            Collection<FHIRPathNode> result = member(getCurrentContext(), getString(visit(ctx.identifier())));
+            indentLevel--;
+            return result;
+        }
 
-            Collection<FHIRPathNode> currentContext = getCurrentContext();
-            String identifier = getString(visit(ctx.identifier()));
-
+        /**
+         * The children of the nodes in the current context with the specified name; a type name selects the current
+         * context itself, if it's a singleton of that type (or one of its subtypes)
+         */
+        static Collection<FHIRPathNode> member(Collection<FHIRPathNode> currentContext, String identifier) {
             if (isSingleton(currentContext)) {
                 FHIRPathNode node = getSingleton(currentContext);
-                if (closure(node.type()).contains(identifier)) {
-                    indentLevel--;
+                if (isInClosure(node.type(), identifier)) {
                     return currentContext;
                 }
             }
 
-            Collection<FHIRPathNode> result = currentContext.stream()
-                    .flatMap(node -> node.children().stream())
-                    .filter(node -> identifier.equals(node.name()))
-                    .collect(Collectors.toList());
-
-            indentLevel--;
+            List<FHIRPathNode> result = new ArrayList<>();
+            for (FHIRPathNode node : currentContext) {
+                result.addAll(node.children(identifier));
+            }
             return result;
         }
 
@@ -1288,10 +1400,17 @@ public class FHIRPathEvaluator {
         public Collection<FHIRPathNode> visitIdentifier(FHIRPathParser.IdentifierContext ctx) {
             debug(ctx);
             String text = ctx.getText();
-            Collection<FHIRPathNode> result = IDENTIFIER_CACHE.computeIfAbsent(text, t -> singleton(stringValue(text.startsWith("`") ? text.substring(1, text.length() - 1) : text)));
+            Collection<FHIRPathNode> result = IDENTIFIER_CACHE.computeIfAbsent(text, t -> singleton(stringValue(identifier(text))));
             return result;
         }
 
+        /**
+         * The identifier of an identifier token, without the delimiters of a delimited identifier
+         */
+        static String identifier(String text) {
+            return text.startsWith("`") ? text.substring(1, text.length() - 1) : text;
+        }
+
         private String indent() {
             StringBuilder builder = new StringBuilder();
             for (int i = 0;i < indentLevel; i++) {
@@ -1342,8 +1461,6 @@ public class FHIRPathEvaluator {
          */
         public EvaluationContext(Resource resource) {
             this(FHIRPathTree.tree(resource));
-            externalConstantMap.put("rootResource", singleton(tree.getRoot()));
-            externalConstantMap.put("resource", singleton(tree.getRoot()));
         }
 
         /**
@@ -1356,8 +1473,20 @@ public class FHIRPathEvaluator {
             this(FHIRPathTree.tree(element));
         }
 
-        private EvaluationContext(FHIRPathTree tree) {
+        /**
+         * Create an evaluation context over an existing FHIRPath tree. The tree is not modified by evaluation, so several
+         * evaluation contexts (for example, one per thread) may share a single tree. If the root of the tree is a resource node,
+         * the %resource and %rootResource external constants are set to it, as for {@link #EvaluationContext(Resource)}.
+         *
+         * @param tree
+         *     the FHIRPath tree
+         */
+        public EvaluationContext(FHIRPathTree tree) {
             this.tree = tree;
+            if (tree != null && tree.getRoot().isResourceNode()) {
+                externalConstantMap.put("rootResource", singleton(tree.getRoot()));
+                externalConstantMap.put("resource", singleton(tree.getRoot()));
+            }
         }
 
         /**
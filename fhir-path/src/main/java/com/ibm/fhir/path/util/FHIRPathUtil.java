@@ -66,7 +66,14 @@ import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
 import com.ibm.fhir.path.exception.FHIRPathException;
 
 public final class FHIRPathUtil {
-    private static FHIRPathEvaluator evaluator = FHIRPathEvaluator.evaluator();
+    /**
+     * Holds the evaluator used by this class. The static initializer of FHIRPathEvaluator uses this class, so the
+     * evaluator is created on first use rather than in our own static initializer; otherwise two threads initializing
+     * the two classes concurrently would deadlock.
+     */
+    private static class EvaluatorHolder {
+        private static final FHIRPathEvaluator evaluator = FHIRPathEvaluator.evaluator();
+    }
 
     public static final Set<String> STRING_TRUE_VALUES = new HashSet<>(Arrays.asList("true", "t", "yes", "y", "1", "1.0"));
     public static final Set<String> STRING_FALSE_VALUES = new HashSet<>(Arrays.asList("false", "f", "no", "n", "0", "0.0"));
@@ -648,7 +655,7 @@ public final class FHIRPathUtil {
         FHIRPathNode node = evaluateToSingle(elementOrResource, fhirPath);
         String elementName = node.name();
 
-        FHIRPathTree tree = evaluator.getEvaluationContext().getTree();
+        FHIRPathTree tree = EvaluatorHolder.evaluator.getEvaluationContext().getTree();
         FHIRPathNode parentNode = tree.getParent(node);
         Visitable parent = parentNode.isResourceNode() ?
                 parentNode.asResourceNode().resource() : parentNode.asElementNode().element();
@@ -676,7 +683,7 @@ public final class FHIRPathUtil {
          * 4. Servers SHALL return an error if the outcome of the patch operation is a not a valid resource.
          * 5. Except for the delete operation, it is an error if no element matches the specified path.
          */
-        Collection<FHIRPathNode> nodes = evaluator.evaluate(elementOrResource, fhirPath);
+        Collection<FHIRPathNode> nodes = EvaluatorHolder.evaluator.evaluate(elementOrResource, fhirPath);
         return getSingleton(nodes);
     }
 
@@ -690,7 +697,7 @@ public final class FHIRPathUtil {
      */
     public static <T extends Visitable> T insert(T elementOrResource, String fhirPath, int index, Visitable value)
             throws FHIRPathException, FHIRPatchException {
-        Collection<FHIRPathNode> nodes = evaluator.evaluate(elementOrResource, fhirPath);
+        Collection<FHIRPathNode> nodes = EvaluatorHolder.evaluator.evaluate(elementOrResource, fhirPath);
         if (index > nodes.size()) {
             throw new FHIRPatchException("Index must be equal or less than the number of elements in the list", fhirPath);
         } else if (nodes.size() == 0) {
@@ -698,7 +705,7 @@ public final class FHIRPathUtil {
         }
         String elementName = getCommonName(fhirPath, nodes);
 
-        FHIRPathTree tree = evaluator.getEvaluationContext().getTree();
+        FHIRPathTree tree = EvaluatorHolder.evaluator.getEvaluationContext().getTree();
         FHIRPathNode parentNode = getCommonParent(fhirPath, nodes, tree);
         Visitable parent = parentNode.isResourceNode() ?
                 parentNode.asResourceNode().resource() : parentNode.asElementNode().element();
@@ -721,7 +728,7 @@ public final class FHIRPathUtil {
      */
     public static <T extends Visitable> T move(T elementOrResource, String fhirPath, int source, int target)
             throws FHIRPathException, FHIRPatchException {
-        Collection<FHIRPathNode> nodes = evaluator.evaluate(elementOrResource, fhirPath);
+        Collection<FHIRPathNode> nodes = EvaluatorHolder.evaluator.evaluate(elementOrResource, fhirPath);
         if (source > nodes.size() || target > nodes.size()) {
             throw new FHIRPatchException("Source and target indices must be less than or equal to"
                     + " the number of elements selected by the FHIRPath expression", fhirPath);
@@ -731,7 +738,7 @@ public final class FHIRPathUtil {
         // The statements above rule out any chance of nodes being empty at this point
         String elementName = getCommonName(fhirPath, nodes);
 
-        FHIRPathTree tree = evaluator.getEvaluationContext().getTree();
+        FHIRPathTree tree = EvaluatorHolder.evaluator.getEvaluationContext().getTree();
         FHIRPathNode parent = getCommonParent(fhirPath, nodes, tree);
 
         MovingVisitor<T> movingVisitor = new MovingVisitor<T>(parent.path(), elementName, source, target);
@@ -0,0 +1,119 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.path.test;
+
+import static com.ibm.fhir.path.util.FHIRPathUtil.singleton;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.test.TestUtil;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.path.FHIRPathTree;
+import com.ibm.fhir.path.evaluator.CompiledExpression;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluationContext;
+import com.ibm.fhir.path.exception.FHIRPathException;
+import com.ibm.fhir.path.test.FHIRPathSpecTest.TestExpression;
+
+/**
+ * Tests that compiled FHIRPath expressions evaluate to the same results as the interpreted ones
+ */
+public class CompiledExpressionTest {
+
+    @AfterMethod
+    public void enableCompilation() {
+        FHIRPathEvaluator.setCompilationEnabled(true);
+    }
+
+    @Test
+    public void testSpecExpressions() throws Exception {
+        int compiled = 0;
+        for (Object[] testData : FHIRPathSpecTest.provideAllTestData()) {
+            EvaluationContext context = (EvaluationContext) testData[1];
+            String expr = ((TestExpression) testData[2]).text;
+
+            FHIRPathEvaluator.setCompilationEnabled(false);
+            String interpreted = evaluate(context, expr);
+            FHIRPathEvaluator.setCompilationEnabled(true);
+            assertEquals(evaluate(context, expr), interpreted, testData[0] + ": " + expr);
+
+            if (FHIRPathEvaluator.compile(expr).isCompiled()) {
+                compiled++;
+            }
+        }
+        assertTrue(compiled > 0);
+    }
+
+    @Test
+    public void testCompile() throws Exception {
+        CompiledExpression expr = FHIRPathEvaluator.compile("Patient.name.where(use = 'official').given.first()");
+        assertTrue(expr.isCompiled());
+        assertSame(FHIRPathEvaluator.compile("Patient.name.where(use = 'official').given.first()"), expr);
+        assertEquals(expr.getExpression(), "Patient.name.where(use = 'official').given.first()");
+        assertTrue(FHIRPathEvaluator.getCacheStats().get("compiledExpression").getHits() > 0);
+
+        // not compiled, but still evaluated (by the interpreter)
+        assertFalse(FHIRPathEvaluator.compile("(1 | 2).select($index)").isCompiled());
+        assertFalse(FHIRPathEvaluator.compile("Patient.notAFunction()").isCompiled());
+    }
+
+    @Test(expectedExceptions = FHIRPathException.class)
+    public void testUnknownFunction() throws Exception {
+        FHIRPathEvaluator.evaluator().evaluate("1.notAFunction()");
+    }
+
+    @Test
+    public void testConcurrentEvaluation() throws Exception {
+        Resource patient = TestUtil.readLocalResource("FHIRPath/input/patient-example.xml");
+        FHIRPathTree tree = FHIRPathTree.tree(patient);
+        CompiledExpression expr = FHIRPathEvaluator.compile("Patient.name.where(use = 'official' or use = 'usual').given | Patient.telecom.value");
+        Collection<FHIRPathNode> expected = FHIRPathEvaluator.evaluator().evaluate(new EvaluationContext(tree), expr, singleton(tree.getRoot()));
+        assertFalse(expected.isEmpty());
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            List<Future<Collection<FHIRPathNode>>> futures = new ArrayList<>();
+            for (int i = 0; i < 100; i++) {
+                Callable<Collection<FHIRPathNode>> task = () -> FHIRPathEvaluator.evaluator().evaluate(new EvaluationContext(tree), expr, singleton(tree.getRoot()));
+                futures.add(executor.submit(task));
+            }
+            for (Future<Collection<FHIRPathNode>> future : futures) {
+                Collection<FHIRPathNode> result = future.get();
+                assertNotNull(result);
+                assertEquals(new ArrayList<>(result), new ArrayList<>(expected));
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * @return the result of evaluation, or the class of the exception that was thrown
+     */
+    private String evaluate(EvaluationContext context, String expr) {
+        try {
+            return new ArrayList<>(FHIRPathEvaluator.evaluator().evaluate(context, expr)).toString();
+        } catch (Throwable t) {
+            return t.getClass().getName() + ": " + (t.getCause() != null ? t.getCause().getClass().getName() : null);
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.path.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.examples.ExamplesUtil;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.path.FHIRPathTree;
+
+/**
+ * Tests the lookup of the children of a node by name
+ */
+public class FHIRPathNodeChildrenTest {
+
+    @Test
+    public void testChildrenByName() throws Exception {
+        Resource resource = FHIRParser.parser(Format.JSON).parse(ExamplesUtil.resourceReader("json/spec/explanationofbenefit-example-2.json"));
+        FHIRPathTree tree = FHIRPathTree.tree(resource);
+        for (FHIRPathNode node : (Iterable<FHIRPathNode>) tree.getRoot().stream()::iterator) {
+            List<String> names = new ArrayList<>();
+            for (FHIRPathNode child : node.children()) {
+                names.add(child.name());
+            }
+            names.add("notAnElement");
+            for (String name : names) {
+                List<FHIRPathNode> expected = new ArrayList<>();
+                for (FHIRPathNode child : node.children()) {
+                    if (Objects.equals(name, child.name())) {
+                        expected.add(child);
+                    }
+                }
+                assertEquals(new ArrayList<>(node.children(name)), expected, node.path() + "." + name);
+            }
+        }
+        assertEquals(tree.getRoot().children("supportingInfo").size(), 2);
+        assertTrue(tree.getRoot().children("notAnElement").isEmpty());
+    }
+}
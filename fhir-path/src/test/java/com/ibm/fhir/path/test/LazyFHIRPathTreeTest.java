@@ -0,0 +1,136 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.path.test;
+
+import static com.ibm.fhir.path.util.FHIRPathUtil.singleton;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.examples.ExamplesUtil;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Observation;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.type.Code;
+import com.ibm.fhir.model.type.CodeableConcept;
+import com.ibm.fhir.model.type.Decimal;
+import com.ibm.fhir.model.type.Extension;
+import com.ibm.fhir.model.type.Quantity;
+import com.ibm.fhir.model.type.String;
+import com.ibm.fhir.model.type.Uri;
+import com.ibm.fhir.model.type.code.ObservationStatus;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.path.FHIRPathTree;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluationContext;
+
+/**
+ * Tests that a lazy FHIRPathTree has the same nodes as an eagerly built one
+ */
+public class LazyFHIRPathTreeTest {
+
+    @DataProvider
+    public static Object[][] provideExamples() {
+        return new Object[][] {
+            { "json/spec/patient-example.json" },
+            { "json/spec/observation-example.json" },
+            { "json/spec/questionnaire-example.json" },
+            { "json/spec/bundle-example.json" },
+            { "json/spec/explanationofbenefit-example-2.json" }
+        };
+    }
+
+    @Test(dataProvider = "provideExamples")
+    public void testSameNodes(java.lang.String example) throws Exception {
+        Resource resource = FHIRParser.parser(Format.JSON).parse(ExamplesUtil.resourceReader(example));
+        FHIRPathTree tree = FHIRPathTree.tree(resource);
+        FHIRPathTree lazyTree = FHIRPathTree.lazyTree(resource);
+        assertFalse(tree.isLazy());
+        assertTrue(lazyTree.isLazy());
+
+        assertSameNodes(lazyTree.getRoot(), tree.getRoot());
+
+        for (FHIRPathNode node : (Iterable<FHIRPathNode>) tree.getRoot().stream()::iterator) {
+            if (node.path() != null) {
+                FHIRPathNode lazyNode = lazyTree.getNode(node.path());
+                assertEquals(lazyNode.path(), node.path());
+                FHIRPathNode parent = tree.getParent(node);
+                FHIRPathNode lazyParent = lazyTree.getParent(lazyNode);
+                assertEquals(lazyParent == null ? null : lazyParent.path(), parent == null ? null : parent.path());
+            }
+        }
+        assertNull(lazyTree.getNode(resource.getClass().getSimpleName() + ".notAnElement"));
+        assertNull(lazyTree.getNode("NotAResource.id"));
+    }
+
+    @Test
+    public void testQuantity() throws Exception {
+        Observation observation = Observation.builder()
+                .status(ObservationStatus.FINAL)
+                .code(CodeableConcept.builder().text(String.of("test")).build())
+                .value(Quantity.builder()
+                    .id("quantity")
+                    .extension(Extension.builder().url("http://example.com/extension").value(String.of("value")).build())
+                    .value(Decimal.of(1.5))
+                    .system(Uri.of("http://unitsofmeasure.org"))
+                    .code(Code.of("mg"))
+                    .build())
+                .build();
+        assertSameNodes(FHIRPathTree.lazyTree(observation).getRoot(), FHIRPathTree.tree(observation).getRoot());
+    }
+
+    @Test
+    public void testEvaluate() throws Exception {
+        Resource resource = FHIRParser.parser(Format.JSON).parse(ExamplesUtil.resourceReader("json/spec/explanationofbenefit-example-2.json"));
+        FHIRPathTree lazyTree = FHIRPathTree.lazyTree(resource);
+        FHIRPathEvaluator evaluator = FHIRPathEvaluator.evaluator();
+        java.lang.String expr = "ExplanationOfBenefit.total.where(amount.value > 0).amount.value";
+
+        Collection<FHIRPathNode> expected = evaluator.evaluate(new EvaluationContext(resource), expr);
+        Collection<FHIRPathNode> actual = evaluator.evaluate(new EvaluationContext(lazyTree), expr, singleton(lazyTree.getRoot()));
+        assertFalse(expected.isEmpty());
+        assertEquals(actual.size(), expected.size());
+        Iterator<FHIRPathNode> iterator = actual.iterator();
+        for (FHIRPathNode node : expected) {
+            assertSameNodes(iterator.next(), node);
+        }
+
+        // nodes are materialized once
+        FHIRPathNode node = actual.iterator().next();
+        assertSame(lazyTree.getNode(node.path()), node);
+    }
+
+    private void assertSameNodes(FHIRPathNode actual, FHIRPathNode expected) {
+        assertEquals(actual.getClass(), expected.getClass(), expected.path());
+        assertEquals(actual.name(), expected.name(), expected.path());
+        assertEquals(actual.path(), expected.path());
+        assertEquals(actual.type(), expected.type(), expected.path());
+        assertEquals(actual.hasValue(), expected.hasValue(), expected.path());
+        if (expected.hasValue()) {
+            assertEquals(actual.getValue().getClass(), expected.getValue().getClass(), expected.path());
+            assertEquals(actual.getValue().toString(), expected.getValue().toString(), expected.path());
+        }
+        List<FHIRPathNode> actualChildren = new ArrayList<>(actual.children());
+        List<FHIRPathNode> expectedChildren = new ArrayList<>(expected.children());
+        assertEquals(actualChildren.size(), expectedChildren.size(), expected.path());
+        Iterator<FHIRPathNode> iterator = actualChildren.iterator();
+        for (FHIRPathNode expectedChild : expectedChildren) {
+            assertSameNodes(iterator.next(), expectedChild);
+        }
+    }
+}
@@ -27,6 +27,8 @@ public class JDBCConstants {
     public static final String STR_VALUE_LCASE = "STR_VALUE_LCASE";
     public static final String TOKEN_VALUE = "TOKEN_VALUE";
     public static final String CODE_SYSTEM_ID = "CODE_SYSTEM_ID";
+    public static final String COMMON_TOKEN_VALUE_ID = "COMMON_TOKEN_VALUE_ID";
+    public static final String COMMON_TOKEN_VALUES = "COMMON_TOKEN_VALUES";
     public static final String CODE = "CODE";
     public static final String NUMBER_VALUE = "NUMBER_VALUE";
     public static final String QUANTITY_VALUE = "QUANTITY_VALUE";
@@ -86,6 +88,10 @@ public class JDBCConstants {
     public static final String DEFAULT_ORDERING = " ORDER BY RESOURCE_ID ASC ";
     public static final String DEFAULT_ORDERING_WITH_TABLE = " ORDER BY R.RESOURCE_ID ASC ";
 
+    // Keyset pagination uses the LOGICAL_RESOURCE_ID as the (tie-breaking) key
+    public static final String KEYSET_ORDERING = " ORDER BY R.LOGICAL_RESOURCE_ID ASC ";
+    public static final String KEYSET_PREDICATE = " AND R.LOGICAL_RESOURCE_ID > ? ";
+
     // MIN / MAX
     public static final String MAX = "MAX";
     public static final String MIN = "MIN";
@@ -0,0 +1,48 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * The original payload encoding: GZIP compressed JSON.
+ * <br>
+ * Payloads written before codecs were introduced carry no explicit format prefix. Every GZIP
+ * stream starts with the magic number 0x1f 0x8b, so the first byte of the magic doubles as
+ * the format byte of this codec. This keeps those rows readable, and keeps the rows written
+ * by this codec identical to the ones written before.
+ */
+public class GzipPayloadCodec implements ResourcePayloadCodec {
+    public static final String NAME = "gzip";
+
+    // The first byte of the GZIP magic number
+    public static final byte FORMAT = (byte) 0x1f;
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getFormat() {
+        return FORMAT;
+    }
+
+    @Override
+    public OutputStream encoder(OutputStream out, String resourceType) throws IOException {
+        return new GZIPOutputStream(out);
+    }
+
+    @Override
+    public InputStream decoder(InputStream in) throws IOException {
+        return new GZIPInputStream(in);
+    }
+}
@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.codec;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Service provider interface for the compression applied to the serialized resource
+ * stored in the DATA column of the xx_RESOURCES tables.
+ * <br>
+ * Every stored payload starts with the format byte of the codec which wrote it, so rows
+ * written with different codecs can be read side by side. The format byte is part of the
+ * encoded payload: encoders write it first and decoders are handed the complete payload,
+ * including the format byte. Implementations are registered
+ * with {@link ResourcePayloadCodecs}, either explicitly or through the
+ * {@link java.util.ServiceLoader} mechanism.
+ */
+public interface ResourcePayloadCodec {
+
+    /**
+     * @return the name used to select this codec in the configuration, e.g. "zstd"
+     */
+    String getName();
+
+    /**
+     * @return the format byte written at the start of each payload encoded by this codec.
+     *         Values must be unique across all registered codecs.
+     */
+    byte getFormat();
+
+    /**
+     * Wrap the passed stream so that everything written to the returned stream is encoded.
+     * The encoded payload must start with the format byte of this codec.
+     * @param out the target stream
+     * @param resourceType the type of the resource being encoded, which codecs may use
+     *        to select a resource-type specific compression dictionary
+     * @return an encoding stream; closing it must finish the encoding and close the target
+     * @throws IOException
+     */
+    OutputStream encoder(OutputStream out, String resourceType) throws IOException;
+
+    /**
+     * Wrap the passed stream so that the returned stream yields the decoded payload.
+     * The source stream is positioned at the format byte.
+     * @param in the source stream
+     * @return a decoding stream
+     * @throws IOException
+     */
+    InputStream decoder(InputStream in) throws IOException;
+}
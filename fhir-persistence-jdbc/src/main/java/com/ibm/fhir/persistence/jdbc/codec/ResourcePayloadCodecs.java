@@ -0,0 +1,151 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.codec;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.Objects;
+import java.util.ServiceLoader;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.generator.FHIRGenerator;
+import com.ibm.fhir.model.resource.Resource;
+
+/**
+ * Registry of the {@link ResourcePayloadCodec} implementations available for reading and writing
+ * the resource payloads stored in the DATA column of the xx_RESOURCES tables.
+ * <br>
+ * The built-in GZIP, LZ4 and Zstandard codecs are always registered. Additional codecs are
+ * discovered using {@link ServiceLoader}. A payload is always decoded by the codec matching its
+ * format byte, independent of the codec currently configured for writing.
+ */
+public final class ResourcePayloadCodecs {
+    private static final String CLASSNAME = ResourcePayloadCodecs.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final String DEFAULT_CODEC = GzipPayloadCodec.NAME;
+
+    private static final ConcurrentHashMap<Byte, ResourcePayloadCodec> codecsByFormat = new ConcurrentHashMap<>();
+    private static final ConcurrentHashMap<String, ResourcePayloadCodec> codecsByName = new ConcurrentHashMap<>();
+
+    // The configuration the current zstd codec was built from, to avoid reloading its dictionaries
+    private static String zstdConfiguration = null;
+
+    static {
+        register(new GzipPayloadCodec());
+        register(new Lz4PayloadCodec());
+        register(new ZstdPayloadCodec());
+        for (ResourcePayloadCodec codec : ServiceLoader.load(ResourcePayloadCodec.class)) {
+            log.info("Registering resource payload codec '" + codec.getName() + "': " + codec.getClass().getName());
+            register(codec);
+        }
+    }
+
+    private ResourcePayloadCodecs() {
+        // static only
+    }
+
+    /**
+     * Register the passed codec, replacing any codec previously registered with the same name
+     * @param codec
+     * @throws IllegalArgumentException if the format byte of the codec is already used by a codec with a different name
+     */
+    public static synchronized void register(ResourcePayloadCodec codec) {
+        Objects.requireNonNull(codec, "codec");
+        ResourcePayloadCodec existing = codecsByFormat.get(codec.getFormat());
+        if (existing != null && !existing.getName().equals(codec.getName())) {
+            throw new IllegalArgumentException("Format byte " + codec.getFormat() + " of codec '" + codec.getName()
+                + "' is already used by codec '" + existing.getName() + "'");
+        }
+        codecsByFormat.put(codec.getFormat(), codec);
+        codecsByName.put(codec.getName(), codec);
+    }
+
+    /**
+     * Configure the compression level and dictionaries of the zstd codec. This is a no-op if the
+     * codec is already configured this way, so it's cheap to call on every persistence layer instantiation.
+     * @param level the zstd compression level
+     * @param dictionaryDirectory a directory holding trained dictionaries named {resourceType}.dict, or null
+     * @throws IOException if the dictionaries can't be read
+     */
+    public static synchronized void configureZstd(int level, String dictionaryDirectory) throws IOException {
+        String configuration = level + "|" + dictionaryDirectory;
+        if (!configuration.equals(zstdConfiguration)) {
+            register(dictionaryDirectory != null
+                ? ZstdPayloadCodec.fromDictionaryDirectory(level, Paths.get(dictionaryDirectory))
+                : new ZstdPayloadCodec(level, Collections.emptyMap()));
+            zstdConfiguration = configuration;
+        }
+    }
+
+    /**
+     * Get the codec registered with the passed name
+     * @param name
+     * @return the codec
+     * @throws IllegalArgumentException if no such codec is registered
+     */
+    public static ResourcePayloadCodec getCodec(String name) {
+        ResourcePayloadCodec result = codecsByName.get(name);
+        if (result == null) {
+            throw new IllegalArgumentException("Unknown resource payload codec: '" + name + "'; known codecs are: " + codecsByName.keySet());
+        }
+        return result;
+    }
+
+    /**
+     * Serialize the passed resource to JSON and encode it using the passed codec
+     * @param codec
+     * @param resource
+     * @return the encoded payload
+     * @throws Exception
+     */
+    public static byte[] encode(ResourcePayloadCodec codec, Resource resource) throws Exception {
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (OutputStream encoder = codec.encoder(stream, resource.getClass().getSimpleName())) {
+            FHIRGenerator.generator(Format.JSON, false).generate(resource, encoder);
+        }
+        return stream.toByteArray();
+    }
+
+    /**
+     * Get a stream returning the decoded form of the passed payload, using the codec identified by its format byte
+     * @param payload
+     * @return the decoded JSON
+     * @throws IOException if the payload is empty or its format isn't known
+     */
+    public static InputStream decode(byte[] payload) throws IOException {
+        if (payload == null || payload.length == 0) {
+            throw new IOException("Empty resource payload");
+        }
+        ResourcePayloadCodec codec = codecsByFormat.get(payload[0]);
+        if (codec == null) {
+            throw new IOException("Unknown resource payload format: " + payload[0]);
+        }
+        return codec.decoder(new ByteArrayInputStream(payload));
+    }
+
+    /**
+     * Consume the format byte from the passed stream, checking that it matches the expected one.
+     * For use by codec implementations.
+     * @param in
+     * @param expected
+     * @throws IOException
+     */
+    public static void readFormat(InputStream in, byte expected) throws IOException {
+        int format = in.read();
+        if (format != (expected & 0xFF)) {
+            throw new IOException("Unexpected resource payload format: " + format + ", expected " + expected);
+        }
+    }
+}
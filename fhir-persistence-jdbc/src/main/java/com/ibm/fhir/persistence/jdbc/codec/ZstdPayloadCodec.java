@@ -0,0 +1,179 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.codec;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+import com.github.luben.zstd.Zstd;
+import com.github.luben.zstd.ZstdDictCompress;
+import com.github.luben.zstd.ZstdDictDecompress;
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+
+/**
+ * Encodes payloads using Zstandard, optionally with a trained dictionary per resource type.
+ * <br>
+ * Individual resources are small, so most of the gain of a general purpose compressor is lost
+ * on learning the structure of each document from scratch. A dictionary trained on samples of
+ * a resource type (e.g. with {@code zstd --train}) primes the compressor with that structure.
+ * <br>
+ * Encoded payloads have the layout:
+ * <pre>
+ * {format byte 0x02}{dictionary id, 4 bytes big-endian, 0 if none}{zstd frame}
+ * </pre>
+ * A dictionary must remain available for as long as rows compressed with it exist, otherwise
+ * those rows can't be decoded.
+ */
+public class ZstdPayloadCodec implements ResourcePayloadCodec {
+    private static final String CLASSNAME = ZstdPayloadCodec.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final String NAME = "zstd";
+
+    public static final byte FORMAT = (byte) 0x02;
+
+    public static final int DEFAULT_LEVEL = 3;
+
+    // The file extension of dictionaries loaded from a directory
+    public static final String DICTIONARY_SUFFIX = ".dict";
+
+    private final int level;
+
+    // Dictionaries used for compression, by resource type
+    private final Map<String, Dictionary> dictionariesByResourceType;
+
+    // Dictionaries used for decompression, by dictionary id
+    private final Map<Integer, Dictionary> dictionariesById;
+
+    /**
+     * Holds the digested forms of a dictionary, which are expensive to create
+     */
+    private static class Dictionary {
+        final int id;
+        final ZstdDictCompress compress;
+        final ZstdDictDecompress decompress;
+
+        Dictionary(int id, ZstdDictCompress compress, ZstdDictDecompress decompress) {
+            this.id = id;
+            this.compress = compress;
+            this.decompress = decompress;
+        }
+    }
+
+    /**
+     * Constructs a codec using the default compression level and no dictionaries
+     */
+    public ZstdPayloadCodec() {
+        this(DEFAULT_LEVEL, Collections.emptyMap());
+    }
+
+    /**
+     * Public constructor
+     * @param level the zstd compression level
+     * @param dictionaries the trained dictionaries to use, by resource type name
+     * @throws IllegalArgumentException if one of the dictionaries isn't a trained zstd dictionary
+     */
+    public ZstdPayloadCodec(int level, Map<String, byte[]> dictionaries) {
+        this.level = level;
+        Map<String, Dictionary> byResourceType = new HashMap<>();
+        Map<Integer, Dictionary> byId = new HashMap<>();
+        for (Map.Entry<String, byte[]> entry : dictionaries.entrySet()) {
+            // raw content dictionaries have no id, so we couldn't tell which one to decompress with
+            int id = (int) Zstd.getDictIdFromDict(entry.getValue());
+            if (id == 0) {
+                throw new IllegalArgumentException("Not a trained zstd dictionary: " + entry.getKey());
+            }
+            Dictionary dictionary = byId.computeIfAbsent(id,
+                k -> new Dictionary(k, new ZstdDictCompress(entry.getValue(), level), new ZstdDictDecompress(entry.getValue())));
+            byResourceType.put(entry.getKey(), dictionary);
+        }
+        this.dictionariesByResourceType = byResourceType;
+        this.dictionariesById = byId;
+    }
+
+    /**
+     * Create a codec using the dictionaries found in the passed directory. Each dictionary
+     * is held in a file named after the resource type it applies to, e.g. Patient.dict
+     * @param level the zstd compression level
+     * @param directory the directory holding the dictionaries
+     * @return the new codec
+     * @throws IOException if the dictionaries can't be read
+     */
+    public static ZstdPayloadCodec fromDictionaryDirectory(int level, Path directory) throws IOException {
+        Map<String, byte[]> dictionaries = new HashMap<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*" + DICTIONARY_SUFFIX)) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                String resourceType = fileName.substring(0, fileName.length() - DICTIONARY_SUFFIX.length());
+                dictionaries.put(resourceType, Files.readAllBytes(file));
+                log.info("Loaded zstd dictionary for resource type '" + resourceType + "' from " + file);
+            }
+        }
+        return new ZstdPayloadCodec(level, dictionaries);
+    }
+
+    @Override
+    public String getName() {
+        return NAME;
+    }
+
+    @Override
+    public byte getFormat() {
+        return FORMAT;
+    }
+
+    public int getLevel() {
+        return level;
+    }
+
+    @Override
+    public OutputStream encoder(OutputStream out, String resourceType) throws IOException {
+        Dictionary dictionary = resourceType != null ? dictionariesByResourceType.get(resourceType) : null;
+        out.write(FORMAT);
+        writeInt(out, dictionary != null ? dictionary.id : 0);
+
+        ZstdOutputStream result = new ZstdOutputStream(out, level);
+        if (dictionary != null) {
+            result.setDict(dictionary.compress);
+        }
+        return result;
+    }
+
+    @Override
+    public InputStream decoder(InputStream in) throws IOException {
+        ResourcePayloadCodecs.readFormat(in, FORMAT);
+        int dictionaryId = new DataInputStream(in).readInt();
+
+        ZstdInputStream result = new ZstdInputStream(in);
+        if (dictionaryId != 0) {
+            Dictionary dictionary = dictionariesById.get(dictionaryId);
+            if (dictionary == null) {
+                result.close();
+                throw new IOException("Payload was compressed with unknown zstd dictionary: id=" + Integer.toUnsignedString(dictionaryId));
+            }
+            result.setDict(dictionary.decompress);
+        }
+        return result;
+    }
+
+    private static void writeInt(OutputStream out, int value) throws IOException {
+        out.write((value >>> 24) & 0xFF);
+        out.write((value >>> 16) & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+        out.write(value & 0xFF);
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.dao.api;
+
+import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+
+/**
+ * This Data Access Object interface defines APIs specific to the common_token_values table,
+ * which holds the normalized (code_system_id, token_value) pairs referenced by the
+ * xx_token_values tables.
+ */
+public interface CommonTokenValuesDAO {
+
+    /**
+     * Read the common_token_value_id for the given code system and token value
+     * @param codeSystemId
+     * @param tokenValue
+     * @return the common_token_value_id, or null if it doesn't exist
+     * @throws FHIRPersistenceDataAccessException
+     */
+    Long readCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceDataAccessException;
+
+    /**
+     * Reads the id associated with the passed code system and token value from the common_token_values
+     * table. If the pair is not present in the database, a new row is added and its generated id is
+     * returned. This is done in a thread-safe way
+     * @param codeSystemId
+     * @param tokenValue
+     * @return the common_token_value_id for the pair
+     * @throws FHIRPersistenceDataAccessException
+     */
+    long readOrAddCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceDataAccessException;
+}
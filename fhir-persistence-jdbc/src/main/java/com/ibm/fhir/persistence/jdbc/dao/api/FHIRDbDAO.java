@@ -16,6 +16,7 @@ import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException
 public interface FHIRDbDAO {
 
     public static final String FHIRDB_JNDI_NAME_DEFAULT = "jdbc/fhirProxyDataSource";
+    public static final String FHIRDB_READ_REPLICA_JNDI_NAME_DEFAULT = "jdbc/fhirProxyReadReplicaDataSource";
     public static final String PROPERTY_DB_DRIVER = "dbDriverName";
     public static final String PROPERTY_DB_URL = "dbUrl";
     public static final String PROPERTY_DB2_USER = "user";
@@ -0,0 +1,27 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.dao.api;
+
+import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
+
+/**
+ * Abstraction of the cache service managing common token values
+ */
+public interface ICommonTokenValuesCache {
+
+    /**
+     * Reads the id associated with the passed code system and token value from the common_token_values table.
+     * If the pair is not present in the database, it is persisted and the generated id is returned.
+     * This is done in a thread-safe way
+     * @param codeSystemId The id of the code system of the token
+     * @param tokenValue The token value (code)
+     * @return the common_token_value_id associated with the pair
+     * @throws FHIRPersistenceException
+     */
+    long readOrAddCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceException;
+
+}
@@ -99,6 +99,27 @@ public interface ParameterDAO extends FHIRDbDAO {
      */
     void addCodeSystemsCacheCandidate(String codeSystemName, Integer codeSystemId) throws FHIRPersistenceException;
 
+    /**
+     * Read the id for the given code system id and token value from the common_token_values table,
+     * but do not create a new record if it doesn't exist.
+     * @param codeSystemId
+     * @param tokenValue
+     * @return Long - The common_token_value_id for the pair, or null if it doesn't exist
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceDataAccessException
+     */
+    Long readCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException;
+
+    /**
+     * Adds a code system id, token value / common token value id triple to a candidate collection for population
+     * into the CommonTokenValuesCache. This must be present as a row in the FHIR DB COMMON_TOKEN_VALUES table.
+     * @param codeSystemId The id of the code system.
+     * @param tokenValue The token value.
+     * @param commonTokenValueId The id corresponding to the pair.
+     * @throws FHIRPersistenceException
+     */
+    void addCommonTokenValuesCacheCandidate(int codeSystemId, String tokenValue, Long commonTokenValueId) throws FHIRPersistenceException;
+
     /**
      * Adds a parameter name / parameter id pair to a candidate collection for population into the ParameterNamesCache.
      * This pair must be present as a row in the FHIR DB PARAMETER_NAMES table.
@@ -108,6 +129,12 @@ public interface ParameterDAO extends FHIRDbDAO {
      */
     void addParameterNamesCacheCandidate(String parameterName, Integer parameterId) throws FHIRPersistenceException;
 
+    /**
+     * Discards the cache candidates collected so far in the current transaction, when the rows they refer to
+     * may have been rolled back (e.g. to a savepoint). They are simply read again from the database when needed.
+     */
+    void clearCacheCandidates();
+
     /**
      * Sets an externally managed DB connection, used by the DAO for all DB activity.
      * @param connection
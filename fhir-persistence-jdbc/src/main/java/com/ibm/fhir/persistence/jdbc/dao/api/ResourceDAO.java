@@ -9,12 +9,14 @@ package com.ibm.fhir.persistence.jdbc.dao.api;
 import java.sql.Timestamp;
 import java.util.List;
 import java.util.Map;
+import java.util.stream.Stream;
 
 import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceVersionIdMismatchException;
 import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
 import com.ibm.fhir.persistence.jdbc.dto.Resource;
+import com.ibm.fhir.persistence.jdbc.dto.SortedResourceKey;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.fhir.persistence.jdbc.util.SqlQueryData;
@@ -85,6 +87,17 @@ public interface ResourceDAO extends FHIRDbDAO {
      */
     List<Resource> search(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
 
+    /**
+     * Executes the search contained in the passed SqlQueryData, and returns its rows as a stream read from a
+     * forward-only cursor. The stream holds the cursor open, so it must be closed once consumed.
+     * @param queryData - Contains a search string and (optionally) bind variables.
+     * @param fetchSize - The number of rows fetched from the database at a time.
+     * @return Stream<Resource> A stream of the FHIR Resources satisfying the passed search.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    Stream<Resource> searchStream(SqlQueryData queryData, int fetchSize) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
     /**
      * Executes the search contained in the passed SqlQueryData, using it's encapsulated search string and bind variables.
      * @param queryData - Contains a search string and (optionally) bind variables.
@@ -120,6 +133,17 @@ public interface ResourceDAO extends FHIRDbDAO {
      */
     List<Long> searchForIds(SqlQueryData  queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
 
+    /**
+     * This method supports the execution of a keyset-paginated sorted query designed to return Resource ids together
+     * with the values needed to resume the search after the last returned row.
+     * Note that the selected columns MUST be the Resource.id column, the sort value and the logical resource id, in that order.
+     * @param queryData - Contains a search string and (optionally) bind variables.
+     * @return - An ordered List of sort keys for the resources that satisfy the passed SQL query.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    List<SortedResourceKey> searchForSortKeys(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
     /**
      * Searches for Resources that contain one of the passed ids.
      * @param resourceType - The type of the FHIR Resource
@@ -139,6 +163,17 @@ public interface ResourceDAO extends FHIRDbDAO {
      */
     int searchCount(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
 
+    /**
+     * Returns an estimate of the count which would be returned by the passed count query. Implementations
+     * which can obtain an estimate more cheaply than by running the query (for example from the statistics
+     * of the query planner) should do so; others may simply run the count query.
+     * @param queryData - Contains a count query string and (optionally) bind variables.
+     * @return int An estimate of the count of FHIR Resources satisfying the passed search.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    int searchCountEstimate(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
     /**
      * Executes the passed fully-formed SQL Select COUNT statement and returns the integer count.
      *
@@ -182,6 +217,12 @@ public interface ResourceDAO extends FHIRDbDAO {
      */
     void addResourceTypeCacheCandidate(String resourceType, Integer resourceTypeId) throws FHIRPersistenceException;
 
+    /**
+     * Discards the cache candidates collected so far in the current transaction, when the rows they refer to
+     * may have been rolled back (e.g. to a savepoint). They are simply read again from the database when needed.
+     */
+    void clearCacheCandidates();
+
     /**
      * Inserts the passed Resource DTO and its associated search parameters to the appropriate FHIR resource tables.
      * After insert, the generated primary key is acquired and set in the Resource object.
@@ -197,4 +238,37 @@ public interface ResourceDAO extends FHIRDbDAO {
     Resource insert(Resource resource, List<ExtractedParameterValue> parameters, ParameterDAO parameterDao)
             throws FHIRPersistenceException;
 
+    /**
+     * Inserts the passed Resource DTOs and their associated search parameters to the appropriate FHIR resource tables,
+     * using a single connection. The search parameter rows of all the resources are accumulated in shared JDBC
+     * batches, so they are written with far fewer database round-trips than when inserting the resources one at a time.
+     * After insert, the generated primary key is acquired and set in each Resource object.
+     * @param resources A list of Resource Data Transfer Objects
+     * @param parameters The search parameters of each resource, in the same order as the resources
+     * @param parameterDao The Parameter DAO
+     * @return List<Resource> The Resource DTOs
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceVersionIdMismatchException
+     * @throws FHIRPersistenceException
+     */
+    List<Resource> insertBatch(List<Resource> resources, List<List<ExtractedParameterValue>> parameters, ParameterDAO parameterDao)
+            throws FHIRPersistenceException;
+
+    /**
+     * Deletes up to maxVersions of the older versions of Resources of the passed type which are not retained by the
+     * passed policy. The current version of a Resource is never deleted. A version is retained when it is one of the
+     * keepVersions latest versions of its Resource, or when it was last updated at or after keepSince.
+     * The search parameters only belong to the current version, so they are not affected.
+     * @param resourceType - The name of a FHIR Resource type
+     * @param keepVersions - The number of latest versions to retain, or 0 to retain versions by age only
+     * @param keepSince - Versions last updated at or after this time are retained, or null to retain versions by count only
+     * @param maxVersions - The maximum number of versions to delete
+     * @return List<Resource> - The versions deleted, with their id, logical id, version id and resource type set
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    List<Resource> pruneHistory(String resourceType, int keepVersions, Timestamp keepSince, int maxVersions)
+            throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException;
+
 }
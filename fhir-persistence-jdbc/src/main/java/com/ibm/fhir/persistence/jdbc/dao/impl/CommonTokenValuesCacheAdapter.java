@@ -0,0 +1,51 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.dao.impl;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.fhir.persistence.jdbc.dao.api.CommonTokenValuesDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.ICommonTokenValuesCache;
+import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
+import com.ibm.fhir.persistence.jdbc.util.CommonTokenValuesCache;
+
+/**
+ * Adapter to provide cached access to common token values. Misses are resolved
+ * using the database-specific {@link CommonTokenValuesDAO}, and the results are
+ * registered as cache candidates with the {@link ParameterDAO} so they only enter
+ * the {@link CommonTokenValuesCache} once the transaction commits.
+ */
+public class CommonTokenValuesCacheAdapter implements ICommonTokenValuesCache {
+    private static final Logger log = Logger.getLogger(CommonTokenValuesCacheAdapter.class.getName());
+
+    private final CommonTokenValuesDAO delegate;
+
+    private final ParameterDAO parameterDao;
+
+    public CommonTokenValuesCacheAdapter(CommonTokenValuesDAO delegate, ParameterDAO parameterDao) {
+        this.delegate = delegate;
+        this.parameterDao = parameterDao;
+    }
+
+    @Override
+    public long readOrAddCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceException {
+        Long result = CommonTokenValuesCache.getCommonTokenValueId(codeSystemId, tokenValue);
+        boolean acquiredFromCache = result != null;
+        if (result == null) {
+            result = delegate.readOrAddCommonTokenValueId(codeSystemId, tokenValue);
+            parameterDao.addCommonTokenValuesCacheCandidate(codeSystemId, tokenValue, result);
+        }
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("codeSystemId=" + codeSystemId + "  tokenValue=" + tokenValue + "  commonTokenValueId=" + result
+                    + "  acquiredFromCache=" + acquiredFromCache);
+        }
+        return result;
+    }
+}
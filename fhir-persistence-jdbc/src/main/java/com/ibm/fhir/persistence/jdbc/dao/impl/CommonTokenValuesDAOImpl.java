@@ -0,0 +1,136 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.dao.impl;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.persistence.jdbc.dao.api.CommonTokenValuesDAO;
+import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+
+/**
+ * DAO used to manage common_token_values records. This DAO uses a connection
+ * provided to its constructor. It's therefore assumed to be a short-lived object,
+ * created on-the-fly. Caching is handled by the {@link CommonTokenValuesCacheAdapter}.
+ * <br>
+ * The base implementation is used for Db2, where the mt_id column is populated from the
+ * tenant session variable held in the admin schema.
+ */
+public class CommonTokenValuesDAOImpl implements CommonTokenValuesDAO {
+    private static final Logger log = Logger.getLogger(CommonTokenValuesDAOImpl.class.getName());
+    private static final String CLASSNAME = CommonTokenValuesDAOImpl.class.getName();
+
+    private static final String SQL_SELECT_COMMON_TOKEN_VALUE_ID =
+            "SELECT common_token_value_id FROM common_token_values WHERE token_value = ? AND code_system_id = ?";
+
+    // The JDBC connection used by this DAO instance
+    private final Connection connection;
+
+    // The schema holding the tenant session variable, or null if not multi-tenant
+    private final String adminSchemaName;
+
+    /**
+     * Public constructor
+     * @param c the connection to use for all database access
+     * @param adminSchemaName the admin schema holding the sv_tenant_id session variable
+     */
+    public CommonTokenValuesDAOImpl(Connection c, String adminSchemaName) {
+        this.connection = c;
+        this.adminSchemaName = adminSchemaName;
+    }
+
+    /**
+     * Provide subclasses with access to the {@link Connection}
+     * @return
+     */
+    protected Connection getConnection() {
+        return this.connection;
+    }
+
+    @Override
+    public Long readCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceDataAccessException {
+        final String METHODNAME = "readCommonTokenValueId";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Long result;
+        long dbCallStartTime = System.nanoTime();
+        try (PreparedStatement stmt = connection.prepareStatement(SQL_SELECT_COMMON_TOKEN_VALUE_ID)) {
+            stmt.setString(1, tokenValue);
+            stmt.setInt(2, codeSystemId);
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                result = rs.getLong(1);
+            }
+            else {
+                result = null;
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("DB read common token value complete. executionTime=" + (System.nanoTime()-dbCallStartTime)/1e6 + "ms");
+            }
+        }
+        catch (SQLException e) {
+            throw new FHIRPersistenceDataAccessException("codeSystemId=" + codeSystemId + ", tokenValue=" + tokenValue, e);
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+
+        return result;
+    }
+
+    @Override
+    public long readOrAddCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceDataAccessException {
+        // As the system is concurrent, we have to handle cases where another thread
+        // might create the entry after we selected and found nothing
+        Long result = readCommonTokenValueId(codeSystemId, tokenValue);
+
+        if (result == null) {
+            try {
+                insertCommonTokenValue(codeSystemId, tokenValue);
+            }
+            catch (SQLException e) {
+                if (!"23505".equals(e.getSQLState())) {
+                    throw new FHIRPersistenceDataAccessException("codeSystemId=" + codeSystemId + ", tokenValue=" + tokenValue, e);
+                }
+                // else another thread snuck in and created the record, which we simply read back below
+            }
+
+            // The id is generated by the database, so we always need to read it back
+            result = readCommonTokenValueId(codeSystemId, tokenValue);
+            if (result == null) {
+                // This would be truly weird, but we protect against it anyway
+                throw new IllegalStateException("No common token value returned after insert!");
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Insert a new row into common_token_values. The common_token_value_id is generated
+     * by the database. Implementations must raise the SQLException with SQLState 23505
+     * (or quietly do nothing) if the row already exists.
+     * @param codeSystemId
+     * @param tokenValue
+     * @throws SQLException
+     */
+    protected void insertCommonTokenValue(int codeSystemId, String tokenValue) throws SQLException {
+        final String INS = adminSchemaName != null ?
+                "INSERT INTO common_token_values (mt_id, code_system_id, token_value) VALUES (" + adminSchemaName + ".sv_tenant_id, ?, ?)"
+                :
+                "INSERT INTO common_token_values (code_system_id, token_value) VALUES (?, ?)";
+        try (PreparedStatement stmt = connection.prepareStatement(INS)) {
+            stmt.setInt(1, codeSystemId);
+            stmt.setString(2, tokenValue);
+            stmt.executeUpdate();
+        }
+    }
+}
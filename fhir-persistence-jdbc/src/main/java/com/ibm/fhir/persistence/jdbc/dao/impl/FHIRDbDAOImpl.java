@@ -14,10 +14,16 @@ import java.sql.SQLException;
 import java.sql.Timestamp;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
 import java.util.Properties;
+import java.util.Spliterator;
+import java.util.Spliterators;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 import javax.naming.InitialContext;
 import javax.sql.DataSource;
@@ -53,6 +59,7 @@ public class FHIRDbDAOImpl implements FHIRDbDAO {
 
     private static DataSource fhirDb = null;
     private static String datasourceJndiName = null;
+    private static DataSource fhirReadReplicaDb = null;
 
     private Properties dbProps = null;
     private Connection externalConnection = null;
@@ -192,19 +199,7 @@ public class FHIRDbDAOImpl implements FHIRDbDAO {
                 }
             }
 
-            // Configure the connection for the tenant
-            String tenantName = FHIRRequestContext.get().getTenantId();
-            String tenantKey = FHIRRequestContext.get().getTenantKey();
-
-            if (tenantName != null && tenantKey != null) {
-                if (log.isLoggable(Level.FINE)) {
-                    log.fine("Setting tenant access on connection for: " + tenantName);
-                }
-                Db2SetTenantVariable cmd = new Db2SetTenantVariable("FHIR_ADMIN", tenantName, tenantKey);
-                JdbcTarget target = new JdbcTarget(connection);
-                Db2Adapter adapter = new Db2Adapter(target);
-                adapter.runStatement(cmd);
-            }
+            configureTenantAccess(connection);
 
             return connection;
         } catch (FHIRPersistenceDBConnectException e) {
@@ -220,6 +215,63 @@ public class FHIRDbDAOImpl implements FHIRDbDAO {
         }
     }
 
+    /**
+     * Acquires a connection to the given datastore of the current tenant from the read replica datasource.
+     * This datasource is configured as non-transactional, so that its connections are not enlisted in the
+     * global transaction of the request: a read replica cannot take part in a two-phase commit.
+     * @param dsId the id of the read replica datastore
+     * @return Connection - A connection to the read replica, in auto-commit mode.
+     * @throws FHIRPersistenceDBConnectException
+     */
+    public Connection getReadReplicaConnection(String dsId) throws FHIRPersistenceDBConnectException {
+        final String METHODNAME = "getReadReplicaConnection";
+        log.entering(CLASSNAME, METHODNAME);
+
+        String tenantId = FHIRRequestContext.get().getTenantId();
+        Connection connection = null;
+        try {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Getting read replica connection for tenantId/dsId: [" + tenantId + "/" + dsId + "]...");
+            }
+            connection = getFhirReadReplicaDatasource().getConnection(tenantId, dsId);
+            configureTenantAccess(connection);
+            return connection;
+        } catch (Throwable e) {
+            if (connection != null) {
+                try {
+                    connection.close();
+                } catch (SQLException x) {
+                    log.log(Level.WARNING, "Failure closing read replica connection", x);
+                }
+            }
+            // Don't emit secrets in case they are returned to a client
+            FHIRPersistenceDBConnectException fx = new FHIRPersistenceDBConnectException("Failure acquiring connection for read replica datasource");
+            throw severe(log, fx, "Failure acquiring connection for read replica datastore: " + dsId, e);
+        } finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    /**
+     * Sets the tenant variable on the connection, when the current request has a tenant key (Db2 multi-tenancy).
+     * @param connection
+     * @throws Exception
+     */
+    private void configureTenantAccess(Connection connection) throws Exception {
+        String tenantName = FHIRRequestContext.get().getTenantId();
+        String tenantKey = FHIRRequestContext.get().getTenantKey();
+
+        if (tenantName != null && tenantKey != null) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Setting tenant access on connection for: " + tenantName);
+            }
+            Db2SetTenantVariable cmd = new Db2SetTenantVariable("FHIR_ADMIN", tenantName, tenantKey);
+            JdbcTarget target = new JdbcTarget(connection);
+            Db2Adapter adapter = new Db2Adapter(target);
+            adapter.runStatement(cmd);
+        }
+    }
+
     /**
      * Retrieves the datasource JNDI name to be used from the fhir server configuration.
      * @return the datasource JNDI name
@@ -282,6 +334,27 @@ public class FHIRDbDAOImpl implements FHIRDbDAO {
         }
     }
 
+    /**
+     * Looks up and returns the non-transactional Datasource used to connect to read replicas via JNDI.
+     * @return
+     * @throws Exception
+     */
+    private static synchronized DataSource getFhirReadReplicaDatasource() throws Exception {
+        if (fhirReadReplicaDb == null) {
+            String jndiName = FHIRConfiguration.getInstance().loadConfiguration()
+                    .getStringProperty(FHIRConfiguration.PROPERTY_JDBC_READ_REPLICA_DATASOURCE_JNDINAME,
+                            FHIRDbDAO.FHIRDB_READ_REPLICA_JNDI_NAME_DEFAULT);
+            try {
+                fhirReadReplicaDb = (DataSource) new InitialContext().lookup(jndiName);
+            } catch (Throwable e) {
+                FHIRException fx = new FHIRPersistenceDBConnectException("Failure acquiring read replica datasource");
+                log.log(Level.SEVERE, fx.addProbeId("Failure acquiring read replica datasource: " + jndiName), e);
+                throw fx;
+            }
+        }
+        return fhirReadReplicaDb;
+    }
+
     /**
      * Closes the passed PreparedStatement and Connection objects.
      * @param stmt
@@ -398,6 +471,116 @@ public class FHIRDbDAOImpl implements FHIRDbDAO {
         return fhirObjects;
     }
 
+    /**
+     * Creates and executes a PreparedStatement using the passed parameters, and returns the rows of its forward-only
+     * cursor as a stream of FHIR Data Transfer Objects. The rows are fetched from the database fetchSize at a time,
+     * and each DTO is created when the stream reaches its row, so the whole result is never held in memory.
+     * The ResultSet, PreparedStatement and Connection are held until the stream is closed.
+     * @param sql - The SQL template to execute.
+     * @param fetchSize - The number of rows fetched from the database at a time.
+     * @param searchArgs - An array of arguments to be substituted into the SQL template.
+     * @return Stream<Resource> - A stream of the FHIR Data Transfer Objects resulting from the executed query.
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     */
+    protected Stream<Resource> streamQuery(String sql, int fetchSize, Object... searchArgs) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "streamQuery";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        String errMsg;
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        try {
+            connection = this.getConnection();
+            stmt = connection.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
+            // Inject arguments into the prepared stmt.
+            for (int i = 0; i <searchArgs.length;  i++) {
+                if (searchArgs[i] instanceof Timestamp) {
+                    stmt.setTimestamp(i+1, (Timestamp) searchArgs[i], JDBCConstants.UTC);
+                } else {
+                    stmt.setObject(i+1, searchArgs[i]);
+                }
+            }
+            dbCallStartTime = System.nanoTime();
+            resultSet = stmt.executeQuery();
+            dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
+
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Successfully opened FHIR objects cursor. SQL=" + sql + "  searchArgs=" + Arrays.toString(searchArgs) +
+                         " fetchSize=" + fetchSize + " executionTime=" + dbCallDuration + "ms");
+            }
+
+            final Connection c = connection;
+            final PreparedStatement ps = stmt;
+            final ResultSet rs = resultSet;
+            Spliterator<Resource> spliterator = Spliterators.spliteratorUnknownSize(new ResultSetIterator(resultSet),
+                Spliterator.ORDERED | Spliterator.NONNULL);
+            return StreamSupport.stream(spliterator, false).onClose(() -> this.cleanup(rs, ps, c));
+        }
+        catch (Throwable e) {
+            this.cleanup(resultSet, stmt, connection);
+            if (e instanceof FHIRPersistenceDataAccessException) {
+                throw (FHIRPersistenceDataAccessException) e;
+            }
+            if (e instanceof FHIRPersistenceDBConnectException) {
+                throw (FHIRPersistenceDBConnectException) e;
+            }
+            // avoid leaking SQL because the exception message might be returned to a client
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure retrieving FHIR objects");
+            errMsg = "Failure retrieving FHIR objects. SQL=" + sql + "  searchArgs=" + Arrays.toString(searchArgs);
+            throw severe(log, fx, errMsg, e);
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    /**
+     * Iterates over the rows of a ResultSet, creating the DTO of each row as it is reached.
+     */
+    private class ResultSetIterator implements Iterator<Resource> {
+        private final ResultSet resultSet;
+        private Resource next;
+        private boolean done;
+
+        ResultSetIterator(ResultSet resultSet) {
+            this.resultSet = resultSet;
+        }
+
+        @Override
+        public boolean hasNext() {
+            try {
+                while (next == null && !done) {
+                    if (resultSet.next()) {
+                        next = createDTO(resultSet);
+                    } else {
+                        done = true;
+                    }
+                }
+            } catch (SQLException | FHIRPersistenceDataAccessException e) {
+                // Don't chain the cause, because we might leak secrets
+                log.log(Level.SEVERE, "Failure creating DTO.", e);
+                throw new IllegalStateException("Failure creating DTO.");
+            }
+            return next != null;
+        }
+
+        @Override
+        public Resource next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            Resource result = next;
+            next = null;
+            return result;
+        }
+    }
+
     /**
      * Creates and executes a PreparedStatement for the passed sql containing a 'SELECT COUNT...'.
      * The count value is extracted from the ResultSet and returned as an int.
@@ -16,12 +16,15 @@ import javax.transaction.TransactionSynchronizationRegistry;
 
 import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.jdbc.dao.api.CodeSystemDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.CommonTokenValuesDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterNameDAO;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
 import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCacheUpdater;
+import com.ibm.fhir.persistence.jdbc.util.CommonTokenValuesCache;
+import com.ibm.fhir.persistence.jdbc.util.CommonTokenValuesCacheUpdater;
 import com.ibm.fhir.persistence.jdbc.util.ParameterNamesCache;
 import com.ibm.fhir.persistence.jdbc.util.ParameterNamesCacheUpdater;
 import com.ibm.fhir.persistence.jdbc.util.SqlParameterEncoder;
@@ -38,10 +41,12 @@ public class ParameterDAOImpl extends FHIRDbDAOImpl implements ParameterDAO {
 
     private Map<String, Integer> newParameterNameIds = new HashMap<>();
     private Map<String, Integer> newCodeSystemIds = new HashMap<>();
+    private Map<String, Long> newCommonTokenValueIds = new HashMap<>();
 
     private boolean runningInTrx = false;
     private CodeSystemsCacheUpdater csCacheUpdater = null;
     private ParameterNamesCacheUpdater pnCacheUpdater = null;
+    private CommonTokenValuesCacheUpdater ctvCacheUpdater = null;
     private TransactionSynchronizationRegistry trxSynchRegistry;
 
 
@@ -184,6 +189,38 @@ public class ParameterDAOImpl extends FHIRDbDAOImpl implements ParameterDAO {
 
     }
 
+    /**
+     * Adds a code system id, token value / common token value id triple to a candidate collection for population
+     * into the CommonTokenValuesCache. This must be present as a row in the FHIR DB COMMON_TOKEN_VALUES table.
+     * @param codeSystemId The id of the code system.
+     * @param tokenValue The token value.
+     * @param commonTokenValueId The id corresponding to the pair.
+     * @throws FHIRPersistenceException
+     */
+    @Override
+    public void addCommonTokenValuesCacheCandidate(int codeSystemId, String tokenValue, Long commonTokenValueId) throws FHIRPersistenceException {
+        final String METHODNAME = "addCommonTokenValuesCacheCandidate";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (this.runningInTrx && CommonTokenValuesCache.isEnabled()) {
+            if (this.ctvCacheUpdater == null) {
+                // Register a new CommonTokenValuesCacheUpdater for this thread/trx, if one hasn't been already registered.
+                this.ctvCacheUpdater = new CommonTokenValuesCacheUpdater(CodeSystemsCache.getCacheNameForTenantDatastore(), this.newCommonTokenValueIds);
+                try {
+                    trxSynchRegistry.registerInterposedSynchronization(ctvCacheUpdater);
+                    log.fine("Registered CommonTokenValuesCacheUpdater.");
+                }
+                catch(Throwable e) {
+                    FHIRPersistenceException fx = new FHIRPersistenceException("Failure registering CommonTokenValuesCacheUpdater");
+                    throw severe(log, fx, e);
+                }
+            }
+            this.newCommonTokenValueIds.put(CommonTokenValuesCache.makeKey(codeSystemId, tokenValue), commonTokenValueId);
+        }
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+
     /**
      * Adds a parameter name / parameter id pair to a candidate collection for population into the ParameterNamesCache.
      * This pair must be present as a row in the FHIR DB PARAMETER_NAMES table.
@@ -216,6 +253,13 @@ public class ParameterDAOImpl extends FHIRDbDAOImpl implements ParameterDAO {
 
     }
 
+    @Override
+    public void clearCacheCandidates() {
+        this.newCodeSystemIds.clear();
+        this.newParameterNameIds.clear();
+        this.newCommonTokenValueIds.clear();
+    }
+
     /**
      * Acquire and return the id associated with the passed parameter name.
      * @param parameterName The name of a valid FHIR search parameter.
@@ -327,4 +371,21 @@ public class ParameterDAOImpl extends FHIRDbDAOImpl implements ParameterDAO {
         }
     }
 
+    @Override
+    public Long readCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException {
+        final String METHODNAME = "readCommonTokenValueId";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        try {
+            connection = this.getConnection();
+            // Read-only access, so the admin schema (only needed for inserts) is not required
+            CommonTokenValuesDAO ctvd = new CommonTokenValuesDAOImpl(connection, null);
+            return ctvd.readCommonTokenValueId(codeSystemId, tokenValue);
+        }
+        finally {
+            this.cleanup(null, connection);
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
 }
@@ -0,0 +1,584 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.dao.impl;
+
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.UTC;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.fhir.persistence.jdbc.dao.api.ICodeSystemCache;
+import com.ibm.fhir.persistence.jdbc.dao.api.ICommonTokenValuesCache;
+import com.ibm.fhir.persistence.jdbc.dao.api.IParameterNameCache;
+import com.ibm.fhir.persistence.jdbc.dto.CompositeParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.DateParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
+import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValueVisitor;
+import com.ibm.fhir.persistence.jdbc.dto.LocationParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.NumberParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.QuantityParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.StringParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.TokenParmVal;
+import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+import com.ibm.fhir.schema.control.FhirSchemaConstants;
+
+/**
+ * Computes the delta between the parameter values extracted from a new version of a resource and the
+ * parameter values stored for the current version, so that an update only touches the parameter rows
+ * which actually changed.
+ * <br>
+ * Each parameter value maps to a row of one of the parameter tables (and composites also to a row of
+ * the xx_composites table). The rows are compared per parameter name: when the rows the new values map to are
+ * exactly those stored for the logical resource, the parameter is left alone. Otherwise the stored rows of
+ * the parameter are deleted, and its new values are returned to be inserted by the {@link ParameterVisitorBatchDAO}.
+ * <br>
+ * The comparison is on the values as they are stored (truncated strings, doubles, normalized token and code
+ * system ids), so values which only differ in a way the tables cannot represent are considered equal. Any other
+ * difference, including a loss of precision in the database, simply causes the parameter to be rewritten.
+ * <br>
+ * The stored rows are read with a single query (a UNION ALL over the parameter tables of the resource type), so
+ * computing the delta costs one round trip plus a delete per changed parameter and table.
+ * <br>
+ * Parameters stored at the resource (system) level are not maintained here, and are always returned to be inserted.
+ */
+public class ParameterDeltaDAO implements ExtractedParameterValueVisitor {
+    private static final String CLASSNAME = ParameterDeltaDAO.class.getName();
+    private static final Logger logger = Logger.getLogger(CLASSNAME);
+
+    private static final String COMPOSITES = "_composites";
+    private static final String STR_VALUES = "_str_values";
+    private static final String NUMBER_VALUES = "_number_values";
+    private static final String DATE_VALUES = "_date_values";
+    private static final String TOKEN_VALUES = "_token_values";
+    private static final String QUANTITY_VALUES = "_quantity_values";
+    private static final String LATLNG_VALUES = "_latlng_values";
+
+    // The component columns of the xx_composites table, in the order of the insert in ParameterVisitorBatchDAO
+    private static final String[] COMPONENT_TABLES = { STR_VALUES, NUMBER_VALUES, DATE_VALUES, TOKEN_VALUES, QUANTITY_VALUES, LATLNG_VALUES };
+    private static final int MAX_COMPONENTS = 3;
+
+    // The tables read by the query over all the parameter tables, by the value of its first column
+    private static final String[] STORED_ROW_TABLES = { STR_VALUES, NUMBER_VALUES, DATE_VALUES, TOKEN_VALUES, QUANTITY_VALUES, LATLNG_VALUES, COMPOSITES };
+
+    // The (1-based) columns of the result of that query, after the table, row_id and parameter_name_id columns
+    private static final int COL_STRING = 4;
+    private static final int COL_CODE_SYSTEM = 5;
+    private static final int COL_DOUBLE = 6;
+    private static final int COL_TIMESTAMP = 9;
+    private static final int COL_TOKEN = 11;
+    private static final int COL_COMPONENTS = 12;
+
+    // The query over all the parameter tables, by resource type
+    private static final Map<String, String> SELECT_STORED_ROWS = new ConcurrentHashMap<>();
+
+    private static final String NULL_KEY = "-";
+
+    private final Connection connection;
+    private final String tablePrefix;
+    private final long logicalResourceId;
+
+    // For looking up parameter name ids
+    private final IParameterNameCache parameterNameCache;
+
+    // For looking up code system ids
+    private final ICodeSystemCache codeSystemCache;
+
+    // For looking up the normalized (code system, token value) ids
+    private final ICommonTokenValuesCache commonTokenValuesCache;
+
+    // The keys of the rows the visited parameter values map to, by parameter_name_id
+    private final Map<Integer, List<String>> newRows = new HashMap<>();
+
+    // The parameter_name_id of the last visited value, or null if the value maps to no row
+    private Integer visitedParameterNameId;
+
+    /**
+     * Public constructor
+     * @param c
+     * @param tablePrefix the resource type
+     * @param logicalResourceId the logical resource whose parameters are updated
+     * @param pnc
+     * @param csc
+     * @param ctvc
+     */
+    public ParameterDeltaDAO(Connection c, String tablePrefix, long logicalResourceId,
+            IParameterNameCache pnc, ICodeSystemCache csc, ICommonTokenValuesCache ctvc) {
+        this.connection = c;
+        this.tablePrefix = tablePrefix;
+        this.logicalResourceId = logicalResourceId;
+        this.parameterNameCache = pnc;
+        this.codeSystemCache = csc;
+        this.commonTokenValuesCache = ctvc;
+    }
+
+    /**
+     * Deletes the stored rows of the parameters whose values changed, and returns the parameter values
+     * which must be inserted.
+     * @param parameters the parameter values extracted from the new version of the resource, or null if
+     *        the resource is deleted
+     * @return the parameter values to insert, in their original order
+     * @throws FHIRPersistenceException
+     */
+    public List<ExtractedParameterValue> applyDelta(List<ExtractedParameterValue> parameters) throws FHIRPersistenceException {
+        final String METHODNAME = "applyDelta";
+        logger.entering(CLASSNAME, METHODNAME);
+
+        List<ExtractedParameterValue> result = new ArrayList<>();
+        Map<ExtractedParameterValue, Integer> parameterNameIds = new IdentityHashMap<>();
+        if (parameters != null) {
+            for (ExtractedParameterValue p: parameters) {
+                if (isBase(p)) {
+                    continue;
+                }
+                visitedParameterNameId = null;
+                p.accept(this);
+                if (visitedParameterNameId != null) {
+                    parameterNameIds.put(p, visitedParameterNameId);
+                }
+            }
+        }
+
+        try {
+            Map<Integer, List<String>> storedRows = new HashMap<>();
+            Map<Integer, Set<String>> storedTables = new HashMap<>();
+            readStoredRows(storedRows, storedTables);
+
+            Set<Integer> changed = new HashSet<>();
+            Set<Integer> names = new HashSet<>(newRows.keySet());
+            names.addAll(storedRows.keySet());
+            for (Integer parameterNameId: names) {
+                List<String> current = storedRows.getOrDefault(parameterNameId, Collections.emptyList());
+                List<String> next = newRows.getOrDefault(parameterNameId, Collections.emptyList());
+                Collections.sort(current);
+                Collections.sort(next);
+                if (!current.equals(next)) {
+                    changed.add(parameterNameId);
+                }
+            }
+
+            // delete composites first, or else the foreign keys there restrict deletes on referenced tables
+            for (Integer parameterNameId: changed) {
+                Set<String> tables = storedTables.get(parameterNameId);
+                if (tables != null && tables.contains(COMPOSITES)) {
+                    deleteParameterRows(COMPOSITES, parameterNameId);
+                }
+            }
+            for (Integer parameterNameId: changed) {
+                Set<String> tables = storedTables.get(parameterNameId);
+                if (tables != null) {
+                    for (String table: tables) {
+                        if (!COMPOSITES.equals(table)) {
+                            deleteParameterRows(table, parameterNameId);
+                        }
+                    }
+                }
+            }
+
+            if (parameters != null) {
+                for (ExtractedParameterValue p: parameters) {
+                    Integer parameterNameId = parameterNameIds.get(p);
+                    if (isBase(p) || parameterNameId != null && changed.contains(parameterNameId)) {
+                        result.add(p);
+                    }
+                }
+            }
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Parameter delta for " + tablePrefix + "/" + logicalResourceId + ": "
+                        + changed.size() + " of " + names.size() + " parameters changed, "
+                        + result.size() + " values to insert");
+            }
+        } catch (SQLException x) {
+            throw new FHIRPersistenceDataAccessException("Failed computing the parameter delta for "
+                    + tablePrefix + "/" + logicalResourceId, x);
+        } finally {
+            logger.exiting(CLASSNAME, METHODNAME);
+        }
+        return result;
+    }
+
+    /**
+     * Read the keys of the parameter rows currently stored for the logical resource, with a single
+     * query over all the parameter tables
+     * @param storedRows the keys of the stored rows, by parameter_name_id
+     * @param storedTables the tables holding rows, by parameter_name_id
+     * @throws SQLException
+     */
+    private void readStoredRows(Map<Integer, List<String>> storedRows, Map<Integer, Set<String>> storedTables) throws SQLException {
+        // the keys of the stored rows, by table and row_id
+        Map<String, Map<Long, String>> rowKeysById = new HashMap<>();
+        for (String table: COMPONENT_TABLES) {
+            rowKeysById.put(table, new HashMap<>());
+        }
+        List<Integer> compositeNameIds = new ArrayList<>();
+        List<long[]> compositeRowIds = new ArrayList<>();
+
+        final String sql = SELECT_STORED_ROWS.computeIfAbsent(tablePrefix, ParameterDeltaDAO::createSelectStoredRows);
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            for (int i = 1; i <= STORED_ROW_TABLES.length; i++) {
+                stmt.setLong(i, logicalResourceId);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                final String table = STORED_ROW_TABLES[rs.getInt(1)];
+                final int parameterNameId = rs.getInt(3);
+                if (COMPOSITES.equals(table)) {
+                    // the keys of the components are only known once all the rows are read
+                    long[] rowIds = new long[MAX_COMPONENTS * COMPONENT_TABLES.length];
+                    for (int i = 0; i < rowIds.length; i++) {
+                        long rowId = rs.getLong(COL_COMPONENTS + i);
+                        rowIds[i] = rs.wasNull() ? -1 : rowId;
+                    }
+                    compositeNameIds.add(parameterNameId);
+                    compositeRowIds.add(rowIds);
+                    storedTables.computeIfAbsent(parameterNameId, k -> new LinkedHashSet<>()).add(COMPOSITES);
+                    continue;
+                }
+
+                final String key;
+                switch (table) {
+                case STR_VALUES:
+                    key = stringKey(rs.getString(COL_STRING));
+                    break;
+                case NUMBER_VALUES:
+                    key = numberKey(getDouble(rs, COL_DOUBLE), getDouble(rs, COL_DOUBLE + 1), getDouble(rs, COL_DOUBLE + 2));
+                    break;
+                case DATE_VALUES:
+                    key = dateKey(rs.getTimestamp(COL_TIMESTAMP, UTC), rs.getTimestamp(COL_TIMESTAMP + 1, UTC));
+                    break;
+                case TOKEN_VALUES:
+                    long commonTokenValueId = rs.getLong(COL_TOKEN);
+                    key = tokenKey(rs.wasNull() ? null : commonTokenValueId);
+                    break;
+                case QUANTITY_VALUES:
+                    key = quantityKey(rs.getInt(COL_CODE_SYSTEM), rs.getString(COL_STRING), getDouble(rs, COL_DOUBLE),
+                            getDouble(rs, COL_DOUBLE + 1), getDouble(rs, COL_DOUBLE + 2));
+                    break;
+                default:
+                    key = locationKey(getDouble(rs, COL_DOUBLE), getDouble(rs, COL_DOUBLE + 1));
+                    break;
+                }
+                rowKeysById.get(table).put(rs.getLong(2), key);
+                storedRows.computeIfAbsent(parameterNameId, k -> new ArrayList<>()).add(key);
+                storedTables.computeIfAbsent(parameterNameId, k -> new LinkedHashSet<>()).add(table);
+            }
+        }
+
+        for (int r = 0; r < compositeRowIds.size(); r++) {
+            long[] rowIds = compositeRowIds.get(r);
+            String[] slots = new String[rowIds.length];
+            for (int i = 0; i < slots.length; i++) {
+                if (rowIds[i] < 0) {
+                    slots[i] = NULL_KEY;
+                } else {
+                    // a row of another logical resource can never match, so just keep its id
+                    String table = COMPONENT_TABLES[i % COMPONENT_TABLES.length];
+                    slots[i] = rowKeysById.get(table).getOrDefault(rowIds[i], table + "#" + rowIds[i]);
+                }
+            }
+            storedRows.computeIfAbsent(compositeNameIds.get(r), k -> new ArrayList<>()).add(compositeKey(slots));
+        }
+    }
+
+    /**
+     * Build the query reading the parameter rows of a logical resource from all the parameter tables of the
+     * resource type. Each table is read by a branch of a UNION ALL, which maps its columns to the shared
+     * columns of the result (see COL_STRING and the following constants) and leaves the others null.
+     * @param tablePrefix
+     * @return
+     */
+    private static String createSelectStoredRows(String tablePrefix) {
+        StringBuilder sql = new StringBuilder();
+        for (int t = 0; t < STORED_ROW_TABLES.length; t++) {
+            final String table = STORED_ROW_TABLES[t];
+            String[] columns = new String[COL_COMPONENTS - 1 + MAX_COMPONENTS * COMPONENT_TABLES.length];
+            columns[0] = Integer.toString(t);
+            columns[1] = "row_id";
+            columns[2] = "parameter_name_id";
+            switch (table) {
+            case STR_VALUES:
+                columns[COL_STRING - 1] = "str_value";
+                break;
+            case NUMBER_VALUES:
+                columns[COL_DOUBLE - 1] = "number_value";
+                columns[COL_DOUBLE] = "number_value_low";
+                columns[COL_DOUBLE + 1] = "number_value_high";
+                break;
+            case DATE_VALUES:
+                columns[COL_TIMESTAMP - 1] = "date_start";
+                columns[COL_TIMESTAMP] = "date_end";
+                break;
+            case TOKEN_VALUES:
+                columns[COL_TOKEN - 1] = "common_token_value_id";
+                break;
+            case QUANTITY_VALUES:
+                columns[COL_STRING - 1] = "code";
+                columns[COL_CODE_SYSTEM - 1] = "code_system_id";
+                columns[COL_DOUBLE - 1] = "quantity_value";
+                columns[COL_DOUBLE] = "quantity_value_low";
+                columns[COL_DOUBLE + 1] = "quantity_value_high";
+                break;
+            case LATLNG_VALUES:
+                columns[COL_DOUBLE - 1] = "latitude_value";
+                columns[COL_DOUBLE] = "longitude_value";
+                break;
+            default:
+                // the composites have no row_id
+                columns[1] = null;
+                for (int c = 1; c <= MAX_COMPONENTS; c++) {
+                    int col = COL_COMPONENTS - 1 + (c - 1) * COMPONENT_TABLES.length;
+                    columns[col] = "comp" + c + "_str";
+                    columns[col + 1] = "comp" + c + "_number";
+                    columns[col + 2] = "comp" + c + "_date";
+                    columns[col + 3] = "comp" + c + "_token";
+                    columns[col + 4] = "comp" + c + "_quantity";
+                    columns[col + 5] = "comp" + c + "_latlng";
+                }
+                break;
+            }
+
+            sql.append(t == 0 ? "SELECT " : " UNION ALL SELECT ");
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                if (columns[i] != null) {
+                    sql.append(columns[i]);
+                } else {
+                    sql.append("CAST(NULL AS ").append(columnType(i + 1)).append(")");
+                }
+            }
+            sql.append(" FROM ").append(tablePrefix).append(table).append(" WHERE logical_resource_id = ?");
+        }
+        return sql.toString();
+    }
+
+    /**
+     * The SQL type of the given column of the result of the query over all the parameter tables
+     * @param column
+     * @return
+     */
+    private static String columnType(int column) {
+        if (column == COL_STRING) {
+            return "VARCHAR(" + FhirSchemaConstants.MAX_SEARCH_STRING_BYTES + ")";
+        } else if (column == 1 || column == 3 || column == COL_CODE_SYSTEM) {
+            return "INT";
+        } else if (column >= COL_DOUBLE && column < COL_TIMESTAMP) {
+            return "DOUBLE PRECISION";
+        } else if (column >= COL_TIMESTAMP && column < COL_TOKEN) {
+            return "TIMESTAMP";
+        } else {
+            return "BIGINT";
+        }
+    }
+
+    /**
+     * Delete the rows of the given parameter from the given table
+     * @param table
+     * @param parameterNameId
+     * @throws SQLException
+     */
+    private void deleteParameterRows(String table, int parameterNameId) throws SQLException {
+        final String sql = "DELETE FROM " + tablePrefix + table + " WHERE logical_resource_id = ? AND parameter_name_id = ?";
+        try (PreparedStatement stmt = connection.prepareStatement(sql)) {
+            stmt.setLong(1, logicalResourceId);
+            stmt.setInt(2, parameterNameId);
+            stmt.executeUpdate();
+        }
+    }
+
+    private Double getDouble(ResultSet rs, int column) throws SQLException {
+        double value = rs.getDouble(column);
+        return rs.wasNull() ? null : value;
+    }
+
+    /**
+     * Record the key of a row for the parameter visited
+     * @param parameterName
+     * @param key
+     * @throws FHIRPersistenceException
+     */
+    private void addRow(String parameterName, String key) throws FHIRPersistenceException {
+        visitedParameterNameId = parameterNameCache.readOrAddParameterNameId(parameterName);
+        newRows.computeIfAbsent(visitedParameterNameId, k -> new ArrayList<>()).add(key);
+    }
+
+    @Override
+    public void visit(StringParmVal param) throws FHIRPersistenceException {
+        addRow(param.getName(), stringKey(truncate(param.getValueString())));
+    }
+
+    @Override
+    public void visit(NumberParmVal param) throws FHIRPersistenceException {
+        addRow(param.getName(), numberKey(toDouble(param.getValueNumber()), toDouble(param.getValueNumberLow()),
+                toDouble(param.getValueNumberHigh())));
+    }
+
+    @Override
+    public void visit(DateParmVal param) throws FHIRPersistenceException {
+        addRow(param.getName(), dateKey(param.getValueDateStart(), param.getValueDateEnd()));
+    }
+
+    @Override
+    public void visit(TokenParmVal param) throws FHIRPersistenceException {
+        addRow(param.getName(), tokenKey(getCommonTokenValueId(param.getValueSystem(), param.getValueCode())));
+    }
+
+    @Override
+    public void visit(QuantityParmVal param) throws FHIRPersistenceException {
+        // Anything with a null code is skipped by the ParameterVisitorBatchDAO
+        String code = param.getValueCode();
+        if (code != null && !code.isEmpty()) {
+            addRow(param.getName(), quantityKey(param));
+        }
+    }
+
+    @Override
+    public void visit(LocationParmVal param) throws FHIRPersistenceException {
+        addRow(param.getName(), locationKey(param.getValueLatitude(), param.getValueLongitude()));
+    }
+
+    @Override
+    public void visit(CompositeParmVal compositeParameter) throws FHIRPersistenceException {
+        // the components are stored in the parameter tables under the parameter name of the composite
+        String parameterName = compositeParameter.getName();
+        String[] slots = new String[MAX_COMPONENTS * COMPONENT_TABLES.length];
+        Arrays.fill(slots, NULL_KEY);
+        int c = 0;
+        for (ExtractedParameterValue val : compositeParameter.getComponent()) {
+            int offset = c++ * COMPONENT_TABLES.length;
+            if (offset >= slots.length) {
+                throw new UnsupportedOperationException("Expected 3 or fewer components, but found " + compositeParameter.getComponent().size());
+            }
+
+            String key = null;
+            if (val instanceof StringParmVal) {
+                key = stringKey(truncate(((StringParmVal) val).getValueString()));
+            } else if (val instanceof NumberParmVal) {
+                NumberParmVal number = (NumberParmVal) val;
+                offset += 1;
+                key = numberKey(toDouble(number.getValueNumber()), toDouble(number.getValueNumberLow()), toDouble(number.getValueNumberHigh()));
+            } else if (val instanceof DateParmVal) {
+                DateParmVal dVal = (DateParmVal) val;
+                offset += 2;
+                key = dateKey(dVal.getValueDateStart(), dVal.getValueDateEnd());
+            } else if (val instanceof TokenParmVal) {
+                TokenParmVal tVal = (TokenParmVal) val;
+                offset += 3;
+                key = tokenKey(getCommonTokenValueId(tVal.getValueSystem(), tVal.getValueCode()));
+            } else if (val instanceof QuantityParmVal) {
+                offset += 4;
+                key = quantityKey((QuantityParmVal) val);
+            } else if (val instanceof LocationParmVal) {
+                LocationParmVal lVal = (LocationParmVal) val;
+                offset += 5;
+                key = locationKey(lVal.getValueLatitude(), lVal.getValueLongitude());
+            }
+
+            if (key != null) {
+                slots[offset] = key;
+                addRow(parameterName, key);
+            }
+        }
+        addRow(parameterName, compositeKey(slots));
+    }
+
+    /**
+     * Look up the normalized id for the code system and token value, as the ParameterVisitorBatchDAO does
+     * @param codeSystem
+     * @param tokenValue
+     * @return the common_token_value_id, or null if there is no token value
+     */
+    private Long getCommonTokenValueId(String codeSystem, String tokenValue) throws FHIRPersistenceException {
+        int codeSystemId = codeSystemCache.readOrAddCodeSystem(codeSystem);
+        if (tokenValue == null) {
+            return null;
+        }
+        return commonTokenValuesCache.readOrAddCommonTokenValueId(codeSystemId, tokenValue);
+    }
+
+    /**
+     * Truncate the string the same way the ParameterVisitorBatchDAO does before storing it
+     * @param value
+     * @return
+     */
+    private static String truncate(String value) {
+        while (value != null && value.getBytes().length > FhirSchemaConstants.MAX_SEARCH_STRING_BYTES) {
+            value = value.substring(0, value.length() / 2);
+        }
+        return value;
+    }
+
+    private static Double toDouble(BigDecimal value) {
+        return value == null ? null : value.doubleValue();
+    }
+
+    private static String stringKey(String value) {
+        // the length prefix keeps the keys of null and of any string distinct
+        return value == null ? "S" + NULL_KEY : "S" + value.length() + ":" + value;
+    }
+
+    private static String numberKey(Double value, Double valueLow, Double valueHigh) {
+        return "N" + value + "|" + valueLow + "|" + valueHigh;
+    }
+
+    private static String dateKey(Timestamp dateStart, Timestamp dateEnd) {
+        return "D" + timestampKey(dateStart) + "|" + timestampKey(dateEnd);
+    }
+
+    private static String timestampKey(Timestamp ts) {
+        return ts == null ? NULL_KEY : ts.getTime() + "." + ts.getNanos();
+    }
+
+    private static String tokenKey(Long commonTokenValueId) {
+        return "T" + commonTokenValueId;
+    }
+
+    private String quantityKey(QuantityParmVal param) throws FHIRPersistenceException {
+        return quantityKey(codeSystemCache.readOrAddCodeSystem(param.getValueSystem()), param.getValueCode(),
+                toDouble(param.getValueNumber()), toDouble(param.getValueNumberLow()), toDouble(param.getValueNumberHigh()));
+    }
+
+    private static String quantityKey(int codeSystemId, String code, Double value, Double valueLow, Double valueHigh) {
+        return "Q" + codeSystemId + "|" + value + "|" + valueLow + "|" + valueHigh + "|" + stringKey(code);
+    }
+
+    private static String locationKey(Double latitude, Double longitude) {
+        return "L" + latitude + "|" + longitude;
+    }
+
+    private static String compositeKey(String[] slots) {
+        StringBuilder key = new StringBuilder("C");
+        for (String slot: slots) {
+            // the slots are themselves keys, so prefix them with their length to keep the key unambiguous
+            key.append(slot.length()).append(':').append(slot);
+        }
+        return key.toString();
+    }
+
+    private boolean isBase(ExtractedParameterValue param) {
+        return "Resource".equals(param.getBase());
+    }
+}
@@ -23,6 +23,7 @@ import java.util.stream.Collectors;
 
 import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.jdbc.dao.api.ICodeSystemCache;
+import com.ibm.fhir.persistence.jdbc.dao.api.ICommonTokenValuesCache;
 import com.ibm.fhir.persistence.jdbc.dao.api.IParameterNameCache;
 import com.ibm.fhir.persistence.jdbc.dto.CompositeParmVal;
 import com.ibm.fhir.persistence.jdbc.dto.DateParmVal;
@@ -52,7 +53,7 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
     private final int batchSize;
 
     // FK to the logical resource for the parameters being added
-    private final long logicalResourceId;
+    private long logicalResourceId;
 
     // Maintainers: remember to close all statements in AutoCloseable#close()
     private final String insertString;
@@ -101,13 +102,16 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
     // For looking up code system ids
     private final ICodeSystemCache codeSystemCache;
 
+    // For looking up the normalized (code system, token value) ids
+    private final ICommonTokenValuesCache commonTokenValuesCache;
+
     /**
      * Public constructor
      * @param c
      * @param resourceId
      */
     public ParameterVisitorBatchDAO(Connection c, String adminSchemaName, String tablePrefix, boolean multitenant, long logicalResourceId, int batchSize,
-            IParameterNameCache pnc, ICodeSystemCache csc) throws SQLException {
+            IParameterNameCache pnc, ICodeSystemCache csc, ICommonTokenValuesCache ctvc) throws SQLException {
         if (batchSize < 1) {
             throw new IllegalArgumentException("batchSize must be >= 1");
         }
@@ -117,6 +121,7 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
         this.batchSize = batchSize;
         this.parameterNameCache = pnc;
         this.codeSystemCache = csc;
+        this.commonTokenValuesCache = ctvc;
 
         insertString = multitenant ?
                 "INSERT INTO " + tablePrefix + "_str_values (mt_id, parameter_name_id, str_value, str_value_lcase, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
@@ -137,9 +142,9 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
         dates = c.prepareStatement(insertDate);
 
         String insertToken = multitenant ?
-                "INSERT INTO " + tablePrefix + "_token_values (mt_id, parameter_name_id, code_system_id, token_value, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                "INSERT INTO " + tablePrefix + "_token_values (mt_id, parameter_name_id, common_token_value_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?)"
                 :
-                "INSERT INTO " + tablePrefix + "_token_values (parameter_name_id, code_system_id, token_value, logical_resource_id) VALUES (?,?,?,?)";
+                "INSERT INTO " + tablePrefix + "_token_values (parameter_name_id, common_token_value_id, logical_resource_id) VALUES (?,?,?)";
         tokens = c.prepareStatement(insertToken);
         tokenComp = c.prepareStatement(insertToken, Statement.RETURN_GENERATED_KEYS);
 
@@ -180,14 +185,24 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
                 "INSERT INTO resource_date_values (parameter_name_id, date_start, date_end, logical_resource_id) VALUES (?,?,?,?)";
         resourceDates = c.prepareStatement(insertResourceDate);
 
-        // Resource level token attributes
+        // Resource level token attributes. RESOURCE_TOKEN_VALUES is the xx_TOKEN_VALUES table of the "Resource"
+        // type, so it is migrated to COMMON_TOKEN_VALUE_ID along with the tables of the other resource types
         String insertResourceToken = multitenant ?
-                "INSERT INTO resource_token_values (mt_id, parameter_name_id, code_system_id, token_value, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?,?)"
+                "INSERT INTO resource_token_values (mt_id, parameter_name_id, common_token_value_id, logical_resource_id) VALUES (" + adminSchemaName + ".sv_tenant_id,?,?,?)"
                 :
-                "INSERT INTO resource_token_values (parameter_name_id, code_system_id, token_value, logical_resource_id) VALUES (?,?,?,?)";
+                "INSERT INTO resource_token_values (parameter_name_id, common_token_value_id, logical_resource_id) VALUES (?,?,?)";
         resourceTokens = c.prepareStatement(insertResourceToken);
     }
 
+    /**
+     * Set the logical resource for the parameters visited from now on. This allows a single instance to
+     * accumulate the parameters of many resources (of the same type) in the same batches.
+     * @param logicalResourceId
+     */
+    public void setLogicalResourceId(long logicalResourceId) {
+        this.logicalResourceId = logicalResourceId;
+    }
+
     /**
      * Look up the normalized id for the parameter, adding it to the parameter_names table if it doesn't yet exist
      * @param parameterName
@@ -207,6 +222,21 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
         return codeSystemCache.readOrAddCodeSystem(codeSystem);
     }
 
+    /**
+     * Look up the normalized id for the code system and token value, adding it to the
+     * common_token_values table if it doesn't yet exist
+     * @param codeSystem
+     * @param tokenValue
+     * @return the common_token_value_id, or null if there is no token value
+     */
+    protected Long getCommonTokenValueId(String codeSystem, String tokenValue) throws FHIRPersistenceException {
+        int codeSystemId = getCodeSystemId(codeSystem);
+        if (tokenValue == null) {
+            return null;
+        }
+        return commonTokenValuesCache.readOrAddCommonTokenValueId(codeSystemId, tokenValue);
+    }
+
     @Override
     public void visit(StringParmVal param) throws FHIRPersistenceException {
         String parameterName = param.getName();
@@ -370,19 +400,16 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
         String tokenValue = param.getValueCode();
         try {
             int parameterNameId = getParameterNameId(parameterName);
-            int codeSystemId = getCodeSystemId(codeSystem);
+            Long commonTokenValueId = getCommonTokenValueId(codeSystem, tokenValue);
 
             if (isBase(param)) {
                 // store in the base (resource) table
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine("baseTokenValue: " + parameterName + "[" + parameterNameId + "], "
-                            + codeSystem + "[" + codeSystemId + "], " + tokenValue);
+                            + codeSystem + ":" + tokenValue + "[" + commonTokenValueId + "]");
                 }
 
-                resourceTokens.setInt(1, parameterNameId);
-                resourceTokens.setInt(2, codeSystemId);
-                resourceTokens.setString(3, tokenValue);
-                resourceTokens.setLong(4, logicalResourceId);
+                setTokenParms(resourceTokens, parameterNameId, commonTokenValueId);
                 resourceTokens.addBatch();
 
                 if (++resourceTokenCount == this.batchSize) {
@@ -393,10 +420,10 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
             else {
                 if (logger.isLoggable(Level.FINE)) {
                     logger.fine("tokenValue: " + parameterName + "[" + parameterNameId + "], "
-                            + codeSystem + "[" + codeSystemId + "], " + tokenValue);
+                            + codeSystem + ":" + tokenValue + "[" + commonTokenValueId + "]");
                 }
 
-                setTokenParms(tokens, parameterNameId, codeSystemId, tokenValue);
+                setTokenParms(tokens, parameterNameId, commonTokenValueId);
                 tokens.addBatch();
 
                 if (++tokenCount == this.batchSize) {
@@ -413,11 +440,14 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
         }
     }
 
-    private void setTokenParms(PreparedStatement insert, int parameterNameId, int codeSystemId, String tokenValue) throws SQLException {
+    private void setTokenParms(PreparedStatement insert, int parameterNameId, Long commonTokenValueId) throws SQLException {
         insert.setInt(1, parameterNameId);
-        insert.setInt(2, codeSystemId);
-        insert.setString(3, tokenValue);
-        insert.setLong(4, logicalResourceId);
+        if (commonTokenValueId != null) {
+            insert.setLong(2, commonTokenValueId);
+        } else {
+            insert.setNull(2, Types.BIGINT);
+        }
+        insert.setLong(3, logicalResourceId);
     }
 
     @Override
@@ -563,7 +593,7 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
 
                 if (val instanceof TokenParmVal) {
                     TokenParmVal tVal = (TokenParmVal) val;
-                    setTokenParms(tokenComp, parameterNameId, getCodeSystemId(tVal.getValueSystem()), tVal.getValueCode());
+                    setTokenParms(tokenComp, parameterNameId, getCommonTokenValueId(tVal.getValueSystem(), tVal.getValueCode()));
                     tokenComp.executeUpdate();
                     try (ResultSet rs = tokenComp.getGeneratedKeys()) {
                         if (rs.next()) {
@@ -620,10 +650,12 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
         }
     }
 
-    @Override
-    public void close() throws Exception {
-        // flush any stragglers, remembering to reset each count because
-        // close() should be idempotent.
+    /**
+     * Execute any batched inserts which have not been submitted yet
+     * @throws SQLException
+     */
+    public void flush() throws SQLException {
+        // remember to reset each count because flush() may be called many times
         try {
             if (stringCount > 0) {
                 strings.executeBatch();
@@ -680,6 +712,12 @@ public class ParameterVisitorBatchDAO implements ExtractedParameterValueVisitor,
                 throw x;
             }
         }
+    }
+
+    @Override
+    public void close() throws Exception {
+        // flush any stragglers. flush() resets the counts, so close() is idempotent
+        flush();
 
         closeStatement(strings);
         closeStatement(numbers);
@@ -6,10 +6,7 @@
 
 package com.ibm.fhir.persistence.jdbc.dao.impl;
 
-import static com.ibm.fhir.persistence.jdbc.JDBCConstants.END;
-import static com.ibm.fhir.persistence.jdbc.JDBCConstants.THEN;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.UTC;
-import static com.ibm.fhir.persistence.jdbc.JDBCConstants.WHEN;
 
 import java.sql.CallableStatement;
 import java.sql.Connection;
@@ -23,11 +20,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.stream.Stream;
 
 import javax.transaction.TransactionSynchronizationRegistry;
 
@@ -39,9 +40,11 @@ import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
 import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
 import com.ibm.fhir.persistence.jdbc.dto.Resource;
+import com.ibm.fhir.persistence.jdbc.dto.SortedResourceKey;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceFKVException;
+import com.ibm.fhir.persistence.jdbc.util.QueryShapeCache;
 import com.ibm.fhir.persistence.jdbc.util.ResourceTypesCache;
 import com.ibm.fhir.persistence.jdbc.util.ResourceTypesCacheUpdater;
 import com.ibm.fhir.persistence.jdbc.util.SqlQueryData;
@@ -87,6 +90,17 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
     private static final String SQL_HISTORY_FROM_DATETIME_COUNT = "SELECT COUNT(R.VERSION_ID) FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE LR.LOGICAL_ID = ? AND " +
                                                                   "R.LAST_UPDATED >= ? AND R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID";
 
+    // Select the versions not retained by a history retention policy. The current version is never selected
+    private static final String SQL_PRUNE_HISTORY_SELECT = "SELECT R.RESOURCE_ID, LR.LOGICAL_ID, R.VERSION_ID FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE " +
+                                                           "R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID AND R.RESOURCE_ID <> LR.CURRENT_RESOURCE_ID";
+
+    private static final String SQL_PRUNE_HISTORY_KEEP_VERSIONS = " AND R.VERSION_ID <= (SELECT C.VERSION_ID FROM %s_RESOURCES C " +
+                                                                  "WHERE C.RESOURCE_ID = LR.CURRENT_RESOURCE_ID) - ?";
+
+    private static final String SQL_PRUNE_HISTORY_KEEP_SINCE = " AND R.LAST_UPDATED < ?";
+
+    private static final String SQL_PRUNE_HISTORY_DELETE = "DELETE FROM %s_RESOURCES WHERE RESOURCE_ID = ?";
+
     private static final String SQL_READ_ALL_RESOURCE_TYPE_NAMES = "SELECT RESOURCE_TYPE_ID, RESOURCE_TYPE FROM RESOURCE_TYPES";
 
     private static final String SQL_READ_RESOURCE_TYPE = "CALL %s.add_resource_type(?, ?)";
@@ -95,7 +109,8 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
                                                     "FROM %s_RESOURCES R, %s_LOGICAL_RESOURCES LR WHERE R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID AND " +
                                                     "R.RESOURCE_ID IN ";
 
-    private static final String SQL_ORDER_BY_IDS = "ORDER BY CASE R.RESOURCE_ID ";
+    // The ids passed to searchByIds are padded to a multiple of this size, to limit the number of distinct statements
+    private static final int SEARCH_BY_IDS_BLOCK_SIZE = 10;
 
     private static final String DERBY_PAGINATION_PARMS = "OFFSET ? ROWS FETCH NEXT ? ROWS ONLY";
 
@@ -188,6 +203,7 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
         try {
             resource.setData(resultSet.getBytes("DATA"));
             resource.setId(resultSet.getLong("RESOURCE_ID"));
+            resource.setLogicalResourceId(resultSet.getLong("LOGICAL_RESOURCE_ID"));
             resource.setLastUpdated(resultSet.getTimestamp("LAST_UPDATED"));
             resource.setLogicalId(resultSet.getString("LOGICAL_ID"));
             resource.setVersionId(resultSet.getInt("VERSION_ID"));
@@ -263,6 +279,82 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
         return count;
     }
 
+    @Override
+    public List<Resource> pruneHistory(String resourceType, int keepVersions, Timestamp keepSince, int maxVersions)
+            throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "pruneHistory";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        List<Resource> prunedVersions = new ArrayList<>();
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        StringBuilder select = new StringBuilder(String.format(SQL_PRUNE_HISTORY_SELECT, resourceType, resourceType));
+        if (keepVersions > 0) {
+            select.append(String.format(SQL_PRUNE_HISTORY_KEEP_VERSIONS, resourceType));
+        }
+        if (keepSince != null) {
+            select.append(SQL_PRUNE_HISTORY_KEEP_SINCE);
+        }
+        String stmtString = select.toString();
+
+        try {
+            connection = this.getConnection();
+            dbCallStartTime = System.nanoTime();
+
+            // Find the next batch of versions to delete
+            stmt = connection.prepareStatement(stmtString);
+            stmt.setMaxRows(maxVersions);
+            int i = 1;
+            if (keepVersions > 0) {
+                stmt.setInt(i++, keepVersions);
+            }
+            if (keepSince != null) {
+                stmt.setTimestamp(i++, keepSince, UTC);
+            }
+            resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                Resource prunedVersion = new Resource();
+                prunedVersion.setId(resultSet.getLong(1));
+                prunedVersion.setLogicalId(resultSet.getString(2));
+                prunedVersion.setVersionId(resultSet.getInt(3));
+                prunedVersion.setResourceType(resourceType);
+                prunedVersions.add(prunedVersion);
+            }
+            resultSet.close();
+            resultSet = null;
+            stmt.close();
+            stmt = null;
+
+            if (!prunedVersions.isEmpty()) {
+                stmtString = String.format(SQL_PRUNE_HISTORY_DELETE, resourceType);
+                stmt = connection.prepareStatement(stmtString);
+                for (Resource prunedVersion : prunedVersions) {
+                    stmt.setLong(1, prunedVersion.getId());
+                    stmt.addBatch();
+                }
+                stmt.executeBatch();
+            }
+
+            if (log.isLoggable(Level.FINE)) {
+                dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
+                log.fine("DB prune history complete. resourceType=" + resourceType + " deleted=" + prunedVersions.size() + " executionTime=" + dbCallDuration + "ms");
+            }
+        } catch (Throwable e) {
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure pruning the history of resource type " + resourceType);
+            String errMsg = "Failure pruning history: " + stmtString;
+            throw severe(log, fx, errMsg, e);
+        } finally {
+            this.cleanup(resultSet, stmt, connection);
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+
+        return prunedVersions;
+    }
+
     @Override
     public List<Resource> search(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
         final String METHODNAME = "search(SqlQueryData)";
@@ -270,6 +362,7 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
 
         List<Resource> resources;
         String sqlSelect = queryData.getQueryString();
+        QueryShapeCache.record(sqlSelect);
         Object[] bindVariables = queryData.getBindVariables().toArray();
 
         try {
@@ -281,6 +374,22 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
         return resources;
     }
 
+    @Override
+    public Stream<Resource> searchStream(SqlQueryData queryData, int fetchSize) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "searchStream(SqlQueryData, int)";
+        log.entering(CLASSNAME, METHODNAME);
+
+        String sqlSelect = queryData.getQueryString();
+        QueryShapeCache.record(sqlSelect);
+        Object[] bindVariables = queryData.getBindVariables().toArray();
+
+        try {
+            return this.streamQuery(sqlSelect, fetchSize, bindVariables);
+        } finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
     @Override
     public int searchCount(SqlQueryData queryData)     throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
         final String METHODNAME = "searchCount(SqlQueryData)";
@@ -288,6 +397,7 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
 
         int count;
         String sqlSelectCount = queryData.getQueryString();
+        QueryShapeCache.record(sqlSelectCount);
         Object[] bindVariables = queryData.getBindVariables().toArray();
 
         try {
@@ -298,6 +408,12 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
         return count;
     }
 
+    @Override
+    public int searchCountEstimate(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        // No cheaper estimate is available by default, so run the count query
+        return this.searchCount(queryData);
+    }
+
     @Override
     public void setPersistenceContext(FHIRPersistenceContext context) {
         this.context = context;
@@ -398,6 +514,7 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
 
         try {
             connection = this.getConnection();
+            QueryShapeCache.record(queryData.getQueryString());
             stmt = connection.prepareStatement(queryData.getQueryString());
             // Inject arguments into the prepared stmt.
             for (int i = 0; i < queryData.getBindVariables().size(); i++) {
@@ -431,6 +548,62 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
     }
 
 
+    @Override
+    public List<SortedResourceKey> searchForSortKeys(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "searchForSortKeys";
+        log.entering(CLASSNAME, METHODNAME);
+
+        List<SortedResourceKey> sortKeys = new ArrayList<>();
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        try {
+            connection = this.getConnection();
+            QueryShapeCache.record(queryData.getQueryString());
+            stmt = connection.prepareStatement(queryData.getQueryString());
+            // Inject arguments into the prepared stmt.
+            for (int i = 0; i < queryData.getBindVariables().size(); i++) {
+                Object object = queryData.getBindVariables().get(i);
+                if (object instanceof Timestamp) {
+                    stmt.setTimestamp(i+1, (Timestamp) object, JDBCConstants.UTC);
+                } else {
+                    stmt.setObject(i+1, object);
+                }
+            }
+            dbCallStartTime = System.nanoTime();
+            resultSet = stmt.executeQuery();
+            dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("DB search for sort keys complete. " + queryData + "  executionTime=" + dbCallDuration + "ms");
+            }
+            while(resultSet.next()) {
+                SortedResourceKey sortKey = new SortedResourceKey();
+                sortKey.setResourceId(resultSet.getLong(1));
+                Object sortValue = resultSet.getObject(2);
+                if (sortValue instanceof Timestamp) {
+                    // Timestamps are stored as UTC, so re-read the value with the matching calendar
+                    sortValue = resultSet.getTimestamp(2, JDBCConstants.UTC);
+                }
+                sortKey.setSortValue(sortValue);
+                sortKey.setLogicalResourceId(resultSet.getLong(3));
+                sortKeys.add(sortKey);
+            }
+        } catch(FHIRPersistenceException e) {
+            throw e;
+        } catch (Throwable e) {
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure retrieving FHIR Resource sort keys");
+            final String errMsg = "Failure retrieving FHIR Resource sort keys. SqlQueryData=" + queryData;
+            throw severe(log, fx, errMsg, e);
+        } finally {
+            this.cleanup(resultSet, stmt, connection);
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+        return sortKeys;
+    }
+
      /**
      * Adds a resource type/ resource id pair to a candidate collection for population into the ResourceTypesCache.
      * This pair must be present as a row in the FHIR DB RESOURCE_TYPES table.
@@ -461,6 +634,11 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
 
     }
 
+    @Override
+    public void clearCacheCandidates() {
+        this.newResourceTypeIds.clear();
+    }
+
     @Override
     public Resource insert(Resource resource, List<ExtractedParameterValue> parameters, ParameterDAO parameterDao)
             throws FHIRPersistenceException {
@@ -518,7 +696,8 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
             // TODO FHIR_ADMIN schema name needs to come from the configuration/context
             if (parameters != null) {
                 try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(connection, "FHIR_ADMIN", resource.getResourceType(), true,
-                        resource.getId(), 100, new ParameterNameCacheAdapter(parameterDao), new CodeSystemCacheAdapter(parameterDao))) {
+                        resource.getId(), 100, new ParameterNameCacheAdapter(parameterDao), new CodeSystemCacheAdapter(parameterDao),
+                        new CommonTokenValuesCacheAdapter(new CommonTokenValuesDAOImpl(connection, "FHIR_ADMIN"), parameterDao))) {
                     for (ExtractedParameterValue p: parameters) {
                         p.accept(pvd);
                     }
@@ -553,6 +732,134 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
     }
 
 
+    @Override
+    public List<Resource> insertBatch(List<Resource> resources, List<List<ExtractedParameterValue>> parameters, ParameterDAO parameterDao)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "insertBatch";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        CallableStatement stmt = null;
+        String currentSchema;
+        String stmtString = null;
+        Integer resourceTypeId;
+        // The parameter tables are specific to the resource type, so we need a visitor per type
+        Map<String, ParameterVisitorBatchDAO> parameterVisitors = new HashMap<>();
+        Set<String> storedResources = new HashSet<>();
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        try {
+            connection = this.getConnection();
+
+            currentSchema = connection.getSchema().trim();
+            stmtString = String.format(SQL_INSERT_WITH_PARAMETERS, currentSchema);
+            stmt = connection.prepareCall(stmtString);
+
+            dbCallStartTime = System.nanoTime();
+            for (int i = 0; i < resources.size(); i++) {
+                Resource resource = resources.get(i);
+
+                resourceTypeId = ResourceTypesCache.getResourceTypeId(resource.getResourceType());
+                if (resourceTypeId == null) {
+                    resourceTypeId = this.readResourceTypeId(resource.getResourceType());
+                    this.addResourceTypeCacheCandidate(resource.getResourceType(), resourceTypeId);
+                }
+
+                ParameterVisitorBatchDAO pvd = parameterVisitors.get(resource.getResourceType());
+                if (pvd == null) {
+                    pvd = new ParameterVisitorBatchDAO(connection, "FHIR_ADMIN", resource.getResourceType(), true,
+                            0, 100, new ParameterNameCacheAdapter(parameterDao), new CodeSystemCacheAdapter(parameterDao),
+                        new CommonTokenValuesCacheAdapter(new CommonTokenValuesDAOImpl(connection, "FHIR_ADMIN"), parameterDao));
+                    parameterVisitors.put(resource.getResourceType(), pvd);
+                }
+                if (!storedResources.add(resource.getResourceType() + "/" + resource.getLogicalId())) {
+                    // Storing a new version deletes the parameters of the previous one, so the parameters
+                    // of an earlier version in this batch must be written first
+                    pvd.flush();
+                }
+
+                stmt.setString(1, resource.getResourceType());
+                stmt.setString(2, resource.getLogicalId());
+                stmt.setBytes(3, resource.getData());
+                stmt.setTimestamp(4, resource.getLastUpdated(), UTC);
+                stmt.setString(5, resource.isDeleted() ? "Y": "N");
+                stmt.setString(6, UUID.randomUUID().toString());
+                stmt.setInt(7, resource.getVersionId());
+                stmt.registerOutParameter(8, Types.BIGINT);
+                stmt.execute();
+                resource.setId(stmt.getLong(8));
+
+                if (parameters.get(i) != null) {
+                    pvd.setLogicalResourceId(resource.getId());
+                    for (ExtractedParameterValue p: parameters.get(i)) {
+                        p.accept(pvd);
+                    }
+                }
+            }
+
+            // Write the parameters still batched
+            this.closeParameterVisitors(parameterVisitors);
+            dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
+
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Successfully inserted " + resources.size() + " Resources. executionTime=" + dbCallDuration + "ms");
+            }
+        } catch(FHIRPersistenceDBConnectException | FHIRPersistenceDataAccessException e) {
+            throw e;
+        } catch(SQLIntegrityConstraintViolationException e) {
+            FHIRPersistenceFKVException fx = new FHIRPersistenceFKVException("Encountered FK violation while inserting Resource.");
+            throw severe(log, fx, e);
+        } catch(SQLException e) {
+            if ("99001".equals(e.getSQLState())) {
+                // this is just a concurrency update, so there's no need to log the SQLException here
+                throw new FHIRPersistenceVersionIdMismatchException("Encountered version id mismatch while inserting Resource");
+            } else {
+                FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("SQLException encountered while inserting Resource.");
+                throw severe(log, fx, e);
+            }
+        } catch(Throwable e) {
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure inserting Resource.");
+            throw severe(log, fx, e);
+        } finally {
+            this.closeParameterVisitorsQuietly(parameterVisitors);
+            this.cleanup(stmt, connection);
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+
+        return resources;
+    }
+
+    /**
+     * Closes the passed parameter visitors, which writes any parameter rows still batched, and removes
+     * them from the map.
+     * @param parameterVisitors the visitors used to insert the parameters of a batch of resources, keyed by resource type
+     * @throws Exception
+     */
+    protected void closeParameterVisitors(Map<String, ParameterVisitorBatchDAO> parameterVisitors) throws Exception {
+        Iterator<ParameterVisitorBatchDAO> iterator = parameterVisitors.values().iterator();
+        while (iterator.hasNext()) {
+            ParameterVisitorBatchDAO pvd = iterator.next();
+            iterator.remove();
+            pvd.close();
+        }
+    }
+
+    /**
+     * Closes the passed parameter visitors after an earlier failure, logging rather than throwing any further failure.
+     * @param parameterVisitors the visitors used to insert the parameters of a batch of resources, keyed by resource type
+     */
+    protected void closeParameterVisitorsQuietly(Map<String, ParameterVisitorBatchDAO> parameterVisitors) {
+        for (ParameterVisitorBatchDAO pvd : parameterVisitors.values()) {
+            try {
+                pvd.close();
+            } catch (Exception e) {
+                log.log(Level.FINE, "Failure closing parameter visitor", e);
+            }
+        }
+        parameterVisitors.clear();
+    }
+
     @Override
     public List<Resource> search(String sqlSelect) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
         final String METHODNAME = "search";
@@ -592,33 +899,49 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
             stmtString = getSearchByIdsSql(resourceType);
             idQuery.append(stmtString);
             idQuery.append("(");
-            // resourceIds should have a max length of 1000 (the max page size)
-            StringBuilder caseStmts = new StringBuilder();
-            for (int i = 0; i < resourceIds.size(); i++) {
+            // resourceIds should have a max length of 1000 (the max page size). The ids are passed as
+            // bind variables, and the list is padded with its last id so that pages of similar size share a statement.
+            int paddedSize = ((resourceIds.size() + SEARCH_BY_IDS_BLOCK_SIZE - 1) / SEARCH_BY_IDS_BLOCK_SIZE)
+                    * SEARCH_BY_IDS_BLOCK_SIZE;
+            for (int i = 0; i < paddedSize; i++) {
                 if (i > 0) {
                     idQuery.append(",");
                 }
-                idQuery.append(resourceIds.get(i));
-
-                // build up the caseStmts here so we only need to iterate the list once
-                caseStmts.append(WHEN + resourceIds.get(i) + THEN + i);
+                idQuery.append("?");
             }
-            idQuery.append(") " + SQL_ORDER_BY_IDS + caseStmts + END);
+            idQuery.append(")");
 
             connection = this.getConnection();
-            stmt = connection.prepareStatement(idQuery.toString());
+            String sqlSelect = idQuery.toString();
+            QueryShapeCache.record(sqlSelect);
+            stmt = connection.prepareStatement(sqlSelect);
+            for (int i = 0; i < paddedSize; i++) {
+                stmt.setLong(i+1, resourceIds.get(Math.min(i, resourceIds.size() - 1)));
+            }
             dbCallStartTime = System.nanoTime();
             resultSet = stmt.executeQuery();
             dbCallDuration = (System.nanoTime()-dbCallStartTime)/1e6;
             if (log.isLoggable(Level.FINE)) {
-                log.fine("DB search by ids complete. SQL=[" + idQuery + "]  executionTime=" + dbCallDuration + "ms");
+                log.fine("DB search by ids complete. SQL=[" + idQuery + "]  resourceIds=" + resourceIds
+                        + "  executionTime=" + dbCallDuration + "ms");
+            }
+
+            // Return the resources in the order of the passed ids
+            Map<Long, Resource> resourcesById = new HashMap<>();
+            for (Resource resource : this.createDTOs(resultSet)) {
+                resourcesById.put(resource.getId(), resource);
+            }
+            for (Long resourceId : resourceIds) {
+                Resource resource = resourcesById.get(resourceId);
+                if (resource != null) {
+                    resources.add(resource);
+                }
             }
-            resources = this.createDTOs(resultSet);
         } catch(FHIRPersistenceException e) {
             throw e;
         } catch (Throwable e) {
             FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure retrieving FHIR Resources");
-            errMsg = "Failure retrieving FHIR Resources. SQL=[" + idQuery + "]";
+            errMsg = "Failure retrieving FHIR Resources. SQL=[" + idQuery + "]  resourceIds=" + resourceIds;
             throw severe(log, fx, errMsg, e);
         } finally {
             this.cleanup(resultSet, stmt, connection);
@@ -653,6 +976,7 @@ public class ResourceDAOImpl extends FHIRDbDAOImpl implements ResourceDAO {
         log.entering(CLASSNAME, METHODNAME);
 
         String sqlSelect = queryData.getQueryString();
+        QueryShapeCache.record(sqlSelect);
         Object[] bindVariables = queryData.getBindVariables().toArray();
         try {
             return this.runQuery_STR_VALUES(sqlSelect, bindVariables);
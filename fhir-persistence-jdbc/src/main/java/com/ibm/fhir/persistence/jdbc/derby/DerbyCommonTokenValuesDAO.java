@@ -0,0 +1,26 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.derby;
+
+import java.sql.Connection;
+
+import com.ibm.fhir.persistence.jdbc.dao.impl.CommonTokenValuesDAOImpl;
+
+/**
+ * Derby variant DAO used to manage common_token_values records. Derby
+ * is not multi-tenant, so there is no mt_id column to populate.
+ */
+public class DerbyCommonTokenValuesDAO extends CommonTokenValuesDAOImpl {
+
+    /**
+     * Public constructor
+     * @param c
+     */
+    public DerbyCommonTokenValuesDAO(Connection c) {
+        super(c, null);
+    }
+}
@@ -14,7 +14,11 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Timestamp;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -26,8 +30,12 @@ import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceVersionIdMismatchException;
 import com.ibm.fhir.persistence.jdbc.dao.api.CodeSystemDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.FhirRefSequenceDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.FhirSequenceDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.ICommonTokenValuesCache;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterNameDAO;
+import com.ibm.fhir.persistence.jdbc.dao.impl.CommonTokenValuesCacheAdapter;
+import com.ibm.fhir.persistence.jdbc.dao.impl.ParameterDeltaDAO;
 import com.ibm.fhir.persistence.jdbc.dao.impl.ParameterVisitorBatchDAO;
 import com.ibm.fhir.persistence.jdbc.dao.impl.ResourceDAOImpl;
 import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
@@ -66,6 +74,9 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
     // DAO used to manage code_systems
     private CodeSystemDAO codeSystemDAO;
 
+    // Cached access to the normalized common_token_values table
+    private ICommonTokenValuesCache commonTokenValuesCache;
+
     public DerbyResourceDAO(Connection managedConnection) {
         super(managedConnection);
     }
@@ -106,6 +117,7 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
             this.fhirRefSequenceDAO = new FhirRefSequenceDAOImpl(connection);
             this.parameterNameDAO = new DerbyParameterNamesDAO(connection, fhirRefSequenceDAO);
             this.codeSystemDAO = new DerbyCodeSystemDAO(connection, fhirRefSequenceDAO);
+            this.commonTokenValuesCache = new CommonTokenValuesCacheAdapter(new DerbyCommonTokenValuesDAO(connection), parameterDao);
 
             resourceTypeId = ResourceTypesCache.getResourceTypeId(resource.getResourceType());
             if (resourceTypeId == null) {
@@ -134,7 +146,8 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
                 resource.isDeleted(),
                 sourceKey,
                 resource.getVersionId(),
-                connection
+                connection,
+                null
                 );
 
 
@@ -169,6 +182,109 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
 
     }
 
+    /**
+     * Inserts the passed Resource DTOs and their search parameters to a Derby FHIR database, using a single
+     * connection. The search parameters of all the resources are accumulated in shared batches, one per
+     * resource type.
+     * @param resources The FHIR Resources to be inserted.
+     * @param parameters The search parameters of each Resource, in the same order.
+     * @param parameterDao
+     * @return The Resource DTOs
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceVersionIdMismatchException
+     */
+    @Override
+    public List<Resource> insertBatch(List<Resource> resources, List<List<ExtractedParameterValue>> parameters, ParameterDAO parameterDao)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "insertBatch";
+        logger.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        Integer resourceTypeId;
+        // The parameter tables are specific to the resource type, so we need a visitor per type
+        Map<String, ParameterVisitorBatchDAO> parameterVisitors = new HashMap<>();
+        Set<String> storedResources = new HashSet<>();
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        try {
+            connection = this.getConnection();
+
+            this.fhirRefSequenceDAO = new FhirRefSequenceDAOImpl(connection);
+            this.parameterNameDAO = new DerbyParameterNamesDAO(connection, fhirRefSequenceDAO);
+            this.codeSystemDAO = new DerbyCodeSystemDAO(connection, fhirRefSequenceDAO);
+            this.commonTokenValuesCache = new CommonTokenValuesCacheAdapter(new DerbyCommonTokenValuesDAO(connection), parameterDao);
+
+            dbCallStartTime = System.nanoTime();
+            for (int i = 0; i < resources.size(); i++) {
+                Resource resource = resources.get(i);
+
+                resourceTypeId = ResourceTypesCache.getResourceTypeId(resource.getResourceType());
+                if (resourceTypeId == null) {
+                    resourceTypeId = getOrCreateResourceType(resource.getResourceType(), connection);
+                    this.addResourceTypeCacheCandidate(resource.getResourceType(), resourceTypeId);
+                }
+
+                ParameterVisitorBatchDAO pvd = parameterVisitors.get(resource.getResourceType());
+                if (pvd == null) {
+                    pvd = new ParameterVisitorBatchDAO(connection, null, resource.getResourceType(), false, 0, 100,
+                        new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO),
+                        commonTokenValuesCache);
+                    parameterVisitors.put(resource.getResourceType(), pvd);
+                }
+                if (!storedResources.add(resource.getResourceType() + "/" + resource.getLogicalId())) {
+                    // Storing a new version compares its parameters with the stored ones, so the parameters
+                    // of an earlier version in this batch must be written first
+                    pvd.flush();
+                }
+
+                long resourceId = this.storeResource(resource.getResourceType(),
+                    parameters.get(i),
+                    resource.getLogicalId(),
+                    resource.getData(),
+                    resource.getLastUpdated(),
+                    resource.isDeleted(),
+                    UUID.randomUUID().toString(),
+                    resource.getVersionId(),
+                    connection,
+                    pvd
+                    );
+                resource.setId(resourceId);
+            }
+
+            // Write the parameters still batched
+            this.closeParameterVisitors(parameterVisitors);
+            dbCallDuration = (System.nanoTime() - dbCallStartTime)/1e6;
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Successfully inserted " + resources.size() + " Resources. executionTime=" + dbCallDuration + "ms");
+            }
+        } catch(FHIRPersistenceDBConnectException | FHIRPersistenceDataAccessException e) {
+            throw e;
+        } catch(SQLIntegrityConstraintViolationException e) {
+            FHIRPersistenceFKVException fx = new FHIRPersistenceFKVException("Encountered FK violation while inserting Resource.");
+            throw severe(logger, fx, e);
+        } catch(SQLException e) {
+            if ("99001".equals(e.getSQLState())) {
+                // this is just a concurrency update, so there's no need to log the SQLException here
+                throw new FHIRPersistenceVersionIdMismatchException("Encountered version id mismatch while inserting Resource");
+            } else {
+                FHIRPersistenceException fx = new FHIRPersistenceException("SQLException encountered while inserting Resource.");
+                throw severe(logger, fx, e);
+            }
+        } catch(Throwable e) {
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure inserting Resource.");
+            throw severe(logger, fx, e);
+        } finally {
+            this.closeParameterVisitorsQuietly(parameterVisitors);
+            this.cleanup(null, connection);
+            logger.exiting(CLASSNAME, METHODNAME);
+        }
+
+        return resources;
+    }
+
     /**
      * Store the resource in the database, creating a new logical_resource entry if this is
      * the first version of this resource, or creating a new resource entry if this a new
@@ -199,12 +315,15 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
      * @param p_is_deleted
      * @param p_source_key
      * @param p_version
+     * @param conn
+     * @param parameterVisitor a visitor shared by a batch of resources of this type, or null to insert the
+     *        parameters of this resource on their own
      *
      * @return the resource_id for the entry we created
      * @throws Exception
      */
     public long storeResource(String tablePrefix, List<ExtractedParameterValue> parameters, String p_logical_id, byte[] p_payload, Timestamp p_last_updated, boolean p_is_deleted,
-        String p_source_key, Integer p_version, Connection conn) throws Exception {
+        String p_source_key, Integer p_version, Connection conn, ParameterVisitorBatchDAO parameterVisitor) throws Exception {
 
         final String METHODNAME = "storeResource() for " + tablePrefix + " resource";
         logger.entering(CLASSNAME, METHODNAME);
@@ -221,6 +340,9 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
 
         String v_resource_type = tablePrefix;
 
+        // The ids of the new rows are taken from blocks of FHIR_SEQUENCE values reserved by this server
+        FhirSequenceDAO fhirSequenceDAO = new FhirSequenceDAOImpl(conn);
+
         // Map the resource type name to the normalized id value in the database
         v_resource_type_id = getResourceTypeId(v_resource_type, conn);
         if (v_resource_type_id == null) {
@@ -246,17 +368,7 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
         // Create the logical resource if we don't have it already
         if (v_not_found) {
             // grab the id we want to use for the new logical resource instance
-            final String sql2 = "VALUES(NEXT VALUE FOR fhir_sequence)";
-            try (PreparedStatement stmt = conn.prepareStatement(sql2)) {
-                ResultSet res = stmt.executeQuery();
-                if (res.next()) {
-                    v_logical_resource_id = res.getLong(1);
-                }
-                else {
-                    // not going to happen, unless someone butchers the statement being executed
-                    throw new IllegalStateException("VALUES failed to return a row: " + sql2);
-                }
-            }
+            v_logical_resource_id = fhirSequenceDAO.nextValue();
 
             try {
                 // insert the system-wide logical resource record.
@@ -362,21 +474,6 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
                             + tablePrefix + "_resources.resource_id=" + v_current_resource_id);
                 }
             }
-
-            //If we have been passed a version number, this means that this is a replicated
-            //resource, and so we only need to delete parameters if the given version is
-            // later than the current version
-            if (p_version == null || p_version > v_version) {
-                // existing resource, so need to delete all its parameters
-                // delete composites first, or else the foreign keys there restrict deletes on referenced tables
-                deleteFromParameterTable(conn, tablePrefix + "_composites", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_str_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_number_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_date_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_latlng_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_token_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_quantity_values", v_logical_resource_id);
-            }
         }
 
         // Persist the data using the given version number if required
@@ -394,17 +491,7 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
          * Create the new resource version.
          * Alpha version uses last_updated time from the app-server, so we keep that here
          */
-        String sql2 = "VALUES (NEXT VALUE FOR fhir_sequence)";
-        try (PreparedStatement stmt = conn.prepareStatement(sql2)) {
-            ResultSet res = stmt.executeQuery();
-            if (res.next()) {
-                v_resource_id = res.getLong(1); //Assign result of the above query
-            }
-            else {
-                // unlikely
-                throw new IllegalStateException("no row returned: " + sql2);
-            }
-        }
+        v_resource_id = fhirSequenceDAO.nextValue();
 
         // Finally we get to the big resource data insert
         String sql3 = "INSERT INTO " + tablePrefix + "_resources (resource_id, logical_resource_id, version_id, data, last_updated, is_deleted) "
@@ -434,12 +521,32 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
             // To keep things simple for the Derby use-case, we just use a visitor to
             // handle inserts of parameters directly in the resource parameter tables.
             // Note we don't get any parameters for the resource soft-delete operation
-            if (parameters != null) {
-                // Derby doesn't support partitioned multi-tenancy, so we disable it on the DAO:
-                try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(conn, null, tablePrefix, false, v_logical_resource_id, 100,
-                    new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO))) {
-                    for (ExtractedParameterValue p: parameters) {
-                        p.accept(pvd);
+            List<ExtractedParameterValue> parameterValues = parameters;
+            if (!v_new_resource) {
+                // existing resource, so only replace the parameters whose values changed. If we have been
+                // passed a version number, this is a replicated resource which supersedes the current version
+                ParameterDeltaDAO delta = new ParameterDeltaDAO(conn, tablePrefix, v_logical_resource_id,
+                    new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO),
+                    commonTokenValuesCache);
+                parameterValues = delta.applyDelta(parameters);
+            }
+
+            if (parameterValues != null) {
+                if (parameterVisitor != null) {
+                    // The parameters are batched along with those of the other resources in the batch
+                    parameterVisitor.setLogicalResourceId(v_logical_resource_id);
+                    for (ExtractedParameterValue p: parameterValues) {
+                        p.accept(parameterVisitor);
+                    }
+                }
+                else {
+                    // Derby doesn't support partitioned multi-tenancy, so we disable it on the DAO:
+                    try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(conn, null, tablePrefix, false, v_logical_resource_id, 100,
+                        new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO),
+                        commonTokenValuesCache)) {
+                        for (ExtractedParameterValue p: parameterValues) {
+                            p.accept(pvd);
+                        }
                     }
                 }
             }
@@ -449,24 +556,6 @@ public class DerbyResourceDAO extends ResourceDAOImpl {
     }
 
 
-    /**
-     * Delete all parameters for the given resourceId from the parameters table
-     *
-     * @param conn
-     * @param tableName
-     * @param logicalResourceId
-     * @throws SQLException
-     */
-    protected void deleteFromParameterTable(Connection conn, String tableName, long logicalResourceId) throws SQLException {
-        final String delStrValues = "DELETE FROM " + tableName + " WHERE logical_resource_id = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(delStrValues)) {
-            // bind parameters
-            stmt.setLong(1, logicalResourceId);
-            stmt.executeUpdate();
-        }
-
-    }
-
     /**
      * Read the id for the named type
      * @param resourceTypeName
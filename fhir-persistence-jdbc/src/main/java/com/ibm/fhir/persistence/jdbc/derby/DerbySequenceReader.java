@@ -0,0 +1,73 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.derby;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+/**
+ * Reads a block of values from a Derby sequence with a single query.
+ * <br>
+ * Derby has no row generator and only allows one NEXT VALUE FOR expression per sequence in a statement, so the
+ * values are selected from the cross join of as many (VALUES 0, ..., 9) tables as needed for the block size.
+ * Unlike a join of catalog tables, this does not depend on the size of the schema and reads no table at all.
+ */
+final class DerbySequenceReader {
+    private static final String DIGITS = "(VALUES 0, 1, 2, 3, 4, 5, 6, 7, 8, 9)";
+
+    private DerbySequenceReader() {
+        // No Operation
+    }
+
+    /**
+     * Read the next count values from the named sequence
+     * @param conn
+     * @param sequenceName
+     * @param count
+     * @return
+     * @throws SQLException
+     */
+    static long[] readValues(Connection conn, String sequenceName, int count) throws SQLException {
+        final String SEQ = count == 1 ? "VALUES NEXT VALUE FOR " + sequenceName
+                : "SELECT NEXT VALUE FOR " + sequenceName + " FROM " + rowGenerator(count) + " FETCH FIRST ? ROWS ONLY";
+        long[] result = new long[count];
+        int n = 0;
+        try (PreparedStatement stmt = conn.prepareStatement(SEQ)) {
+            if (count > 1) {
+                stmt.setInt(1, count);
+            }
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                result[n++] = rs.getLong(1);
+            }
+        }
+
+        if (n == 0) {
+            // not gonna happen
+            throw new IllegalStateException("no value returned from " + sequenceName + "!");
+        }
+        return n == count ? result : Arrays.copyOf(result, n);
+    }
+
+    /**
+     * @return a FROM clause producing at least count rows
+     */
+    private static String rowGenerator(int count) {
+        StringBuilder from = new StringBuilder();
+        int d = 0;
+        for (long rows = 1; rows < count; rows *= 10) {
+            if (d > 0) {
+                from.append(", ");
+            }
+            from.append(DIGITS).append(" AS D").append(d++).append("(X)");
+        }
+        return from.toString();
+    }
+}
@@ -7,11 +7,10 @@
 package com.ibm.fhir.persistence.jdbc.derby;
 
 import java.sql.Connection;
-import java.sql.PreparedStatement;
-import java.sql.ResultSet;
 import java.sql.SQLException;
 
 import com.ibm.fhir.persistence.jdbc.dao.api.FhirSequenceDAO;
+import com.ibm.fhir.persistence.jdbc.util.IdentityCache;
 
 /**
  * DAO to obtain the next value from FHIR_SEQUENCE
@@ -30,21 +29,17 @@ public class FhirSequenceDAOImpl implements FhirSequenceDAO {
 
     @Override
     public long nextValue() throws SQLException {
-        long result;
-        final String SEQ = "VALUES NEXT VALUE FOR fhir_sequence";
-        
-        try (PreparedStatement stmt = conn.prepareStatement(SEQ)) {
-            ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                result = rs.getLong(1);
-            }
-            else {
-                // not gonna happen
-                throw new IllegalStateException("no value returned from fhir_sequence!");
-            }
-        }
-
-        return result;
+        // values are reserved in blocks, shared by all the connections to this tenant/datastore
+        return IdentityCache.nextValue("fhir_sequence", this::readValues);
     }
 
+    /**
+     * Read the next count values from the FHIR_SEQUENCE with a single query
+     * @param count
+     * @return
+     * @throws SQLException
+     */
+    private long[] readValues(int count) throws SQLException {
+        return DerbySequenceReader.readValues(conn, "fhir_sequence", count);
+    }
 }
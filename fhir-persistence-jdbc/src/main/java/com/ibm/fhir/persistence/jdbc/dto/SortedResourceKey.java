@@ -0,0 +1,56 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.dto;
+
+/**
+ * This class defines the Data Transfer Object representing a row returned by a keyset-paginated sorted search:
+ * the resource id along with the values which identify its position within the sorted result set.
+ */
+public class SortedResourceKey {
+
+    private long resourceId;
+    private long logicalResourceId;
+    private Object sortValue;
+
+    public SortedResourceKey() {
+        super();
+    }
+
+    public long getResourceId() {
+        return resourceId;
+    }
+
+    public void setResourceId(long resourceId) {
+        this.resourceId = resourceId;
+    }
+
+    public long getLogicalResourceId() {
+        return logicalResourceId;
+    }
+
+    public void setLogicalResourceId(long logicalResourceId) {
+        this.logicalResourceId = logicalResourceId;
+    }
+
+    /**
+     * @return the (aggregated) value of the sort parameter for this resource, or null if the resource
+     *         has no value for the sort parameter
+     */
+    public Object getSortValue() {
+        return sortValue;
+    }
+
+    public void setSortValue(Object sortValue) {
+        this.sortValue = sortValue;
+    }
+
+    @Override
+    public String toString() {
+        return "SortedResourceKey [resourceId=" + resourceId + ", logicalResourceId=" + logicalResourceId
+                + ", sortValue=" + sortValue + "]";
+    }
+}
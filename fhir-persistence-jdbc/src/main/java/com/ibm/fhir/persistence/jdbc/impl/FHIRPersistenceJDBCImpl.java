@@ -6,19 +6,35 @@
 
 package com.ibm.fhir.persistence.jdbc.impl;
 
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ADD_ANY_RESOURCE_FUNCTION;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_COMMON_TOKEN_VALUES_CACHE_SIZE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_DATASTORE_CACHE_SIZE;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_CODE_SYSTEMS_CACHE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_COMMON_TOKEN_VALUES_CACHE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_KEYSET_PAGINATION;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_PARAMETER_NAMES_CACHE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_RESOURCE_READ_CACHE;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ENABLE_RESOURCE_TYPES_CACHE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_EXTRACTION_PARALLELISM;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_INCLUSION_BATCH_SIZE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_PARALLEL_EXTRACTION_THRESHOLD;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_PAYLOAD_CODEC;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_PRELOAD_DATASTORE_CACHE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_QUERY_SHAPE_CACHE_SIZE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_RESOURCE_READ_CACHE_SIZE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_SEQUENCE_BLOCK_SIZE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_SKIP_UNCHANGED_UPDATES;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ZSTD_COMPRESSION_LEVEL;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_ZSTD_DICTIONARY_DIR;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_UPDATE_CREATE_ENABLED;
 import static com.ibm.fhir.model.type.String.string;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.MAX_NUM_OF_COMPOSITE_COMPONENTS;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.sql.Savepoint;
 import java.sql.Timestamp;
 import java.time.ZoneOffset;
 import java.time.temporal.TemporalAccessor;
@@ -27,6 +43,8 @@ import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
@@ -36,8 +54,8 @@ import java.util.UUID;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.stream.Collectors;
-import java.util.zip.GZIPInputStream;
-import java.util.zip.GZIPOutputStream;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import javax.naming.InitialContext;
 import javax.transaction.Status;
@@ -45,13 +63,13 @@ import javax.transaction.TransactionSynchronizationRegistry;
 import javax.transaction.UserTransaction;
 
 import com.ibm.fhir.config.FHIRConfiguration;
+import com.ibm.fhir.config.FHIRRequestContext;
 import com.ibm.fhir.config.PropertyGroup;
 import com.ibm.fhir.core.FHIRUtilities;
 import com.ibm.fhir.core.context.FHIRPagingContext;
 import com.ibm.fhir.database.utils.api.IConnectionProvider;
 import com.ibm.fhir.exception.FHIRException;
 import com.ibm.fhir.model.format.Format;
-import com.ibm.fhir.model.generator.FHIRGenerator;
 import com.ibm.fhir.model.parser.FHIRJsonParser;
 import com.ibm.fhir.model.parser.FHIRParser;
 import com.ibm.fhir.model.resource.OperationOutcome;
@@ -79,11 +97,15 @@ import com.ibm.fhir.persistence.MultiResourceResult;
 import com.ibm.fhir.persistence.SingleResourceResult;
 import com.ibm.fhir.persistence.context.FHIRHistoryContext;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.exception.FHIRPersistenceBatchRolledBackException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceResourceDeletedException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceResourceNotFoundException;
 import com.ibm.fhir.persistence.jdbc.FHIRResourceDAOFactory;
 import com.ibm.fhir.persistence.jdbc.JDBCConstants;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodec;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodecs;
+import com.ibm.fhir.persistence.jdbc.codec.ZstdPayloadCodec;
 import com.ibm.fhir.persistence.jdbc.dao.api.FHIRDbDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
@@ -94,23 +116,39 @@ import com.ibm.fhir.persistence.jdbc.dto.DateParmVal;
 import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
 import com.ibm.fhir.persistence.jdbc.dto.NumberParmVal;
 import com.ibm.fhir.persistence.jdbc.dto.QuantityParmVal;
+import com.ibm.fhir.persistence.jdbc.dto.SortedResourceKey;
 import com.ibm.fhir.persistence.jdbc.dto.StringParmVal;
 import com.ibm.fhir.persistence.jdbc.dto.TokenParmVal;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceFKVException;
+import com.ibm.fhir.persistence.jdbc.postgresql.PostgreSqlResourceDAO;
 import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
+import com.ibm.fhir.persistence.jdbc.util.CommonTokenValuesCache;
+import com.ibm.fhir.persistence.jdbc.util.ContinuationToken;
+import com.ibm.fhir.persistence.jdbc.util.DatastoreCache;
+import com.ibm.fhir.persistence.jdbc.util.IdentityCache;
+import com.ibm.fhir.persistence.jdbc.util.InclusionResourceFetcher;
 import com.ibm.fhir.persistence.jdbc.util.JDBCParameterBuildingVisitor;
 import com.ibm.fhir.persistence.jdbc.util.JDBCQueryBuilder;
 import com.ibm.fhir.persistence.jdbc.util.ParameterNamesCache;
+import com.ibm.fhir.persistence.jdbc.util.QueryShapeCache;
+import com.ibm.fhir.persistence.jdbc.util.ReadReplicaRouter;
+import com.ibm.fhir.persistence.jdbc.util.ResourceReadCache;
+import com.ibm.fhir.persistence.jdbc.util.ResourceReadCacheInterceptor;
+import com.ibm.fhir.persistence.jdbc.util.ResourceReadCacheInvalidator;
 import com.ibm.fhir.persistence.jdbc.util.ResourceTypesCache;
 import com.ibm.fhir.persistence.jdbc.util.SqlQueryData;
 import com.ibm.fhir.persistence.util.FHIRPersistenceUtil;
+import com.ibm.fhir.persistence.util.ResourceFingerprintVisitor;
+import com.ibm.fhir.persistence.util.SaltHash;
 import com.ibm.fhir.search.SearchConstants;
 import com.ibm.fhir.search.SummaryValueSet;
+import com.ibm.fhir.search.TotalValueSet;
 import com.ibm.fhir.search.context.FHIRSearchContext;
 import com.ibm.fhir.search.date.DateTimeHandler;
 import com.ibm.fhir.search.parameters.QueryParameter;
+import com.ibm.fhir.search.util.SearchParameterExtractor;
 import com.ibm.fhir.search.util.SearchUtil;
 
 /**
@@ -126,6 +164,10 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
 
     protected static final String TXN_JNDI_NAME = "java:comp/UserTransaction";
     public static final String TRX_SYNCH_REG_JNDI_NAME = "java:comp/TransactionSynchronizationRegistry";
+    public static final int DEFAULT_PARALLEL_EXTRACTION_THRESHOLD = 16384;
+
+    // The number of rows fetched from the database at a time by a streaming search
+    public static final int STREAM_FETCH_SIZE = 100;
 
     private FHIRDbDAO baseDao;
     private ResourceDAO resourceDao;
@@ -136,6 +178,27 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
     protected Connection sharedConnection = null;
     protected UserTransaction userTransaction = null;
     protected Boolean updateCreateEnabled = null;
+    protected Boolean keysetPaginationEnabled = null;
+
+    // Whether an update whose content is identical to the current version is skipped
+    protected boolean skipUnchangedUpdates = false;
+
+    // The codec used to encode the resource payloads we write
+    protected ResourcePayloadCodec payloadCodec = null;
+
+    // The minimum size of an encoded resource payload for its search parameters to be extracted in parallel
+    protected int parallelExtractionThreshold = DEFAULT_PARALLEL_EXTRACTION_THRESHOLD;
+
+    // The resources written through this instance, which must not be served from or added to the ResourceReadCache
+    private Set<String> writtenResourceKeys = new HashSet<>();
+
+    // Whether this instance wrote to the database in the current transaction; its reads are then never routed to a replica
+    private boolean writePerformed = false;
+
+    // The connection and DAOs used by the reads routed to the read replica of the current datastore
+    private Connection replicaConnection = null;
+    private ResourceDAO replicaResourceDao;
+    private ParameterDAO replicaParameterDao;
 
     // only used outside a web container
     private Connection managedConnection;
@@ -150,6 +213,12 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
 
         PropertyGroup fhirConfig = FHIRConfiguration.getInstance().loadConfiguration();
         this.updateCreateEnabled = fhirConfig.getBooleanProperty(PROPERTY_UPDATE_CREATE_ENABLED, Boolean.TRUE);
+        this.keysetPaginationEnabled = fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_KEYSET_PAGINATION, Boolean.FALSE);
+        this.skipUnchangedUpdates = fhirConfig.getBooleanProperty(PROPERTY_JDBC_SKIP_UNCHANGED_UPDATES, Boolean.FALSE);
+        ResourcePayloadCodecs.configureZstd(fhirConfig.getIntProperty(PROPERTY_JDBC_ZSTD_COMPRESSION_LEVEL, ZstdPayloadCodec.DEFAULT_LEVEL),
+                                            fhirConfig.getStringProperty(PROPERTY_JDBC_ZSTD_DICTIONARY_DIR, null));
+        this.payloadCodec = ResourcePayloadCodecs.getCodec(fhirConfig.getStringProperty(PROPERTY_JDBC_PAYLOAD_CODEC,
+                                                           ResourcePayloadCodecs.DEFAULT_CODEC));
         this.userTransaction = retrieveUserTransaction(TXN_JNDI_NAME);
 
         ParameterNamesCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_PARAMETER_NAMES_CACHE,
@@ -158,11 +227,39 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                                     Boolean.TRUE));
         ResourceTypesCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_RESOURCE_TYPES_CACHE,
                                       Boolean.TRUE));
+        DatastoreCache.setMaxSize(fhirConfig.getIntProperty(PROPERTY_JDBC_DATASTORE_CACHE_SIZE,
+                                  DatastoreCache.DEFAULT_MAX_SIZE));
+        CommonTokenValuesCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_COMMON_TOKEN_VALUES_CACHE,
+                                          Boolean.TRUE));
+        CommonTokenValuesCache.setMaxSize(fhirConfig.getIntProperty(PROPERTY_JDBC_COMMON_TOKEN_VALUES_CACHE_SIZE,
+                                          CommonTokenValuesCache.DEFAULT_MAX_SIZE));
+        ResourceReadCache.setEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ENABLE_RESOURCE_READ_CACHE,
+                                     Boolean.FALSE));
+        ResourceReadCache.setMaxSize(fhirConfig.getIntProperty(PROPERTY_JDBC_RESOURCE_READ_CACHE_SIZE,
+                                     ResourceReadCache.DEFAULT_MAX_SIZE));
+        if (ResourceReadCache.isEnabled()) {
+            ResourceReadCacheInterceptor.register();
+        }
+        QueryShapeCache.setMaxSize(fhirConfig.getIntProperty(PROPERTY_JDBC_QUERY_SHAPE_CACHE_SIZE,
+                                   QueryShapeCache.DEFAULT_MAX_SIZE));
+        InclusionResourceFetcher.setBatchSize(fhirConfig.getIntProperty(PROPERTY_JDBC_INCLUSION_BATCH_SIZE,
+                                              InclusionResourceFetcher.DEFAULT_BATCH_SIZE));
+        PostgreSqlResourceDAO.setAddAnyResourceFunctionEnabled(fhirConfig.getBooleanProperty(PROPERTY_JDBC_ADD_ANY_RESOURCE_FUNCTION,
+                                                               Boolean.FALSE));
+        IdentityCache.setBlockSize(fhirConfig.getIntProperty(PROPERTY_JDBC_SEQUENCE_BLOCK_SIZE,
+                                   IdentityCache.DEFAULT_BLOCK_SIZE));
+        SearchParameterExtractor.setParallelism(fhirConfig.getIntProperty(PROPERTY_JDBC_EXTRACTION_PARALLELISM, 1));
+        this.parallelExtractionThreshold = fhirConfig.getIntProperty(PROPERTY_JDBC_PARALLEL_EXTRACTION_THRESHOLD,
+                                           DEFAULT_PARALLEL_EXTRACTION_THRESHOLD);
 
         sharedConnection = this.createConnection();
         this.resourceDao = FHIRResourceDAOFactory.getResourceDAO(sharedConnection, this.getTrxSynchRegistry());
         this.parameterDao = new ParameterDAOImpl(this.getTrxSynchRegistry());
 
+        if (fhirConfig.getBooleanProperty(PROPERTY_JDBC_PRELOAD_DATASTORE_CACHE, Boolean.TRUE)) {
+            this.preloadDatastoreCache();
+        }
+
         log.exiting(CLASSNAME, METHODNAME);
     }
 
@@ -175,6 +272,9 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         log.entering(CLASSNAME, METHODNAME);
 
         this.updateCreateEnabled = Boolean.parseBoolean(configProps.getProperty("updateCreateEnabled"));
+        this.keysetPaginationEnabled = Boolean.parseBoolean(configProps.getProperty("enableKeysetPagination"));
+        this.skipUnchangedUpdates = Boolean.parseBoolean(configProps.getProperty("skipUnchangedUpdates"));
+        this.payloadCodec = ResourcePayloadCodecs.getCodec(configProps.getProperty("payloadCodec", ResourcePayloadCodecs.DEFAULT_CODEC));
 
         FHIRDbDAO dao = new FHIRDbDAOImpl(configProps);
 
@@ -195,6 +295,9 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         log.entering(CLASSNAME, METHODNAME);
 
         this.updateCreateEnabled = Boolean.parseBoolean(configProps.getProperty("updateCreateEnabled"));
+        this.keysetPaginationEnabled = Boolean.parseBoolean(configProps.getProperty("enableKeysetPagination"));
+        this.skipUnchangedUpdates = Boolean.parseBoolean(configProps.getProperty("skipUnchangedUpdates"));
+        this.payloadCodec = ResourcePayloadCodecs.getCodec(configProps.getProperty("payloadCodec", ResourcePayloadCodecs.DEFAULT_CODEC));
 
         FHIRDbDAO dao = new FHIRDbDAOImpl(cp.getConnection());
 
@@ -211,7 +314,6 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         final String METHODNAME = "create";
         log.entering(CLASSNAME, METHODNAME);
 
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
         String logicalId;
 
         // We need to update the meta in the resource, so we need a modifiable version
@@ -250,15 +352,12 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
             resourceDTO.setResourceType(updatedResource.getClass().getSimpleName());
 
             // Serialize and compress the Resource
-            GZIPOutputStream zipStream = new GZIPOutputStream(stream);
-            FHIRGenerator.generator( Format.JSON, false).generate(updatedResource, zipStream);
-            zipStream.finish();
-            resourceDTO.setData(stream.toByteArray());
-            zipStream.close();
+            resourceDTO.setData(this.compress(updatedResource));
 
             // Persist the Resource DTO.
             this.getResourceDao().setPersistenceContext(context);
             this.getResourceDao().insert(resourceDTO, this.extractSearchParameters(updatedResource, resourceDTO), this.parameterDao);
+            this.recordWrite();
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
                             + ", version=" + resourceDTO.getVersionId());
@@ -303,7 +402,6 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
 
         Class<? extends Resource> resourceType = resource.getClass();
         com.ibm.fhir.persistence.jdbc.dto.Resource existingResourceDTO;
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
 
         // Resources are immutable, so we need a new builder to update it (since R4)
         Resource.Builder resultResourceBuilder = resource.toBuilder();
@@ -311,17 +409,22 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         try {
             // Assume we have no existing resource.
             int existingVersion = 0;
+            Resource existingResource = null;
 
             // Compute the new version # from the existing version #.
 
             // If the "previous resource" is set in the persistence event, then get the
             // existing version # from that.
             if (context.getPersistenceEvent() != null && context.getPersistenceEvent().isPrevFhirResourceSet()) {
-                Resource existingResource = context.getPersistenceEvent().getPrevFhirResource();
+                existingResource = context.getPersistenceEvent().getPrevFhirResource();
                 if (existingResource != null) {
                     log.fine("Using pre-fetched 'previous' resource.");
                     String version = existingResource.getMeta().getVersionId().getValue();
                     existingVersion = Integer.valueOf(version);
+                    if (context.getPersistenceEvent().isPrevFhirResourceDeleted()) {
+                        // the content of a deleted resource, which an update must always restore
+                        existingResource = null;
+                    }
                 }
             }
 
@@ -332,7 +435,24 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                 existingResourceDTO = this.getResourceDao().read(logicalId, resourceType.getSimpleName());
                 if (existingResourceDTO != null) {
                     existingVersion = existingResourceDTO.getVersionId();
+                    if (skipUnchangedUpdates && !existingResourceDTO.isDeleted()) {
+                        existingResource = this.convertResourceDTO(existingResourceDTO, resourceType, null);
+                    }
+                }
+            }
+
+            // If the content is the same as the current version, there is nothing to store
+            if (skipUnchangedUpdates && existingResource != null && isUnchanged(existingResource, resource)) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Skipping unchanged update of FHIR Resource '" + resourceType.getSimpleName() + "/" + logicalId
+                            + "', version=" + existingVersion);
                 }
+                @SuppressWarnings("unchecked")
+                T currentResource = (T) existingResource;
+                return new SingleResourceResult.Builder<T>()
+                        .success(true)
+                        .resource(currentResource)
+                        .build();
             }
 
             // If this logical resource didn't exist and the "updateCreate" feature is not enabled,
@@ -375,15 +495,13 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
             resourceDTO.setResourceType(updatedResource.getClass().getSimpleName());
 
             // Serialize and compress the Resource
-            GZIPOutputStream zipStream = new GZIPOutputStream(stream);
-            FHIRGenerator.generator(Format.JSON, false).generate(updatedResource, zipStream);
-            zipStream.finish();
-            resourceDTO.setData(stream.toByteArray());
-            zipStream.close();
+            resourceDTO.setData(this.compress(updatedResource));
 
             // Persist the Resource DTO.
             this.getResourceDao().setPersistenceContext(context);
             this.getResourceDao().insert(resourceDTO, this.extractSearchParameters(updatedResource, resourceDTO), this.parameterDao);
+            this.recordWrite();
+            this.invalidateReadCache(resourceDTO);
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
                             + ", version=" + resourceDTO.getVersionId());
@@ -420,6 +538,381 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         }
     }
 
+    @Override
+    public <T extends Resource> List<SingleResourceResult<T>> createBatch(FHIRPersistenceContext context, List<T> resources)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "createBatch";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Savepoint savepoint = this.setBatchSavepoint();
+        try {
+            if (savepoint == null) {
+                return this.storeEach(context, resources, false);
+            }
+
+            // As with create(), any id in the given resources is replaced with a system-generated value
+            // and the version is always 1.
+            List<String> logicalIds = new ArrayList<>(resources.size());
+            List<Integer> versionNumbers = new ArrayList<>(resources.size());
+            for (int i = 0; i < resources.size(); i++) {
+                logicalIds.add(UUID.randomUUID().toString());
+                versionNumbers.add(1);
+            }
+
+            List<SingleResourceResult<T>> results = this.storeBatch(context, resources, logicalIds, versionNumbers);
+            this.releaseBatchSavepoint(savepoint);
+            return results;
+        }
+        catch(FHIRPersistenceFKVException e) {
+            log.log(Level.SEVERE, "FK violation", e);
+            throw this.rollbackBatch(savepoint, e);
+        }
+        catch(FHIRPersistenceException e) {
+            throw this.rollbackBatch(savepoint, e);
+        }
+        catch(Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while performing a batch create operation.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw this.rollbackBatch(savepoint, fx);
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    @Override
+    public <T extends Resource> List<SingleResourceResult<T>> updateBatch(FHIRPersistenceContext context, List<T> resources)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "updateBatch";
+        log.entering(CLASSNAME, METHODNAME);
+
+        Savepoint savepoint = this.setBatchSavepoint();
+        try {
+            if (savepoint == null) {
+                return this.storeEach(context, resources, true);
+            }
+
+            List<SingleResourceResult<T>> results = this.doUpdateBatch(context, resources);
+            this.releaseBatchSavepoint(savepoint);
+            return results;
+        }
+        catch(FHIRPersistenceFKVException e) {
+            log.log(Level.SEVERE, this.performCacheDiagnostics());
+            throw this.rollbackBatch(savepoint, e);
+        }
+        catch(FHIRPersistenceException e) {
+            throw this.rollbackBatch(savepoint, e);
+        }
+        catch(Throwable e) {
+            // don't chain the exception to avoid leaking secrets
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while performing a batch update operation.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw this.rollbackBatch(savepoint, fx);
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    /**
+     * Stores a new version of each of the passed resources, skipping the unchanged ones if configured.
+     * @see #updateBatch(FHIRPersistenceContext, List)
+     */
+    private <T extends Resource> List<SingleResourceResult<T>> doUpdateBatch(FHIRPersistenceContext context, List<T> resources)
+            throws Exception {
+        List<T> changedResources = new ArrayList<>(resources.size());
+        List<String> logicalIds = new ArrayList<>(resources.size());
+        List<Integer> versionNumbers = new ArrayList<>(resources.size());
+
+        // The results of the unchanged resources, which are not stored again
+        Map<Integer, SingleResourceResult<T>> unchangedResults = new HashMap<>();
+
+        // The latest version of each resource, including the versions assigned earlier in this batch
+        Map<String, Integer> latestVersions = new HashMap<>();
+        for (int i = 0; i < resources.size(); i++) {
+            T resource = resources.get(i);
+            String resourceTypeName = resource.getClass().getSimpleName();
+            String logicalId = resource.getId();
+            if (logicalId == null) {
+                throw new FHIRPersistenceException("The resources of a batch update must contain an id.");
+            }
+
+            String key = resourceTypeName + "/" + logicalId;
+            Integer existingVersion = latestVersions.get(key);
+            if (existingVersion == null) {
+                com.ibm.fhir.persistence.jdbc.dto.Resource existingResourceDTO = this.getResourceDao().read(logicalId, resourceTypeName);
+                existingVersion = existingResourceDTO != null ? existingResourceDTO.getVersionId() : 0;
+
+                // Only the stored version is compared; later updates of the resource in this batch are always stored
+                if (skipUnchangedUpdates && existingResourceDTO != null && !existingResourceDTO.isDeleted()) {
+                    @SuppressWarnings("unchecked")
+                    T existingResource = (T) this.convertResourceDTO(existingResourceDTO, resource.getClass(), null);
+                    if (isUnchanged(existingResource, resource)) {
+                        unchangedResults.put(i, new SingleResourceResult.Builder<T>()
+                                .success(true)
+                                .resource(existingResource)
+                                .build());
+                        latestVersions.put(key, existingVersion);
+                        continue;
+                    }
+                }
+            }
+
+            // If this logical resource didn't exist and the "updateCreate" feature is not enabled,
+            // then this is an error.
+            if (existingVersion == 0 && !updateCreateEnabled) {
+                String msg = "Resource '" + key + "' not found.";
+                log.log(Level.SEVERE, msg);
+                throw new FHIRPersistenceResourceNotFoundException(msg);
+            }
+
+            changedResources.add(resource);
+            logicalIds.add(logicalId);
+            versionNumbers.add(existingVersion + 1);
+            latestVersions.put(key, existingVersion + 1);
+        }
+
+        List<SingleResourceResult<T>> storedResults = changedResources.isEmpty() ? Collections.emptyList()
+                : this.storeBatch(context, changedResources, logicalIds, versionNumbers);
+        if (unchangedResults.isEmpty()) {
+            return storedResults;
+        }
+
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Skipped " + unchangedResults.size() + " unchanged updates in a batch of " + resources.size());
+        }
+        // Merge the results, in the order of the passed resources
+        List<SingleResourceResult<T>> results = new ArrayList<>(resources.size());
+        Iterator<SingleResourceResult<T>> storedIter = storedResults.iterator();
+        for (int i = 0; i < resources.size(); i++) {
+            SingleResourceResult<T> unchanged = unchangedResults.get(i);
+            results.add(unchanged != null ? unchanged : storedIter.next());
+        }
+        return results;
+    }
+
+    /**
+     * Stores the passed resources one at a time, which is used instead of a batch when a batch which fails could not
+     * be undone on its own. The failure of a resource does not stop the others from being stored; it is reported in
+     * an unsuccessful result.
+     * @param context
+     * @param resources
+     * @param update whether the resources are updated, rather than created
+     * @return a result per resource, in the order of the passed resources
+     */
+    private <T extends Resource> List<SingleResourceResult<T>> storeEach(FHIRPersistenceContext context, List<T> resources,
+            boolean update) {
+        List<SingleResourceResult<T>> results = new ArrayList<>(resources.size());
+        for (T resource : resources) {
+            try {
+                results.add(update ? this.update(context, resource.getId(), resource) : this.create(context, resource));
+            } catch (FHIRPersistenceException e) {
+                log.warning("Failed to store '" + resource.getClass().getSimpleName() + "/" + resource.getId()
+                        + "' due to error: " + e.getMessage());
+                results.add(new SingleResourceResult.Builder<T>()
+                        .success(false)
+                        .outcome(FHIRUtil.buildOperationOutcome(e, false))
+                        .build());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * Sets a savepoint on the connection of the current transaction before a batch is stored, so that a batch which
+     * fails can be undone without rolling back the rest of the transaction.
+     * @return the savepoint, or null if the connection does not support one here (for example, in auto-commit mode
+     *         or in a global transaction whose driver does not allow savepoints), in which case the resources are
+     *         stored one at a time
+     */
+    private Savepoint setBatchSavepoint() {
+        Connection connection = (userTransaction != null) ? sharedConnection : this.getManagedConnection();
+        if (connection == null) {
+            return null;
+        }
+        try {
+            return connection.getAutoCommit() ? null : connection.setSavepoint();
+        } catch (SQLException e) {
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Storing the batch without a savepoint: " + e.getMessage());
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Releases the savepoint set before a batch which was stored successfully.
+     * @param savepoint the savepoint, or null
+     */
+    private void releaseBatchSavepoint(Savepoint savepoint) {
+        if (savepoint != null) {
+            try {
+                Connection connection = (userTransaction != null) ? sharedConnection : this.getManagedConnection();
+                connection.releaseSavepoint(savepoint);
+            } catch (SQLException e) {
+                // the savepoint is released anyway when the transaction ends
+                log.log(Level.FINE, "Failure releasing the batch savepoint", e);
+            }
+        }
+    }
+
+    /**
+     * Rolls the current transaction back to the savepoint set before a batch which failed, if any.
+     * The cache candidates collected in the transaction are discarded, as some of them may refer to rows
+     * inserted by the batch.
+     * @param savepoint the savepoint, or null
+     * @param fx the failure of the batch
+     * @return a FHIRPersistenceBatchRolledBackException if the batch was rolled back, and fx otherwise
+     */
+    private FHIRPersistenceException rollbackBatch(Savepoint savepoint, FHIRPersistenceException fx) {
+        if (savepoint == null) {
+            return fx;
+        }
+        try {
+            Connection connection = (userTransaction != null) ? sharedConnection : this.getManagedConnection();
+            connection.rollback(savepoint);
+        } catch (SQLException e) {
+            log.log(Level.SEVERE, "Failure rolling back the batch to its savepoint", e);
+            return fx;
+        }
+        this.getResourceDao().clearCacheCandidates();
+        this.getParameterDao().clearCacheCandidates();
+        return new FHIRPersistenceBatchRolledBackException(fx.getMessage(), fx);
+    }
+
+    /**
+     * Compares the fingerprints of the passed resources, ignoring the id, meta.versionId and meta.lastUpdated
+     * elements which are set by the persistence layer.
+     *
+     * @param existingResource the current version of a resource
+     * @param resource the new content of the resource
+     * @return true if the new content is the same as the current version
+     */
+    private boolean isUnchanged(Resource existingResource, Resource resource) {
+        ResourceFingerprintVisitor existingFingerprint = new ResourceFingerprintVisitor();
+        existingResource.accept(existingResource.getClass().getSimpleName(), existingFingerprint);
+        SaltHash baseline = existingFingerprint.getSaltAndHash();
+
+        ResourceFingerprintVisitor fingerprint = new ResourceFingerprintVisitor(baseline);
+        resource.accept(resource.getClass().getSimpleName(), fingerprint);
+        return baseline.equals(fingerprint.getSaltAndHash());
+    }
+
+    /**
+     * Stores a new version of each of the passed resources with a single call to the resource DAO.
+     * Serializing and compressing the resources is independent work, so it is done in parallel; the
+     * search parameters are extracted in order, and then all the resources are inserted as a batch.
+     *
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resources the FHIR Resources to be stored
+     * @param logicalIds the logical id of each resource
+     * @param versionNumbers the new version number of each resource
+     * @return a SingleResourceResult for each resource, in the same order as the passed resources
+     * @throws Exception
+     */
+    private <T extends Resource> List<SingleResourceResult<T>> storeBatch(FHIRPersistenceContext context, List<T> resources,
+            List<String> logicalIds, List<Integer> versionNumbers) throws Exception {
+        List<T> updatedResources = new ArrayList<>(resources.size());
+        List<com.ibm.fhir.persistence.jdbc.dto.Resource> resourceDTOs = new ArrayList<>(resources.size());
+
+        for (int i = 0; i < resources.size(); i++) {
+            T resource = resources.get(i);
+            int newVersionNumber = versionNumbers.get(i);
+
+            // Set the resource id and meta fields.
+            Instant lastUpdated = Instant.now(ZoneOffset.UTC);
+            Resource.Builder resultResourceBuilder = resource.toBuilder();
+            resultResourceBuilder.id(logicalIds.get(i));
+            Meta meta = resource.getMeta();
+            Meta.Builder metaBuilder = meta == null ? Meta.builder() : meta.toBuilder();
+            metaBuilder.versionId(Id.of(Integer.toString(newVersionNumber)));
+            metaBuilder.lastUpdated(lastUpdated);
+            resultResourceBuilder.meta(metaBuilder.build());
+
+            @SuppressWarnings("unchecked")
+            T updatedResource = (T) resultResourceBuilder.build();
+            updatedResources.add(updatedResource);
+
+            com.ibm.fhir.persistence.jdbc.dto.Resource resourceDTO = new com.ibm.fhir.persistence.jdbc.dto.Resource();
+            resourceDTO.setLogicalId(logicalIds.get(i));
+            resourceDTO.setVersionId(newVersionNumber);
+            resourceDTO.setLastUpdated(FHIRUtilities.convertToTimestamp(lastUpdated.getValue()));
+            resourceDTO.setResourceType(updatedResource.getClass().getSimpleName());
+            resourceDTOs.add(resourceDTO);
+        }
+
+        // Serialize and compress the Resources
+        IntStream.range(0, updatedResources.size()).parallel().forEach(i -> {
+            try {
+                resourceDTOs.get(i).setData(this.compress(updatedResources.get(i)));
+            } catch (Exception e) {
+                throw new IllegalStateException("Failure serializing resource", e);
+            }
+        });
+
+        // Evaluate the search parameter expressions of all the resources (concurrently, if parallel extraction is enabled).
+        // The applicable search parameters depend on the tenant, so they are looked up here on the request thread.
+        Map<String, List<SearchParameter>> applicableParameters = new HashMap<>();
+        List<List<SearchParameter>> resourceParameters = new ArrayList<>(resources.size());
+        for (T updatedResource : updatedResources) {
+            String resourceTypeName = updatedResource.getClass().getSimpleName();
+            List<SearchParameter> typeParameters = applicableParameters.get(resourceTypeName);
+            if (typeParameters == null) {
+                typeParameters = SearchUtil.getApplicableSearchParameters(resourceTypeName);
+                applicableParameters.put(resourceTypeName, typeParameters);
+            }
+            resourceParameters.add(typeParameters);
+        }
+        List<Map<SearchParameter, List<FHIRPathNode>>> values = SearchParameterExtractor.extractAll(updatedResources, resourceParameters, true);
+
+        // Build the search parameters, keeping track of the supplemental issues raised for each resource
+        List<List<ExtractedParameterValue>> parameters = new ArrayList<>(resources.size());
+        List<List<OperationOutcome.Issue>> issues = new ArrayList<>(resources.size());
+        for (int i = 0; i < updatedResources.size(); i++) {
+            int issueCount = supplementalIssues.size();
+            parameters.add(this.extractSearchParameters(updatedResources.get(i), values.get(i)));
+            issues.add(new ArrayList<>(supplementalIssues.subList(issueCount, supplementalIssues.size())));
+        }
+
+        // Persist the Resource DTOs.
+        this.getResourceDao().setPersistenceContext(context);
+        this.getResourceDao().insertBatch(resourceDTOs, parameters, this.parameterDao);
+        this.recordWrite();
+        for (com.ibm.fhir.persistence.jdbc.dto.Resource resourceDTO : resourceDTOs) {
+            this.invalidateReadCache(resourceDTO);
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Persisted a batch of " + resourceDTOs.size() + " FHIR Resources");
+        }
+
+        List<SingleResourceResult<T>> results = new ArrayList<>(updatedResources.size());
+        for (int i = 0; i < updatedResources.size(); i++) {
+            SingleResourceResult.Builder<T> resultBuilder = new SingleResourceResult.Builder<T>()
+                    .success(true)
+                    .resource(updatedResources.get(i));
+
+            // Add supplemental issues to an OperationOutcome
+            if (!issues.get(i).isEmpty()) {
+                resultBuilder.outcome(OperationOutcome.builder()
+                    .issue(issues.get(i))
+                    .build());
+            }
+            results.add(resultBuilder.build());
+        }
+        return results;
+    }
+
+    /**
+     * Serializes the passed FHIR Resource to JSON and encodes it with the configured payload codec,
+     * as stored in the data column of the resources tables.
+     * @param resource - Some FHIR Resource
+     * @return the encoded payload
+     * @throws Exception
+     */
+    private byte[] compress(Resource resource) throws Exception {
+        return ResourcePayloadCodecs.encode(this.payloadCodec, resource);
+    }
+
     @Override
     public MultiResourceResult<Resource> search(FHIRPersistenceContext context, Class<? extends Resource> resourceType)
             throws FHIRPersistenceException {
@@ -434,80 +927,149 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         List<com.ibm.fhir.persistence.jdbc.dto.Resource> unsortedResultsList;
         int searchResultCount = 0;
         SqlQueryData countQuery;
-        SqlQueryData query;
+        SqlQueryData query = null;
+        boolean keysetPagination = false;
+        ContinuationToken keysetPosition = null;
 
         try {
             checkModifiers(searchContext);
-            queryBuilder = new JDBCQueryBuilder(this.getParameterDao(),
-                                                this.getResourceDao());
+            boolean replica = this.routeToReadReplica(context);
+            ResourceDAO readResourceDao = replica ? this.replicaResourceDao : this.getResourceDao();
+            ParameterDAO readParameterDao = replica ? this.replicaParameterDao : this.getParameterDao();
+            queryBuilder = new JDBCQueryBuilder(readParameterDao, readResourceDao);
+
+            // Keyset pagination seeks directly to the next page rather than skipping the previous ones,
+            // so deep pages cost the same as the first one. It is used when enabled in the configuration,
+            // or when the client passes a continuation token from a previous page.
+            if (searchContext.hasContinuationToken()) {
+                keysetPosition = ContinuationToken.decode(searchContext.getContinuationToken(), resourceType, searchContext);
+                keysetPagination = true;
+            } else if (this.keysetPaginationEnabled) {
+                keysetPagination = ContinuationToken.isSupported(resourceType, searchContext);
+            }
 
-            countQuery = queryBuilder.buildCountQuery(resourceType, searchContext);
-            if (countQuery != null) {
-                searchResultCount = this.getResourceDao().searchCount(countQuery);
+            // The count query is only run when the client asked for an accurate total (the default), or when
+            // the count is needed to page the results. Otherwise the search query fetches one row more than the
+            // page size, which is enough to tell whether there is a next page.
+            TotalValueSet total = searchContext.getTotalParameter();
+            if (TotalValueSet.ESTIMATE.equals(total) && resourceType.equals(Resource.class)) {
+                total = TotalValueSet.ACCURATE;
+            }
+            boolean countRequired = total == null || TotalValueSet.ACCURATE.equals(total)
+                    || SummaryValueSet.COUNT.equals(searchContext.getSummaryParameter())
+                    || searchContext.getPageSize() == 0;
+            boolean lookAhead = keysetPagination || !countRequired;
+            boolean hasNextPage = false;
+
+            if (countRequired || TotalValueSet.ESTIMATE.equals(total)) {
+                countQuery = queryBuilder.buildCountQuery(resourceType, searchContext);
+                if (countQuery == null) {
+                    return resultBuilder
+                            .success(true)
+                            .resource(resources)
+                            .build();
+                }
+                if (countRequired) {
+                    searchResultCount = readResourceDao.searchCount(countQuery);
+                } else {
+                    searchResultCount = readResourceDao.searchCountEstimate(countQuery);
+                }
                 if (log.isLoggable(Level.FINE)) {
                     log.fine("searchResultCount = " + searchResultCount);
                 }
                 searchContext.setTotalCount(searchResultCount);
+            }
 
-                List<OperationOutcome.Issue> issues = validatePagingContext(searchContext);
-                if (!issues.isEmpty()) {
-                    resultBuilder.outcome(OperationOutcome.builder()
-                        .issue(issues)
-                        .build());
-                    if (!searchContext.isLenient()) {
-                        return resultBuilder.success(false).build();
-                    }
+            List<OperationOutcome.Issue> issues = validatePagingContext(searchContext, countRequired);
+            if (!issues.isEmpty()) {
+                resultBuilder.outcome(OperationOutcome.builder()
+                    .issue(issues)
+                    .build());
+                if (!searchContext.isLenient()) {
+                    return resultBuilder.success(false).build();
                 }
+            }
 
-                // For _summary=count or pageSize == 0, we return only the count
-                if (searchResultCount > 0
-                        && !SummaryValueSet.COUNT.equals(searchContext.getSummaryParameter())
-                        && searchContext.getPageSize() > 0) {
-                    query = queryBuilder.buildQuery(resourceType, searchContext);
-
-                    List<String> elements = searchContext.getElementsParameters();
-
-                    //Only consider _summary if _elements parameter is empty
-                    if (elements == null && searchContext.hasSummaryParameter()) {
-                        Set<String> summaryElements = null;
-                        SummaryValueSet summary = searchContext.getSummaryParameter();
-
-                        switch (summary) {
-                        case TRUE:
-                            summaryElements = JsonSupport.getSummaryElementNames(resourceType);
-                            break;
-                        case TEXT:
-                            summaryElements = SearchUtil.getSummaryTextElementNames(resourceType);
-                            break;
-                        case DATA:
-                            summaryElements = JsonSupport.getSummaryDataElementNames(resourceType);
-                            break;
-                        default:
-                            break;
-                        }
+            // For _summary=count or pageSize == 0, we return only the count
+            if ((searchResultCount > 0 || !countRequired)
+                    && !SummaryValueSet.COUNT.equals(searchContext.getSummaryParameter())
+                    && searchContext.getPageSize() > 0) {
+                if (keysetPagination) {
+                    query = queryBuilder.buildKeysetQuery(resourceType, searchContext, keysetPosition);
+                } else {
+                    query = queryBuilder.buildQuery(resourceType, searchContext, lookAhead);
+                }
+            }
 
-                        if (summaryElements != null) {
-                            elements = new ArrayList<>();
-                            elements.addAll(summaryElements);
+            if (query != null) {
+                List<String> elements = getElements(searchContext, resourceType);
+
+                int pageSize = searchContext.getPageSize();
+                List<com.ibm.fhir.persistence.jdbc.dto.Resource> resultsList;
+                if (searchContext.hasSortParameters()) {
+                    // Sorting results of a system-level search is limited, and has a different logic path
+                    // than other sorted searches.
+                    if (resourceType.equals(Resource.class)) {
+                        unsortedResultsList = readResourceDao.search(query);
+                        if (lookAhead && unsortedResultsList.size() > pageSize) {
+                            unsortedResultsList = unsortedResultsList.subList(0, pageSize);
+                            hasNextPage = true;
                         }
+                        resultsList = unsortedResultsList;
                     }
-
-                    if (searchContext.hasSortParameters()) {
-                        // Sorting results of a system-level search is limited, and has a different logic path
-                        // than other sorted searches.
-                        if (resourceType.equals(Resource.class)) {
-                           resources = this.convertResourceDTOList(this.resourceDao.search(query), resourceType, elements);
-                        }
-                        else {
-                            sortedIdList = this.resourceDao.searchForIds(query);
-                            resources = this.buildSortedFhirResources(context, resourceType, sortedIdList, elements);
+                    else if (keysetPagination) {
+                        List<SortedResourceKey> sortKeys = readResourceDao.searchForSortKeys(query);
+                        if (sortKeys.size() > pageSize) {
+                            // The query fetched one extra row, so there is a next page
+                            sortKeys = sortKeys.subList(0, pageSize);
+                            hasNextPage = true;
+                            SortedResourceKey lastKey = sortKeys.get(pageSize - 1);
+                            searchContext.setNextContinuationToken(ContinuationToken.of(
+                                    ContinuationToken.shapeOf(resourceType, searchContext),
+                                    lastKey.getLogicalResourceId(), lastKey.getSortValue()).encode());
                         }
+                        sortedIdList = sortKeys.stream().map(SortedResourceKey::getResourceId).collect(Collectors.toList());
+                        resultsList = this.getResourceDTOs(readResourceDao, resourceType, sortedIdList);
                     }
                     else {
-                        unsortedResultsList = this.getResourceDao().search(query);
-                        resources = this.convertResourceDTOList(unsortedResultsList, resourceType, elements);
+                        sortedIdList = readResourceDao.searchForIds(query);
+                        if (lookAhead && sortedIdList.size() > pageSize) {
+                            sortedIdList = sortedIdList.subList(0, pageSize);
+                            hasNextPage = true;
+                        }
+                        resultsList = this.getResourceDTOs(readResourceDao, resourceType, sortedIdList);
+                    }
+                }
+                else {
+                    unsortedResultsList = readResourceDao.search(query);
+                    if (lookAhead && unsortedResultsList.size() > pageSize) {
+                        // The query fetched one extra row, so there is a next page
+                        unsortedResultsList = unsortedResultsList.subList(0, pageSize);
+                        hasNextPage = true;
+                        if (keysetPagination) {
+                            searchContext.setNextContinuationToken(ContinuationToken.of(
+                                    ContinuationToken.shapeOf(resourceType, searchContext),
+                                    unsortedResultsList.get(pageSize - 1).getLogicalResourceId()).encode());
+                        }
                     }
+                    resultsList = unsortedResultsList;
                 }
+
+                resources = this.convertResourceDTOList(resultsList, resourceType, elements);
+                if (searchContext.hasIncludeParameters() || searchContext.hasRevIncludeParameters()) {
+                    // Fetch the resources of the _include and _revinclude parameters for this page only
+                    InclusionResourceFetcher fetcher = new InclusionResourceFetcher(readParameterDao, readResourceDao);
+                    List<com.ibm.fhir.persistence.jdbc.dto.Resource> includedResultsList = fetcher.fetch(
+                            resourceType.getSimpleName(), resultsList,
+                            searchContext.getIncludeParameters(), searchContext.getRevIncludeParameters());
+                    resources.addAll(this.convertResourceDTOList(includedResultsList, resourceType, elements));
+                }
+            }
+
+            if (!countRequired) {
+                // Without an accurate count, the last page known is the next one (if any)
+                int pageNumber = searchContext.getPageNumber();
+                searchContext.setLastPageNumber(hasNextPage ? pageNumber + 1 : pageNumber);
             }
 
             return resultBuilder
@@ -528,6 +1090,133 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         }
     }
 
+    /**
+     * Streams the resources of the requested page from a forward-only cursor, so that only the rows fetched so far
+     * are held in memory. Searches with _include or _revinclude, system-level searches, keyset paging and count-only
+     * searches are not streamed; their page is read by {@link #search(FHIRPersistenceContext, Class)} instead.
+     * The stream holds a database cursor open, so it must be consumed within the current transaction and then closed.
+     */
+    @Override
+    public Stream<Resource> searchStream(FHIRPersistenceContext context, Class<? extends Resource> resourceType)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "searchStream";
+        log.entering(CLASSNAME, METHODNAME);
+
+        FHIRSearchContext searchContext = context.getSearchContext();
+
+        try {
+            if (resourceType.equals(Resource.class)
+                    || searchContext.hasIncludeParameters() || searchContext.hasRevIncludeParameters()
+                    || searchContext.hasContinuationToken()
+                    || (this.keysetPaginationEnabled && ContinuationToken.isSupported(resourceType, searchContext))
+                    || SummaryValueSet.COUNT.equals(searchContext.getSummaryParameter())
+                    || searchContext.getPageSize() == 0) {
+                return FHIRPersistence.super.searchStream(context, resourceType);
+            }
+
+            checkModifiers(searchContext);
+            boolean replica = this.routeToReadReplica(context);
+            ResourceDAO readResourceDao = replica ? this.replicaResourceDao : this.getResourceDao();
+            ParameterDAO readParameterDao = replica ? this.replicaParameterDao : this.getParameterDao();
+            JDBCQueryBuilder queryBuilder = new JDBCQueryBuilder(readParameterDao, readResourceDao);
+
+            // The count is needed to page the results
+            SqlQueryData countQuery = queryBuilder.buildCountQuery(resourceType, searchContext);
+            if (countQuery == null) {
+                return Stream.empty();
+            }
+            int searchResultCount = readResourceDao.searchCount(countQuery);
+            searchContext.setTotalCount(searchResultCount);
+
+            List<OperationOutcome.Issue> issues = validatePagingContext(searchContext);
+            if ((!issues.isEmpty() && !searchContext.isLenient()) || searchResultCount == 0) {
+                return Stream.empty();
+            }
+
+            SqlQueryData query = queryBuilder.buildQuery(resourceType, searchContext, false);
+            if (query == null) {
+                return Stream.empty();
+            }
+
+            final List<String> elements = getElements(searchContext, resourceType);
+            Stream<com.ibm.fhir.persistence.jdbc.dto.Resource> resultStream;
+            if (searchContext.hasSortParameters()) {
+                // The sorted ids of the page are small, so they are read at once; the resources are then
+                // read in batches as the stream reaches them
+                final List<Long> sortedIdList = readResourceDao.searchForIds(query);
+                final int batches = (sortedIdList.size() + STREAM_FETCH_SIZE - 1) / STREAM_FETCH_SIZE;
+                resultStream = IntStream.range(0, batches)
+                        .mapToObj(b -> sortedIdList.subList(b * STREAM_FETCH_SIZE, Math.min(sortedIdList.size(), (b + 1) * STREAM_FETCH_SIZE)))
+                        .flatMap(ids -> {
+                            try {
+                                return this.getResourceDTOs(readResourceDao, resourceType, ids).stream();
+                            } catch (FHIRPersistenceException e) {
+                                throw new IllegalStateException("Failure reading resources", e);
+                            }
+                        });
+            } else {
+                resultStream = readResourceDao.searchStream(query, STREAM_FETCH_SIZE);
+            }
+
+            return resultStream.map(resourceDTO -> {
+                try {
+                    Resource resource = this.convertResourceDTO(resourceDTO, resourceType, elements);
+                    return resourceDTO.isDeleted() ? FHIRPersistenceUtil.createDeletedResourceMarker(resource) : resource;
+                } catch (FHIRException | IOException e) {
+                    throw new IllegalStateException("Failure converting resource", e);
+                }
+            });
+        }
+        catch(FHIRPersistenceException e) {
+            throw e;
+        }
+        catch(Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while performing a search operation.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw fx;
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    /**
+     * Returns the elements to be included in the resources of a search result, taken from the _elements parameter,
+     * or from the _summary parameter if _elements is absent.
+     * @param searchContext
+     * @param resourceType
+     * @return the element names, or null if the whole resources are returned
+     */
+    private List<String> getElements(FHIRSearchContext searchContext, Class<? extends Resource> resourceType) {
+        List<String> elements = searchContext.getElementsParameters();
+
+        //Only consider _summary if _elements parameter is empty
+        if (elements == null && searchContext.hasSummaryParameter()) {
+            Set<String> summaryElements = null;
+            SummaryValueSet summary = searchContext.getSummaryParameter();
+
+            switch (summary) {
+            case TRUE:
+                summaryElements = JsonSupport.getSummaryElementNames(resourceType);
+                break;
+            case TEXT:
+                summaryElements = SearchUtil.getSummaryTextElementNames(resourceType);
+                break;
+            case DATA:
+                summaryElements = JsonSupport.getSummaryDataElementNames(resourceType);
+                break;
+            default:
+                break;
+            }
+
+            if (summaryElements != null) {
+                elements = new ArrayList<>();
+                elements.addAll(summaryElements);
+            }
+        }
+        return elements;
+    }
+
     /**
      * @throws FHIRPersistenceException if the search context contains one or more unsupported modifiers
      */
@@ -560,7 +1249,6 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
 
         com.ibm.fhir.persistence.jdbc.dto.Resource existingResourceDTO = null;
         T existingResource = null;
-        ByteArrayOutputStream stream = new ByteArrayOutputStream();
 
         Resource.Builder resourceBuilder;
 
@@ -612,11 +1300,7 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
             resourceDTO.setVersionId(newVersionNumber);
 
             // Serialize and compress the Resource
-            GZIPOutputStream zipStream = new GZIPOutputStream(stream);
-            FHIRGenerator.generator(Format.JSON, false).generate(updatedResource, zipStream);
-            zipStream.finish();
-            resourceDTO.setData(stream.toByteArray());
-            zipStream.close();
+            resourceDTO.setData(this.compress(updatedResource));
 
             Timestamp timestamp = FHIRUtilities.convertToTimestamp(lastUpdated.getValue());
             resourceDTO.setLastUpdated(timestamp);
@@ -626,6 +1310,8 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
             // Persist the logically deleted Resource DTO.
             this.getResourceDao().setPersistenceContext(context);
             this.getResourceDao().insert(resourceDTO, null, null);
+            this.recordWrite();
+            this.invalidateReadCache(resourceDTO);
 
             if (log.isLoggable(Level.FINE)) {
                 log.fine("Persisted FHIR Resource '" + resourceDTO.getResourceType() + "/" + resourceDTO.getLogicalId() + "' id=" + resourceDTO.getId()
@@ -697,12 +1383,32 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         }
 
         try {
+            // Filtered resources and resources written by this request are never cached
+            boolean useReadCache = elements == null && ResourceReadCache.isEnabled()
+                    && !writtenResourceKeys.contains(ResourceReadCache.makeKey(resourceType.getSimpleName(), logicalId));
+            String cacheName = null;
+            long generation = 0;
+            if (useReadCache) {
+                Resource cached = ResourceReadCache.getLatest(resourceType.getSimpleName(), logicalId);
+                if (cached != null) {
+                    return new SingleResourceResult.Builder<T>()
+                            .success(true)
+                            .resource(resourceType.cast(cached))
+                            .build();
+                }
+                cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+                generation = ResourceReadCache.getGeneration(cacheName);
+            }
+
             resourceDTO = this.getResourceDao().read(logicalId, resourceType.getSimpleName());
             if (resourceDTO != null && resourceDTO.isDeleted() && !context.includeDeleted()) {
                 throw new FHIRPersistenceResourceDeletedException("Resource '" +
                         resourceType.getSimpleName() + "/" + logicalId + "' is deleted.");
             }
             resource = this.convertResourceDTO(resourceDTO, resourceType, elements);
+            if (useReadCache && resourceDTO != null && !resourceDTO.isDeleted()) {
+                ResourceReadCache.put(cacheName, resource, true, generation);
+            }
 
             SingleResourceResult<T> result = new SingleResourceResult.Builder<T>()
                     .success(true)
@@ -748,7 +1454,8 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                 fromDateTime = FHIRUtilities.convertToTimestamp(since.getValue());
             }
 
-            resourceCount = this.getResourceDao().historyCount(resourceType.getSimpleName(), logicalId, fromDateTime);
+            ResourceDAO readResourceDao = this.routeToReadReplica(context) ? this.replicaResourceDao : this.getResourceDao();
+            resourceCount = readResourceDao.historyCount(resourceType.getSimpleName(), logicalId, fromDateTime);
             historyContext.setTotalCount(resourceCount);
 
             List<OperationOutcome.Issue> issues = validatePagingContext(historyContext);
@@ -764,7 +1471,7 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
 
             if (resourceCount > 0) {
                 offset = (historyContext.getPageNumber() - 1) * historyContext.getPageSize();
-                resourceDTOList = this.getResourceDao().history(resourceType.getSimpleName(), logicalId, fromDateTime, offset, historyContext.getPageSize());
+                resourceDTOList = readResourceDao.history(resourceType.getSimpleName(), logicalId, fromDateTime, offset, historyContext.getPageSize());
                 for (com.ibm.fhir.persistence.jdbc.dto.Resource resourceDTO : resourceDTOList) {
                     if (resourceDTO.isDeleted()) {
                         deletedResourceVersions.putIfAbsent(logicalId, new ArrayList<Integer>());
@@ -803,6 +1510,14 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
      *     a list of operation outcome issues if the paging context has invalid parameters
      */
     private List<OperationOutcome.Issue> validatePagingContext(FHIRPagingContext pagingContext) {
+        return validatePagingContext(pagingContext, true);
+    }
+
+    /**
+     * @param totalKnown whether the total count of the paging context is accurate; if not, the last page number
+     *        is left for the caller to determine and the page number is not checked against it
+     */
+    private List<OperationOutcome.Issue> validatePagingContext(FHIRPagingContext pagingContext, boolean totalKnown) {
         List<OperationOutcome.Issue> issues = new ArrayList<>();
 
         int pageSize = pagingContext.getPageSize();
@@ -817,8 +1532,11 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
             pagingContext.setPageSize(10);
         }
 
-        int lastPageNumber = Math.max(((pagingContext.getTotalCount() + pageSize - 1) / pageSize), 1);
-        pagingContext.setLastPageNumber(lastPageNumber);
+        int lastPageNumber = Integer.MAX_VALUE;
+        if (totalKnown) {
+            lastPageNumber = Math.max(((pagingContext.getTotalCount() + pageSize - 1) / pageSize), 1);
+            pagingContext.setLastPageNumber(lastPageNumber);
+        }
 
         int pageNumber = pagingContext.getPageNumber();
         if (pageNumber < 1) {
@@ -860,12 +1578,34 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
 
         try {
             version = Integer.parseInt(versionId);
-            resourceDTO = this.getResourceDao().versionRead(logicalId, resourceType.getSimpleName(), version);
+
+            // Resources written by this request are never cached
+            boolean useReadCache = ResourceReadCache.isEnabled()
+                    && !writtenResourceKeys.contains(ResourceReadCache.makeKey(resourceType.getSimpleName(), logicalId));
+            String cacheName = null;
+            long generation = 0;
+            if (useReadCache) {
+                Resource cached = ResourceReadCache.getVersion(resourceType.getSimpleName(), logicalId, version);
+                if (cached != null) {
+                    return new SingleResourceResult.Builder<T>()
+                            .success(true)
+                            .resource(resourceType.cast(cached))
+                            .build();
+                }
+                cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+                generation = ResourceReadCache.getGeneration(cacheName);
+            }
+
+            ResourceDAO readResourceDao = this.routeToReadReplica(context) ? this.replicaResourceDao : this.getResourceDao();
+            resourceDTO = readResourceDao.versionRead(logicalId, resourceType.getSimpleName(), version);
             if (resourceDTO != null && resourceDTO.isDeleted() && !context.includeDeleted()) {
                 throw new FHIRPersistenceResourceDeletedException("Resource '" +
                         resourceType.getSimpleName() + "/" + logicalId + "' version " + versionId + " is deleted.");
             }
             resource = this.convertResourceDTO(resourceDTO, resourceType, null);
+            if (useReadCache && resourceDTO != null && !resourceDTO.isDeleted()) {
+                ResourceReadCache.put(cacheName, resource, false, generation);
+            }
 
             SingleResourceResult<T> result = new SingleResourceResult.Builder<T>()
                     .success(true)
@@ -891,69 +1631,18 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
     }
 
     /**
-     * This method takes the passed list of sorted Resource ids, acquires the Resource corresponding to each id, and returns those Resources in a List,
-     * sorted according to the input sorted ids.
-     * @param context - The FHIR persistence context for the current request.
-     * @param resourceType - The type of Resource that each id in the passed list represents.
-     * @param sortedIdList - A list of Resource ids representing the proper sort order for the list of Resources to be returned.
-     * @param elements - An optional list of element names to include in the resources. If null, filtering will be skipped.
-     * @return List<Resource> - A list of Resources of the passed resourceType, sorted according the order of ids in the passed sortedIdList.
-     * @throws FHIRPersistenceException
-     * @throws IOException
-     */
-    protected List<Resource> buildSortedFhirResources(FHIRPersistenceContext context, Class<? extends Resource> resourceType, List<Long> sortedIdList,
-            List<String> elements) throws FHIRException, FHIRPersistenceException, IOException {
-        final String METHOD_NAME = "buildSortedFhirResources";
-        log.entering(this.getClass().getName(), METHOD_NAME);
-
-        long resourceId;
-        Resource[] sortedFhirResources = new Resource[sortedIdList.size()];
-        Resource fhirResource;
-        int sortIndex;
-        List<Resource> sortedResourceList = new ArrayList<>();
-        List<com.ibm.fhir.persistence.jdbc.dto.Resource> resourceDTOList;
-        Map<Long,Integer> idPositionMap = new HashMap<>();
-
-        // This loop builds a Map where key=resourceId, and value=its proper position in the returned sorted collection.
-        for(int i = 0; i < sortedIdList.size(); i++) {
-            resourceId = sortedIdList.get(i);
-            idPositionMap.put(new Long(resourceId), new Integer(i));
-        }
-
-        resourceDTOList = this.getResourceDTOs(resourceType, sortedIdList);
-
-
-        // Convert the returned JPA Resources to FHIR Resources, and store each FHIRResource in its proper position
-        // in the returned sorted resource list.
-        for (com.ibm.fhir.persistence.jdbc.dto.Resource resourceDTO : resourceDTOList) {
-            fhirResource = this.convertResourceDTO(resourceDTO, resourceType, elements);
-            if (fhirResource != null) {
-                sortIndex = idPositionMap.get(resourceDTO.getId());
-                sortedFhirResources[sortIndex] = fhirResource;
-            }
-        }
-
-        for (int i = 0; i <sortedFhirResources.length; i++) {
-            if (sortedFhirResources[i] != null) {
-                sortedResourceList.add(sortedFhirResources[i]);
-            }
-        }
-        log.exiting(this.getClass().getName(), METHOD_NAME);
-        return sortedResourceList;
-    }
-
-    /**
-     * Returns a List of Resource DTOs corresponding to the passed list of Resource IDs.
+     * Returns a List of Resource DTOs corresponding to the passed list of Resource IDs, in the order of the passed ids.
+     * @param resourceDao The DAO used to read the resources.
      * @param resourceType The type of resource being queried.
      * @param sortedIdList A sorted list of Resource IDs.
      * @return List - A list of ResourceDTOs
      * @throws FHIRPersistenceDataAccessException
      * @throws FHIRPersistenceDBConnectException
      */
-    private List<com.ibm.fhir.persistence.jdbc.dto.Resource> getResourceDTOs(
+    private List<com.ibm.fhir.persistence.jdbc.dto.Resource> getResourceDTOs(ResourceDAO resourceDao,
             Class<? extends Resource> resourceType, List<Long> sortedIdList) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
 
-        return this.getResourceDao().searchByIds(resourceType.getSimpleName(), sortedIdList);
+        return resourceDao.searchByIds(resourceType.getSimpleName(), sortedIdList);
     }
 
     /**
@@ -996,11 +1685,66 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         StringBuffer diags = new StringBuffer();
         diags.append(ParameterNamesCache.dumpCacheContents()).append(ParameterNamesCache.reportCacheDiscrepancies(this.parameterDao));
         diags.append(CodeSystemsCache.dumpCacheContents()).append(CodeSystemsCache.reportCacheDiscrepancies(this.parameterDao));
+        diags.append(CommonTokenValuesCache.dumpCacheContents());
+        diags.append(ResourceReadCache.dumpCacheContents());
+        diags.append(QueryShapeCache.dumpCacheContents());
         diags.append(ResourceTypesCache.dumpCacheContents()).append(ResourceTypesCache.reportCacheDiscrepancies(this.resourceDao));
+        diags.append(DatastoreCache.dumpStatistics());
 
         return diags.toString();
     }
 
+    /**
+     * Bulk-loads the parameter name, code system and resource type caches of the current tenant/datastore
+     * the first time it is used, so its first requests don't each have to read these ids one at a time.
+     * A failure is only logged, because the caches are then simply filled as the ids are needed.
+     */
+    private void preloadDatastoreCache() {
+        DatastoreCache datastoreCache = DatastoreCache.current();
+        if (!datastoreCache.isPreloaded()) {
+            try {
+                datastoreCache.preload(this.parameterDao, this.resourceDao);
+            } catch (FHIRPersistenceException e) {
+                log.log(Level.WARNING, "Failure preloading the cache of tenantDatastore=" + datastoreCache.getName(), e);
+            }
+        }
+    }
+
+    /**
+     * Removes the passed resource from the ResourceReadCache after a new version of it has been written.
+     * When running in a global transaction, the resource is invalidated again when the transaction completes,
+     * in case the uncommitted version was read (and cached) before the transaction was rolled back.
+     * @param resourceDTO the resource DTO which was just written
+     * @throws FHIRPersistenceException
+     */
+    private void invalidateReadCache(com.ibm.fhir.persistence.jdbc.dto.Resource resourceDTO) throws FHIRPersistenceException {
+        if (!ResourceReadCache.isEnabled()) {
+            return;
+        }
+
+        String cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+        String resourceType = resourceDTO.getResourceType();
+        this.writtenResourceKeys.add(ResourceReadCache.makeKey(resourceType, resourceDTO.getLogicalId()));
+        ResourceReadCache.invalidate(cacheName, resourceType, resourceDTO.getLogicalId(), resourceDTO.getVersionId());
+
+        if (this.trxSynchRegistry != null && this.trxSynchRegistry.getTransactionKey() != null) {
+            // One invalidator per transaction, shared by every persistence instance taking part in it
+            ResourceReadCacheInvalidator invalidator =
+                    (ResourceReadCacheInvalidator) this.trxSynchRegistry.getResource(ResourceReadCacheInvalidator.class);
+            if (invalidator == null) {
+                invalidator = new ResourceReadCacheInvalidator(cacheName);
+                try {
+                    this.trxSynchRegistry.registerInterposedSynchronization(invalidator);
+                    this.trxSynchRegistry.putResource(ResourceReadCacheInvalidator.class, invalidator);
+                    log.fine("Registered ResourceReadCacheInvalidator.");
+                } catch(Throwable e) {
+                    throw new FHIRPersistenceException("Failure registering ResourceReadCacheInvalidator", e);
+                }
+            }
+            invalidator.add(resourceType, resourceDTO.getLogicalId(), resourceDTO.getVersionId());
+        }
+    }
+
     /**
      * Looks up and returns an instance of TransactionSynchronizationRegistry, which is used in support of writing committed
      * data to JDBC PL in-memory caches.
@@ -1027,17 +1771,29 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
     }
 
     /**
-     * Extracts search parameters for the passed FHIR Resource.
+     * Extracts search parameters for the passed FHIR Resource. The search parameter expressions of resources whose
+     * encoded payload is at least parallelExtractionThreshold bytes may be evaluated in parallel.
      * @param fhirResource - Some FHIR Resource
-     * @param resourceDTO - A Resource DTO representation of the passed FHIR Resource.
+     * @param resourceDTO - A Resource DTO representation of the passed FHIR Resource, with its data set.
      * @throws Exception
      */
     private List<ExtractedParameterValue> extractSearchParameters(Resource fhirResource, com.ibm.fhir.persistence.jdbc.dto.Resource resourceDTO)
                  throws Exception {
+        boolean parallel = resourceDTO.getData() != null && resourceDTO.getData().length >= this.parallelExtractionThreshold;
+        return this.extractSearchParameters(fhirResource, SearchUtil.extractParameterValues(fhirResource, true, parallel));
+    }
+
+    /**
+     * Builds the search parameters of the passed FHIR Resource from the values selected by the search parameter expressions.
+     * @param fhirResource - Some FHIR Resource
+     * @param map - The nodes selected by the expression of each applicable search parameter.
+     * @throws Exception
+     */
+    private List<ExtractedParameterValue> extractSearchParameters(Resource fhirResource, Map<SearchParameter, List<FHIRPathNode>> map)
+                 throws Exception {
         final String METHODNAME = "extractSearchParameters";
         log.entering(CLASSNAME, METHODNAME);
 
-        Map<SearchParameter, List<FHIRPathNode>> map;
         String code;
         String type;
         String expression;
@@ -1045,8 +1801,6 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         List<ExtractedParameterValue> allParameters = new ArrayList<>();
 
         try {
-            map = SearchUtil.extractParameterValues(fhirResource);
-
             for (Entry<SearchParameter, List<FHIRPathNode>> entry : map.entrySet()) {
                 SearchParameter sp = entry.getKey();
                 code = sp.getCode().getValue();
@@ -1320,6 +2074,10 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
             } else if (this.getManagedConnection() != null) {
                 this.getManagedConnection().commit();
             }
+            if (writePerformed) {
+                // Replicas catch up from the commit time
+                ReadReplicaRouter.recordWrite();
+            }
         }
         catch (Throwable e) {
             FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while committing a transaction.");
@@ -1335,6 +2093,8 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                 }
                 sharedConnection = null;
             }
+            writePerformed = false;
+            closeReplicaConnection();
             log.exiting(CLASSNAME, METHODNAME);
         }
 
@@ -1368,6 +2128,8 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                 }
                 sharedConnection = null;
             }
+            writePerformed = false;
+            closeReplicaConnection();
         }
     }
 
@@ -1403,6 +2165,8 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                 }
                 sharedConnection = null;
             }
+            writePerformed = false;
+            closeReplicaConnection();
         }
     }
 
@@ -1525,7 +2289,7 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         T resource = null;
         try {
             if (resourceDTO != null) {
-                InputStream in = new GZIPInputStream(new ByteArrayInputStream(resourceDTO.getData()));
+                InputStream in = ResourcePayloadCodecs.decode(resourceDTO.getData());
                 if (elements != null) {
                     // parse/filter the resource using elements
                     resource = FHIRParser.parser(Format.JSON).as(FHIRJsonParser.class).parseAndFilter(in, elements);
@@ -1559,6 +2323,44 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         return true;
     }
 
+    @Override
+    public int pruneHistory(FHIRPersistenceContext context, Class<? extends Resource> resourceType, int keepVersions,
+            java.time.Instant keepSince, int maxVersions) throws FHIRPersistenceException {
+        final String METHODNAME = "pruneHistory";
+        log.entering(CLASSNAME, METHODNAME);
+
+        try {
+            Timestamp keepSinceTimestamp = keepSince != null ? Timestamp.from(keepSince) : null;
+            List<com.ibm.fhir.persistence.jdbc.dto.Resource> prunedVersions =
+                    this.getResourceDao().pruneHistory(resourceType.getSimpleName(), keepVersions, keepSinceTimestamp, maxVersions);
+
+            // The pruned versions must no longer be served by vread
+            for (com.ibm.fhir.persistence.jdbc.dto.Resource prunedVersion : prunedVersions) {
+                this.invalidateReadCache(prunedVersion);
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Pruned " + prunedVersions.size() + " versions of resource type " + resourceType.getSimpleName());
+            }
+            return prunedVersions.size();
+        }
+        catch(FHIRPersistenceException e) {
+            throw e;
+        }
+        catch(Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while pruning the history of resource type " + resourceType.getSimpleName());
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw fx;
+        }
+        finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    @Override
+    public boolean isHistoryPruningSupported() {
+        return true;
+    }
+
     private FHIRDbDAO getBaseDao() {
         return baseDao;
     }
@@ -1588,6 +2390,76 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
         return dao.getConnection();
     }
 
+    /**
+     * Returns whether the reads of the current operation are routed to the read replica of the current datastore,
+     * acquiring a connection to the replica for the rest of the transaction if needed.
+     * Reads are only routed to a replica when running in a web container, when the persistence context allows it
+     * (a plain search, history or vread in its own transaction), and never after this instance has written to the
+     * database in the current transaction.
+     * The replica connection is not enlisted in the global transaction.
+     * @see ReadReplicaRouter
+     * @throws FHIRPersistenceException
+     */
+    private boolean routeToReadReplica(FHIRPersistenceContext context) throws FHIRPersistenceException {
+        if (userTransaction == null) {
+            return false;
+        }
+        if (replicaConnection != null) {
+            return context != null && context.isReadReplicaAllowed() && !writePerformed;
+        }
+
+        String replicaDsId = ReadReplicaRouter.selectReplicaDatastoreId(context, writePerformed);
+        if (replicaDsId == null) {
+            return false;
+        }
+
+        try {
+            replicaConnection = new FHIRDbDAOImpl().getReadReplicaConnection(replicaDsId);
+            replicaResourceDao = FHIRResourceDAOFactory.getResourceDAO(replicaConnection, this.getTrxSynchRegistry());
+            replicaResourceDao.setExternalConnection(replicaConnection);
+            replicaParameterDao = new ParameterDAOImpl(this.getTrxSynchRegistry());
+            replicaParameterDao.setExternalConnection(replicaConnection);
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Routing reads of datastore '" + FHIRRequestContext.get().getDataStoreId()
+                        + "' to read replica '" + replicaDsId + "'");
+            }
+        } catch (FHIRPersistenceException e) {
+            throw e;
+        } catch (Throwable e) {
+            FHIRPersistenceException fx = new FHIRPersistenceException("Unexpected error while connecting to the read replica.");
+            log.log(Level.SEVERE, fx.getMessage(), e);
+            throw fx;
+        }
+        return true;
+    }
+
+    /**
+     * Records a write to the database, so that the reads which follow it are not routed to a read replica
+     * which may not have it yet.
+     */
+    private void recordWrite() {
+        writePerformed = true;
+        ReadReplicaRouter.recordWrite();
+    }
+
+    /**
+     * Closes the connection to the read replica, if any.
+     * @throws FHIRPersistenceException
+     */
+    private void closeReplicaConnection() throws FHIRPersistenceException {
+        if (replicaConnection != null) {
+            try {
+                replicaConnection.close();
+            } catch (SQLException e) {
+                throw new FHIRPersistenceException("Failure closing DB Conection", e);
+            } finally {
+                replicaConnection = null;
+                replicaResourceDao = null;
+                replicaParameterDao = null;
+            }
+        }
+    }
+
     /**
      * Enroll in an existing transaction.
      *
@@ -1607,6 +2479,7 @@ public class FHIRPersistenceJDBCImpl implements FHIRPersistence, FHIRPersistence
                 if (sharedConnection != null) {
                         sharedConnection.close();
                 }
+                closeReplicaConnection();
             } else {
                 throw new FHIRPersistenceException("unenroll should be called only if userTransaction is not null!");
             }
@@ -10,8 +10,10 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 
 import com.ibm.fhir.persistence.jdbc.dao.api.FhirSequenceDAO;
+import com.ibm.fhir.persistence.jdbc.util.IdentityCache;
 
 /**
  * DAO to obtain the next value from FHIR_SEQUENCE
@@ -28,20 +30,32 @@ public class FhirSequenceDAOImpl implements FhirSequenceDAO {
 
     @Override
     public long nextValue() throws SQLException {
-        long result;
-        final String SEQ = "select nextval('fhir_sequence')";
+        // values are reserved in blocks, shared by all the connections to this tenant/datastore
+        return IdentityCache.nextValue("fhir_sequence", this::readValues);
+    }
 
+    /**
+     * Read the next count values from the FHIR_SEQUENCE with a single query
+     * @param count
+     * @return
+     * @throws SQLException
+     */
+    private long[] readValues(int count) throws SQLException {
+        final String SEQ = "SELECT nextval('fhir_sequence') FROM generate_series(1, ?)";
+        long[] result = new long[count];
+        int n = 0;
         try (PreparedStatement stmt = conn.prepareStatement(SEQ)) {
+            stmt.setInt(1, count);
             ResultSet rs = stmt.executeQuery();
-            if (rs.next()) {
-                result = rs.getLong(1);
-            } else {
-                // not gonna happen
-                throw new IllegalStateException("no value returned from fhir_sequence!");
+            while (rs.next()) {
+                result[n++] = rs.getLong(1);
             }
         }
 
-        return result;
+        if (n == 0) {
+            // not gonna happen
+            throw new IllegalStateException("no value returned from fhir_sequence!");
+        }
+        return n == count ? result : Arrays.copyOf(result, n);
     }
-
 }
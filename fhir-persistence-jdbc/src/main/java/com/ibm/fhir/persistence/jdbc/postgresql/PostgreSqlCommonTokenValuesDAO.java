@@ -0,0 +1,39 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.postgresql;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import com.ibm.fhir.persistence.jdbc.dao.impl.CommonTokenValuesDAOImpl;
+
+/**
+ * PostgreSql variant DAO used to manage common_token_values records. A unique
+ * violation aborts the current transaction in PostgreSQL, so the insert uses
+ * ON CONFLICT DO NOTHING to cope with concurrent inserts of the same value.
+ */
+public class PostgreSqlCommonTokenValuesDAO extends CommonTokenValuesDAOImpl {
+
+    /**
+     * Public constructor
+     * @param c
+     */
+    public PostgreSqlCommonTokenValuesDAO(Connection c) {
+        super(c, null);
+    }
+
+    @Override
+    protected void insertCommonTokenValue(int codeSystemId, String tokenValue) throws SQLException {
+        final String INS = "INSERT INTO common_token_values (code_system_id, token_value) VALUES (?, ?) ON CONFLICT DO NOTHING";
+        try (PreparedStatement stmt = getConnection().prepareStatement(INS)) {
+            stmt.setInt(1, codeSystemId);
+            stmt.setString(2, tokenValue);
+            stmt.executeUpdate();
+        }
+    }
+}
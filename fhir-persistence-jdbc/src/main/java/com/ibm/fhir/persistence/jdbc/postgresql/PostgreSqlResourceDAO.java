@@ -14,10 +14,19 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.SQLIntegrityConstraintViolationException;
 import java.sql.Timestamp;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import javax.transaction.TransactionSynchronizationRegistry;
 
@@ -26,8 +35,12 @@ import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceVersionIdMismatchException;
 import com.ibm.fhir.persistence.jdbc.dao.api.CodeSystemDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.FhirRefSequenceDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.FhirSequenceDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.ICommonTokenValuesCache;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterNameDAO;
+import com.ibm.fhir.persistence.jdbc.dao.impl.CommonTokenValuesCacheAdapter;
+import com.ibm.fhir.persistence.jdbc.dao.impl.ParameterDeltaDAO;
 import com.ibm.fhir.persistence.jdbc.dao.impl.ParameterVisitorBatchDAO;
 import com.ibm.fhir.persistence.jdbc.dao.impl.ResourceDAOImpl;
 import com.ibm.fhir.persistence.jdbc.dto.ExtractedParameterValue;
@@ -35,13 +48,17 @@ import com.ibm.fhir.persistence.jdbc.dto.Resource;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceFKVException;
+import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
 import com.ibm.fhir.persistence.jdbc.util.ResourceTypesCache;
+import com.ibm.fhir.persistence.jdbc.util.SqlQueryData;
 
 /**
  * Data access object for writing FHIR resources to an postgresql database.
  *
- * @implNote This class follows the logic of the DB2 stored procedure, but does so
- * using a series of individual JDBC statements.
+ * @implNote This class follows the logic of the DB2 stored procedure. When the schema provides the
+ * add_any_resource function (fhir-persistence-schema/src/main/resources/postgresql/add_any_resource.sql),
+ * the logical resource and the new version are stored with a single call to that function. Otherwise, the
+ * same logic is run as a series of individual JDBC statements.
  */
 public class PostgreSqlResourceDAO extends ResourceDAOImpl {
     private static final Logger logger = Logger.getLogger(PostgreSqlResourceDAO.class.getName());
@@ -49,6 +66,30 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
 
     private static final PostgreSqlTranslator translator = new PostgreSqlTranslator();
 
+    // Checks whether the add_any_resource function is deployed in the current schema
+    private static final String SELECT_FUNCTION_EXISTS =
+            "SELECT 1 FROM pg_proc WHERE proname = 'add_any_resource' AND pg_function_is_visible(oid)";
+
+    private static final String CALL_ADD_ANY_RESOURCE =
+            "SELECT o_logical_resource_id, o_resource_id, o_new_resource, o_current FROM add_any_resource(?,?,?,?,?,?)";
+
+    // The SQLSTATE of the error raised when a function does not exist (undefined_function)
+    private static final String UNDEFINED_FUNCTION = "42883";
+
+    // Whether the add_any_resource function is used when it is available; off until its gain has been measured
+    private static volatile boolean useAddAnyResourceFunction = false;
+
+    // Whether the add_any_resource function is available, for each FHIR tenant/datastore combination. An entry is
+    // removed when a call to the function fails because it no longer exists, so that it is checked again
+    private static final Map<String, Boolean> addAnyResourceFunctionAvailable = new ConcurrentHashMap<>();
+
+    // Matches the estimates of a node in the text output of EXPLAIN, such as "(cost=0.00..35.50 rows=2550 width=4)"
+    private static final Pattern PLAN_ROWS =
+            Pattern.compile("\\(cost=\\d+(?:\\.\\d+)?\\.\\.\\d+(?:\\.\\d+)? rows=(\\d+) width=\\d+\\)");
+
+    // Matches the number of parallel workers of a Gather node in the text output of EXPLAIN
+    private static final Pattern PLAN_WORKERS = Pattern.compile("Workers Planned: (\\d+)");
+
     // DAO used to obtain sequence values from FHIR_REF_SEQUENCE
     private FhirRefSequenceDAO fhirRefSequenceDAO;
 
@@ -58,6 +99,9 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
     // DAO used to manage code_systems
     private CodeSystemDAO codeSystemDAO;
 
+    // Cached access to the normalized common_token_values table
+    private ICommonTokenValuesCache commonTokenValuesCache;
+
     public PostgreSqlResourceDAO(Connection managedConnection) {
         super(managedConnection);
     }
@@ -66,6 +110,23 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
         super(trxSynchRegistry);
     }
 
+    /**
+     * Enables or disables the use of the add_any_resource function to store resources. When disabled (the default),
+     * or when the function is not deployed, resources are stored with individual JDBC statements.
+     * @param enabled
+     */
+    public static void setAddAnyResourceFunctionEnabled(boolean enabled) {
+        useAddAnyResourceFunction = enabled;
+    }
+
+    /**
+     * Forgets whether the add_any_resource function is available in each tenant/datastore, so that
+     * it is checked again on the next write.
+     */
+    public static void clearAddAnyResourceFunctionAvailability() {
+        addAnyResourceFunctionAvailable.clear();
+    }
+
     /**
      * Inserts the passed FHIR Resource and associated search parameters to a postgresql FHIR database.
      * The search parameters are stored first by calling the passed parameterDao. Then the Resource is stored
@@ -97,6 +158,7 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
             this.fhirRefSequenceDAO = new FhirRefSequenceDAOImpl(connection);
             this.parameterNameDAO = new PostgreSqlParameterNamesDAO(connection, fhirRefSequenceDAO);
             this.codeSystemDAO = new PostgreSqlCodeSystemDAO(connection, fhirRefSequenceDAO);
+            this.commonTokenValuesCache = new CommonTokenValuesCacheAdapter(new PostgreSqlCommonTokenValuesDAO(connection), parameterDao);
 
             resourceTypeId = ResourceTypesCache.getResourceTypeId(resource.getResourceType());
             if (resourceTypeId == null) {
@@ -125,7 +187,8 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
                 resource.isDeleted(),
                 sourceKey,
                 resource.getVersionId(),
-                connection
+                connection,
+                null
                 );
             dbCallDuration = (System.nanoTime() - dbCallStartTime)/1e6;
 
@@ -157,6 +220,109 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
         return resource;
     }
 
+    /**
+     * Inserts the passed Resource DTOs and their search parameters to a postgresql FHIR database, using a single
+     * connection. The search parameters of all the resources are accumulated in shared batches, one per
+     * resource type.
+     * @param resources The FHIR Resources to be inserted.
+     * @param parameters The search parameters of each Resource, in the same order.
+     * @param parameterDao
+     * @return The Resource DTOs
+     * @throws FHIRPersistenceDataAccessException
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceVersionIdMismatchException
+     */
+    @Override
+    public List<Resource> insertBatch(List<Resource> resources, List<List<ExtractedParameterValue>> parameters, ParameterDAO parameterDao)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "insertBatch";
+        logger.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        Integer resourceTypeId;
+        // The parameter tables are specific to the resource type, so we need a visitor per type
+        Map<String, ParameterVisitorBatchDAO> parameterVisitors = new HashMap<>();
+        Set<String> storedResources = new HashSet<>();
+        long dbCallStartTime;
+        double dbCallDuration;
+
+        try {
+            connection = this.getConnection();
+
+            this.fhirRefSequenceDAO = new FhirRefSequenceDAOImpl(connection);
+            this.parameterNameDAO = new PostgreSqlParameterNamesDAO(connection, fhirRefSequenceDAO);
+            this.codeSystemDAO = new PostgreSqlCodeSystemDAO(connection, fhirRefSequenceDAO);
+            this.commonTokenValuesCache = new CommonTokenValuesCacheAdapter(new PostgreSqlCommonTokenValuesDAO(connection), parameterDao);
+
+            dbCallStartTime = System.nanoTime();
+            for (int i = 0; i < resources.size(); i++) {
+                Resource resource = resources.get(i);
+
+                resourceTypeId = ResourceTypesCache.getResourceTypeId(resource.getResourceType());
+                if (resourceTypeId == null) {
+                    resourceTypeId = getOrCreateResourceType(resource.getResourceType(), connection);
+                    this.addResourceTypeCacheCandidate(resource.getResourceType(), resourceTypeId);
+                }
+
+                ParameterVisitorBatchDAO pvd = parameterVisitors.get(resource.getResourceType());
+                if (pvd == null) {
+                    pvd = new ParameterVisitorBatchDAO(connection, null, resource.getResourceType(), false, 0, 100,
+                        new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO),
+                        commonTokenValuesCache);
+                    parameterVisitors.put(resource.getResourceType(), pvd);
+                }
+                if (!storedResources.add(resource.getResourceType() + "/" + resource.getLogicalId())) {
+                    // Storing a new version compares its parameters with the stored ones, so the parameters
+                    // of an earlier version in this batch must be written first
+                    pvd.flush();
+                }
+
+                long resourceId = this.storeResource(resource.getResourceType(),
+                    parameters.get(i),
+                    resource.getLogicalId(),
+                    resource.getData(),
+                    resource.getLastUpdated(),
+                    resource.isDeleted(),
+                    UUID.randomUUID().toString(),
+                    resource.getVersionId(),
+                    connection,
+                    pvd
+                    );
+                resource.setId(resourceId);
+            }
+
+            // Write the parameters still batched
+            this.closeParameterVisitors(parameterVisitors);
+            dbCallDuration = (System.nanoTime() - dbCallStartTime)/1e6;
+
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("Successfully inserted " + resources.size() + " Resources. executionTime=" + dbCallDuration + "ms");
+            }
+        } catch(FHIRPersistenceDBConnectException | FHIRPersistenceDataAccessException e) {
+            throw e;
+        } catch(SQLIntegrityConstraintViolationException e) {
+            FHIRPersistenceFKVException fx = new FHIRPersistenceFKVException("Encountered FK violation while inserting Resource.");
+            throw severe(logger, fx, e);
+        } catch(SQLException e) {
+            if ("99001".equals(e.getSQLState())) {
+                // this is just a concurrency update, so there's no need to log the SQLException here
+                throw new FHIRPersistenceVersionIdMismatchException("Encountered version id mismatch while inserting Resource");
+            } else {
+                FHIRPersistenceException fx = new FHIRPersistenceException("SQLException encountered while inserting Resource.");
+                throw severe(logger, fx, e);
+            }
+        } catch(Throwable e) {
+            FHIRPersistenceDataAccessException fx = new FHIRPersistenceDataAccessException("Failure inserting Resource.");
+            throw severe(logger, fx, e);
+        } finally {
+            this.closeParameterVisitorsQuietly(parameterVisitors);
+            this.cleanup(null, connection);
+            logger.exiting(CLASSNAME, METHODNAME);
+        }
+
+        return resources;
+    }
+
     /**
      * Store the resource in the database, creating a new logical_resource entry if this is
      * the first version of this resource, or creating a new resource entry if this a new
@@ -187,16 +353,26 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
      * @param p_is_deleted
      * @param p_source_key
      * @param p_version
+     * @param conn
+     * @param parameterVisitor a visitor shared by a batch of resources of this type, or null to insert the
+     *        parameters of this resource on their own
      *
      * @return the resource_id for the entry we created
      * @throws Exception
      */
     public long storeResource(String tablePrefix, List<ExtractedParameterValue> parameters, String p_logical_id, byte[] p_payload, Timestamp p_last_updated, boolean p_is_deleted,
-        String p_source_key, Integer p_version, Connection conn) throws Exception {
+        String p_source_key, Integer p_version, Connection conn, ParameterVisitorBatchDAO parameterVisitor) throws Exception {
 
         final String METHODNAME = "storeResource() for " + tablePrefix + " resource";
         logger.entering(CLASSNAME, METHODNAME);
 
+        if (useAddAnyResourceFunction && isAddAnyResourceFunctionAvailable(conn)) {
+            long resourceId = storeResourceWithFunction(tablePrefix, parameters, p_logical_id, p_payload, p_last_updated,
+                p_is_deleted, p_version, conn, parameterVisitor);
+            logger.exiting(CLASSNAME, METHODNAME);
+            return resourceId;
+        }
+
         Long v_logical_resource_id = null;
         Long v_current_resource_id = null;
         Long v_resource_id = null;
@@ -209,6 +385,9 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
 
         String v_resource_type = tablePrefix;
 
+        // The ids of the new rows are taken from blocks of FHIR_SEQUENCE values reserved by this server
+        FhirSequenceDAO fhirSequenceDAO = new FhirSequenceDAOImpl(conn);
+
         // Map the resource type name to the normalized id value in the database
         v_resource_type_id = getResourceTypeId(v_resource_type, conn);
         if (v_resource_type_id == null) {
@@ -233,16 +412,7 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
         // Create the logical resource if we don't have it already
         if (v_not_found) {
             // grab the id we want to use for the new logical resource instance
-            final String sql2 = "SELECT nextval('fhir_sequence')";
-            try (PreparedStatement stmt = conn.prepareStatement(sql2)) {
-                ResultSet res = stmt.executeQuery();
-                if (res.next()) {
-                    v_logical_resource_id = res.getLong(1);
-                } else {
-                    // not going to happen, unless someone butchers the statement being executed
-                    throw new IllegalStateException("VALUES failed to return a row: " + sql2);
-                }
-            }
+            v_logical_resource_id = fhirSequenceDAO.nextValue();
 
             try {
                 // insert the system-wide logical resource record.
@@ -343,21 +513,6 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
                             + tablePrefix + "_resources.resource_id=" + v_current_resource_id);
                 }
             }
-
-            //If we have been passed a version number, this means that this is a replicated
-            //resource, and so we only need to delete parameters if the given version is
-            // later than the current version
-            if (p_version == null || p_version > v_version) {
-                // existing resource, so need to delete all its parameters
-                // delete composites first, or else the foreign keys there restrict deletes on referenced tables
-                deleteFromParameterTable(conn, tablePrefix + "_composites", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_str_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_number_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_date_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_latlng_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_token_values", v_logical_resource_id);
-                deleteFromParameterTable(conn, tablePrefix + "_quantity_values", v_logical_resource_id);
-            }
         }
 
         // Persist the data using the given version number if required
@@ -374,16 +529,7 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
          * Create the new resource version.
          * uses last_updated time from the app-server, so we have consistency between the various DAOs
          */
-        String sql2 = "SELECT nextval('fhir_sequence')";
-        try (PreparedStatement stmt = conn.prepareStatement(sql2)) {
-            ResultSet res = stmt.executeQuery();
-            if (res.next()) {
-                v_resource_id = res.getLong(1); //Assign result of the above query
-            } else {
-                // unlikely
-                throw new IllegalStateException("no row returned: " + sql2);
-            }
-        }
+        v_resource_id = fhirSequenceDAO.nextValue();
 
         // Finally we get to the big resource data insert
         String sql3 = "INSERT INTO " + tablePrefix + "_resources (resource_id, logical_resource_id, version_id, data, last_updated, is_deleted) "
@@ -410,41 +556,141 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
                 stmt.executeUpdate();
             }
 
-            // To keep things simple for the postgresql use-case, we just use a visitor to
-            // handle inserts of parameters directly in the resource parameter tables.
-            // Note we don't get any parameters for the resource soft-delete operation
-            if (parameters != null) {
+            storeParameters(tablePrefix, parameters, v_logical_resource_id, v_new_resource, conn, parameterVisitor);
+        }
+        logger.exiting(CLASSNAME, METHODNAME);
+        return v_resource_id;
+    }
+
+    /**
+     * Store the resource in the database with a single call to the add_any_resource function, which
+     * runs the same logic as {@link #storeResource(String, List, String, byte[], Timestamp, boolean, String, Integer, Connection, ParameterVisitorBatchDAO)}
+     * on the server. The parameters are then stored if the new version is the current one.
+     *
+     * @return the resource_id for the entry we created
+     * @throws Exception
+     */
+    protected long storeResourceWithFunction(String tablePrefix, List<ExtractedParameterValue> parameters, String p_logical_id, byte[] p_payload,
+        Timestamp p_last_updated, boolean p_is_deleted, Integer p_version, Connection conn, ParameterVisitorBatchDAO parameterVisitor) throws Exception {
+
+        final long v_logical_resource_id;
+        final long v_resource_id;
+        final boolean v_new_resource;
+        final boolean v_current;
+        try (PreparedStatement stmt = conn.prepareStatement(CALL_ADD_ANY_RESOURCE)) {
+            stmt.setString(1, tablePrefix);
+            stmt.setString(2, p_logical_id);
+            stmt.setBytes(3, p_payload);
+            stmt.setTimestamp(4, p_last_updated, UTC);
+            stmt.setString(5, p_is_deleted ? "Y" : "N");
+            if (p_version != null) {
+                stmt.setInt(6, p_version);
+            } else {
+                stmt.setNull(6, Types.INTEGER);
+            }
+            ResultSet rs = stmt.executeQuery();
+            if (rs.next()) {
+                v_logical_resource_id = rs.getLong(1);
+                v_resource_id = rs.getLong(2);
+                v_new_resource = "Y".equals(rs.getString(3));
+                v_current = "Y".equals(rs.getString(4));
+            } else {
+                // not going to happen, unless someone butchers the function
+                throw new IllegalStateException("no row returned: " + CALL_ADD_ANY_RESOURCE);
+            }
+        } catch (SQLException e) {
+            if (UNDEFINED_FUNCTION.equals(e.getSQLState())) {
+                // The function was dropped since it was found (e.g. the schema was rolled back). The error aborts
+                // the transaction, so this write fails, but the next one checks again and falls back to the
+                // individual statements.
+                final String cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+                logger.warning("add_any_resource function not found; checking its availability again on the next write"
+                        + "  tenantDatastoreCacheName=" + cacheName);
+                addAnyResourceFunctionAvailable.remove(cacheName);
+            }
+            throw e;
+        }
+
+        if (v_current) {
+            storeParameters(tablePrefix, parameters, v_logical_resource_id, v_new_resource, conn, parameterVisitor);
+        }
+        return v_resource_id;
+    }
+
+    /**
+     * Store the parameters of the version just added, which is now the current version of the
+     * logical resource.
+     *
+     * @param tablePrefix
+     * @param parameters
+     * @param v_logical_resource_id
+     * @param v_new_resource true if the logical resource was created, and so has no parameters yet
+     * @param conn
+     * @param parameterVisitor a visitor shared by a batch of resources of this type, or null to insert the
+     *        parameters of this resource on their own
+     * @throws Exception
+     */
+    private void storeParameters(String tablePrefix, List<ExtractedParameterValue> parameters, long v_logical_resource_id, boolean v_new_resource,
+        Connection conn, ParameterVisitorBatchDAO parameterVisitor) throws Exception {
+
+        // To keep things simple for the postgresql use-case, we just use a visitor to
+        // handle inserts of parameters directly in the resource parameter tables.
+        // Note we don't get any parameters for the resource soft-delete operation
+        List<ExtractedParameterValue> parameterValues = parameters;
+        if (!v_new_resource) {
+            // existing resource, so only replace the parameters whose values changed. If we have been
+            // passed a version number, this is a replicated resource which supersedes the current version
+            ParameterDeltaDAO delta = new ParameterDeltaDAO(conn, tablePrefix, v_logical_resource_id,
+                new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO),
+                commonTokenValuesCache);
+            parameterValues = delta.applyDelta(parameters);
+        }
+
+        if (parameterValues != null) {
+            if (parameterVisitor != null) {
+                // The parameters are batched along with those of the other resources in the batch
+                parameterVisitor.setLogicalResourceId(v_logical_resource_id);
+                for (ExtractedParameterValue p: parameterValues) {
+                    p.accept(parameterVisitor);
+                }
+            } else {
                 // postgresql doesn't support partitioned multi-tenancy, so we disable it on the DAO:
                 try (ParameterVisitorBatchDAO pvd = new ParameterVisitorBatchDAO(conn, null, tablePrefix, false, v_logical_resource_id, 100,
-                    new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO))) {
-                    for (ExtractedParameterValue p: parameters) {
+                    new ParameterNameCacheAdapter(parameterNameDAO), new CodeSystemCacheAdapter(codeSystemDAO),
+                    commonTokenValuesCache)) {
+                    for (ExtractedParameterValue p: parameterValues) {
                         p.accept(pvd);
                     }
                 }
             }
         }
-        logger.exiting(CLASSNAME, METHODNAME);
-        return v_resource_id;
     }
 
-
     /**
-     * Delete all parameters for the given resourceId from the parameters table
-     *
+     * Check whether the add_any_resource function is deployed in the schema of the passed connection.
+     * The result is cached for the current tenant/datastore until a call to the function finds it missing,
+     * or {@link #clearAddAnyResourceFunctionAvailability()} is called.
      * @param conn
-     * @param tableName
-     * @param logicalResourceId
+     * @return
      * @throws SQLException
      */
-    protected void deleteFromParameterTable(Connection conn, String tableName, long logicalResourceId) throws SQLException {
-        final String delStrValues = "DELETE FROM " + tableName + " WHERE logical_resource_id = ?";
-        try (PreparedStatement stmt = conn.prepareStatement(delStrValues)) {
-            // bind parameters
-            stmt.setLong(1, logicalResourceId);
-            stmt.executeUpdate();
+    protected boolean isAddAnyResourceFunctionAvailable(Connection conn) throws SQLException {
+        final String cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+        Boolean result = addAnyResourceFunctionAvailable.get(cacheName);
+        if (result == null) {
+            try (PreparedStatement stmt = conn.prepareStatement(SELECT_FUNCTION_EXISTS)) {
+                ResultSet rs = stmt.executeQuery();
+                result = rs.next();
+            }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("add_any_resource function available=" + result + "  tenantDatastoreCacheName=" + cacheName);
+            }
+            addAnyResourceFunctionAvailable.put(cacheName, result);
         }
+        return result;
     }
 
+
     /**
      * Read the id for the named type
      * @param resourceTypeName
@@ -501,4 +747,115 @@ public class PostgreSqlResourceDAO extends ResourceDAOImpl {
 
         return result;
     }
+
+    /**
+     * Estimates the count using the row estimate of the query planner rather than running the count query.
+     * The estimate is taken from the plan as described in {@link #parseCountEstimate(List)}; if the
+     * plan cannot be interpreted, the count query is run instead.
+     */
+    @Override
+    public int searchCountEstimate(SqlQueryData queryData) throws FHIRPersistenceDataAccessException, FHIRPersistenceDBConnectException {
+        final String METHODNAME = "searchCountEstimate";
+        logger.entering(CLASSNAME, METHODNAME);
+
+        Connection connection = null;
+        PreparedStatement stmt = null;
+        ResultSet resultSet = null;
+        Integer estimate = null;
+        List<String> planLines = new ArrayList<>();
+        Object[] bindVariables = queryData.getBindVariables().toArray();
+
+        try {
+            connection = this.getConnection();
+            stmt = connection.prepareStatement("EXPLAIN " + queryData.getQueryString());
+            for (int i = 0; i < bindVariables.length; i++) {
+                if (bindVariables[i] instanceof Timestamp) {
+                    stmt.setTimestamp(i+1, (Timestamp) bindVariables[i], UTC);
+                } else {
+                    stmt.setObject(i+1, bindVariables[i]);
+                }
+            }
+            resultSet = stmt.executeQuery();
+            while (resultSet.next()) {
+                planLines.add(resultSet.getString(1));
+            }
+            estimate = parseCountEstimate(planLines);
+            if (estimate == null) {
+                logger.warning("Unable to obtain a count estimate from the query plan: " + planLines);
+            }
+        } catch (Throwable e) {
+            // The estimate is only an optimization, so fall back to the count query
+            logger.log(Level.WARNING, "Unable to obtain a count estimate from the query plan", e);
+        } finally {
+            this.cleanup(resultSet, stmt, connection);
+        }
+
+        try {
+            if (estimate == null) {
+                return this.searchCount(queryData);
+            }
+            if (logger.isLoggable(Level.FINE)) {
+                logger.fine("count estimate=" + estimate);
+            }
+            return estimate;
+        } finally {
+            logger.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    /**
+     * Reads the count estimate from the text output of EXPLAIN for a count query. The plan must start with the
+     * aggregate which computes the count; the estimate is the row estimate of the first node below the aggregate(s)
+     * and any Gather node. In a parallel plan, the rows of that node are estimated per process, so they are scaled
+     * back up by the number of planned workers, as the planner does (the leader contributing less as workers are added).
+     *
+     * @param planLines the lines of the plan
+     * @return the count estimate, or null if the plan is not in the expected form
+     */
+    public static Integer parseCountEstimate(List<String> planLines) {
+        boolean aggregateFound = false;
+        int workersPlanned = 0;
+        for (String planLine : planLines) {
+            if (planLine == null) {
+                return null;
+            }
+            Matcher workersMatcher = PLAN_WORKERS.matcher(planLine);
+            if (workersMatcher.find()) {
+                workersPlanned = Integer.parseInt(workersMatcher.group(1));
+                continue;
+            }
+            Matcher matcher = PLAN_ROWS.matcher(planLine);
+            if (!matcher.find()) {
+                if (planLine.contains("(cost=")) {
+                    // a plan node whose estimates are not in the expected form
+                    return null;
+                }
+                // a detail of the previous node, such as its filter
+                continue;
+            }
+            if (planLine.contains("Aggregate")) {
+                aggregateFound = true;
+                continue;
+            }
+            if (!aggregateFound) {
+                // the count is not computed by the first node, so its rows are not the rows being counted
+                return null;
+            }
+            if (planLine.contains("Gather")) {
+                continue;
+            }
+
+            double rows;
+            try {
+                rows = Long.parseLong(matcher.group(1));
+            } catch (NumberFormatException e) {
+                return null;
+            }
+            if (workersPlanned > 0) {
+                rows *= workersPlanned + Math.max(1.0 - 0.3 * workersPlanned, 0.0);
+            }
+            return (int) Math.min(Math.round(rows), Integer.MAX_VALUE);
+        }
+        return null;
+    }
 }
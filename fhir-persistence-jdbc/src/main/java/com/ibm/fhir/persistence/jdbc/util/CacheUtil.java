@@ -1,15 +1,13 @@
 /*
- * (C) Copyright IBM Corp. 2018,2019
+ * (C) Copyright IBM Corp. 2018,2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
 
 package com.ibm.fhir.persistence.jdbc.util;
 
-import java.util.Enumeration;
 import java.util.Map;
 import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Encapsulates a group of utility methods for managing and diagnosing the in-memory caches used by the JDBC PL.
@@ -24,17 +22,16 @@ public class CacheUtil {
      * @param mapOfMaps - The contents of the multi-datastore cache.
      * @return String - A formatted representation of the cache contents.
      */
-    public static String dumpCacheContents(String cacheName, ConcurrentHashMap<String,ConcurrentHashMap<String,Integer>> mapOfMaps) {
+    public static String dumpCacheContents(String cacheName, Map<String,Map<String,Integer>> mapOfMaps) {
         
         String cacheKey;
-        Enumeration<String> cacheKeys = mapOfMaps.keys();
-        ConcurrentHashMap<String,Integer> dbCache;
+        Map<String,Integer> dbCache;
         StringBuffer dumpedCache = new StringBuffer();
         
         dumpedCache.append(NEWLINE).append("Contents of ").append(cacheName).append(NEWLINE);
-        while(cacheKeys.hasMoreElements()) {
-            cacheKey = cacheKeys.nextElement();
-            dbCache = mapOfMaps.get(cacheKey);
+        for (Map.Entry<String,Map<String,Integer>> entry : mapOfMaps.entrySet()) {
+            cacheKey = entry.getKey();
+            dbCache = entry.getValue();
             dumpedCache.append(cacheName).append(" for datastoreid: " + cacheKey).append(NEWLINE);
             dumpedCache.append(dbCache.toString().replaceAll(",", NEWLINE)).append(NEWLINE);
         }
@@ -49,7 +46,7 @@ public class CacheUtil {
      * @param dbMap - The contents of the DB table that back the passed cachedMap.
      * @return String - A report of the discrepancies between the passed maps.
      */
-    public static String reportCacheDiscrepancies(String cacheName, ConcurrentHashMap<String,Integer> cachedMap, Map<String, Integer> dbMap) {
+    public static String reportCacheDiscrepancies(String cacheName, Map<String,Integer> cachedMap, Map<String, Integer> dbMap) {
         
         StringBuilder report = new StringBuilder();
         int dbMapCount, cachedMapCount;
@@ -1,5 +1,5 @@
 /*
- * (C) Copyright IBM Corp. 2017,2019
+ * (C) Copyright IBM Corp. 2017,2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
@@ -7,137 +7,111 @@
 package com.ibm.fhir.persistence.jdbc.util;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.ibm.fhir.config.FHIRRequestContext;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 
 /**
  * This class provides a static cache for FHIR Systems that are part of Token type Search parameters.
+ * The entries of each FHIR tenant/datastore combination are held by its {@link DatastoreCache}.
  */
 public class CodeSystemsCache {
-    private static final String CLASSNAME = CodeSystemsCache.class.getName(); 
+    private static final String CLASSNAME = CodeSystemsCache.class.getName();
     private static final Logger log = Logger.getLogger(CLASSNAME);
-    
+
     private static boolean enabled = true;
 
     /**
-     * The following is a map of parameter name maps. Each FHIR tenant/datastore combination will have its own
-     * mapping of system-name to system-id.
-     */
-    private static ConcurrentHashMap<String,ConcurrentHashMap<String,Integer>> codeSystemIdMaps = new ConcurrentHashMap<>();
-    
-    /**
-     * Retrieves the id for the passed system, for the current tenant-datastore. 
+     * Retrieves the id for the passed code system, for the current tenant-datastore.
      * If not found, null is returned.
-     * @param parameter The name of a code system
+     * @param systemName The name of a code system
      * @return Integer The id corresponding to the passed code system
      */
     public static Integer getCodeSystemId(String systemName) {
-        
-        String tenantDatastoreCacheName = getCacheNameForTenantDatastore();
         Integer systemId = null;
-        String encodedSysName = SqlParameterEncoder.encode(systemName);
-        
+
         if (enabled) {
-            ConcurrentHashMap<String,Integer> currentDsMap = codeSystemIdMaps.putIfAbsent(tenantDatastoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("getCodeSystemId() - Added new cache map for tennantDatastore=" + tenantDatastoreCacheName);
-            }
-            currentDsMap = codeSystemIdMaps.get(tenantDatastoreCacheName);
-            systemId = currentDsMap.get(encodedSysName);
+            systemId = DatastoreCache.current().getCodeSystems().get(SqlParameterEncoder.encode(systemName));
         }
         return systemId;
     }
-    
+
     /**
-     * Adds the passed code system name and id to the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param systemName A valid code system name.
-     * @param systemId The id associated with the passed code system name.
+     * Adds the passed code system and id to the passed tenant-datastore cache.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to.
+     * @param systemName The name of a code system
+     * @param systemId The id associated with the passed code system.
      */
     public static void putCodeSystemId(String tenantDatastoreCacheName, String systemName, Integer systemId) {
-        
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer tempValue;
         String encodedSysName = SqlParameterEncoder.encode(systemName);
-        
-        if (enabled) {
-            currentDsMap = codeSystemIdMaps.putIfAbsent(tenantDatastoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("putCodeSystemId() - Added new cache map for tennantDatastore=" + tenantDatastoreCacheName);
-            }
-            currentDsMap = codeSystemIdMaps.get(tenantDatastoreCacheName);
-            tempValue = currentDsMap.putIfAbsent(encodedSysName, systemId);
-            if (tempValue == null) {
-                log.fine("putCodeSystemId() - Added new cache entry, key=" + encodedSysName + "  value=" + systemId + "  tenantDatstoreCacheName=" + tenantDatastoreCacheName);
-            }
+
+        if (enabled && DatastoreCache.forName(tenantDatastoreCacheName).getCodeSystems().put(encodedSysName, systemId)
+                && log.isLoggable(Level.FINE)) {
+            log.fine("putCodeSystemId() - Added new cache entry, key=" + encodedSysName + "  value=" + systemId + "  tenantDatastoreCacheName=" + tenantDatastoreCacheName);
         }
     }
-    
+
     /**
-     * Adds the passed code system name/id pairs to the the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
-     * @param newParameters A Map containing code system name/id pairs.
+     * Adds the passed code system/id pairs to the passed tenant-datastore cache.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entries should be added to.
+     * @param newCodeSystems A Map containing code system/id pairs.
      */
     public static void putCodeSystemIds(String tenantDatastoreCacheName, Map<String, Integer> newCodeSystems) {
-        
+
         if (enabled) {
             for (Map.Entry<String, Integer> entry : newCodeSystems.entrySet()) {
                  putCodeSystemId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
             }
         }
     }
-    
+
     /**
      * Returns a String containing a combination of the current tenantId and datastoreId.
      * @return
      */
     public static String getCacheNameForTenantDatastore() {
-        
-        StringBuilder cacheName = new StringBuilder();
-        cacheName.append(FHIRRequestContext.get().getTenantId())
-                 .append("~")
-                 .append(FHIRRequestContext.get().getDataStoreId());
-        return cacheName.toString();
+        return DatastoreCache.current().getName();
     }
-    
+
     /**
-     * 
+     *
      * @return String - A formatted representation of the entire cache managed by this class.
      */
     public static String dumpCacheContents() {
-        
-        return CacheUtil.dumpCacheContents("CodeSystemsCache", codeSystemIdMaps);
+
+        Map<String, Map<String, Integer>> mapOfMaps = new TreeMap<>();
+        for (DatastoreCache cache : DatastoreCache.getCaches().values()) {
+            mapOfMaps.put(cache.getName(), cache.getCodeSystems().asMap());
+        }
+        return CacheUtil.dumpCacheContents("CodeSystemsCache", mapOfMaps);
     }
-    
+
     /**
      * Determines and reports any discrepancies between the current thread's Code Systems cache and the contents of the database CODE_SYSTEMS table.
      * @param dao A Parameter DAO instance
      * @return String - A report detailing cache/db discrepancies.
      */
     public static String reportCacheDiscrepancies(ParameterDAO dao) {
-        
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
+
+        Map<String, Integer> cachedMap = DatastoreCache.current().getCodeSystems().asMap();
         Map<String, Integer> dbMap;
-        ConcurrentHashMap<String,Integer> cachedMap = codeSystemIdMaps.get(tenantDatstoreCacheName);
         String discrepancies = "";
-        
+
         if (enabled) {
             try {
                 dbMap = dao.readAllCodeSystems();
                 discrepancies = CacheUtil.reportCacheDiscrepancies("CodeSystemsCache", cachedMap, dbMap);
-            } 
+            }
             catch (FHIRPersistenceDBConnectException | FHIRPersistenceDataAccessException e) {
-                log.log(Level.SEVERE, "Failure obtaining  all code systems." , e);
+                log.log(Level.SEVERE, "Failure obtaining all code systems." , e);
                 discrepancies = CacheUtil.NEWLINE + "Could not report on CodeSystems cache discrepancies." + CacheUtil.NEWLINE;
             }
         }
-        
+
         return discrepancies;
     }
 
@@ -146,13 +120,15 @@ public class CodeSystemsCache {
     }
 
     public static void setEnabled(boolean newEnabled) {
-        
+
         if (newEnabled != enabled) {
             synchronized(CodeSystemsCache.class) {
                 enabled = newEnabled;
                 // When enabling the cache, clear out any old stuff.
                 if (newEnabled) {
-                    codeSystemIdMaps.clear();
+                    for (DatastoreCache cache : DatastoreCache.getCaches().values()) {
+                        cache.getCodeSystems().clear();
+                    }
                 }
             }
         }
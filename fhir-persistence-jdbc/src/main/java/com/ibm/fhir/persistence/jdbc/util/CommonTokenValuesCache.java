@@ -0,0 +1,151 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.core.util.ConcurrentLRUCache;
+
+/**
+ * This class provides a static cache for the common_token_value_id of the (code-system, token-value)
+ * pairs stored in the COMMON_TOKEN_VALUES table.
+ * <br>
+ * Unlike code systems and parameter names, the number of distinct token values is unbounded, so
+ * each tenant/datastore map is capped at a configurable maximum size. Once a map is full, adding an
+ * entry evicts one of the least recently used entries (see {@link ConcurrentLRUCache}), which will be
+ * read from the database again when it is next needed.
+ */
+public class CommonTokenValuesCache {
+    private static final String CLASSNAME = CommonTokenValuesCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_SIZE = 100000;
+
+    private static boolean enabled = true;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * The following is a map of common token value maps. Each FHIR tenant/datastore combination will have its own
+     * mapping of code-system-id|token-value to common-token-value-id.
+     */
+    private static ConcurrentHashMap<String,ConcurrentLRUCache<String,Long>> commonTokenValueIdMaps = new ConcurrentHashMap<>();
+
+    /**
+     * Builds the cache key for the passed code system id and token value
+     * @param codeSystemId
+     * @param tokenValue
+     * @return
+     */
+    public static String makeKey(int codeSystemId, String tokenValue) {
+        // The code system id is numeric, so the first separator always delimits the two parts
+        return codeSystemId + "|" + tokenValue;
+    }
+
+    /**
+     * Retrieves the id for the passed code system id and token value, for the current tenant-datastore.
+     * If not found, null is returned.
+     * @param codeSystemId The id of a code system
+     * @param tokenValue The token value
+     * @return Long The common_token_value_id corresponding to the pair
+     */
+    public static Long getCommonTokenValueId(int codeSystemId, String tokenValue) {
+        Long commonTokenValueId = null;
+
+        if (enabled) {
+            ConcurrentLRUCache<String,Long> currentDsMap = commonTokenValueIdMaps.get(CodeSystemsCache.getCacheNameForTenantDatastore());
+            if (currentDsMap != null) {
+                commonTokenValueId = currentDsMap.get(makeKey(codeSystemId, tokenValue));
+            }
+        }
+        return commonTokenValueId;
+    }
+
+    /**
+     * Adds the passed key and id to the passed tenant-datastore cache, evicting a least recently used
+     * entry if the cache has reached its maximum size.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to.
+     * @param key A key built by {@link #makeKey(int, String)}
+     * @param commonTokenValueId The id associated with the key.
+     */
+    public static void putCommonTokenValueId(String tenantDatastoreCacheName, String key, Long commonTokenValueId) {
+        if (enabled && maxSize > 0) {
+            ConcurrentLRUCache<String,Long> currentDsMap = commonTokenValueIdMaps.computeIfAbsent(tenantDatastoreCacheName, k -> {
+                log.fine("putCommonTokenValueId() - Added new cache map for tenantDatastore=" + tenantDatastoreCacheName);
+                return new ConcurrentLRUCache<String,Long>(maxSize);
+            });
+            Long tempValue = currentDsMap.putIfAbsent(key, commonTokenValueId);
+            if (tempValue == null && log.isLoggable(Level.FINE)) {
+                log.fine("putCommonTokenValueId() - Added new cache entry, key=" + key + "  value=" + commonTokenValueId + "  tenantDatastoreCacheName=" + tenantDatastoreCacheName);
+            }
+        }
+    }
+
+    /**
+     * Adds the passed key/id pairs to the passed tenant-datastore cache.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entries should be added to.
+     * @param newCommonTokenValues A Map containing key/id pairs.
+     */
+    public static void putCommonTokenValueIds(String tenantDatastoreCacheName, Map<String, Long> newCommonTokenValues) {
+        if (enabled) {
+            for (Map.Entry<String, Long> entry : newCommonTokenValues.entrySet()) {
+                putCommonTokenValueId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /**
+     *
+     * @return String - A formatted representation of the size of each map managed by this class.
+     */
+    public static String dumpCacheContents() {
+        StringBuilder dump = new StringBuilder(CacheUtil.NEWLINE).append("Cache name: CommonTokenValuesCache").append(CacheUtil.NEWLINE);
+        for (Map.Entry<String, ConcurrentLRUCache<String, Long>> entry : commonTokenValueIdMaps.entrySet()) {
+            dump.append("   Tenant-Datastore: ").append(entry.getKey())
+                .append("  entries=").append(entry.getValue().size())
+                .append("  ").append(entry.getValue().getStats())
+                .append(CacheUtil.NEWLINE);
+        }
+        return dump.toString();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean newEnabled) {
+        if (newEnabled != enabled) {
+            synchronized(CommonTokenValuesCache.class) {
+                enabled = newEnabled;
+                // When enabling the cache, clear out any old stuff.
+                if (newEnabled) {
+                    commonTokenValueIdMaps.clear();
+                }
+            }
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of entries held for each tenant/datastore. Changing the size clears the cache.
+     * @param newMaxSize
+     */
+    public static void setMaxSize(int newMaxSize) {
+        if (newMaxSize != maxSize) {
+            synchronized(CommonTokenValuesCache.class) {
+                maxSize = newMaxSize;
+                commonTokenValueIdMaps.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,50 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.Map;
+import java.util.Objects;
+import java.util.logging.Logger;
+
+import javax.transaction.Status;
+import javax.transaction.Synchronization;
+
+/**
+ * This cache updater writes its common token value cache candidates to the CommonTokenValuesCache upon a
+ * transaction commit. The ids of the common_token_values table are BIGINT, so this updater carries
+ * Long values rather than using the Integer-based {@link CacheUpdater}.
+ */
+public class CommonTokenValuesCacheUpdater implements Synchronization {
+    private static final String CLASSNAME = CommonTokenValuesCacheUpdater.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    private final String tenantDatastoreCacheName;
+    private final Map<String, Long> cacheCandidates;
+
+    public CommonTokenValuesCacheUpdater(String tenantDatastoreCacheName, Map<String, Long> newCacheCandidates) {
+        Objects.requireNonNull(newCacheCandidates);
+        this.tenantDatastoreCacheName = tenantDatastoreCacheName;
+        this.cacheCandidates = newCacheCandidates;
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    @Override
+    public void afterCompletion(int completionStatus) {
+        final String METHODNAME = "afterCompletion";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (completionStatus == Status.STATUS_COMMITTED) {
+            CommonTokenValuesCache.putCommonTokenValueIds(this.tenantDatastoreCacheName, this.cacheCandidates);
+        }
+        this.cacheCandidates.clear();
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+}
@@ -0,0 +1,247 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Timestamp;
+import java.util.Base64;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.type.code.IssueType;
+import com.ibm.fhir.model.util.FHIRUtil;
+import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.fhir.search.context.FHIRSearchContext;
+import com.ibm.fhir.search.parameters.SortParameter;
+
+/**
+ * An opaque continuation token used for keyset (seek) pagination of search results.
+ * <br>
+ * Rather than skipping over the rows of the previous pages with OFFSET, a keyset query resumes
+ * immediately after the last row of the previous page. The token captures the position of that row:
+ * the value of the sort parameter (for sorted searches) and the LOGICAL_RESOURCE_ID, which is used
+ * as a unique tie-breaker so the ordering is total.
+ * <br>
+ * The encoded form is a URL-safe base64 string of the form:
+ * <pre>
+ * {version}|{shape}|{logicalResourceId}|{sortValueType}|{sortValue}
+ * </pre>
+ * where shape is a hash of the resource type and sort specification, used to reject tokens which
+ * were issued for a different search.
+ */
+public class ContinuationToken {
+    private static final String CLASSNAME = ContinuationToken.class.getName();
+    private static final Logger log = java.util.logging.Logger.getLogger(CLASSNAME);
+
+    private static final String VERSION = "1";
+    private static final String SEPARATOR = "|";
+    private static final String SEPARATOR_REGEX = "\\|";
+    private static final int FIELD_COUNT = 5;
+
+    // Type markers for the sort value
+    private static final String NO_SORT_VALUE = "X";
+    private static final String NULL_VALUE = "Z";
+    private static final String STRING_VALUE = "S";
+    private static final String TIMESTAMP_VALUE = "T";
+    private static final String DOUBLE_VALUE = "D";
+    private static final String DECIMAL_VALUE = "N";
+    private static final String LONG_VALUE = "L";
+
+    private final String shape;
+    private final long logicalResourceId;
+    private final boolean hasSortValue;
+    private final Object sortValue;
+
+    private ContinuationToken(String shape, long logicalResourceId, boolean hasSortValue, Object sortValue) {
+        this.shape = shape;
+        this.logicalResourceId = logicalResourceId;
+        this.hasSortValue = hasSortValue;
+        this.sortValue = sortValue;
+    }
+
+    /**
+     * Creates a token for an unsorted search, positioned after the passed logical resource id.
+     */
+    public static ContinuationToken of(String shape, long logicalResourceId) {
+        return new ContinuationToken(shape, logicalResourceId, false, null);
+    }
+
+    /**
+     * Creates a token for a sorted search, positioned after the row with the passed sort value and logical resource id.
+     * @param sortValue the sort value of the last row; may be null if the resource has no value for the sort parameter
+     */
+    public static ContinuationToken of(String shape, long logicalResourceId, Object sortValue) {
+        return new ContinuationToken(shape, logicalResourceId, true, sortValue);
+    }
+
+    public long getLogicalResourceId() {
+        return logicalResourceId;
+    }
+
+    public boolean hasSortValue() {
+        return hasSortValue;
+    }
+
+    /**
+     * @return the sort value of the last row of the previous page, or null if that row had no value for the sort parameter
+     */
+    public Object getSortValue() {
+        return sortValue;
+    }
+
+    /**
+     * Indicates whether keyset pagination can be applied to the search described by the passed search context.
+     * Keyset pagination requires a total, deterministic ordering on a single key, so it is limited to
+     * type-level searches without _include/_revinclude which are either unsorted or sorted by a single
+     * parameter which maps to a single value column.
+     */
+    public static boolean isSupported(Class<?> resourceType, FHIRSearchContext searchContext) {
+        if (Resource.class.equals(resourceType)
+                || searchContext.hasIncludeParameters() || searchContext.hasRevIncludeParameters()) {
+            return false;
+        }
+        if (!searchContext.hasSortParameters()) {
+            return true;
+        }
+
+        List<SortParameter> sortParameters = searchContext.getSortParameters();
+        if (sortParameters.size() != 1) {
+            return false;
+        }
+        switch (sortParameters.get(0).getType()) {
+        case STRING:
+        case REFERENCE:
+        case URI:
+        case DATE:
+        case NUMBER:
+        case QUANTITY:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Computes the shape of the passed search; tokens are only accepted for a search with the same shape as the
+     * one they were issued for.
+     */
+    public static String shapeOf(Class<?> resourceType, FHIRSearchContext searchContext) {
+        StringBuilder shape = new StringBuilder(resourceType.getSimpleName());
+        for (SortParameter sortParameter : searchContext.getSortParameters()) {
+            shape.append(SEPARATOR).append(sortParameter.getCode())
+                .append(SEPARATOR).append(sortParameter.getDirection().value());
+        }
+        return Integer.toHexString(shape.toString().hashCode());
+    }
+
+    /**
+     * @return the opaque, URL-safe string form of this token
+     */
+    public String encode() {
+        StringBuilder token = new StringBuilder();
+        token.append(VERSION).append(SEPARATOR);
+        token.append(shape).append(SEPARATOR);
+        token.append(logicalResourceId).append(SEPARATOR);
+
+        if (!hasSortValue) {
+            token.append(NO_SORT_VALUE).append(SEPARATOR);
+        } else if (sortValue == null) {
+            token.append(NULL_VALUE).append(SEPARATOR);
+        } else if (sortValue instanceof String) {
+            token.append(STRING_VALUE).append(SEPARATOR).append(sortValue);
+        } else if (sortValue instanceof Timestamp) {
+            Timestamp timestamp = (Timestamp) sortValue;
+            token.append(TIMESTAMP_VALUE).append(SEPARATOR)
+                .append(timestamp.getTime()).append(':').append(timestamp.getNanos());
+        } else if (sortValue instanceof Double || sortValue instanceof Float) {
+            token.append(DOUBLE_VALUE).append(SEPARATOR).append(((Number) sortValue).doubleValue());
+        } else if (sortValue instanceof BigDecimal) {
+            token.append(DECIMAL_VALUE).append(SEPARATOR).append(((BigDecimal) sortValue).toPlainString());
+        } else if (sortValue instanceof Number) {
+            token.append(LONG_VALUE).append(SEPARATOR).append(((Number) sortValue).longValue());
+        } else {
+            throw new IllegalStateException("Unsupported sort value type: " + sortValue.getClass().getName());
+        }
+
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(token.toString().getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Decodes the passed token and checks that it was issued for a search of the same shape as the passed one.
+     * @param token the opaque token passed by the client
+     * @param resourceType the type of resource being searched for
+     * @param searchContext the search context of the current search
+     * @return the decoded token
+     * @throws FHIRPersistenceException if the token is malformed, was issued for a different search,
+     *         or keyset pagination is not supported for the current search
+     */
+    public static ContinuationToken decode(String token, Class<?> resourceType, FHIRSearchContext searchContext)
+            throws FHIRPersistenceException {
+        final String METHODNAME = "decode";
+        log.entering(CLASSNAME, METHODNAME);
+
+        if (!isSupported(resourceType, searchContext)) {
+            log.exiting(CLASSNAME, METHODNAME);
+            throw invalidToken("The _cursor parameter is not supported for this search.");
+        }
+
+        String expectedShape = shapeOf(resourceType, searchContext);
+        try {
+            String decoded = new String(Base64.getUrlDecoder().decode(token), StandardCharsets.UTF_8);
+            String[] fields = decoded.split(SEPARATOR_REGEX, FIELD_COUNT);
+            if (fields.length != FIELD_COUNT || !VERSION.equals(fields[0])) {
+                throw invalidToken("Invalid continuation token.");
+            }
+            if (!fields[1].equals(expectedShape)
+                    || NO_SORT_VALUE.equals(fields[3]) == searchContext.hasSortParameters()) {
+                throw invalidToken("The continuation token does not match the search; the sort parameters must not be changed between pages.");
+            }
+
+            long logicalResourceId = Long.parseLong(fields[2]);
+            String value = fields[4];
+            switch (fields[3]) {
+            case NO_SORT_VALUE:
+                return of(fields[1], logicalResourceId);
+            case NULL_VALUE:
+                return of(fields[1], logicalResourceId, null);
+            case STRING_VALUE:
+                return of(fields[1], logicalResourceId, value);
+            case TIMESTAMP_VALUE:
+                String[] parts = value.split(":");
+                Timestamp timestamp = new Timestamp(Long.parseLong(parts[0]));
+                timestamp.setNanos(Integer.parseInt(parts[1]));
+                return of(fields[1], logicalResourceId, timestamp);
+            case DOUBLE_VALUE:
+                return of(fields[1], logicalResourceId, Double.valueOf(value));
+            case DECIMAL_VALUE:
+                return of(fields[1], logicalResourceId, new BigDecimal(value));
+            case LONG_VALUE:
+                return of(fields[1], logicalResourceId, Long.valueOf(value));
+            default:
+                throw invalidToken("Invalid continuation token.");
+            }
+        } catch (FHIRPersistenceException e) {
+            throw e;
+        } catch (Exception e) {
+            throw invalidToken("Invalid continuation token.");
+        } finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    private static FHIRPersistenceException invalidToken(String msg) {
+        return new FHIRPersistenceException(msg).withIssue(FHIRUtil.buildOperationOutcomeIssue(msg, IssueType.INVALID));
+    }
+
+    @Override
+    public String toString() {
+        return "ContinuationToken [shape=" + shape + ", logicalResourceId=" + logicalResourceId + ", hasSortValue="
+                + hasSortValue + ", sortValue=" + sortValue + "]";
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
+import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
+import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
+
+/**
+ * This class holds the parameter name, code system and resource type ids of a single FHIR tenant/datastore
+ * combination, and provides the static registry of these caches.
+ * <br>
+ * The cache of the current request's tenant/datastore is found with two map lookups, without building its
+ * name, and each of its maps is bounded. The maps can be bulk-loaded from the database when the datastore
+ * is first used, instead of being filled one database lookup at a time. The static CodeSystemsCache,
+ * ParameterNamesCache and ResourceTypesCache classes are facades over these caches.
+ */
+public class DatastoreCache {
+    private static final String CLASSNAME = DatastoreCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * The cache of each tenant/datastore combination, by cache name.
+     */
+    private static final ConcurrentHashMap<String, DatastoreCache> caches = new ConcurrentHashMap<>();
+
+    /**
+     * The same caches, by tenant id and then datastore id, so the cache of a request is found without
+     * building its name.
+     */
+    private static final ConcurrentHashMap<String, ConcurrentHashMap<String, DatastoreCache>> cachesByTenant = new ConcurrentHashMap<>();
+
+    private final String name;
+    private final NameIdCache parameterNames;
+    private final NameIdCache codeSystems;
+    private final NameIdCache resourceTypes;
+
+    // Whether the maps have been bulk-loaded from the database
+    private volatile boolean preloaded = false;
+
+    private DatastoreCache(String name, int maxSize) {
+        this.name = name;
+        this.parameterNames = new NameIdCache(maxSize);
+        this.codeSystems = new NameIdCache(maxSize);
+        this.resourceTypes = new NameIdCache(maxSize);
+    }
+
+    /**
+     * @return the cache of the tenant/datastore of the current request
+     */
+    public static DatastoreCache current() {
+        FHIRRequestContext context = FHIRRequestContext.get();
+        String tenantId = context.getTenantId();
+        String datastoreId = context.getDataStoreId();
+
+        ConcurrentHashMap<String, DatastoreCache> tenantCaches = cachesByTenant.get(tenantId);
+        if (tenantCaches == null) {
+            tenantCaches = cachesByTenant.computeIfAbsent(tenantId, k -> new ConcurrentHashMap<>());
+        }
+        DatastoreCache result = tenantCaches.get(datastoreId);
+        if (result == null) {
+            result = tenantCaches.computeIfAbsent(datastoreId, k -> forName(tenantId + "~" + datastoreId));
+        }
+        return result;
+    }
+
+    /**
+     * @param tenantDatastoreCacheName the name of a tenant/datastore combination, as returned by {@link #getName()}
+     * @return the cache of the named tenant/datastore
+     */
+    public static DatastoreCache forName(String tenantDatastoreCacheName) {
+        DatastoreCache result = caches.get(tenantDatastoreCacheName);
+        if (result == null) {
+            result = caches.computeIfAbsent(tenantDatastoreCacheName, k -> {
+                log.fine("Added new cache for tenantDatastore=" + k);
+                return new DatastoreCache(k, maxSize);
+            });
+        }
+        return result;
+    }
+
+    /**
+     * @return the name of this cache's tenant/datastore combination, in the form tenantId~datastoreId
+     */
+    public String getName() {
+        return name;
+    }
+
+    public NameIdCache getParameterNames() {
+        return parameterNames;
+    }
+
+    public NameIdCache getCodeSystems() {
+        return codeSystems;
+    }
+
+    public NameIdCache getResourceTypes() {
+        return resourceTypes;
+    }
+
+    public boolean isPreloaded() {
+        return preloaded;
+    }
+
+    /**
+     * Bulk-loads the parameter names, code systems and resource types of this cache's datastore using the
+     * passed DAOs, which must be connected to that datastore.
+     * @param parameterDao
+     * @param resourceDao
+     * @throws FHIRPersistenceDBConnectException
+     * @throws FHIRPersistenceDataAccessException
+     */
+    public void preload(ParameterDAO parameterDao, ResourceDAO resourceDao) throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException {
+        final String METHODNAME = "preload";
+        log.entering(CLASSNAME, METHODNAME);
+
+        try {
+            long start = System.nanoTime();
+            if (ParameterNamesCache.isEnabled()) {
+                putAll(parameterNames, parameterDao.readAllSearchParameterNames());
+            }
+            if (CodeSystemsCache.isEnabled()) {
+                putAll(codeSystems, parameterDao.readAllCodeSystems());
+            }
+            if (ResourceTypesCache.isEnabled()) {
+                putAll(resourceTypes, resourceDao.readAllResourceTypeNames());
+            }
+            preloaded = true;
+
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Preloaded cache for tenantDatastore=" + name + " in " + (System.nanoTime() - start)/1e6 + "ms:"
+                        + " parameterNames=" + parameterNames.size() + " codeSystems=" + codeSystems.size()
+                        + " resourceTypes=" + resourceTypes.size());
+            }
+        } finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+    }
+
+    private static void putAll(NameIdCache cache, Map<String, Integer> entries) {
+        for (Map.Entry<String, Integer> entry : entries.entrySet()) {
+            cache.put(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries of each map of each tenant/datastore
+     * @param newMaxSize
+     */
+    public static void setMaxSize(int newMaxSize) {
+        if (newMaxSize != maxSize) {
+            maxSize = newMaxSize;
+            for (DatastoreCache cache : caches.values()) {
+                cache.parameterNames.setMaxSize(newMaxSize);
+                cache.codeSystems.setMaxSize(newMaxSize);
+                cache.resourceTypes.setMaxSize(newMaxSize);
+            }
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * @return all the tenant/datastore caches, by cache name
+     */
+    public static Map<String, DatastoreCache> getCaches() {
+        return caches;
+    }
+
+    /**
+     * @return String - A formatted report of the size, hits, misses and evictions of each map of each tenant/datastore.
+     */
+    public static String dumpStatistics() {
+        StringBuilder dump = new StringBuilder(CacheUtil.NEWLINE).append("Cache name: DatastoreCache").append(CacheUtil.NEWLINE);
+        for (DatastoreCache cache : caches.values()) {
+            dump.append("   Tenant-Datastore: ").append(cache.name).append("  preloaded=").append(cache.preloaded).append(CacheUtil.NEWLINE)
+                .append("      parameterNames: ").append(cache.parameterNames).append(CacheUtil.NEWLINE)
+                .append("      codeSystems: ").append(cache.codeSystems).append(CacheUtil.NEWLINE)
+                .append("      resourceTypes: ").append(cache.resourceTypes).append(CacheUtil.NEWLINE);
+        }
+        return dump.toString();
+    }
+}
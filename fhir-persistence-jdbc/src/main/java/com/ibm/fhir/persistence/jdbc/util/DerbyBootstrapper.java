@@ -65,6 +65,9 @@ public class DerbyBootstrapper {
 
                 bootstrap(connection, adminSchemaName, dataSchemaName);
                 connection.commit();
+
+                // The sequences of a new database restart, so the values reserved from a previous one must not be used
+                IdentityCache.clear(CodeSystemsCache.getCacheNameForTenantDatastore());
             }
         }
         catch (Throwable e) {
@@ -0,0 +1,318 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.AND;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.BIND_VAR;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMBINED_RESULTS;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMMA;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.DEFAULT_ORDERING;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.DEFAULT_ORDERING_WITH_TABLE;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.FROM;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.KEYSET_ORDERING;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.KEYSET_PREDICATE;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.LEFT_PAREN;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.RIGHT_PAREN;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.UNION;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.WHERE;
+import static com.ibm.fhir.persistence.jdbc.util.type.LastUpdatedParmBehaviorUtil.LAST_UPDATED;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
+import com.ibm.fhir.persistence.jdbc.util.type.LastUpdatedParmBehaviorUtil;
+import com.ibm.fhir.search.context.FHIRSearchContext;
+import com.ibm.fhir.search.parameters.QueryParameter;
+import com.ibm.fhir.search.parameters.QueryParameterValue;
+
+/**
+ * This class builds the queries of searches whose only parameters are _id and/or _lastUpdated, such as the
+ * searches of clients synchronizing the resources changed since a point in time.
+ * <br>
+ * Instead of the derived tables of the generic QuerySegmentAggregator, the _id and _lastUpdated predicates are
+ * applied directly to the xx_LOGICAL_RESOURCES and xx_RESOURCES tables. The page of current resource ids is
+ * found with a key-only query, and only the rows of that page are then read from xx_RESOURCES to fetch their data:
+ *
+ * <pre>
+ * SELECT R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED, R.DATA, LR.LOGICAL_ID
+ *   FROM (SELECT LR.LOGICAL_ID, LR.CURRENT_RESOURCE_ID
+ *           FROM Patient_LOGICAL_RESOURCES LR
+ *           JOIN Patient_RESOURCES R ON R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND R.IS_DELETED <> 'Y'
+ *          WHERE LR.LOGICAL_ID IN (?, ?) AND ((LAST_UPDATED >= ?))
+ *       ORDER BY R.RESOURCE_ID ASC OFFSET ? ROWS FETCH NEXT ? ROWS ONLY) LR
+ *   JOIN Patient_RESOURCES R ON R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID
+ * ORDER BY R.RESOURCE_ID ASC
+ * </pre>
+ *
+ * Count queries only use the key-only query. For whole-system searches, each resource type contributes at most
+ * the rows up to the end of the requested page, so the data of at most that many rows is read per resource type.
+ */
+public class IdLastUpdatedQuerySegmentAggregator extends QuerySegmentAggregator {
+    private static final String CLASSNAME = IdLastUpdatedQuerySegmentAggregator.class.getName();
+    private static final Logger log = java.util.logging.Logger.getLogger(CLASSNAME);
+
+    private static final String KEY_SELECT_ROOT = "SELECT LR.LOGICAL_ID, LR.CURRENT_RESOURCE_ID ";
+    private static final String KEY_COUNT_ROOT = "SELECT COUNT(R.RESOURCE_ID) ";
+    private static final String KEY_SYSTEM_LEVEL_COUNT_ROOT = "SELECT COUNT(R.RESOURCE_ID) AS CNT ";
+    private static final String CURRENT_RESOURCES_JOIN =
+            " R ON R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND R.IS_DELETED <> 'Y' ";
+
+    // Allows the generic queries to be compared with this fast path (see FHIRIdLastUpdatedSearchBenchmark)
+    private static volatile boolean enabled = true;
+
+    /**
+     * Constructs a new IdLastUpdatedQuerySegmentAggregator
+     *
+     * @param resourceType - The type of FHIR Resource to be searched for.
+     * @param offset       - The beginning index of the first search result.
+     * @param pageSize     - The max number of requested search results.
+     */
+    protected IdLastUpdatedQuerySegmentAggregator(Class<?> resourceType, int offset, int pageSize,
+            ParameterDAO parameterDao, ResourceDAO resourceDao) {
+        super(resourceType, offset, pageSize, parameterDao, resourceDao);
+    }
+
+    /**
+     * Enables or disables this fast path. When disabled, the searches it supports are built by the generic
+     * QuerySegmentAggregator.
+     *
+     * @param enable
+     */
+    public static void setEnabled(boolean enable) {
+        enabled = enable;
+    }
+
+    /**
+     * @return true if this fast path is enabled
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Returns true if the search can be built by this aggregator, which is the case when it is not sorted
+     * and its only parameters are _id and/or _lastUpdated, without modifiers.
+     *
+     * @param resourceType - The type of FHIR Resource to be searched for.
+     * @param searchContext - The search context containing the search parameters.
+     * @return
+     */
+    public static boolean isSupported(Class<?> resourceType, FHIRSearchContext searchContext) {
+        if (!enabled || searchContext.hasSortParameters()) {
+            return false;
+        }
+        for (QueryParameter queryParm : searchContext.getSearchParameters()) {
+            String code = queryParm.getCode();
+            if (!ID.equals(code) && !LAST_UPDATED.equals(code)) {
+                return false;
+            }
+            if (queryParm.getModifier() != null || queryParm.isChained() || queryParm.isInclusionCriteria()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    protected SqlQueryData buildQuery() throws Exception {
+        final String METHODNAME = "buildQuery";
+        log.entering(CLASSNAME, METHODNAME);
+
+        SqlQueryData queryData;
+        if (this.isSystemLevelSearch()) {
+            queryData = this.buildSystemLevelQuery();
+        } else {
+            StringBuilder queryString = new StringBuilder();
+            List<Object> allBindVariables = new ArrayList<>();
+            String ordering = this.keysetPaging ? KEYSET_ORDERING : DEFAULT_ORDERING_WITH_TABLE;
+
+            // Only the rows of the page are read from the resources table
+            buildPageQuery(queryString, allBindVariables, resourceType.getSimpleName(), ordering,
+                    getPageOffset(), getPageRows());
+            queryString.append(ordering);
+            queryData = new SqlQueryData(queryString.toString(), allBindVariables);
+        }
+
+        log.exiting(CLASSNAME, METHODNAME, queryData);
+        return queryData;
+    }
+
+    @Override
+    protected SqlQueryData buildCountQuery() throws Exception {
+        final String METHODNAME = "buildCountQuery";
+        log.entering(CLASSNAME, METHODNAME);
+
+        SqlQueryData queryData;
+        if (this.isSystemLevelSearch()) {
+            queryData = this.buildSystemLevelCountQuery();
+        } else {
+            StringBuilder queryString = new StringBuilder();
+            List<Object> allBindVariables = new ArrayList<>();
+            queryString.append(KEY_COUNT_ROOT);
+            buildKeyFromWhereClause(queryString, allBindVariables, resourceType.getSimpleName());
+            queryData = new SqlQueryData(queryString.toString(), allBindVariables);
+        }
+
+        log.exiting(CLASSNAME, METHODNAME, queryData);
+        return queryData;
+    }
+
+    /**
+     * Builds the whole-system query, a UNION ALL of the page query of each resource type. Each resource type
+     * contributes at most the rows up to the end of the requested page, which are then ordered and paginated.
+     *
+     * @return SqlQueryData - contains the complete SQL query string and any associated bind variables.
+     * @throws Exception
+     */
+    private SqlQueryData buildSystemLevelQuery() throws Exception {
+        List<String> resourceTypeNames = getSearchedResourceTypeNames();
+        if (resourceTypeNames.isEmpty()) {
+            return super.buildQuery();
+        }
+
+        StringBuilder queryString = new StringBuilder();
+        List<Object> allBindVariables = new ArrayList<>();
+        queryString.append(SYSTEM_LEVEL_SELECT_ROOT).append(FROM).append(LEFT_PAREN);
+
+        int rows = getPageOffset() + getPageRows();
+        boolean first = true;
+        for (String resourceTypeName : resourceTypeNames) {
+            if (!first) {
+                queryString.append(UNION);
+            }
+            first = false;
+            buildPageQuery(queryString, allBindVariables, resourceTypeName, DEFAULT_ORDERING_WITH_TABLE, 0, rows);
+        }
+        queryString.append(COMBINED_RESULTS);
+
+        queryString.append(DEFAULT_ORDERING);
+        addPaginationClauses(queryString, allBindVariables);
+        return new SqlQueryData(queryString.toString(), allBindVariables);
+    }
+
+    /**
+     * Builds the whole-system count query, the sum of the key-only count of each resource type.
+     *
+     * @return SqlQueryData - contains the complete SQL query string and any associated bind variables.
+     * @throws Exception
+     */
+    private SqlQueryData buildSystemLevelCountQuery() throws Exception {
+        List<String> resourceTypeNames = getSearchedResourceTypeNames();
+        if (resourceTypeNames.isEmpty()) {
+            return super.buildCountQuery();
+        }
+
+        StringBuilder queryString = new StringBuilder();
+        List<Object> allBindVariables = new ArrayList<>();
+        queryString.append(SYSTEM_LEVEL_SELECT_COUNT_ROOT).append(FROM).append(LEFT_PAREN);
+
+        boolean first = true;
+        for (String resourceTypeName : resourceTypeNames) {
+            if (!first) {
+                queryString.append(UNION);
+            }
+            first = false;
+            queryString.append(KEY_SYSTEM_LEVEL_COUNT_ROOT);
+            buildKeyFromWhereClause(queryString, allBindVariables, resourceTypeName);
+        }
+        queryString.append(COMBINED_RESULTS);
+        return new SqlQueryData(queryString.toString(), allBindVariables);
+    }
+
+    /**
+     * Builds the query of a page of resources of one resource type. The key-only query finds the current
+     * resource ids of the page, which are then joined to the resources table to fetch their data.
+     *
+     * @param queryString - The query string buffer.
+     * @param bindVariables - The bind variables of the query.
+     * @param resourceTypeName - The resource type.
+     * @param ordering - The ORDER BY clause of the key-only query.
+     * @param offset - The number of rows skipped by the key-only query.
+     * @param rows - The maximum number of rows returned by the key-only query.
+     * @throws Exception
+     */
+    private void buildPageQuery(StringBuilder queryString, List<Object> bindVariables, String resourceTypeName,
+            String ordering, int offset, int rows) throws Exception {
+        queryString.append(SELECT_ROOT).append(FROM).append(LEFT_PAREN);
+        queryString.append(KEY_SELECT_ROOT);
+        buildKeyFromWhereClause(queryString, bindVariables, resourceTypeName);
+        queryString.append(ordering);
+        addPaginationClauses(queryString, bindVariables, offset, rows);
+        queryString.append(RIGHT_PAREN).append(" LR JOIN ");
+        queryString.append(resourceTypeName).append("_RESOURCES");
+        queryString.append(" R ON R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID");
+    }
+
+    /**
+     * Builds the FROM and WHERE clauses of the key-only query of one resource type. Only the key columns of
+     * xx_LOGICAL_RESOURCES and xx_RESOURCES are referenced, not their DATA.
+     *
+     * @param queryString - The query string buffer.
+     * @param bindVariables - The bind variables of the query.
+     * @param resourceTypeName - The resource type.
+     */
+    private void buildKeyFromWhereClause(StringBuilder queryString, List<Object> bindVariables, String resourceTypeName) {
+        queryString.append(FROM);
+        queryString.append(resourceTypeName).append("_LOGICAL_RESOURCES LR JOIN ");
+        queryString.append(resourceTypeName).append("_RESOURCES");
+        queryString.append(CURRENT_RESOURCES_JOIN);
+
+        // Seek past the last row of the previous page (part of the join condition on R)
+        if (this.keysetPosition != null) {
+            queryString.append(KEYSET_PREDICATE);
+            bindVariables.add(this.keysetPosition.getLogicalResourceId());
+        }
+
+        boolean whereProcessed = false;
+        if (!queryParamIds.isEmpty()) {
+            // The values of all the _id parameters are matched, as in processFromClauseForId
+            queryString.append(WHERE).append("LR.LOGICAL_ID IN (");
+            boolean add = false;
+            for (QueryParameter queryParamId : queryParamIds) {
+                for (QueryParameterValue value : queryParamId.getValues()) {
+                    if (add) {
+                        queryString.append(COMMA);
+                    } else {
+                        add = true;
+                    }
+                    queryString.append(BIND_VAR);
+                    bindVariables.add(SqlParameterEncoder.encode(value.getValueCode()));
+                }
+            }
+            queryString.append(RIGHT_PAREN);
+            whereProcessed = true;
+        }
+
+        for (QueryParameter queryParmLastUpdated : queryParmLastUpdateds) {
+            // Each _lastUpdated parameter is ANDed; LAST_UPDATED is only a column of R
+            queryString.append(whereProcessed ? AND : WHERE);
+            whereProcessed = true;
+
+            LastUpdatedParmBehaviorUtil behaviorUtil = new LastUpdatedParmBehaviorUtil();
+            behaviorUtil.executeBehavior(queryString, queryParmLastUpdated);
+            bindVariables.addAll(behaviorUtil.getBindVariables());
+        }
+    }
+
+    /**
+     * @return the names of the resource types searched by a whole-system search, which have a table in the
+     *         database
+     * @throws Exception
+     */
+    private List<String> getSearchedResourceTypeNames() throws Exception {
+        List<String> result = new ArrayList<>();
+        for (String resourceTypeName : resourceDao.readAllResourceTypeNames().keySet()) {
+            if (this.resourceTypes == null || this.resourceTypes.contains(resourceTypeName)) {
+                result.add(resourceTypeName);
+            }
+        }
+        return result;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class provides a static cache of the values reserved from the database sequences (FHIR_SEQUENCE and
+ * FHIR_REF_SEQUENCE) used to assign ids to new rows.
+ * <br>
+ * Instead of reading the next value of a sequence for each new row, a block of values is read with a single
+ * query, and the values of the block are then handed out to the threads of this server without locking.
+ * Each FHIR tenant/datastore combination has its own blocks, because each has its own sequences. A new block
+ * is only read when the current one is used up. Values left in a block when the server stops are never used,
+ * so ids have gaps, and ids assigned by different servers are not ordered by the time they were assigned.
+ * Sequence values are unique whether or not the transaction reading them commits, so a block can be read using
+ * the connection of any transaction.
+ * <br>
+ * The blocks are only valid for the database they were read from: when the database of a datastore is
+ * (re)created, its sequences restart, so its blocks must be discarded with {@link #clear(String)}. This is done
+ * when a Derby datastore is bootstrapped; a datastore whose schema is dropped and deployed again with the schema
+ * tool requires a restart of the server, as for the other caches of database ids.
+ */
+public class IdentityCache {
+    private static final String CLASSNAME = IdentityCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_BLOCK_SIZE = 1000;
+
+    private static volatile int blockSize = DEFAULT_BLOCK_SIZE;
+
+    // An empty block, used until the first block of a sequence is read
+    private static final IdBlock EMPTY = new IdBlock(new long[0]);
+
+    /**
+     * The current block of each sequence, for each FHIR tenant/datastore combination.
+     */
+    private static final ConcurrentHashMap<String, AtomicReference<IdBlock>> blocks = new ConcurrentHashMap<>();
+
+    /**
+     * Reads a number of values from a database sequence.
+     */
+    @FunctionalInterface
+    public interface BlockReader {
+        /**
+         * Returns the next count values of the sequence.
+         * @param count
+         * @return
+         * @throws SQLException
+         */
+        long[] read(int count) throws SQLException;
+    }
+
+    /**
+     * A block of sequence values, handed out in order.
+     */
+    private static class IdBlock {
+        private final long[] values;
+        private final AtomicInteger next = new AtomicInteger();
+
+        IdBlock(long[] values) {
+            this.values = values;
+        }
+
+        /**
+         * @return the next value of the block, or -1 if the block is used up
+         */
+        long take() {
+            int index = next.getAndIncrement();
+            return index < values.length ? values[index] : -1L;
+        }
+    }
+
+    private IdentityCache() {
+        // No Operation
+    }
+
+    /**
+     * Returns the next value of the named sequence for the current tenant-datastore, reading a new block
+     * of values with the passed reader when the current block is used up.
+     * @param sequenceName the name of the sequence
+     * @param reader reads the values of the sequence from the database
+     * @return
+     * @throws SQLException
+     */
+    public static long nextValue(String sequenceName, BlockReader reader) throws SQLException {
+        final int size = blockSize;
+        if (size <= 1) {
+            return reader.read(1)[0];
+        }
+
+        String key = CodeSystemsCache.getCacheNameForTenantDatastore() + "/" + sequenceName;
+        AtomicReference<IdBlock> current = blocks.computeIfAbsent(key, k -> new AtomicReference<>(EMPTY));
+        while (true) {
+            IdBlock block = current.get();
+            long value = block.take();
+            if (value >= 0) {
+                return value;
+            }
+
+            // The block is used up. Only one thread reads the next one; the others wait for it
+            synchronized (current) {
+                if (current.get() == block) {
+                    current.set(new IdBlock(reader.read(size)));
+                    if (log.isLoggable(Level.FINE)) {
+                        log.fine("Reserved a block of " + size + " values from sequence '" + key + "'");
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Sets the number of values read from a sequence at a time. A size of 1 reads each value from the database
+     * when it is needed.
+     * @param size
+     */
+    public static void setBlockSize(int size) {
+        blockSize = size;
+    }
+
+    /**
+     * @return the number of values read from a sequence at a time
+     */
+    public static int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * Discards the values reserved so far.
+     */
+    public static void clear() {
+        blocks.clear();
+    }
+
+    /**
+     * Discards the values reserved so far for the passed tenant-datastore.
+     * @param tenantDatastoreCacheName
+     */
+    public static void clear(String tenantDatastoreCacheName) {
+        final String prefix = tenantDatastoreCacheName + "/";
+        blocks.keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
@@ -0,0 +1,274 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.BIND_VAR;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMMA;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.LEFT_PAREN;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.RIGHT_PAREN;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
+import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
+import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
+import com.ibm.fhir.persistence.jdbc.dto.Resource;
+import com.ibm.fhir.search.parameters.InclusionParameter;
+
+/**
+ * Fetches the resources requested by the _include and _revinclude parameters of a search, once the page of
+ * resources matching the search has been read.
+ * <br>
+ * Rather than repeating the search in a subquery for each inclusion parameter, the inclusions are resolved
+ * from the logical resource ids and logical ids of the resources on the page:
+ * <ul>
+ * <li>_include - the reference values of the include parameter are read from the STR_VALUES table of the
+ * matched resources, grouped by target resource type, and the current version of each target is read
+ * with one query per target type and batch of logical ids.
+ * <li>_revinclude - the current versions of the resources whose reference parameter refers to one of the
+ * matched resources are read with one query per parameter and batch of references.
+ * </ul>
+ * Each query binds a bounded IN-list of at most {@link #getBatchSize()} values. The list is padded with its
+ * last value to a multiple of {@link #PAD_BLOCK_SIZE}, so that pages of similar size share the same statement.
+ * The batches run one after the other, on the connection of the current request transaction.
+ */
+public class InclusionResourceFetcher {
+    private static final String CLASSNAME = InclusionResourceFetcher.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    // IN-lists are padded to a multiple of this size, to limit the number of distinct statements
+    public static final int PAD_BLOCK_SIZE = 10;
+
+    private static final String SELECT_ROOT =
+            "SELECT R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID, R.VERSION_ID, R.LAST_UPDATED, R.IS_DELETED, R.DATA, LR.LOGICAL_ID ";
+
+    private static int batchSize = DEFAULT_BATCH_SIZE;
+
+    private final ParameterDAO parameterDao;
+    private final ResourceDAO resourceDao;
+
+    public InclusionResourceFetcher(ParameterDAO parameterDao, ResourceDAO resourceDao) {
+        this.parameterDao = parameterDao;
+        this.resourceDao = resourceDao;
+    }
+
+    /**
+     * Returns the resources included by the passed inclusion parameters, for the passed page of matched resources.
+     * Each resource is returned once, and resources which are already part of the page are left out.
+     *
+     * @param resourceType the type of the matched resources
+     * @param matches the matched resources, as read from the database
+     * @param includeParameters the _include parameters of the search
+     * @param revIncludeParameters the _revinclude parameters of the search
+     * @return the included resources: those of the _include parameters, followed by those of the _revinclude parameters
+     * @throws FHIRPersistenceException
+     */
+    public List<Resource> fetch(String resourceType, List<Resource> matches, List<InclusionParameter> includeParameters,
+            List<InclusionParameter> revIncludeParameters) throws FHIRPersistenceException {
+        final String METHODNAME = "fetch";
+        log.entering(CLASSNAME, METHODNAME);
+
+        List<Resource> result = new ArrayList<>();
+        try {
+            if (matches.isEmpty()) {
+                return result;
+            }
+
+            Set<Long> seen = new HashSet<>();
+            List<Object> logicalResourceIds = new ArrayList<>(matches.size());
+            List<String> logicalIds = new ArrayList<>(matches.size());
+            for (Resource match : matches) {
+                seen.add(match.getId());
+                logicalResourceIds.add(match.getLogicalResourceId());
+                logicalIds.add(match.getLogicalId());
+            }
+
+            // _include: collect the logical ids of the referenced resources, by target type, over all parameters
+            Map<String, Set<Object>> targetLogicalIds = new LinkedHashMap<>();
+            for (InclusionParameter includeParm : includeParameters) {
+                Integer parameterNameId = getParameterNameId(includeParm.getSearchParameter());
+                if (parameterNameId == null) {
+                    continue;
+                }
+                String targetType = includeParm.getSearchParameterTargetType();
+                String prefix = targetType + "/";
+                Set<Object> ids = targetLogicalIds.computeIfAbsent(targetType, k -> new LinkedHashSet<>());
+                for (String strValue : readReferenceValues(resourceType, parameterNameId, logicalResourceIds)) {
+                    if (strValue != null && strValue.startsWith(prefix) && strValue.indexOf('/', prefix.length()) < 0) {
+                        ids.add(strValue.substring(prefix.length()));
+                    }
+                }
+            }
+            for (Map.Entry<String, Set<Object>> entry : targetLogicalIds.entrySet()) {
+                addUnseen(result, seen, readCurrentResources(entry.getKey(), new ArrayList<>(entry.getValue())));
+            }
+
+            // _revinclude: read the resources which refer to the matched resources
+            for (InclusionParameter revIncludeParm : revIncludeParameters) {
+                Integer parameterNameId = getParameterNameId(revIncludeParm.getSearchParameter());
+                if (parameterNameId == null) {
+                    continue;
+                }
+                List<Object> references = new ArrayList<>(logicalIds.size());
+                for (String logicalId : logicalIds) {
+                    references.add(revIncludeParm.getSearchParameterTargetType() + "/" + logicalId);
+                }
+                addUnseen(result, seen, readReferencingResources(revIncludeParm.getJoinResourceType(), parameterNameId, references));
+            }
+
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Fetched " + result.size() + " included resources for " + matches.size() + " " + resourceType + " resources");
+            }
+        } finally {
+            log.exiting(CLASSNAME, METHODNAME);
+        }
+        return result;
+    }
+
+    /**
+     * Reads the values of the passed reference parameter of the passed resources.
+     * <pre>
+     * SELECT P1.STR_VALUE FROM Patient_STR_VALUES P1 WHERE P1.PARAMETER_NAME_ID = ? AND P1.LOGICAL_RESOURCE_ID IN (?,...)
+     * </pre>
+     */
+    private List<String> readReferenceValues(String resourceType, Integer parameterNameId, List<Object> logicalResourceIds)
+            throws FHIRPersistenceException {
+        List<String> values = new ArrayList<>();
+        for (int start = 0; start < logicalResourceIds.size(); start += batchSize) {
+            List<Object> batch = logicalResourceIds.subList(start, Math.min(start + batchSize, logicalResourceIds.size()));
+            StringBuilder queryString = new StringBuilder("SELECT P1.STR_VALUE FROM ")
+                    .append(resourceType).append("_STR_VALUES P1 WHERE P1.PARAMETER_NAME_ID = ? AND P1.LOGICAL_RESOURCE_ID IN ");
+            List<Object> bindVariables = new ArrayList<>();
+            bindVariables.add(parameterNameId);
+            appendInList(queryString, bindVariables, batch);
+            values.addAll(resourceDao.searchStringValues(new SqlQueryData(queryString.toString(), bindVariables)));
+        }
+        return values;
+    }
+
+    /**
+     * Reads the current version of the passed resources, leaving out those which are deleted.
+     * <pre>
+     * SELECT R.RESOURCE_ID, ... FROM Organization_RESOURCES R JOIN Organization_LOGICAL_RESOURCES LR
+     * ON R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID
+     * WHERE R.IS_DELETED <> 'Y' AND LR.LOGICAL_ID IN (?,...)
+     * </pre>
+     */
+    private List<Resource> readCurrentResources(String resourceType, List<Object> logicalIds) throws FHIRPersistenceException {
+        List<Resource> resources = new ArrayList<>();
+        for (int start = 0; start < logicalIds.size(); start += batchSize) {
+            List<Object> batch = logicalIds.subList(start, Math.min(start + batchSize, logicalIds.size()));
+            StringBuilder queryString = new StringBuilder(SELECT_ROOT);
+            appendCurrentResourceFromClause(queryString, resourceType);
+            queryString.append("WHERE R.IS_DELETED <> 'Y' AND LR.LOGICAL_ID IN ");
+            List<Object> bindVariables = new ArrayList<>();
+            appendInList(queryString, bindVariables, batch);
+            resources.addAll(resourceDao.search(new SqlQueryData(queryString.toString(), bindVariables)));
+        }
+        return resources;
+    }
+
+    /**
+     * Reads the current version of the resources whose passed reference parameter has one of the passed values,
+     * leaving out those which are deleted.
+     * <pre>
+     * SELECT R.RESOURCE_ID, ... FROM Observation_RESOURCES R JOIN Observation_LOGICAL_RESOURCES LR
+     * ON R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID
+     * JOIN Observation_STR_VALUES P1 ON P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID
+     * WHERE R.IS_DELETED <> 'Y' AND P1.PARAMETER_NAME_ID = ? AND P1.STR_VALUE IN (?,...)
+     * </pre>
+     */
+    private List<Resource> readReferencingResources(String resourceType, Integer parameterNameId, List<Object> references)
+            throws FHIRPersistenceException {
+        List<Resource> resources = new ArrayList<>();
+        for (int start = 0; start < references.size(); start += batchSize) {
+            List<Object> batch = references.subList(start, Math.min(start + batchSize, references.size()));
+            StringBuilder queryString = new StringBuilder(SELECT_ROOT);
+            appendCurrentResourceFromClause(queryString, resourceType);
+            queryString.append("JOIN ").append(resourceType)
+                    .append("_STR_VALUES P1 ON P1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID ")
+                    .append("WHERE R.IS_DELETED <> 'Y' AND P1.PARAMETER_NAME_ID = ? AND P1.STR_VALUE IN ");
+            List<Object> bindVariables = new ArrayList<>();
+            bindVariables.add(parameterNameId);
+            appendInList(queryString, bindVariables, batch);
+            resources.addAll(resourceDao.search(new SqlQueryData(queryString.toString(), bindVariables)));
+        }
+        return resources;
+    }
+
+    private void appendCurrentResourceFromClause(StringBuilder queryString, String resourceType) {
+        queryString.append("FROM ").append(resourceType).append("_RESOURCES R JOIN ")
+                .append(resourceType).append("_LOGICAL_RESOURCES LR ON R.LOGICAL_RESOURCE_ID = LR.LOGICAL_RESOURCE_ID")
+                .append(" AND R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID ");
+    }
+
+    /**
+     * Appends a parenthesized list of bind variable markers for the passed values, padded with the last value
+     * to a multiple of {@link #PAD_BLOCK_SIZE}, and adds the values to the passed bind variables.
+     */
+    private static void appendInList(StringBuilder queryString, List<Object> bindVariables, List<Object> values) {
+        int paddedSize = ((values.size() + PAD_BLOCK_SIZE - 1) / PAD_BLOCK_SIZE) * PAD_BLOCK_SIZE;
+        queryString.append(LEFT_PAREN);
+        for (int i = 0; i < paddedSize; i++) {
+            if (i > 0) {
+                queryString.append(COMMA);
+            }
+            queryString.append(BIND_VAR);
+            bindVariables.add(values.get(Math.min(i, values.size() - 1)));
+        }
+        queryString.append(RIGHT_PAREN);
+    }
+
+    /**
+     * Adds the passed resources which were not already seen to the passed result.
+     */
+    private static void addUnseen(List<Resource> result, Set<Long> seen, List<Resource> resources) {
+        for (Resource resource : resources) {
+            if (seen.add(resource.getId())) {
+                result.add(resource);
+            }
+        }
+    }
+
+    /**
+     * Returns the integer id that corresponds to the passed search parameter name, or null if the
+     * parameter name is not known (in which case no resource can refer to it).
+     */
+    private Integer getParameterNameId(String searchParameterName) throws FHIRPersistenceException {
+        Integer parameterNameId = ParameterNamesCache.getParameterNameId(searchParameterName);
+        if (parameterNameId == null) {
+            parameterNameId = this.parameterDao.readParameterNameId(searchParameterName);
+            if (parameterNameId != null) {
+                this.parameterDao.addParameterNamesCacheCandidate(searchParameterName, parameterNameId);
+            }
+        }
+        return parameterNameId;
+    }
+
+    public static int getBatchSize() {
+        return batchSize;
+    }
+
+    /**
+     * Sets the maximum number of values bound in the IN-list of each inclusion query. Values less than 1
+     * are replaced by the default.
+     * @param newBatchSize
+     */
+    public static void setBatchSize(int newBatchSize) {
+        batchSize = newBatchSize > 0 ? newBatchSize : DEFAULT_BATCH_SIZE;
+    }
+}
@@ -9,6 +9,8 @@ package com.ibm.fhir.persistence.jdbc.util;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.AND;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.BIND_VAR;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.CODE_SYSTEM_ID;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMMON_TOKEN_VALUES;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMMON_TOKEN_VALUE_ID;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.DOT;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.EQ;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.ESCAPE_EXPR;
@@ -138,15 +140,68 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
     @Override
     public SqlQueryData buildQuery(Class<?> resourceType, FHIRSearchContext searchContext) throws Exception {
+        return buildQuery(resourceType, searchContext, false);
+    }
+
+    /**
+     * Builds a query that returns a page of the search results found by applying the search parameters
+     * contained within the passed search context.
+     * 
+     * @param resourceType
+     *                      - The type of resource being searched for.
+     * @param searchContext
+     *                      - The search context containing the search parameters.
+     * @param lookAhead
+     *                      - If true, the query fetches up to pageSize + 1 rows so the caller can tell whether
+     *                      there is a next page without running a count query.
+     * @return SqlQueryData - A search query
+     * @throws Exception
+     */
+    public SqlQueryData buildQuery(Class<?> resourceType, FHIRSearchContext searchContext, boolean lookAhead) throws Exception {
         final String METHODNAME = "buildQuery";
         log.entering(CLASSNAME, METHODNAME,
-                new Object[] { resourceType.getSimpleName(), searchContext.getSearchParameters() });
+                new Object[] { resourceType.getSimpleName(), searchContext.getSearchParameters(), lookAhead });
+
+        SqlQueryData query = null;
+        QuerySegmentAggregator helper;
+
+        helper = this.buildQueryCommon(resourceType, searchContext);
+        if (helper != null) {
+            helper.setLookAhead(lookAhead);
+            query = helper.buildQuery();
+        }
+
+        log.exiting(CLASSNAME, METHODNAME);
+        return query;
+    }
+
+    /**
+     * Builds a query which returns the next page of search results using keyset pagination,
+     * resuming after the position captured in the passed continuation token.
+     * The caller is responsible for checking that keyset pagination is supported for the search
+     * (see {@link ContinuationToken#isSupported(Class, FHIRSearchContext)}).
+     * 
+     * @param resourceType
+     *                      - The type of resource being searched for.
+     * @param searchContext
+     *                      - The search context containing the search parameters.
+     * @param position
+     *                      - The position after which to resume, or null for the first page.
+     * @return SqlQueryData - A query which fetches up to pageSize + 1 rows
+     * @throws Exception
+     */
+    public SqlQueryData buildKeysetQuery(Class<?> resourceType, FHIRSearchContext searchContext,
+            ContinuationToken position) throws Exception {
+        final String METHODNAME = "buildKeysetQuery";
+        log.entering(CLASSNAME, METHODNAME,
+                new Object[] { resourceType.getSimpleName(), searchContext.getSearchParameters(), position });
 
         SqlQueryData query = null;
         QuerySegmentAggregator helper;
 
         helper = this.buildQueryCommon(resourceType, searchContext);
         if (helper != null) {
+            helper.setKeysetPaging(position);
             query = helper.buildQuery();
         }
 
@@ -201,6 +256,16 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
                 QuerySegmentAggregatorFactory.buildQuerySegmentAggregator(resourceType, offset, pageSize,
                         this.parameterDao, this.resourceDao, searchContext);
 
+        // Fast path for _id and _lastUpdated searches, which are applied directly to the resource tables,
+        // so there are no query segments to build
+        if (helper instanceof IdLastUpdatedQuerySegmentAggregator) {
+            for (QueryParameter queryParameter : searchParameters) {
+                helper.addQueryData(null, queryParameter);
+            }
+            log.exiting(CLASSNAME, METHODNAME);
+            return helper;
+        }
+
         // Special logic for handling LocationPosition queries. These queries have interdependencies between
         // a couple of related input query parameters
         if (Location.class.equals(resourceType)) {
@@ -389,7 +454,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x AND
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
         whereClauseSegment.append(AND).append(LEFT_PAREN);
         for (QueryParameterValue value : queryParm.getValues()) {
@@ -495,7 +560,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x AND
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
         whereClauseSegment.append(AND).append(LEFT_PAREN);
 
@@ -601,13 +666,13 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
                     // Must build this first piece using px placeholder table alias, which will be replaced with a
                     // generated value in the buildQuery() method.
                     // Build this piece:P1.PARAMETER_NAME_ID = x AND (p1.STR_VALUE IN
-                    this.populateNameIdSubSegment(whereClauseSegment, currentParm.getCode(), PARAMETER_TABLE_ALIAS);
+                    this.populateNameIdSubSegment(whereClauseSegment, currentParm.getCode(), PARAMETER_TABLE_ALIAS, bindVariables);
                     whereClauseSegment.append(AND);
                     whereClauseSegment.append(LEFT_PAREN);
                     whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(STR_VALUE).append(IN);
                 } else {
                     // Build this piece: CP1.PARAMETER_NAME_ID = x AND CP1.STR_VALUE IN
-                    appendMidChainParm(whereClauseSegment, currentParm, chainedParmVar);
+                    appendMidChainParm(whereClauseSegment, currentParm, chainedParmVar, bindVariables);
                 }
 
                 refParmIndex++;
@@ -653,7 +718,8 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         return queryData;
     }
 
-    private void appendMidChainParm(StringBuilder whereClauseSegment, QueryParameter currentParm, String chainedParmVar)
+    private void appendMidChainParm(StringBuilder whereClauseSegment, QueryParameter currentParm, String chainedParmVar,
+            List<Object> bindVariables)
             throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException, FHIRPersistenceException {
         Integer parameterNameId = ParameterNamesCache.getParameterNameId(currentParm.getCode());
         if (parameterNameId == null) {
@@ -663,8 +729,9 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
             }
         }
         whereClauseSegment.append(chainedParmVar).append(DOT).append("PARAMETER_NAME_ID").append(EQ)
-                .append(parameterNameId)
+                .append(BIND_VAR)
                 .append(AND).append(chainedParmVar).append(DOT).append(STR_VALUE).append(IN);
+        bindVariables.add(nullCheck(parameterNameId));
     }
 
     private void appendInnerSelect(StringBuilder whereClauseSegment, QueryParameter currentParm, Type nextParmaterType,
@@ -873,7 +940,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
                 currentParmValue = currentParm.getValues().get(0).getValueString();
                 // Build this piece:
                 // (pX.PARAMETER_NAME_ID = x AND
-                this.populateNameIdSubSegment(whereClauseSegment, currentParm.getCode(), PARAMETER_TABLE_ALIAS);
+                this.populateNameIdSubSegment(whereClauseSegment, currentParm.getCode(), PARAMETER_TABLE_ALIAS, bindVariables);
                 whereClauseSegment.append(AND);
                 // Build this piece: pX.str_value = search-attribute-value
                 whereClauseSegment.append(PARAMETER_TABLE_ALIAS + DOT).append(STR_VALUE).append(operator)
@@ -905,14 +972,16 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         log.entering(CLASSNAME, METHODNAME, queryParm.toString());
 
         StringBuilder whereClauseSegment = new StringBuilder();
+        List<Object> bindVariables = new ArrayList<>();
 
         // Build this piece of the segment:
-        // (P1.PARAMETER_NAME_ID = x AND
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+        // (P1.PARAMETER_NAME_ID = ? AND
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
-        List<Timestamp> bindVariables = new ArrayList<>();
+        List<Timestamp> timestampBindVariables = new ArrayList<>();
         DateParmBehaviorUtil behaviorUtil = new DateParmBehaviorUtil();
-        behaviorUtil.executeBehavior(whereClauseSegment, queryParm, bindVariables, tableAlias);
+        behaviorUtil.executeBehavior(whereClauseSegment, queryParm, timestampBindVariables, tableAlias);
+        bindVariables.addAll(timestampBindVariables);
 
         SqlQueryData queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
         log.exiting(CLASSNAME, METHODNAME);
@@ -939,7 +1008,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         if (!QuerySegmentAggregator.ID.equals(code)) {
             // Build this piece of the segment:
             // (P1.PARAMETER_NAME_ID = x AND
-            this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+            this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
             whereClauseSegment.append(AND).append(LEFT_PAREN);
             for (QueryParameterValue value : queryParm.getValues()) {
@@ -949,19 +1018,12 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
                 }
 
                 whereClauseSegment.append(LEFT_PAREN);
-                // Include code
-                whereClauseSegment.append(tableAlias + DOT).append(TOKEN_VALUE).append(operator).append(BIND_VAR);
-                bindVariables.add(SqlParameterEncoder.encode(value.getValueCode()));
-
-                // Include system if present.
-                if (value.getValueSystem() != null && !value.getValueSystem().isEmpty()) {
-                    if (NE.equals(operator)) {
-                        whereClauseSegment.append(OR);
-                    } else {
-                        whereClauseSegment.append(AND);
-                    }
-                    whereClauseSegment.append(tableAlias + DOT).append(CODE_SYSTEM_ID).append(operator)
-                            .append(BIND_VAR);
+                String tokenValue = SqlParameterEncoder.encode(value.getValueCode());
+
+                // Look up the code system id if a system is present
+                codeSystemId = null;
+                boolean hasSystem = value.getValueSystem() != null && !value.getValueSystem().isEmpty();
+                if (hasSystem) {
                     codeSystemId = CodeSystemsCache.getCodeSystemId(value.getValueSystem());
                     if (codeSystemId == null) {
                         codeSystemId = this.parameterDao.readCodeSystemId(value.getValueSystem());
@@ -969,8 +1031,35 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
                             this.parameterDao.addCodeSystemsCacheCandidate(value.getValueSystem(), codeSystemId);
                         }
                     }
-                    // must be able to handle nulls
-                    bindVariables.add(codeSystemId);
+                }
+
+                if (hasSystem && (EQ.equals(operator) || NE.equals(operator))) {
+                    // The (system, code) pair identifies a single common token value, so compare the id directly:
+                    // P1.COMMON_TOKEN_VALUE_ID = ?
+                    Long commonTokenValueId = null;
+                    if (codeSystemId != null && tokenValue != null) {
+                        commonTokenValueId = getCommonTokenValueId(codeSystemId, tokenValue);
+                    }
+                    whereClauseSegment.append(tableAlias + DOT).append(COMMON_TOKEN_VALUE_ID).append(operator).append(BIND_VAR);
+                    // an unknown pair can't match any row
+                    bindVariables.add(commonTokenValueId != null ? commonTokenValueId : -1L);
+                } else {
+                    // Match on the token value (and system, if present) within the common token values:
+                    // P1.COMMON_TOKEN_VALUE_ID IN (SELECT COMMON_TOKEN_VALUE_ID FROM COMMON_TOKEN_VALUES WHERE TOKEN_VALUE = ?)
+                    // For :not, the complement of the equality match is used
+                    String subOperator = NE.equals(operator) ? EQ : operator;
+                    whereClauseSegment.append(tableAlias + DOT).append(COMMON_TOKEN_VALUE_ID)
+                            .append(NE.equals(operator) ? " NOT IN " : " IN ")
+                            .append("(SELECT ").append(COMMON_TOKEN_VALUE_ID)
+                            .append(" FROM ").append(COMMON_TOKEN_VALUES)
+                            .append(WHERE).append(TOKEN_VALUE).append(subOperator).append(BIND_VAR);
+                    bindVariables.add(tokenValue);
+                    if (hasSystem) {
+                        whereClauseSegment.append(AND).append(CODE_SYSTEM_ID).append(subOperator).append(BIND_VAR);
+                        // must be able to handle nulls
+                        bindVariables.add(codeSystemId);
+                    }
+                    whereClauseSegment.append(RIGHT_PAREN);
                 }
                 whereClauseSegment.append(RIGHT_PAREN);
                 parmValueProcessed = true;
@@ -984,6 +1073,25 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         return queryData;
     }
 
+    /**
+     * Read the id of the common token value for the passed code system id and token value,
+     * using the CommonTokenValuesCache where possible.
+     * @param codeSystemId
+     * @param tokenValue
+     * @return the common_token_value_id, or null if the pair is not known to the database
+     * @throws FHIRPersistenceException
+     */
+    private Long getCommonTokenValueId(int codeSystemId, String tokenValue) throws FHIRPersistenceException {
+        Long commonTokenValueId = CommonTokenValuesCache.getCommonTokenValueId(codeSystemId, tokenValue);
+        if (commonTokenValueId == null) {
+            commonTokenValueId = this.parameterDao.readCommonTokenValueId(codeSystemId, tokenValue);
+            if (commonTokenValueId != null) {
+                this.parameterDao.addCommonTokenValuesCacheCandidate(codeSystemId, tokenValue, commonTokenValueId);
+            }
+        }
+        return commonTokenValueId;
+    }
+
     @Override
     protected SqlQueryData processNumberParm(Class<?> resourceType, QueryParameter queryParm)
             throws FHIRPersistenceException {
@@ -1000,7 +1108,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x AND
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
         // Calls to the NumberParmBehaviorUtil which encapsulates the precision 
         // selection criteria. 
@@ -1027,7 +1135,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x AND
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
         // Calls to the QuantityParmBehaviorUtil which encapsulates the precision 
         // selection criteria. 
@@ -1085,7 +1193,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
         // Build this piece of the segment:
         // (P1.PARAMETER_NAME_ID = x AND
-        populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias);
+        populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), tableAlias, bindVariables);
 
         whereClauseSegment.append(AND).append(LEFT_PAREN);
 
@@ -1132,10 +1240,12 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         List<Object> bindVariables = new ArrayList<>();
 
         StringBuilder populateNameIdSubSegment = new StringBuilder();
-        this.populateNameIdSubSegment(populateNameIdSubSegment, parmName, PARAMETER_TABLE_ALIAS);
+        List<Object> nameIdBindVariables = new ArrayList<>();
+        this.populateNameIdSubSegment(populateNameIdSubSegment, parmName, PARAMETER_TABLE_ALIAS, nameIdBindVariables);
 
         LocationParmBehaviorUtil behaviorUtil = new LocationParmBehaviorUtil();
-        behaviorUtil.buildLocationSearchQuery(populateNameIdSubSegment.toString(), whereClauseSegment, bindVariables, boundingAreas);
+        behaviorUtil.buildLocationSearchQuery(populateNameIdSubSegment.toString(), nameIdBindVariables,
+                whereClauseSegment, bindVariables, boundingAreas);
 
         SqlQueryData queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
         log.exiting(CLASSNAME, METHODNAME, whereClauseSegment.toString());
@@ -1144,20 +1254,24 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
 
     /**
      * Populates the parameter name sub-segment of the passed where clause segment.
+     * The parameter name id is passed as a bind variable, so that the generated SQL
+     * is the same for every search of the same shape.
      * 
      * @param whereClauseSegment
      * @param queryParmName
+     * @param parameterTableAlias
+     * @param bindVariables the list to which the parameter name id is added
      * @throws FHIRPersistenceException
      */
     private void populateNameIdSubSegment(StringBuilder whereClauseSegment, String queryParmName,
-            String parameterTableAlias) throws FHIRPersistenceException {
+            String parameterTableAlias, List<Object> bindVariables) throws FHIRPersistenceException {
         final String METHODNAME = "populateNameIdSubSegment";
         log.entering(CLASSNAME, METHODNAME, queryParmName);
 
         Integer parameterNameId;
 
         // Build this piece of the segment:
-        // (P1.PARAMETER_NAME_ID = x
+        // (P1.PARAMETER_NAME_ID = ?
         parameterNameId = ParameterNamesCache.getParameterNameId(queryParmName);
         if (parameterNameId == null) {
             // only try to read, not create
@@ -1168,20 +1282,20 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
             }
         }
         whereClauseSegment.append(LEFT_PAREN);
-        whereClauseSegment.append(parameterTableAlias + DOT).append("PARAMETER_NAME_ID=")
-                .append(nullCheck(parameterNameId));
+        whereClauseSegment.append(parameterTableAlias + DOT).append("PARAMETER_NAME_ID=").append(BIND_VAR);
+        bindVariables.add(nullCheck(parameterNameId));
 
         log.exiting(CLASSNAME, METHODNAME);
     }
 
     /**
-     * Use -1 in place of a null literal, otherwise return the literal value
+     * Use -1 in place of a null parameter name id, which can't match any row
      * 
      * @param n
      * @return
      */
-    private String nullCheck(Integer n) {
-        return n == null ? "-1" : n.toString();
+    private Integer nullCheck(Integer n) {
+        return n == null ? -1 : n;
     }
 
     /**
@@ -1239,6 +1353,7 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         }
 
         StringBuilder whereClauseSegment = new StringBuilder();
+        List<Object> bindVariables = new ArrayList<>();
 
         String valuesTable = QuerySegmentAggregator.tableName(resourceType.getSimpleName(), queryParm);
 
@@ -1257,14 +1372,13 @@ public class JDBCQueryBuilder extends AbstractQueryBuilder<SqlQueryData> {
         // DISTINCT can impact performance, but because LOGICAL_RESOURCE_ID is always indexed, so the impact 
         // should be very limited.
         whereClauseSegment.append("(SELECT DISTINCT LOGICAL_RESOURCE_ID FROM " + valuesTable + WHERE);
-        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), valuesTable.toString());
+        this.populateNameIdSubSegment(whereClauseSegment, queryParm.getCode(), valuesTable.toString(), bindVariables);
         whereClauseSegment.append(RIGHT_PAREN).append(RIGHT_PAREN);
         whereClauseSegment.append(" TEMP ON TEMP.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID");
         if (missing == null || missing) {
             whereClauseSegment.append(" WHERE TEMP.LOGICAL_RESOURCE_ID is NULL ");
         }
 
-        List<Object> bindVariables = new ArrayList<>();
         SqlQueryData queryData = new SqlQueryData(whereClauseSegment.toString(), bindVariables);
         log.exiting(CLASSNAME, METHODNAME);
         return queryData;
@@ -0,0 +1,131 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A bounded, lock-free map of names to database ids, such as the parameter names, code systems or resource
+ * types of a single tenant/datastore.
+ * <br>
+ * Reads are a single ConcurrentHashMap lookup. When an insert takes the map over its maximum size, arbitrary
+ * entries other than the new one are evicted; evicted ids are simply read from the database again when next
+ * needed. Hits, misses and evictions are counted for monitoring.
+ */
+public class NameIdCache {
+    private final ConcurrentHashMap<String, Integer> map = new ConcurrentHashMap<>();
+
+    private volatile int maxSize;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    public NameIdCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * @param name
+     * @return the id of the passed name, or null if it is not cached
+     */
+    public Integer get(String name) {
+        Integer id = map.get(name);
+        if (id != null) {
+            hits.increment();
+        } else {
+            misses.increment();
+        }
+        return id;
+    }
+
+    /**
+     * Adds the passed name and id, unless the name is already cached.
+     * @param name
+     * @param id
+     * @return true if the entry was added
+     */
+    public boolean put(String name, Integer id) {
+        boolean added = map.putIfAbsent(name, id) == null;
+        if (added && map.size() > maxSize) {
+            evict(name);
+        }
+        return added;
+    }
+
+    /**
+     * Removes entries other than the passed one until the map is back within its maximum size.
+     */
+    private void evict(String keep) {
+        Iterator<String> it = map.keySet().iterator();
+        while (map.size() > maxSize && it.hasNext()) {
+            String name = it.next();
+            if (!name.equals(keep)) {
+                it.remove();
+                evictions.increment();
+            }
+        }
+    }
+
+    /**
+     * Sets the maximum number of entries, evicting entries if the map is already larger.
+     * @param newMaxSize
+     */
+    public void setMaxSize(int newMaxSize) {
+        this.maxSize = newMaxSize;
+        if (map.size() > newMaxSize) {
+            evict(null);
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    public long getEvictions() {
+        return evictions.sum();
+    }
+
+    /**
+     * @return a read-only view of the cached entries
+     */
+    public Map<String, Integer> asMap() {
+        return Collections.unmodifiableMap(map);
+    }
+
+    /**
+     * Removes all entries and resets the statistics.
+     */
+    public void clear() {
+        map.clear();
+        hits.reset();
+        misses.reset();
+        evictions.reset();
+    }
+
+    @Override
+    public String toString() {
+        return "entries=" + size() + "  maxSize=" + maxSize + "  hits=" + getHits() + "  misses=" + getMisses()
+                + "  evictions=" + getEvictions();
+    }
+}
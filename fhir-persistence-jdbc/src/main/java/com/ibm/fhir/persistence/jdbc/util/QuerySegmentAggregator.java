@@ -10,6 +10,8 @@ import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMBINED_RESULTS;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.DEFAULT_ORDERING;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.FROM;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.JOIN;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.KEYSET_ORDERING;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.KEYSET_PREDICATE;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.LEFT_PAREN;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.ON;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.PARAMETER_TABLE_ALIAS;
@@ -62,7 +64,7 @@ public class QuerySegmentAggregator {
     protected Class<?> resourceType;
 
     // Used for whole system search on multiple resource types.
-    private List<String> resourceTypes = null;
+    protected List<String> resourceTypes = null;
 
     /**
      * querySegments and searchQueryParameters are used as parallel arrays
@@ -84,6 +86,13 @@ public class QuerySegmentAggregator {
     protected ParameterDAO parameterDao;
     protected ResourceDAO resourceDao;
 
+    // used for keyset pagination; a null position indicates the first page of a keyset paginated search
+    protected boolean keysetPaging = false;
+    protected ContinuationToken keysetPosition = null;
+
+    // when set, one row more than the page size is fetched so the caller can tell whether there is a next page
+    protected boolean lookAhead = false;
+
     /**
      * Constructs a new QueryBuilderHelper
      * 
@@ -107,6 +116,29 @@ public class QuerySegmentAggregator {
         this.resourceTypes = resourceTypes;
     }
 
+    /**
+     * Switches the query built by this aggregator to keyset pagination. Instead of skipping the rows of the
+     * previous pages with an OFFSET, the query seeks directly to the rows after the passed position and
+     * fetches one row more than the page size, so the caller can tell whether there is a next page.
+     * 
+     * @param position - The position after which to resume, or null to retrieve the first page.
+     */
+    public void setKeysetPaging(ContinuationToken position) {
+        this.keysetPaging   = true;
+        this.keysetPosition = position;
+        this.lookAhead      = true;
+    }
+
+    /**
+     * Causes the query built by this aggregator to fetch one row more than the page size, so the caller can
+     * tell whether there is a next page without running a separate count query.
+     * 
+     * @param lookAhead - true to fetch the additional row.
+     */
+    public void setLookAhead(boolean lookAhead) {
+        this.lookAhead = lookAhead;
+    }
+
     /**
      * Adds a query segment, which is a where clause segment corresponding to the
      * passed query Parameter and its encapsulated search values.
@@ -152,19 +184,26 @@ public class QuerySegmentAggregator {
             StringBuilder queryString = new StringBuilder();
             queryString.append(SELECT_ROOT);
             buildFromClause(queryString, resourceType.getSimpleName());
-            buildWhereClause(queryString, null);
 
             // Bind Variables
             List<Object> allBindVariables = new ArrayList<>();
             allBindVariables.addAll(idsObjects);
             allBindVariables.addAll(lastUpdatedObjects);
+
+            // Seek past the last row of the previous page (part of the join condition on R)
+            if (this.keysetPosition != null) {
+                queryString.append(KEYSET_PREDICATE);
+                allBindVariables.add(this.keysetPosition.getLogicalResourceId());
+            }
+
+            buildWhereClause(queryString, null);
             for (SqlQueryData querySegment : this.querySegments) {
                 allBindVariables.addAll(querySegment.getBindVariables());
             }
 
             // Add default ordering
-            queryString.append(DEFAULT_ORDERING);
-            this.addPaginationClauses(queryString);
+            queryString.append(this.keysetPaging ? KEYSET_ORDERING : DEFAULT_ORDERING);
+            this.addPaginationClauses(queryString, allBindVariables);
             queryData = new SqlQueryData(queryString.toString(), allBindVariables);
         }
 
@@ -282,7 +321,7 @@ public class QuerySegmentAggregator {
         // Add Ordering and Pagination
         if (addFinalClauses) {
             queryString.append(DEFAULT_ORDERING);
-            this.addPaginationClauses(queryString);
+            this.addPaginationClauses(queryString, allBindVariables);
         }
 
         SqlQueryData queryData = new SqlQueryData(queryString.toString(), allBindVariables);
@@ -521,18 +560,53 @@ public class QuerySegmentAggregator {
     /**
      * Adds the appropriate pagination clauses to the passed query string buffer,
      * based on the type
-     * of database we're running against.
+     * of database we're running against, whether keyset pagination is in use and whether a look-ahead row is requested.
+     * The offset and row count are passed as bind variables, so that every page of a search shares the same SQL.
      * 
      * @param queryString A query string buffer.
+     * @param bindVariables The bind variables of the query, to which the offset and row count are added.
      * @throws Exception
      */
-    protected void addPaginationClauses(StringBuilder queryString) throws Exception {
+    protected void addPaginationClauses(StringBuilder queryString, List<Object> bindVariables) throws Exception {
+        addPaginationClauses(queryString, bindVariables, getPageOffset(), getPageRows());
+    }
 
+    /**
+     * Adds the pagination clauses for the passed offset and row count to the passed query string buffer,
+     * based on the type of database we're running against.
+     * 
+     * @param queryString A query string buffer.
+     * @param bindVariables The bind variables of the query, to which the offset and row count are added.
+     * @param offset The number of rows to skip.
+     * @param rows The maximum number of rows to return.
+     * @throws Exception
+     */
+    protected void addPaginationClauses(StringBuilder queryString, List<Object> bindVariables, int offset, int rows)
+            throws Exception {
         if (this.parameterDao.isDb2Database()) {
-            queryString.append(" LIMIT ").append(this.pageSize).append(" OFFSET ").append(this.offset);
+            queryString.append(" LIMIT ? OFFSET ?");
+            bindVariables.add(rows);
+            bindVariables.add(offset);
         } else {
-            queryString.append(" OFFSET ").append(this.offset).append(" ROWS")
-                    .append(" FETCH NEXT ").append(this.pageSize).append(" ROWS ONLY");
+            queryString.append(" OFFSET ? ROWS FETCH NEXT ? ROWS ONLY");
+            bindVariables.add(offset);
+            bindVariables.add(rows);
         }
     }
+
+    /**
+     * @return the number of rows skipped by the query, which is 0 when the keyset predicate already skips
+     *         the previous pages
+     */
+    protected int getPageOffset() {
+        return this.keysetPaging && this.keysetPosition != null ? 0 : this.offset;
+    }
+
+    /**
+     * @return the number of rows fetched by the query, including the look-ahead row if requested
+     */
+    protected int getPageRows() {
+        // The extra row indicates there is a next page
+        return this.lookAhead ? this.pageSize + 1 : this.pageSize;
+    }
 }
\ No newline at end of file
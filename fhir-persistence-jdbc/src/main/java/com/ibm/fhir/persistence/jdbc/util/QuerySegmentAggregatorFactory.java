@@ -1,5 +1,5 @@
 /*
- * (C) Copyright IBM Corp. 2018,2019
+ * (C) Copyright IBM Corp. 2018, 2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
@@ -31,13 +31,14 @@ public class QuerySegmentAggregatorFactory {
         
         QuerySegmentAggregator qsa;
         
-        if (searchContext.hasIncludeParameters() || searchContext.hasRevIncludeParameters()) {
-            qsa = new InclusionQuerySegmentAggregator(resourceType, offset, pageSize, parameterDao, resourceDao, 
-                                                      searchContext.getIncludeParameters(), searchContext.getRevIncludeParameters());
-        }
-        else if (searchContext.hasSortParameters()) {
+        // The resources of _include and _revinclude parameters are fetched separately, once the page of matched
+        // resources has been read (see InclusionResourceFetcher)
+        if (searchContext.hasSortParameters()) {
             qsa = new SortedQuerySegmentAggregator(resourceType, offset, pageSize, parameterDao, resourceDao, searchContext.getSortParameters());
         }
+        else if (IdLastUpdatedQuerySegmentAggregator.isSupported(resourceType, searchContext)) {
+            qsa = new IdLastUpdatedQuerySegmentAggregator(resourceType, offset, pageSize, parameterDao, resourceDao);
+        }
         else {
             qsa = new QuerySegmentAggregator(resourceType, offset, pageSize, parameterDao, resourceDao);
         }
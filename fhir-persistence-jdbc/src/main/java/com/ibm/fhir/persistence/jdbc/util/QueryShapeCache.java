@@ -0,0 +1,144 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * This class counts the distinct SQL texts of the generated search queries of each tenant/datastore.
+ * <br>
+ * The JDBCQueryBuilder passes every value of a search (parameter name ids, code system ids, search values,
+ * pagination offsets...) as a bind variable, so the SQL text of a generated query depends only on the
+ * structure of the search: the resource type, the parameters and modifiers used, the number of values of each
+ * parameter, the sort and inclusion parameters. The SQL text is therefore the normalized shape of the search,
+ * and searches with the same shape can reuse the prepared statement and access plan cached by the
+ * driver, the application server and the database.
+ * <br>
+ * The number of distinct shapes indicates how large the statement cache of the datasource needs to be. The shapes
+ * are recorded in a concurrent set per tenant/datastore, without locking; once a set holds the configured maximum
+ * number of shapes, new shapes are no longer recorded and the count is reported as a lower bound.
+ * <br>
+ * A query whose shape was recorded before is counted as a hit, and any other query as a miss, so the hit ratio
+ * approximates how often the statement cache can serve a search when it holds all the recorded shapes.
+ */
+public class QueryShapeCache {
+    private static final String CLASSNAME = QueryShapeCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_SIZE = 1000;
+
+    private static volatile int maxSize = DEFAULT_MAX_SIZE;
+
+    /**
+     * The distinct query shapes of each FHIR tenant/datastore combination, with their hit and miss counts.
+     */
+    private static final ConcurrentHashMap<String, Shapes> shapeSets = new ConcurrentHashMap<>();
+
+    /**
+     * The query shapes recorded for a tenant/datastore.
+     */
+    private static class Shapes {
+        private final Set<String> shapes = ConcurrentHashMap.newKeySet();
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+
+    /**
+     * Records the shape of a generated query for the current tenant-datastore.
+     * @param sql the SQL text of a generated query
+     */
+    public static void record(String sql) {
+        final int size = maxSize;
+        if (size <= 0 || sql == null) {
+            return;
+        }
+
+        String tenantDatastoreCacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+        Shapes shapes = shapeSets.computeIfAbsent(tenantDatastoreCacheName, k -> new Shapes());
+        if (shapes.shapes.contains(sql)) {
+            shapes.hits.increment();
+            return;
+        }
+
+        shapes.misses.increment();
+        if (shapes.shapes.size() < size && shapes.shapes.add(sql) && log.isLoggable(Level.FINE)) {
+            log.fine("record() - Added new query shape for tenantDatastore=" + tenantDatastoreCacheName + ", sql=" + sql);
+        }
+    }
+
+    /**
+     * @return the number of distinct query shapes recorded for the current tenant-datastore
+     */
+    public static int getShapeCount() {
+        Shapes shapes = shapeSets.get(CodeSystemsCache.getCacheNameForTenantDatastore());
+        return shapes != null ? shapes.shapes.size() : 0;
+    }
+
+    /**
+     * @return the number of queries of the current tenant-datastore whose shape was recorded before
+     */
+    public static long getHitCount() {
+        Shapes shapes = shapeSets.get(CodeSystemsCache.getCacheNameForTenantDatastore());
+        return shapes != null ? shapes.hits.sum() : 0;
+    }
+
+    /**
+     * @return the number of queries of the current tenant-datastore whose shape was not recorded before
+     */
+    public static long getMissCount() {
+        Shapes shapes = shapeSets.get(CodeSystemsCache.getCacheNameForTenantDatastore());
+        return shapes != null ? shapes.misses.sum() : 0;
+    }
+
+    /**
+     *
+     * @return String - A formatted representation of the number of shapes recorded for each tenant-datastore,
+     *         with the hit and miss counts.
+     */
+    public static String dumpCacheContents() {
+        StringBuilder dump = new StringBuilder(CacheUtil.NEWLINE).append("Cache name: QueryShapeCache")
+            .append(CacheUtil.NEWLINE);
+        for (Map.Entry<String, Shapes> entry : shapeSets.entrySet()) {
+            Shapes shapes = entry.getValue();
+            int size = shapes.shapes.size();
+            long hits = shapes.hits.sum();
+            long misses = shapes.misses.sum();
+            dump.append("   Tenant-Datastore: ").append(entry.getKey())
+                .append("  shapes=").append(size).append(size >= maxSize ? "+" : "")
+                .append("  hits=").append(hits)
+                .append("  misses=").append(misses)
+                .append("  hitRatio=").append(hits + misses > 0 ? String.format(Locale.ROOT, "%.3f", (double) hits / (hits + misses)) : "n/a")
+                .append(CacheUtil.NEWLINE);
+        }
+        return dump.toString();
+    }
+
+    /**
+     * Removes all recorded shapes and their hit and miss counts.
+     */
+    public static void clear() {
+        shapeSets.clear();
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of shapes recorded for each tenant/datastore. A value of 0 disables the counting.
+     * @param newMaxSize
+     */
+    public static void setMaxSize(int newMaxSize) {
+        maxSize = newMaxSize;
+    }
+}
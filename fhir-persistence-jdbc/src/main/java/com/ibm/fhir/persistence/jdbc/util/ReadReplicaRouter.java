@@ -0,0 +1,145 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.config.FHIRConfigHelper;
+import com.ibm.fhir.config.FHIRConfiguration;
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.config.PropertyGroup;
+import com.ibm.fhir.config.PropertyGroup.PropertyEntry;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+
+/**
+ * This class decides whether the reads of the current request (search, history and vread) may be routed to the
+ * read replica of the current tenant/datastore.
+ * <br>
+ * A read replica is another datastore of the tenant, pointing to a read-only copy of the primary database, and is
+ * configured in the tenant's fhir-server-config with the datasource of the primary datastore:
+ * <pre>
+ * "datasources": {
+ *     "default": {
+ *         ...
+ *         "readReplica": {
+ *             "datastoreId": "default-replica",
+ *             "minSecondsSinceLocalWrite": 5
+ *         }
+ *     },
+ *     "default-replica": {
+ *         ...
+ *     }
+ * }
+ * </pre>
+ * Reads are only routed to the replica when the persistence context allows it (a plain search, history or vread
+ * interaction in its own transaction, see {@link FHIRPersistenceContext#isReadReplicaAllowed()}), and the
+ * request has not written to the primary datastore.
+ * <br>
+ * The replication lag of the replica is not measured. Instead, each write made through this server is recorded
+ * per tenant/datastore, and reads are only routed to the replica when this server has not written to the datastore
+ * for at least minSecondsSinceLocalWrite, which should be set above the worst-case replication lag. Writes made
+ * through other servers are not seen, and a datastore which this server writes to more often than that is always
+ * read from the primary.
+ */
+public class ReadReplicaRouter {
+    private static final String CLASSNAME = ReadReplicaRouter.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MIN_SECONDS_SINCE_LOCAL_WRITE = 5;
+
+    private static final String READ_REPLICA_DATASTORE_ID = "/readReplica/datastoreId";
+    private static final String READ_REPLICA_MIN_SECONDS_SINCE_LOCAL_WRITE = "/readReplica/minSecondsSinceLocalWrite";
+
+    /**
+     * The time (in milliseconds) of the last write made through this server to each FHIR tenant/datastore combination.
+     */
+    private static final Map<String, Long> lastLocalWriteTimes = new ConcurrentHashMap<>();
+
+    private ReadReplicaRouter() {
+        // No Operation
+    }
+
+    /**
+     * Returns the datastore id of the read replica configured for the datastore of the current request,
+     * or null if none is configured.
+     * @return
+     */
+    public static String getReplicaDatastoreId() {
+        String dsId = FHIRRequestContext.get().getDataStoreId();
+        return FHIRConfigHelper.getStringProperty(FHIRConfiguration.PROPERTY_DATASOURCES + "/" + dsId
+                + READ_REPLICA_DATASTORE_ID, null);
+    }
+
+    /**
+     * Returns the ids of the datastores of the current tenant which are configured as the read replica of another
+     * datastore. Background jobs which write to, or load the caches of, each datastore must skip these.
+     * @return
+     * @throws Exception
+     */
+    public static Set<String> getReplicaDatastoreIds() throws Exception {
+        Set<String> replicaDsIds = new HashSet<>();
+        PropertyGroup pg = FHIRConfigHelper.getPropertyGroup(FHIRConfiguration.PROPERTY_DATASOURCES);
+        if (pg != null) {
+            for (PropertyEntry entry : pg.getProperties()) {
+                String replicaDsId = FHIRConfigHelper.getStringProperty(FHIRConfiguration.PROPERTY_DATASOURCES + "/" + entry.getName()
+                        + READ_REPLICA_DATASTORE_ID, null);
+                if (replicaDsId != null) {
+                    replicaDsIds.add(replicaDsId);
+                }
+            }
+        }
+        return replicaDsIds;
+    }
+
+    /**
+     * Returns the datastore id of the read replica to which the reads of the current request may be routed,
+     * or null if they must be served by the primary datastore.
+     * @param context the persistence context of the current interaction
+     * @param writePerformed whether the current transaction has written to the primary datastore
+     * @return
+     */
+    public static String selectReplicaDatastoreId(FHIRPersistenceContext context, boolean writePerformed) {
+        if (context == null || !context.isReadReplicaAllowed() || writePerformed) {
+            return null;
+        }
+        String replicaDsId = getReplicaDatastoreId();
+        if (replicaDsId != null) {
+            String dsId = FHIRRequestContext.get().getDataStoreId();
+            long minMillisSinceLocalWrite = FHIRConfigHelper.getIntProperty(FHIRConfiguration.PROPERTY_DATASOURCES + "/" + dsId
+                    + READ_REPLICA_MIN_SECONDS_SINCE_LOCAL_WRITE, DEFAULT_MIN_SECONDS_SINCE_LOCAL_WRITE) * 1000L;
+            Long lastLocalWriteTime = lastLocalWriteTimes.get(CodeSystemsCache.getCacheNameForTenantDatastore());
+            if (lastLocalWriteTime != null && System.currentTimeMillis() - lastLocalWriteTime < minMillisSinceLocalWrite) {
+                if (log.isLoggable(Level.FINE)) {
+                    log.fine("Datastore '" + dsId + "' was written to within the last " + minMillisSinceLocalWrite
+                            + "ms; not routing the read to replica '" + replicaDsId + "'");
+                }
+                replicaDsId = null;
+            }
+        }
+        return replicaDsId;
+    }
+
+    /**
+     * Records a write to the current tenant/datastore. This must be called when the write is made, and again
+     * when it is committed.
+     */
+    public static void recordWrite() {
+        lastLocalWriteTimes.put(CodeSystemsCache.getCacheNameForTenantDatastore(), System.currentTimeMillis());
+    }
+
+    /**
+     * Forgets the writes recorded so far.
+     */
+    public static void clear() {
+        lastLocalWriteTimes.clear();
+    }
+}
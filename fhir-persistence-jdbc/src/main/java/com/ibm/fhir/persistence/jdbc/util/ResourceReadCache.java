@@ -0,0 +1,277 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.model.resource.Resource;
+
+/**
+ * This class provides a static cache of parsed FHIR resources, so that reading hot resources (for example, the
+ * Patient and Practitioner resources referenced by many others) does not cost a database round trip and
+ * the decompression and parsing of the stored payload.
+ * <br>
+ * Each tenant/datastore has its own least-recently-used map, bounded to a configurable maximum size.
+ * Two kinds of entries are held:
+ * <ul>
+ * <li>Type/id/_history/version - a specific version of a resource, as returned by a vread.
+ * <li>Type/id - the current version of a resource, as returned by a read.
+ * </ul>
+ * Resource instances are immutable, so cached instances are shared between requests. Versions are never
+ * changed once committed, but the current version changes on every update or delete, so the
+ * persistence layer must call {@link #invalidate(String, String, String, Integer)} whenever it writes a resource.
+ * <br>
+ * To avoid caching a version which was superseded while it was being read, callers capture the
+ * {@link #getGeneration(String) generation} of the cache before reading from the database and pass it to
+ * {@link #put(String, Resource, boolean, long)}; the entry is only added if no invalidation happened in between.
+ */
+public class ResourceReadCache {
+    private static final String CLASSNAME = ResourceReadCache.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    private static final String HISTORY = "/_history/";
+
+    private static boolean enabled = false;
+
+    private static int maxSize = DEFAULT_MAX_SIZE;
+
+    private static final AtomicLong hits = new AtomicLong();
+    private static final AtomicLong misses = new AtomicLong();
+
+    /**
+     * The following is a map of resource maps. Each FHIR tenant/datastore combination will have its own
+     * bounded mapping of resource key to parsed resource.
+     */
+    private static ConcurrentHashMap<String,TenantResourceMap> resourceMaps = new ConcurrentHashMap<>();
+
+    /**
+     * A bounded, access-ordered map of the resources of a single tenant/datastore.
+     */
+    private static class TenantResourceMap extends LinkedHashMap<String, Resource> {
+        private static final long serialVersionUID = 1L;
+
+        // Incremented on every invalidation, so that concurrent readers don't cache superseded versions
+        private long generation = 0;
+
+        TenantResourceMap() {
+            super(16, 0.75f, true);
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Resource> eldest) {
+            return size() > maxSize;
+        }
+    }
+
+    /**
+     * Builds the cache key for the current version of a resource
+     */
+    public static String makeKey(String resourceType, String logicalId) {
+        return resourceType + "/" + logicalId;
+    }
+
+    /**
+     * Builds the cache key for a specific version of a resource
+     */
+    public static String makeKey(String resourceType, String logicalId, int versionId) {
+        return resourceType + "/" + logicalId + HISTORY + versionId;
+    }
+
+    /**
+     * Retrieves the current version of the passed resource for the current tenant-datastore.
+     * If not found, null is returned.
+     * @param resourceType The resource type name
+     * @param logicalId The logical id of the resource
+     * @return Resource the cached resource
+     */
+    public static Resource getLatest(String resourceType, String logicalId) {
+        return get(makeKey(resourceType, logicalId));
+    }
+
+    /**
+     * Retrieves the passed version of the passed resource for the current tenant-datastore.
+     * If not found, null is returned.
+     * @param resourceType The resource type name
+     * @param logicalId The logical id of the resource
+     * @param versionId The version of the resource
+     * @return Resource the cached resource
+     */
+    public static Resource getVersion(String resourceType, String logicalId, int versionId) {
+        return get(makeKey(resourceType, logicalId, versionId));
+    }
+
+    private static Resource get(String key) {
+        Resource resource = null;
+        if (enabled) {
+            TenantResourceMap currentDsMap = resourceMaps.get(CodeSystemsCache.getCacheNameForTenantDatastore());
+            if (currentDsMap != null) {
+                synchronized (currentDsMap) {
+                    resource = currentDsMap.get(key);
+                }
+            }
+            if (resource != null) {
+                hits.incrementAndGet();
+            } else {
+                misses.incrementAndGet();
+            }
+        }
+        return resource;
+    }
+
+    /**
+     * Returns the current generation of the passed tenant-datastore cache. The generation must be captured
+     * before the resource is read from the database and passed to {@link #put(String, Resource, boolean, long)}.
+     * @param tenantDatastoreCacheName
+     * @return
+     */
+    public static long getGeneration(String tenantDatastoreCacheName) {
+        TenantResourceMap currentDsMap = getMap(tenantDatastoreCacheName);
+        synchronized (currentDsMap) {
+            return currentDsMap.generation;
+        }
+    }
+
+    /**
+     * Adds the passed resource to the passed tenant-datastore cache, keyed by its version. If latest is true, the
+     * resource is also cached as the current version of the resource.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to.
+     * @param resource The resource, with its id and meta.versionId set
+     * @param latest whether the resource was read as the current version of the resource
+     * @param generation the generation of the cache at the time the resource was read from the database
+     */
+    public static void put(String tenantDatastoreCacheName, Resource resource, boolean latest, long generation) {
+        if (enabled && resource != null && resource.getId() != null
+                && resource.getMeta() != null && resource.getMeta().getVersionId() != null) {
+            String resourceType = resource.getClass().getSimpleName();
+            String logicalId = resource.getId();
+            int versionId = Integer.parseInt(resource.getMeta().getVersionId().getValue());
+
+            TenantResourceMap currentDsMap = getMap(tenantDatastoreCacheName);
+            synchronized (currentDsMap) {
+                if (currentDsMap.generation != generation) {
+                    // The resource may have been superseded while it was being read
+                    return;
+                }
+                currentDsMap.put(makeKey(resourceType, logicalId, versionId), resource);
+                if (latest) {
+                    currentDsMap.put(makeKey(resourceType, logicalId), resource);
+                }
+            }
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("put() - Added new cache entry, key=" + makeKey(resourceType, logicalId, versionId)
+                    + "  latest=" + latest + "  tenantDatastoreCacheName=" + tenantDatastoreCacheName);
+            }
+        }
+    }
+
+    /**
+     * Removes the current version of the passed resource from the passed tenant-datastore cache, along with the passed
+     * version (which may have been read before the transaction writing it was rolled back).
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache
+     * @param resourceType The resource type name
+     * @param logicalId The logical id of the resource
+     * @param versionId The version being written, or null if not known
+     */
+    public static void invalidate(String tenantDatastoreCacheName, String resourceType, String logicalId, Integer versionId) {
+        if (enabled) {
+            TenantResourceMap currentDsMap = resourceMaps.get(tenantDatastoreCacheName);
+            if (currentDsMap != null) {
+                synchronized (currentDsMap) {
+                    currentDsMap.generation++;
+                    currentDsMap.remove(makeKey(resourceType, logicalId));
+                    if (versionId != null) {
+                        currentDsMap.remove(makeKey(resourceType, logicalId, versionId));
+                    }
+                }
+            }
+        }
+    }
+
+    private static TenantResourceMap getMap(String tenantDatastoreCacheName) {
+        TenantResourceMap currentDsMap = resourceMaps.get(tenantDatastoreCacheName);
+        if (currentDsMap == null) {
+            currentDsMap = resourceMaps.putIfAbsent(tenantDatastoreCacheName, new TenantResourceMap());
+            if (currentDsMap == null) {
+                log.fine("getMap() - Added new cache map for tenantDatastore=" + tenantDatastoreCacheName);
+                currentDsMap = resourceMaps.get(tenantDatastoreCacheName);
+            }
+        }
+        return currentDsMap;
+    }
+
+    /**
+     * @return the number of lookups which found a cached resource since the cache was last enabled
+     */
+    public static long getHits() {
+        return hits.get();
+    }
+
+    /**
+     * @return the number of lookups which did not find a cached resource since the cache was last enabled
+     */
+    public static long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     *
+     * @return String - A formatted representation of the size of each map managed by this class, and the hit/miss counts.
+     */
+    public static String dumpCacheContents() {
+        StringBuilder dump = new StringBuilder(CacheUtil.NEWLINE).append("Cache name: ResourceReadCache")
+            .append("  hits=").append(hits.get())
+            .append("  misses=").append(misses.get())
+            .append(CacheUtil.NEWLINE);
+        for (Map.Entry<String, TenantResourceMap> entry : resourceMaps.entrySet()) {
+            int size;
+            synchronized (entry.getValue()) {
+                size = entry.getValue().size();
+            }
+            dump.append("   Tenant-Datastore: ").append(entry.getKey())
+                .append("  entries=").append(size)
+                .append(CacheUtil.NEWLINE);
+        }
+        return dump.toString();
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    public static void setEnabled(boolean newEnabled) {
+        if (newEnabled != enabled) {
+            synchronized(ResourceReadCache.class) {
+                enabled = newEnabled;
+                // When enabling the cache, clear out any old stuff.
+                if (newEnabled) {
+                    resourceMaps.clear();
+                    hits.set(0);
+                    misses.set(0);
+                }
+            }
+        }
+    }
+
+    public static int getMaxSize() {
+        return maxSize;
+    }
+
+    /**
+     * Sets the maximum number of entries held for each tenant/datastore
+     * @param newMaxSize
+     */
+    public static void setMaxSize(int newMaxSize) {
+        maxSize = newMaxSize;
+    }
+}
@@ -0,0 +1,68 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import com.ibm.fhir.persistence.interceptor.FHIRPersistenceEvent;
+import com.ibm.fhir.persistence.interceptor.FHIRPersistenceInterceptor;
+import com.ibm.fhir.persistence.interceptor.FHIRPersistenceInterceptorException;
+import com.ibm.fhir.persistence.interceptor.impl.FHIRPersistenceInterceptorMgr;
+
+/**
+ * A persistence interceptor which removes created, updated and deleted resources from the ResourceReadCache,
+ * so that the cache is invalidated for every write made through the REST layer, including writes made by a
+ * persistence implementation other than the one which populated the cache.
+ */
+public class ResourceReadCacheInterceptor implements FHIRPersistenceInterceptor {
+    private static final AtomicBoolean registered = new AtomicBoolean(false);
+
+    /**
+     * Registers an instance of this interceptor with the FHIRPersistenceInterceptorMgr, if not already registered.
+     */
+    public static void register() {
+        if (registered.compareAndSet(false, true)) {
+            FHIRPersistenceInterceptorMgr.getInstance().addPrioritizedInterceptor(new ResourceReadCacheInterceptor());
+        }
+    }
+
+    @Override
+    public void afterCreate(FHIRPersistenceEvent event) throws FHIRPersistenceInterceptorException {
+        invalidate(event);
+    }
+
+    @Override
+    public void afterUpdate(FHIRPersistenceEvent event) throws FHIRPersistenceInterceptorException {
+        invalidate(event);
+    }
+
+    @Override
+    public void afterPatch(FHIRPersistenceEvent event) throws FHIRPersistenceInterceptorException {
+        invalidate(event);
+    }
+
+    @Override
+    public void afterDelete(FHIRPersistenceEvent event) throws FHIRPersistenceInterceptorException {
+        invalidate(event);
+    }
+
+    private void invalidate(FHIRPersistenceEvent event) {
+        String resourceType = event.getFhirResourceType();
+        String logicalId = event.getFhirResourceId();
+        if (ResourceReadCache.isEnabled() && resourceType != null && logicalId != null) {
+            Integer versionId = null;
+            try {
+                if (event.getFhirVersionId() != null) {
+                    versionId = Integer.valueOf(event.getFhirVersionId());
+                }
+            } catch (NumberFormatException e) {
+                // not one of our versions; just invalidate the current version
+            }
+            ResourceReadCache.invalidate(CodeSystemsCache.getCacheNameForTenantDatastore(), resourceType, logicalId, versionId);
+        }
+    }
+}
@@ -0,0 +1,57 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Logger;
+
+import javax.transaction.Synchronization;
+
+/**
+ * This synchronization removes the resources written by a transaction from the ResourceReadCache once the
+ * transaction completes. The resources are also invalidated when they are written, but a read within the same
+ * transaction (or a concurrent read of the uncommitted row) may have cached a version which is then rolled back,
+ * so they are invalidated again regardless of the completion status.
+ */
+public class ResourceReadCacheInvalidator implements Synchronization {
+    private static final String CLASSNAME = ResourceReadCacheInvalidator.class.getName();
+    private static final Logger log = Logger.getLogger(CLASSNAME);
+
+    private final String tenantDatastoreCacheName;
+
+    // The written resources, as {resourceType, logicalId, versionId}
+    private final List<Object[]> writtenResources = new ArrayList<>();
+
+    public ResourceReadCacheInvalidator(String tenantDatastoreCacheName) {
+        this.tenantDatastoreCacheName = tenantDatastoreCacheName;
+    }
+
+    /**
+     * Records a resource version written by the current transaction
+     */
+    public void add(String resourceType, String logicalId, int versionId) {
+        this.writtenResources.add(new Object[] {resourceType, logicalId, versionId});
+    }
+
+    @Override
+    public void beforeCompletion() {
+    }
+
+    @Override
+    public void afterCompletion(int completionStatus) {
+        final String METHODNAME = "afterCompletion";
+        log.entering(CLASSNAME, METHODNAME);
+
+        for (Object[] written : this.writtenResources) {
+            ResourceReadCache.invalidate(this.tenantDatastoreCacheName, (String) written[0], (String) written[1], (Integer) written[2]);
+        }
+        this.writtenResources.clear();
+
+        log.exiting(CLASSNAME, METHODNAME);
+    }
+}
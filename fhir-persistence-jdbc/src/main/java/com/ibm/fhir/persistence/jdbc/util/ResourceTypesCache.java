@@ -1,5 +1,5 @@
 /*
- * (C) Copyright IBM Corp. 2017,2019
+ * (C) Copyright IBM Corp. 2017,2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
@@ -7,138 +7,109 @@
 package com.ibm.fhir.persistence.jdbc.util;
 
 import java.util.Map;
-import java.util.concurrent.ConcurrentHashMap;
+import java.util.TreeMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
-import com.ibm.fhir.config.FHIRRequestContext;
 import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDBConnectException;
 import com.ibm.fhir.persistence.jdbc.exception.FHIRPersistenceDataAccessException;
 
 /**
  * This class provides a static cache for FHIR Resource type names.
+ * The entries of each FHIR tenant/datastore combination are held by its {@link DatastoreCache}.
  */
 public class ResourceTypesCache {
-    private static final String CLASSNAME = ResourceTypesCache.class.getName(); 
+    private static final String CLASSNAME = ResourceTypesCache.class.getName();
     private static final Logger log = Logger.getLogger(CLASSNAME);
-    
+
     private static boolean enabled = true;
 
     /**
-     * The following is a map of resource type maps. Each FHIR tenant/datastore combination will have its own
-     * mapping of resource-type to resource-type-id.
-     */
-    private static ConcurrentHashMap<String,ConcurrentHashMap<String,Integer>> resourceTypeIdMaps = new ConcurrentHashMap<>();
-    
-    /**
-     * Retrieves the id for the name contained in the passed resource type, for the current tenant-datastore. 
+     * Retrieves the id for the passed resource type name, for the current tenant-datastore.
      * If not found, null is returned.
-     * @param resourceType A valid FHIR search parameter name.
-     * @return Integer The id corresponding to the parameter name.
+     * @param resourceType A valid resource type name.
+     * @return Integer The id corresponding to the passed resource type name
      */
     public static Integer getResourceTypeId(String resourceType) {
-        
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
-        ConcurrentHashMap<String,Integer> currentDsMap;
         Integer resourceTypeId = null;
-        
+
         if (enabled) {
-            currentDsMap = resourceTypeIdMaps.putIfAbsent(tenantDatstoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("getResourceTypeId() - Added new cache map for tennantDatastore=" + tenantDatstoreCacheName);
-            }
-            currentDsMap = resourceTypeIdMaps.get(tenantDatstoreCacheName);
-            resourceTypeId = currentDsMap.get(resourceType);
+            resourceTypeId = DatastoreCache.current().getResourceTypes().get(resourceType);
         }
-        
         return resourceTypeId;
     }
-    
-    /**
-     * Returns a String containing a combination of the current tenantId and datastoreId.
-     * @return
-     */
-    public static String getCacheNameForTenantDatastore() {
-        
-        StringBuilder cacheName = new StringBuilder();
-        cacheName.append(FHIRRequestContext.get().getTenantId())
-                 .append("~")
-                 .append(FHIRRequestContext.get().getDataStoreId());
-        return cacheName.toString();
-    }
 
     /**
-     * Adds the passed resource type name and id to the current tenant-datastore cache.
-     *  
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
+     * Adds the passed resource type name and id to the passed tenant-datastore cache.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to.
      * @param resourceType A valid resource type name.
      * @param resourceTypeId The id associated with the passed resource type name.
      */
     public static void putResourceTypeId(String tenantDatastoreCacheName, String resourceType, Integer resourceTypeId) {
-
-        ConcurrentHashMap<String,Integer> currentDsMap;
-        Integer tempValue;
-        
-        if (enabled) {
-            currentDsMap = resourceTypeIdMaps.putIfAbsent(tenantDatastoreCacheName, new ConcurrentHashMap<String,Integer>());
-            if (currentDsMap == null) {
-                log.fine("putResourceTypeId() - Added new cache map for tennantDatastore=" + tenantDatastoreCacheName);
-            }
-            currentDsMap = resourceTypeIdMaps.get(tenantDatastoreCacheName);
-            tempValue = currentDsMap.putIfAbsent(resourceType, resourceTypeId);
-            if (tempValue == null) {
-                log.fine("putResourceTypeId() - Added new cache entry, key=" + resourceType + "  value=" + resourceTypeId + "  tenantDatastoreCacheName=" + tenantDatastoreCacheName);
-            }
+        if (enabled && DatastoreCache.forName(tenantDatastoreCacheName).getResourceTypes().put(resourceType, resourceTypeId)
+                && log.isLoggable(Level.FINE)) {
+            log.fine("putResourceTypeId() - Added new cache entry, key=" + resourceType + "  value=" + resourceTypeId + "  tenantDatastoreCacheName=" + tenantDatastoreCacheName);
         }
     }
-    
+
     /**
-     * Adds the passed resource type name/id pairs to the the current tenant-datastore cache.
-     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entry should be added to. 
+     * Adds the passed resource type name/id pairs to the passed tenant-datastore cache.
+     * @param tenantDatastoreCacheName The name of the datastore-specific cache the entries should be added to.
      * @param newResourceTypes A Map containing resource type name/id pairs.
      */
     public static void putResourceTypeIds(String tenantDatastoreCacheName, Map<String, Integer> newResourceTypes) {
-        
+
         if (enabled) {
             for (Map.Entry<String, Integer> entry : newResourceTypes.entrySet()) {
-                putResourceTypeId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
+                 putResourceTypeId(tenantDatastoreCacheName, entry.getKey(), entry.getValue());
             }
         }
     }
-    
+
     /**
-     * 
-     * @return A formatted representation of the entire cache managed by this class.
+     * Returns a String containing a combination of the current tenantId and datastoreId.
+     * @return
+     */
+    public static String getCacheNameForTenantDatastore() {
+        return DatastoreCache.current().getName();
+    }
+
+    /**
+     *
+     * @return String - A formatted representation of the entire cache managed by this class.
      */
     public static String dumpCacheContents() {
-        
-        return CacheUtil.dumpCacheContents("ResourceTypesCache", resourceTypeIdMaps);
+
+        Map<String, Map<String, Integer>> mapOfMaps = new TreeMap<>();
+        for (DatastoreCache cache : DatastoreCache.getCaches().values()) {
+            mapOfMaps.put(cache.getName(), cache.getResourceTypes().asMap());
+        }
+        return CacheUtil.dumpCacheContents("ResourceTypesCache", mapOfMaps);
     }
-    
+
     /**
-     * Determines and reports any discrepancies between the current thread's Resource Type cache and the contents of the database RESOURCE_TYPES table.
+     * Determines and reports any discrepancies between the current thread's Resource Types cache and the contents of the database RESOURCE_TYPES table.
      * @param dao A Resource DAO instance
-     * @return A report detailing cache/db discrepancies.
+     * @return String - A report detailing cache/db discrepancies.
      */
     public static String reportCacheDiscrepancies(ResourceDAO dao) {
-        
-        String tenantDatstoreCacheName = getCacheNameForTenantDatastore();
+
+        Map<String, Integer> cachedMap = DatastoreCache.current().getResourceTypes().asMap();
         Map<String, Integer> dbMap;
-        ConcurrentHashMap<String,Integer> cachedMap = resourceTypeIdMaps.get(tenantDatstoreCacheName);
         String discrepancies = "";
-        
+
         if (enabled) {
             try {
                 dbMap = dao.readAllResourceTypeNames();
                 discrepancies = CacheUtil.reportCacheDiscrepancies("ResourceTypesCache", cachedMap, dbMap);
-            } 
+            }
             catch (FHIRPersistenceDBConnectException | FHIRPersistenceDataAccessException e) {
-                log.log(Level.SEVERE, "Failure obtaining  all resource type names." , e);
+                log.log(Level.SEVERE, "Failure obtaining all resource type names." , e);
                 discrepancies = CacheUtil.NEWLINE + "Could not report on ResourceTypes cache discrepancies." + CacheUtil.NEWLINE;
             }
         }
-        
+
         return discrepancies;
     }
 
@@ -146,8 +117,18 @@ public class ResourceTypesCache {
         return enabled;
     }
 
-    public static void setEnabled(boolean enabled) {
-        ResourceTypesCache.enabled = enabled;
-    }
+    public static void setEnabled(boolean newEnabled) {
 
+        if (newEnabled != enabled) {
+            synchronized(ResourceTypesCache.class) {
+                enabled = newEnabled;
+                // When enabling the cache, clear out any old stuff.
+                if (newEnabled) {
+                    for (DatastoreCache cache : DatastoreCache.getCaches().values()) {
+                        cache.getResourceTypes().clear();
+                    }
+                }
+            }
+        }
+    }
 }
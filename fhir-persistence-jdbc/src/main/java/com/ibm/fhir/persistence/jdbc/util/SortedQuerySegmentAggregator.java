@@ -8,6 +8,7 @@ package com.ibm.fhir.persistence.jdbc.util;
 
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.AND;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.ASCENDING;
+import static com.ibm.fhir.persistence.jdbc.JDBCConstants.BIND_VAR;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.CODE_SYSTEM_ID;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMMA;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.COMMA_CHAR;
@@ -35,6 +36,7 @@ import com.ibm.fhir.persistence.exception.FHIRPersistenceNotSupportedException;
 import com.ibm.fhir.persistence.jdbc.dao.api.ParameterDAO;
 import com.ibm.fhir.persistence.jdbc.dao.api.ResourceDAO;
 import com.ibm.fhir.persistence.jdbc.util.type.LastUpdatedParmBehaviorUtil;
+import com.ibm.fhir.search.SearchConstants.Type;
 import com.ibm.fhir.search.parameters.SortParameter;
 import com.ibm.fhir.search.sort.Sort;
 
@@ -48,6 +50,7 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
     private static final Logger log = java.util.logging.Logger.getLogger(CLASSNAME);
 
     public static final String GROUP_BY = " GROUP BY R.RESOURCE_ID ";
+    public static final String KEYSET_GROUP_BY = " GROUP BY R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID ";
     private static final String SORT_PARAMETER_ALIAS = "S";
 
     private List<SortParameter> sortParameters;
@@ -78,14 +81,25 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
      * SELECT R.RESOURCE_ID,MIN(S1.STR_VALUE) FROM Patient_RESOURCES R 
      *   JOIN Patient_LOGICAL_RESOURCES LR ON R.LOGICAL_RESOURCE_ID=LR.LOGICAL_RESOURCE_ID
      *   JOIN Patient_TOKEN_VALUES P1 ON P1.RESOURCE_ID=R.RESOURCE_ID  
-     *   LEFT OUTER JOIN Patient_STR_VALUES S1 ON (S1.PARAMETER_NAME_ID=50 AND S1.RESOURCE_ID = R.RESOURCE_ID)
+     *   LEFT OUTER JOIN Patient_STR_VALUES S1 ON (S1.PARAMETER_NAME_ID=? AND S1.RESOURCE_ID = R.RESOURCE_ID)
      *   WHERE R.RESOURCE_ID = LR.CURRENT_RESOURCE_ID AND 
      *         R.IS_DELETED <> 'Y' AND 
      *         P1.RESOURCE_ID = R.RESOURCE_ID AND 
-     *         (P1.PARAMETER_NAME_ID=196 AND ((P1.TOKEN_VALUE = false))) 
+     *         (P1.PARAMETER_NAME_ID=? AND ((P1.TOKEN_VALUE = ?))) 
      * GROUP BY R.RESOURCE_ID  
      * ORDER BY MIN(S1.STR_VALUE) asc NULLS LAST 
-     * OFFSET 0 ROWS FETCH NEXT 100 ROWS ONLY;
+     * OFFSET ? ROWS FETCH NEXT ? ROWS ONLY;
+     * </pre>
+     * <p>
+     * When keyset pagination is in use, the LOGICAL_RESOURCE_ID is selected and used as a tie-breaker,
+     * and the rows of the previous pages are skipped with a HAVING clause rather than an OFFSET:
+     * 
+     * <pre>
+     * SELECT R.RESOURCE_ID,MIN(S1.STR_VALUE), R.LOGICAL_RESOURCE_ID FROM ...
+     * GROUP BY R.RESOURCE_ID, R.LOGICAL_RESOURCE_ID
+     * HAVING (MIN(S1.STR_VALUE) > ? OR (MIN(S1.STR_VALUE) = ? AND R.LOGICAL_RESOURCE_ID > ?) OR MIN(S1.STR_VALUE) IS NULL)
+     * ORDER BY MIN(S1.STR_VALUE) asc NULLS LAST, R.LOGICAL_RESOURCE_ID ASC
+     * OFFSET ? ROWS FETCH NEXT ? ROWS ONLY;
      * </pre>
      * 
      * @return SqlQueryData - contains the complete SQL query string and any
@@ -109,11 +123,12 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
             queryData =
                     this.buildSystemLevelQuery(SYSTEM_LEVEL_SELECT_ROOT, SYSTEM_LEVEL_SUBSELECT_ROOT, false);
             StringBuilder sysLvlQueryString = new StringBuilder(queryData.getQueryString());
+            List<Object> allBindVariables = new ArrayList<>(queryData.getBindVariables());
             // Add in order-by clause.
             sysLvlQueryString.append(this.buildSysLvlOrderByClause());
             // Add pagination clauses.
-            this.addPaginationClauses(sysLvlQueryString);
-            queryData = new SqlQueryData(sysLvlQueryString.toString(), queryData.getBindVariables());
+            this.addPaginationClauses(sysLvlQueryString, allBindVariables);
+            queryData = new SqlQueryData(sysLvlQueryString.toString(), allBindVariables);
         } else {
             StringBuilder sqlSortQuery = new StringBuilder();
             // Build SELECT clause
@@ -122,29 +137,39 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
             // Build FROM clause
             buildFromClause(sqlSortQuery, resourceType.getSimpleName());
 
-            // Gather up all bind variables from the query segments
+            // Gather up the bind variables in the order they appear in the query
             // An important step here is to add _id and _lastUpdated
             List<Object> allBindVariables = new ArrayList<>();
             allBindVariables.addAll(idsObjects);
             allBindVariables.addAll(lastUpdatedObjects);
-            for (SqlQueryData querySegment : this.querySegments) {
-                allBindVariables.addAll(querySegment.getBindVariables());
-            }
 
             // Build LEFT OUTER JOIN clause
-            sqlSortQuery.append(this.buildSortJoinClause());
+            sqlSortQuery.append(this.buildSortJoinClause(allBindVariables));
 
-            // Build the WHERE clause
+            // Build the WHERE clause, then add the bind variables of the query segments
             buildWhereClause(sqlSortQuery, null);
+            for (SqlQueryData querySegment : this.querySegments) {
+                allBindVariables.addAll(querySegment.getBindVariables());
+            }
 
             // Build GROUP BY clause
-            sqlSortQuery.append(GROUP_BY);
+            if (this.keysetPaging) {
+                sqlSortQuery.append(KEYSET_GROUP_BY);
+                if (this.keysetPosition != null) {
+                    sqlSortQuery.append(this.buildKeysetHavingClause(allBindVariables));
+                }
+            } else {
+                sqlSortQuery.append(GROUP_BY);
+            }
 
             // Build ORDER BY clause
             sqlSortQuery.append(this.buildOrderByClause());
+            if (this.keysetPaging) {
+                sqlSortQuery.append(COMMA).append("R.LOGICAL_RESOURCE_ID ").append(ASCENDING);
+            }
 
             // Add in clauses to support pagination
-            this.addPaginationClauses(sqlSortQuery);
+            this.addPaginationClauses(sqlSortQuery, allBindVariables);
 
             queryData = new SqlQueryData(sqlSortQuery.toString(), allBindVariables);
         }
@@ -175,12 +200,54 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
             selectBuffer.append(COMMA_CHAR);
             selectBuffer.append(this.buildAggregateExpression(this.sortParameters.get(i), i + 1, false));
         }
+        if (this.keysetPaging) {
+            selectBuffer.append(COMMA).append("R.LOGICAL_RESOURCE_ID");
+        }
         selectBuffer.append(SPACE);
 
         log.exiting(CLASSNAME, METHODNAME);
         return selectBuffer.toString();
     }
 
+    /**
+     * Builds the HAVING clause which skips the rows up to and including the keyset position,
+     * consistent with the ORDER BY clause (NULLS LAST, then LOGICAL_RESOURCE_ID ascending).
+     * Keyset pagination is only used with a single sort parameter which maps to a single value column.
+     * 
+     * @param bindVariables the list to which the bind variables of the clause are added
+     * @throws FHIRPersistenceException
+     */
+    private String buildKeysetHavingClause(List<Object> bindVariables) throws FHIRPersistenceException {
+        final String METHODNAME = "buildKeysetHavingClause";
+        log.entering(CLASSNAME, METHODNAME);
+
+        SortParameter sortParm = this.sortParameters.get(0);
+        String aggregate = this.buildAggregateExpression(sortParm, 1, false);
+        Object sortValue = this.keysetPosition.getSortValue();
+        long logicalResourceId = this.keysetPosition.getLogicalResourceId();
+
+        StringBuilder havingBuffer = new StringBuilder(" HAVING ").append(LEFT_PAREN);
+        if (sortValue == null) {
+            // We're already into the resources without a sort value
+            havingBuffer.append(aggregate).append(" IS NULL")
+                    .append(AND).append("R.LOGICAL_RESOURCE_ID > ?");
+            bindVariables.add(logicalResourceId);
+        } else {
+            String comparison = Sort.Direction.INCREASING.equals(sortParm.getDirection()) ? " > ?" : " < ?";
+            havingBuffer.append(aggregate).append(comparison)
+                    .append(" OR ").append(LEFT_PAREN).append(aggregate).append(" = ?")
+                    .append(AND).append("R.LOGICAL_RESOURCE_ID > ?").append(RIGHT_PAREN)
+                    .append(" OR ").append(aggregate).append(" IS NULL");
+            bindVariables.add(sortValue);
+            bindVariables.add(sortValue);
+            bindVariables.add(logicalResourceId);
+        }
+        havingBuffer.append(RIGHT_PAREN).append(SPACE);
+
+        log.exiting(CLASSNAME, METHODNAME);
+        return havingBuffer.toString();
+    }
+
     /**
      * Builds the required MIN or MAX aggregate expressions for the passed sort
      * parameter.
@@ -283,12 +350,13 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
      * Builds the LEFT OUTER JOIN clauses necessary to return sorted Resource ids.
      * For example:
      * JOIN r.parameters p1
-     * LEFT OUTER JOIN Patient_STR_VALUES S1 ON (S1.PARAMETER_NAME_ID=50 AND
+     * LEFT OUTER JOIN Patient_STR_VALUES S1 ON (S1.PARAMETER_NAME_ID=? AND
      * S1.LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID)
      * 
+     * @param bindVariables the list to which the sort parameter name ids are added
      * @throws FHIRPersistenceException
      */
-    private String buildSortJoinClause() throws FHIRPersistenceException {
+    private String buildSortJoinClause(List<Object> bindVariables) throws FHIRPersistenceException {
         final String METHODNAME = "buildSortJoinClause";
         log.entering(CLASSNAME, METHODNAME);
 
@@ -309,18 +377,19 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
                 }
             }
 
-            // Note...the PARAMETER_NAME_ID=xxx is provided as a literal because this helps
-            // the query optimizer significantly with index range scan cardinality estimation
+            // The PARAMETER_NAME_ID is passed as a bind variable so that the same SQL is generated
+            // for every search sorted by the same parameters, and the statement can be reused
             joinBuffer.append(" LEFT OUTER JOIN ").append(this.getSortParameterTableName(sortParm)).append(SPACE)
                     .append(SORT_PARAMETER_ALIAS).append(sortParmIndex)
                     .append(ON)
                     .append(LEFT_PAREN)
                     .append(SORT_PARAMETER_ALIAS).append(sortParmIndex).append(".PARAMETER_NAME_ID=")
-                    .append(sortParameterNameId)
+                    .append(BIND_VAR)
                     .append(AND)
                     .append(SORT_PARAMETER_ALIAS).append(sortParmIndex)
                     .append(".LOGICAL_RESOURCE_ID = R.LOGICAL_RESOURCE_ID")
                     .append(RIGHT_PAREN).append(SPACE);
+            bindVariables.add(sortParameterNameId);
 
             sortParmIndex++;
         }
@@ -342,6 +411,15 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
         log.entering(CLASSNAME, METHODNAME);
 
         StringBuilder sortParameterTableName = new StringBuilder();
+        if (sortParm.getType() == Type.TOKEN) {
+            // Token values are normalized into COMMON_TOKEN_VALUES, so join them back in to expose
+            // the CODE_SYSTEM_ID and TOKEN_VALUE columns used for sorting
+            sortParameterTableName.append("(SELECT T.PARAMETER_NAME_ID, T.LOGICAL_RESOURCE_ID, C.CODE_SYSTEM_ID, C.TOKEN_VALUE FROM ")
+                .append(this.resourceType.getSimpleName()).append("_TOKEN_VALUES T")
+                .append(" JOIN COMMON_TOKEN_VALUES C ON C.COMMON_TOKEN_VALUE_ID = T.COMMON_TOKEN_VALUE_ID)");
+            log.exiting(CLASSNAME, METHODNAME);
+            return sortParameterTableName.toString();
+        }
         sortParameterTableName.append(this.resourceType.getSimpleName()).append("_");
 
         switch (sortParm.getType()) {
@@ -353,9 +431,6 @@ public class SortedQuerySegmentAggregator extends QuerySegmentAggregator {
         case DATE:
             sortParameterTableName.append("DATE_VALUES");
             break;
-        case TOKEN:
-            sortParameterTableName.append("TOKEN_VALUES");
-            break;
         case NUMBER:
             sortParameterTableName.append("NUMBER_VALUES");
             break;
@@ -19,6 +19,7 @@ import static com.ibm.fhir.persistence.jdbc.JDBCConstants.PARAMETER_TABLE_ALIAS;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.RIGHT_PAREN;
 import static com.ibm.fhir.persistence.jdbc.JDBCConstants.SPACE;
 
+import java.util.Collections;
 import java.util.List;
 import java.util.stream.Collectors;
 
@@ -47,6 +48,23 @@ public class LocationParmBehaviorUtil {
      */
     public void buildLocationSearchQuery(String populateNameIdSubSegment, StringBuilder whereClauseSegment,
             List<Object> bindVariables, List<Bounding> boundingAreas) {
+        buildLocationSearchQuery(populateNameIdSubSegment, Collections.emptyList(), whereClauseSegment, bindVariables,
+                boundingAreas);
+    }
+
+    /**
+     * build location search query based on the bounding areas, where the parameter name sub-segment
+     * contains bind variables of its own. These are added to the bind variables each time the
+     * sub-segment is added to the query.
+     * 
+     * @param populateNameIdSubSegment
+     * @param nameIdBindVariables
+     * @param whereClauseSegment
+     * @param bindVariables
+     * @param boundingAreas
+     */
+    public void buildLocationSearchQuery(String populateNameIdSubSegment, List<Object> nameIdBindVariables,
+            StringBuilder whereClauseSegment, List<Object> bindVariables, List<Bounding> boundingAreas) {
         int instance = 0;
 
         boolean first = true;
@@ -66,6 +84,7 @@ public class LocationParmBehaviorUtil {
                 // (P1.PARAMETER_NAME_ID = x AND (
                 whereClauseSegment
                         .append(populateNameIdSubSegment).append(AND).append(SPACE);
+                bindVariables.addAll(nameIdBindVariables);
                 instance++;
                 first = true;
             }
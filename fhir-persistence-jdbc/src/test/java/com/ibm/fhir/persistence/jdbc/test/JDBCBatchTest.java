@@ -0,0 +1,204 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import javax.transaction.Status;
+import javax.transaction.SystemException;
+import javax.transaction.UserTransaction;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Basic;
+import com.ibm.fhir.model.test.TestUtil;
+import com.ibm.fhir.model.type.Identifier;
+import com.ibm.fhir.persistence.FHIRPersistence;
+import com.ibm.fhir.persistence.SingleResourceResult;
+import com.ibm.fhir.persistence.exception.FHIRPersistenceBatchRolledBackException;
+import com.ibm.fhir.persistence.jdbc.impl.FHIRPersistenceJDBCImpl;
+import com.ibm.fhir.persistence.jdbc.test.util.DerbyInitializer;
+import com.ibm.fhir.persistence.test.common.AbstractBatchTest;
+
+/**
+ * Concrete subclass for batch create/update tests run against the JDBC schema.
+ */
+public class JDBCBatchTest extends AbstractBatchTest {
+
+    private Properties testProps;
+
+    private DerbyInitializer derbyInit;
+
+    public JDBCBatchTest() throws Exception {
+        this.testProps = TestUtil.readTestProperties("test.jdbc.properties");
+    }
+
+    @Override
+    public void bootstrapDatabase() throws Exception {
+        String dbDriverName = this.testProps.getProperty("dbDriverName");
+        if (dbDriverName != null && dbDriverName.contains("derby")) {
+            derbyInit = new DerbyInitializer(this.testProps);
+            derbyInit.bootstrapDb(false);
+        }
+    }
+
+    @Override
+    public FHIRPersistence getPersistenceImpl() throws Exception {
+        return new FHIRPersistenceJDBCImpl(this.testProps);
+    }
+
+    /**
+     * Tests that a batch stored in a global transaction, whose connection doesn't allow a savepoint, is stored
+     * one resource at a time, so that a resource which fails doesn't fail the others.
+     */
+    @Test
+    public void testBatchInGlobalTransaction() throws Exception {
+        if (derbyInit == null) {
+            throw new SkipException("Uses a connection to the Derby test database");
+        }
+        // the rows written by the other tests must not lock the rows written by the global transaction
+        persistence.getTransaction().commit();
+        persistence.getTransaction().begin();
+
+        Connection connection = derbyInit.getConnection();
+        connection.setSchema(this.testProps.getProperty("schemaName"));
+        FHIRPersistenceJDBCImpl globalPersistence = new GlobalTransactionPersistence(this.testProps, connection);
+        globalPersistence.begin();
+        try {
+            Basic basic = TestUtil.readExampleResource("json/ibm/minimal/Basic-1.json");
+            Basic valid = basic.toBuilder().id(UUID.randomUUID().toString()).build();
+
+            // the identifier value is longer than the token values column
+            char[] chars = new char[2000];
+            Arrays.fill(chars, 'x');
+            Basic invalid = basic.toBuilder()
+                    .id(UUID.randomUUID().toString())
+                    .identifier(Identifier.builder().value(com.ibm.fhir.model.type.String.of(new String(chars))).build())
+                    .build();
+
+            List<SingleResourceResult<Basic>> results =
+                    globalPersistence.updateBatch(getDefaultPersistenceContext(), Arrays.asList(valid, invalid));
+            assertEquals(results.size(), 2);
+            assertTrue(results.get(0).isSuccess());
+            assertFalse(results.get(1).isSuccess());
+            assertNotNull(results.get(1).getOutcome());
+
+            Basic read = globalPersistence.read(getDefaultPersistenceContext(), Basic.class, valid.getId()).getResource();
+            assertNotNull(read);
+            assertEquals(read.getMeta().getVersionId().getValue(), "1");
+        } finally {
+            globalPersistence.rollback();
+        }
+    }
+
+    /**
+     * Tests that a batch which fails after part of it was written is rolled back, so that its resources can
+     * be written again in the same transaction.
+     */
+    @Test
+    public void testFailedBatchIsRolledBack() throws Exception {
+        Basic basic = TestUtil.readExampleResource("json/ibm/minimal/Basic-1.json");
+        Basic created = persistence.createBatch(getDefaultPersistenceContext(), Collections.singletonList(basic))
+                .get(0).getResource();
+
+        // the identifier value is longer than the token values column
+        char[] chars = new char[2000];
+        Arrays.fill(chars, 'x');
+        Basic invalid = basic.toBuilder()
+                .id(created.getId() + "-invalid")
+                .identifier(Identifier.builder().value(com.ibm.fhir.model.type.String.of(new String(chars))).build())
+                .build();
+        try {
+            persistence.updateBatch(getDefaultPersistenceContext(), Arrays.asList(created, invalid));
+            fail("the batch should have failed");
+        } catch (FHIRPersistenceBatchRolledBackException e) {
+            // expected
+        }
+
+        Basic read = persistence.read(getDefaultPersistenceContext(), Basic.class, created.getId()).getResource();
+        assertEquals(read.getMeta().getVersionId().getValue(), "1");
+
+        Basic updated = persistence.update(getDefaultPersistenceContext(), created.getId(), created).getResource();
+        assertEquals(updated.getMeta().getVersionId().getValue(), "2");
+    }
+
+    /**
+     * A persistence instance enrolled in a global transaction, as in the server: its connection doesn't allow
+     * a savepoint, and the transaction is ended through the UserTransaction.
+     */
+    private static class GlobalTransactionPersistence extends FHIRPersistenceJDBCImpl {
+
+        public GlobalTransactionPersistence(Properties configProps, Connection connection) throws Exception {
+            super(configProps);
+            this.sharedConnection = (Connection) Proxy.newProxyInstance(JDBCBatchTest.class.getClassLoader(),
+                    new Class<?>[] { Connection.class }, (proxy, method, args) -> {
+                        if ("setSavepoint".equals(method.getName())) {
+                            throw new SQLException("A savepoint is not allowed in a global transaction");
+                        }
+                        try {
+                            return method.invoke(connection, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    });
+            this.userTransaction = new UserTransaction() {
+                @Override
+                public void begin() {
+                    // the connection is not in auto-commit mode
+                }
+
+                @Override
+                public void commit() throws SystemException {
+                    try {
+                        connection.commit();
+                    } catch (SQLException e) {
+                        throw new SystemException(e.getMessage());
+                    }
+                }
+
+                @Override
+                public void rollback() throws SystemException {
+                    try {
+                        connection.rollback();
+                    } catch (SQLException e) {
+                        throw new SystemException(e.getMessage());
+                    }
+                }
+
+                @Override
+                public void setRollbackOnly() {
+                    // not used by the test
+                }
+
+                @Override
+                public int getStatus() {
+                    return Status.STATUS_ACTIVE;
+                }
+
+                @Override
+                public void setTransactionTimeout(int seconds) {
+                    // not used by the test
+                }
+            };
+        }
+    }
+}
@@ -8,10 +8,13 @@ package com.ibm.fhir.persistence.jdbc.test;
 
 import java.util.Properties;
 
+import org.testng.annotations.AfterClass;
+
 import com.ibm.fhir.model.test.TestUtil;
 import com.ibm.fhir.persistence.FHIRPersistence;
 import com.ibm.fhir.persistence.jdbc.impl.FHIRPersistenceJDBCImpl;
 import com.ibm.fhir.persistence.jdbc.test.util.DerbyInitializer;
+import com.ibm.fhir.persistence.jdbc.util.InclusionResourceFetcher;
 import com.ibm.fhir.persistence.test.common.AbstractIncludeRevincludeTest;
 
 public class JDBCIncludeRevincludeTest extends AbstractIncludeRevincludeTest {
@@ -19,6 +22,13 @@ public class JDBCIncludeRevincludeTest extends AbstractIncludeRevincludeTest {
 
     public JDBCIncludeRevincludeTest() throws Exception {
         this.testProps = TestUtil.readTestProperties("test.jdbc.properties");
+        // Use a small batch size, so that the included resources are fetched in several batches
+        InclusionResourceFetcher.setBatchSize(1);
+    }
+
+    @AfterClass
+    public void resetInclusionBatchSize() {
+        InclusionResourceFetcher.setBatchSize(InclusionResourceFetcher.DEFAULT_BATCH_SIZE);
     }
 
     @Override
@@ -1,5 +1,5 @@
 /*
- * (C) Copyright IBM Corp. 2017,2019
+ * (C) Copyright IBM Corp. 2017,2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
@@ -21,6 +21,7 @@ public class JDBCPagingTest extends AbstractPagingTest {
     
     public JDBCPagingTest() throws Exception {
         this.testProps = TestUtil.readTestProperties("test.jdbc.properties");
+        this.testProps.setProperty("enableKeysetPagination", "true");
     }
 
     @Override
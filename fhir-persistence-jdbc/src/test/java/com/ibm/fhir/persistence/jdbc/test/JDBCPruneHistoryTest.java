@@ -0,0 +1,88 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test;
+
+import static com.ibm.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+
+import java.util.Properties;
+
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Substance;
+import com.ibm.fhir.model.test.TestUtil;
+import com.ibm.fhir.model.type.CodeableConcept;
+import com.ibm.fhir.persistence.FHIRPersistence;
+import com.ibm.fhir.persistence.jdbc.impl.FHIRPersistenceJDBCImpl;
+import com.ibm.fhir.persistence.jdbc.test.util.DerbyInitializer;
+import com.ibm.fhir.persistence.jdbc.util.ResourceReadCache;
+import com.ibm.fhir.persistence.test.common.AbstractPruneHistoryTest;
+
+/**
+ * Concrete subclass for the history pruning tests run against the JDBC schema.
+ */
+public class JDBCPruneHistoryTest extends AbstractPruneHistoryTest {
+    
+    private Properties testProps;
+    
+    public JDBCPruneHistoryTest() throws Exception {
+        this.testProps = TestUtil.readTestProperties("test.jdbc.properties");
+    }
+
+    @Override
+    public void bootstrapDatabase() throws Exception {
+        DerbyInitializer derbyInit;
+        String dbDriverName = this.testProps.getProperty("dbDriverName");
+        if (dbDriverName != null && dbDriverName.contains("derby")) {
+            derbyInit = new DerbyInitializer(this.testProps);
+            derbyInit.bootstrapDb(false);
+        }
+    }
+    
+    @Override
+    public FHIRPersistence getPersistenceImpl() throws Exception {
+        return new FHIRPersistenceJDBCImpl(this.testProps);
+    }
+
+    /**
+     * Tests that a pruned version which was cached by a vread is no longer returned.
+     */
+    @Test(dependsOnMethods = { "testPruneKeepSince" })
+    public void testPrunedVersionIsNotCached() throws Exception {
+        ResourceReadCache.setEnabled(true);
+        try {
+            // written and read through other persistence instances, as the resources written by an instance are never cached
+            FHIRPersistence writer = getPersistenceImpl();
+            Substance substance = Substance.builder()
+                    .code(CodeableConcept.builder().text(string("prune-history-cached-v1")).build())
+                    .build();
+            Substance created = writer.create(getDefaultPersistenceContext(), substance).getResource();
+            writer.update(getDefaultPersistenceContext(), created.getId(), created.toBuilder()
+                    .code(CodeableConcept.builder().text(string("prune-history-cached-v2")).build())
+                    .build());
+
+            FHIRPersistence reader = getPersistenceImpl();
+            assertNotNull(reader.vread(getDefaultPersistenceContext(), Substance.class, created.getId(), "1").getResource());
+            assertEquals(ResourceReadCache.getVersion("Substance", created.getId(), 1), reader.vread(getDefaultPersistenceContext(),
+                    Substance.class, created.getId(), "1").getResource());
+
+            int deleted;
+            do {
+                deleted = persistence.pruneHistory(getDefaultPersistenceContext(), Substance.class, 1, null, 100);
+            } while (deleted > 0);
+            persistence.getTransaction().commit();
+            persistence.getTransaction().begin();
+
+            assertNull(ResourceReadCache.getVersion("Substance", created.getId(), 1));
+            assertNull(reader.vread(getDefaultPersistenceContext(), Substance.class, created.getId(), "1").getResource());
+        } finally {
+            ResourceReadCache.setEnabled(false);
+        }
+    }
+}
@@ -0,0 +1,143 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test;
+
+import static com.ibm.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import org.testng.SkipException;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Device;
+import com.ibm.fhir.model.test.TestUtil;
+import com.ibm.fhir.model.type.code.FHIRDeviceStatus;
+import com.ibm.fhir.persistence.FHIRPersistence;
+import com.ibm.fhir.persistence.jdbc.impl.FHIRPersistenceJDBCImpl;
+import com.ibm.fhir.persistence.jdbc.test.util.DerbyInitializer;
+import com.ibm.fhir.persistence.test.common.AbstractUpdateTest;
+
+/**
+ * Concrete subclass for update tests run against the JDBC schema.
+ */
+public class JDBCUpdateTest extends AbstractUpdateTest {
+
+    private Properties testProps;
+
+    private DerbyInitializer derbyInit;
+
+    public JDBCUpdateTest() throws Exception {
+        this.testProps = TestUtil.readTestProperties("test.jdbc.properties");
+    }
+
+    @Override
+    public void bootstrapDatabase() throws Exception {
+        String dbDriverName = this.testProps.getProperty("dbDriverName");
+        if (dbDriverName != null && dbDriverName.contains("derby")) {
+            derbyInit = new DerbyInitializer(this.testProps);
+            derbyInit.bootstrapDb(false);
+        }
+    }
+
+    @Override
+    public FHIRPersistence getPersistenceImpl() throws Exception {
+        return new FHIRPersistenceJDBCImpl(this.testProps);
+    }
+
+    /**
+     * Tests that an update keeps the stored rows of the unchanged parameters, and only replaces
+     * the rows of the parameter whose value changed.
+     */
+    @Test
+    public void testUpdateKeepsUnchangedRows() throws Exception {
+        if (derbyInit == null) {
+            throw new SkipException("Reads the parameter tables of the Derby test database");
+        }
+        String suffix = UUID.randomUUID().toString();
+        Device device = Device.builder()
+                .manufacturer(string("rows-test-manufacturer-" + suffix))
+                .modelNumber(string("rows-test-model-A-" + suffix))
+                .status(FHIRDeviceStatus.ACTIVE)
+                .build();
+        device = persistence.create(getDefaultPersistenceContext(), device).getResource();
+        assertNotNull(device.getId());
+        commitAndBegin();
+
+        Map<String, Set<Long>> strRows = readRowIds("Device_str_values", device.getId());
+        Map<String, Set<Long>> tokenRows = readRowIds("Device_token_values", device.getId());
+        assertEquals(strRows.get("model").size(), 1);
+        assertEquals(strRows.get("manufacturer").size(), 1);
+        assertEquals(tokenRows.get("status").size(), 1);
+
+        device = device.toBuilder()
+                .modelNumber(string("rows-test-model-B-" + suffix))
+                .build();
+        persistence.update(getDefaultPersistenceContext(), device.getId(), device);
+        commitAndBegin();
+
+        Map<String, Set<Long>> newStrRows = readRowIds("Device_str_values", device.getId());
+        Map<String, Set<Long>> newTokenRows = readRowIds("Device_token_values", device.getId());
+
+        // the changed parameter is deleted and inserted again
+        assertEquals(newStrRows.get("model").size(), 1);
+        assertFalse(newStrRows.get("model").equals(strRows.get("model")));
+
+        // the other rows are left alone
+        assertEquals(newStrRows.keySet(), strRows.keySet());
+        assertEquals(newTokenRows, tokenRows);
+        for (String parameterName : strRows.keySet()) {
+            if (!"model".equals(parameterName)) {
+                assertEquals(newStrRows.get(parameterName), strRows.get(parameterName), parameterName);
+            }
+        }
+    }
+
+    /**
+     * Commit the current transaction, so that its rows can be read from another connection, and begin
+     * the next one
+     */
+    private void commitAndBegin() throws Exception {
+        persistence.getTransaction().commit();
+        persistence.getTransaction().begin();
+    }
+
+    /**
+     * Read the row_id of each row stored in the given parameter table for the given device
+     * @param table
+     * @param logicalId
+     * @return the row ids, by parameter name
+     */
+    private Map<String, Set<Long>> readRowIds(String table, String logicalId) throws Exception {
+        final String schemaName = this.testProps.getProperty("schemaName");
+        final String sql = "SELECT pn.parameter_name, v.row_id"
+                + " FROM " + schemaName + "." + table + " v"
+                + " JOIN " + schemaName + ".parameter_names pn ON pn.parameter_name_id = v.parameter_name_id"
+                + " JOIN " + schemaName + ".Device_logical_resources lr ON lr.logical_resource_id = v.logical_resource_id"
+                + " WHERE lr.logical_id = ?";
+        Map<String, Set<Long>> result = new HashMap<>();
+        try (Connection c = derbyInit.getConnection(); PreparedStatement stmt = c.prepareStatement(sql)) {
+            stmt.setString(1, logicalId);
+            ResultSet rs = stmt.executeQuery();
+            while (rs.next()) {
+                result.computeIfAbsent(rs.getString(1), k -> new HashSet<>()).add(rs.getLong(2));
+            }
+            c.commit();
+        }
+        return result;
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
+import com.ibm.fhir.persistence.jdbc.util.CommonTokenValuesCache;
+
+/**
+ * Tests the CommonTokenValuesCache
+ */
+public class CommonTokenValuesCacheTest {
+    private String cacheName;
+
+    @BeforeMethod
+    public void setUp() {
+        CommonTokenValuesCache.setMaxSize(CommonTokenValuesCache.DEFAULT_MAX_SIZE);
+        cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+    }
+
+    @AfterMethod
+    public void tearDown() {
+        CommonTokenValuesCache.setMaxSize(CommonTokenValuesCache.DEFAULT_MAX_SIZE);
+    }
+
+    /**
+     * Tests that a full cache evicts the least recently used entry to make room for a new one.
+     */
+    @Test
+    public void testEviction() {
+        CommonTokenValuesCache.setMaxSize(2);
+        CommonTokenValuesCache.putCommonTokenValueId(cacheName, CommonTokenValuesCache.makeKey(1, "a"), 10L);
+        CommonTokenValuesCache.putCommonTokenValueId(cacheName, CommonTokenValuesCache.makeKey(1, "b"), 11L);
+        assertEquals(CommonTokenValuesCache.getCommonTokenValueId(1, "a"), Long.valueOf(10L));
+
+        CommonTokenValuesCache.putCommonTokenValueId(cacheName, CommonTokenValuesCache.makeKey(1, "c"), 12L);
+        assertEquals(CommonTokenValuesCache.getCommonTokenValueId(1, "a"), Long.valueOf(10L));
+        assertNull(CommonTokenValuesCache.getCommonTokenValueId(1, "b"));
+        assertEquals(CommonTokenValuesCache.getCommonTokenValueId(1, "c"), Long.valueOf(12L));
+    }
+
+    /**
+     * Tests that nothing is cached when the maximum size is 0.
+     */
+    @Test
+    public void testZeroMaxSize() {
+        CommonTokenValuesCache.setMaxSize(0);
+        CommonTokenValuesCache.putCommonTokenValueId(cacheName, CommonTokenValuesCache.makeKey(1, "a"), 10L);
+        assertNull(CommonTokenValuesCache.getCommonTokenValueId(1, "a"));
+    }
+}
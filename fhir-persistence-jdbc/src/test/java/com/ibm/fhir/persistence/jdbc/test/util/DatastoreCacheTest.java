@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
+import com.ibm.fhir.persistence.jdbc.util.DatastoreCache;
+import com.ibm.fhir.persistence.jdbc.util.NameIdCache;
+import com.ibm.fhir.persistence.jdbc.util.ParameterNamesCache;
+
+/**
+ * Tests the DatastoreCache and NameIdCache
+ */
+public class DatastoreCacheTest {
+
+    @AfterMethod
+    public void resetTenant() throws Exception {
+        FHIRRequestContext.get().setTenantId("default");
+    }
+
+    /**
+     * Tests the statistics of a NameIdCache.
+     */
+    @Test
+    public void testStatistics() {
+        NameIdCache cache = new NameIdCache(10);
+        assertTrue(cache.put("a", 1));
+        assertFalse(cache.put("a", 2));
+
+        assertEquals(cache.get("a"), Integer.valueOf(1));
+        assertEquals(cache.get("a"), Integer.valueOf(1));
+        assertNull(cache.get("b"));
+
+        assertEquals(cache.getHits(), 2);
+        assertEquals(cache.getMisses(), 1);
+        assertEquals(cache.getEvictions(), 0);
+    }
+
+    /**
+     * Tests that a NameIdCache evicts entries to stay within its maximum size, keeping the newest entry.
+     */
+    @Test
+    public void testEviction() {
+        NameIdCache cache = new NameIdCache(5);
+        for (int i = 0; i < 20; i++) {
+            cache.put("name" + i, i);
+            assertEquals(cache.get("name" + i), Integer.valueOf(i));
+            assertTrue(cache.size() <= 5);
+        }
+        assertEquals(cache.getEvictions(), 15);
+
+        cache.setMaxSize(2);
+        assertEquals(cache.size(), 2);
+        assertEquals(cache.getEvictions(), 18);
+    }
+
+    /**
+     * Tests that each tenant has its own cache, found both from the request context and by name.
+     */
+    @Test
+    public void testTenantCaches() throws Exception {
+        FHIRRequestContext.get().setTenantId("cacheTenant1");
+        DatastoreCache cache1 = DatastoreCache.current();
+        assertEquals(cache1.getName(), "cacheTenant1~default");
+        assertSame(DatastoreCache.current(), cache1);
+        assertSame(DatastoreCache.forName("cacheTenant1~default"), cache1);
+
+        FHIRRequestContext.get().setTenantId("cacheTenant2");
+        DatastoreCache cache2 = DatastoreCache.current();
+        assertNotSame(cache2, cache1);
+        assertEquals(CodeSystemsCache.getCacheNameForTenantDatastore(), "cacheTenant2~default");
+
+        // entries added by name are found by the requests of that tenant only
+        ParameterNamesCache.putParameterNameId("cacheTenant1~default", "test-param", 42);
+        assertNull(ParameterNamesCache.getParameterNameId("test-param"));
+        FHIRRequestContext.get().setTenantId("cacheTenant1");
+        assertEquals(ParameterNamesCache.getParameterNameId("test-param"), Integer.valueOf(42));
+        assertEquals(cache1.getParameterNames().getHits(), 1);
+    }
+}
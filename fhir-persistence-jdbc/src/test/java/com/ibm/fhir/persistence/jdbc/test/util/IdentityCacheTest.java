@@ -0,0 +1,177 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
+import com.ibm.fhir.persistence.jdbc.util.IdentityCache;
+import com.ibm.fhir.persistence.jdbc.util.IdentityCache.BlockReader;
+
+/**
+ * Tests the IdentityCache
+ */
+public class IdentityCacheTest {
+
+    /**
+     * A sequence which counts the values and blocks read from it
+     */
+    private static class TestSequence implements BlockReader {
+        final AtomicLong sequence = new AtomicLong(1000);
+        final AtomicInteger reads = new AtomicInteger();
+
+        @Override
+        public long[] read(int count) {
+            reads.incrementAndGet();
+            long[] result = new long[count];
+            for (int i = 0; i < count; i++) {
+                result[i] = sequence.getAndIncrement();
+            }
+            return result;
+        }
+    }
+
+    @BeforeMethod
+    public void reset() throws Exception {
+        FHIRRequestContext.get().setTenantId("default");
+        IdentityCache.setBlockSize(IdentityCache.DEFAULT_BLOCK_SIZE);
+        IdentityCache.clear();
+    }
+
+    @AfterMethod
+    public void restore() throws Exception {
+        FHIRRequestContext.get().setTenantId("default");
+        IdentityCache.setBlockSize(IdentityCache.DEFAULT_BLOCK_SIZE);
+        IdentityCache.clear();
+    }
+
+    /**
+     * Tests that the values are read from the sequence one block at a time.
+     */
+    @Test
+    public void testBlocks() throws Exception {
+        IdentityCache.setBlockSize(10);
+        TestSequence seq = new TestSequence();
+        for (int i = 0; i < 25; i++) {
+            assertEquals(IdentityCache.nextValue("test_sequence", seq), 1000 + i);
+        }
+        assertEquals(seq.reads.get(), 3);
+    }
+
+    /**
+     * Tests that each value is read from the sequence when blocks are disabled.
+     */
+    @Test
+    public void testNoBlocks() throws Exception {
+        IdentityCache.setBlockSize(1);
+        TestSequence seq = new TestSequence();
+        for (int i = 0; i < 5; i++) {
+            assertEquals(IdentityCache.nextValue("test_sequence", seq), 1000 + i);
+        }
+        assertEquals(seq.reads.get(), 5);
+    }
+
+    /**
+     * Tests that each tenant and each sequence has its own blocks.
+     */
+    @Test
+    public void testSeparateBlocks() throws Exception {
+        IdentityCache.setBlockSize(10);
+        TestSequence seq1 = new TestSequence();
+        TestSequence seq2 = new TestSequence();
+        TestSequence tenant2Seq = new TestSequence();
+        tenant2Seq.sequence.set(5000);
+
+        assertEquals(IdentityCache.nextValue("test_sequence", seq1), 1000);
+        assertEquals(IdentityCache.nextValue("other_sequence", seq2), 1000);
+
+        FHIRRequestContext.get().setTenantId("tenant2");
+        assertEquals(IdentityCache.nextValue("test_sequence", tenant2Seq), 5000);
+
+        FHIRRequestContext.get().setTenantId("default");
+        assertEquals(IdentityCache.nextValue("test_sequence", seq1), 1001);
+        assertEquals(seq1.reads.get(), 1);
+    }
+
+    /**
+     * Tests that the blocks of a tenant-datastore are discarded when its database is re-created.
+     */
+    @Test
+    public void testClearDatastore() throws Exception {
+        IdentityCache.setBlockSize(10);
+        TestSequence seq = new TestSequence();
+        TestSequence tenant2Seq = new TestSequence();
+        tenant2Seq.sequence.set(5000);
+
+        assertEquals(IdentityCache.nextValue("test_sequence", seq), 1000);
+        FHIRRequestContext.get().setTenantId("tenant2");
+        assertEquals(IdentityCache.nextValue("test_sequence", tenant2Seq), 5000);
+
+        // the sequence of the re-created database restarts
+        FHIRRequestContext.get().setTenantId("default");
+        IdentityCache.clear(CodeSystemsCache.getCacheNameForTenantDatastore());
+        seq.sequence.set(1);
+        assertEquals(IdentityCache.nextValue("test_sequence", seq), 1);
+
+        FHIRRequestContext.get().setTenantId("tenant2");
+        assertEquals(IdentityCache.nextValue("test_sequence", tenant2Seq), 5001);
+        assertEquals(tenant2Seq.reads.get(), 1);
+    }
+
+    /**
+     * Tests that concurrent threads are given distinct values.
+     */
+    @Test
+    public void testConcurrentValues() throws Exception {
+        IdentityCache.setBlockSize(7);
+        final TestSequence seq = new TestSequence();
+        final Set<Long> values = ConcurrentHashMap.newKeySet();
+        final int threads = 8;
+        final int valuesPerThread = 1000;
+
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int t = 0; t < threads; t++) {
+                futures.add(pool.submit(() -> {
+                    FHIRRequestContext.get().setTenantId("default");
+                    for (int i = 0; i < valuesPerThread; i++) {
+                        assertTrue(values.add(IdentityCache.nextValue("test_sequence", seq)));
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> f: futures) {
+                f.get();
+            }
+        } finally {
+            pool.shutdown();
+            pool.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        assertEquals(values.size(), threads * valuesPerThread);
+        // no block is read while the current one still has values
+        assertEquals(seq.reads.get(), (threads * valuesPerThread + 6) / 7);
+    }
+}
@@ -0,0 +1,154 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.persistence.jdbc.postgresql.PostgreSqlResourceDAO;
+import com.ibm.fhir.persistence.jdbc.util.SqlQueryData;
+
+/**
+ * Tests the count estimate read from the query plan of a PostgreSQL count query
+ */
+public class PostgreSqlCountEstimateTest {
+    private static final String COUNT_QUERY = "SELECT COUNT(R.RESOURCE_ID) FROM Basic_RESOURCES R WHERE R.IS_DELETED <> 'Y'";
+
+    private static final List<String> PLAN = Arrays.asList(
+        "Aggregate  (cost=41.88..41.89 rows=1 width=8)",
+        "  ->  Seq Scan on basic_resources r  (cost=0.00..35.50 rows=2550 width=8)",
+        "        Filter: (is_deleted <> 'Y'::bpchar)");
+
+    private static final List<String> PARALLEL_PLAN = Arrays.asList(
+        "Finalize Aggregate  (cost=10633.55..10633.56 rows=1 width=8)",
+        "  ->  Gather  (cost=10633.33..10633.54 rows=2 width=8)",
+        "        Workers Planned: 2",
+        "        ->  Partial Aggregate  (cost=9633.33..9633.34 rows=1 width=8)",
+        "              ->  Parallel Seq Scan on basic_resources r  (cost=0.00..8591.67 rows=416667 width=8)",
+        "                    Filter: (is_deleted <> 'Y'::bpchar)");
+
+    @BeforeMethod
+    public void setTenant() throws Exception {
+        FHIRRequestContext.get().setTenantId("default");
+    }
+
+    @Test
+    public void testEstimate() {
+        assertEquals(PostgreSqlResourceDAO.parseCountEstimate(PLAN), Integer.valueOf(2550));
+    }
+
+    @Test
+    public void testParallelEstimate() {
+        assertEquals(PostgreSqlResourceDAO.parseCountEstimate(PARALLEL_PLAN), Integer.valueOf(1000001));
+    }
+
+    @Test
+    public void testUnrecognizedPlan() {
+        // no plan
+        assertNull(PostgreSqlResourceDAO.parseCountEstimate(Collections.emptyList()));
+        // the count is not computed by the first node
+        assertNull(PostgreSqlResourceDAO.parseCountEstimate(Arrays.asList(
+            "Seq Scan on basic_resources r  (cost=0.00..35.50 rows=2550 width=8)")));
+        // estimates in an unexpected form
+        assertNull(PostgreSqlResourceDAO.parseCountEstimate(Arrays.asList(
+            "Aggregate  (cost=41.88..41.89 rows=1 width=8)",
+            "  ->  Seq Scan on basic_resources r  (cost=0.00..35.50 rows=unknown width=8)")));
+        // a row estimate which does not fit in a long
+        assertNull(PostgreSqlResourceDAO.parseCountEstimate(Arrays.asList(
+            "Aggregate  (cost=41.88..41.89 rows=1 width=8)",
+            "  ->  Seq Scan on basic_resources r  (cost=0.00..35.50 rows=99999999999999999999 width=8)")));
+        // nothing below the aggregate
+        assertNull(PostgreSqlResourceDAO.parseCountEstimate(Arrays.asList(
+            "Aggregate  (cost=41.88..41.89 rows=1 width=8)")));
+    }
+
+    /**
+     * Tests that the estimate of a recognized plan is returned, without running the count query
+     */
+    @Test
+    public void testSearchCountEstimate() throws Exception {
+        PostgreSqlResourceDAO dao = new PostgreSqlResourceDAO(createConnection(PLAN, 42));
+        assertEquals(dao.searchCountEstimate(new SqlQueryData(COUNT_QUERY, Collections.emptyList())), 2550);
+    }
+
+    /**
+     * Tests that the count query is run when the plan is not recognized
+     */
+    @Test
+    public void testSearchCountEstimateFallback() throws Exception {
+        List<String> plan = Arrays.asList("Result  (cost=0.00..0.01 rows=1 width=8)");
+        PostgreSqlResourceDAO dao = new PostgreSqlResourceDAO(createConnection(plan, 42));
+        assertEquals(dao.searchCountEstimate(new SqlQueryData(COUNT_QUERY, Collections.emptyList())), 42);
+    }
+
+    /**
+     * Creates a connection which returns the given plan lines for an EXPLAIN, and the given count for any other query
+     */
+    private static Connection createConnection(List<String> planLines, int count) {
+        return proxy(Connection.class, (method, args) -> {
+            if ("prepareStatement".equals(method)) {
+                String sql = (String) args[0];
+                List<?> rows = sql.startsWith("EXPLAIN ") ? planLines : Collections.singletonList(count);
+                return proxy(PreparedStatement.class, (statementMethod, statementArgs) ->
+                        "executeQuery".equals(statementMethod) ? createResultSet(rows) : null);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Creates a result set whose rows have a single column
+     */
+    private static ResultSet createResultSet(List<?> rows) {
+        Iterator<?> iterator = rows.iterator();
+        Object[] current = new Object[1];
+        return proxy(ResultSet.class, (method, args) -> {
+            switch (method) {
+            case "next":
+                current[0] = iterator.hasNext() ? iterator.next() : null;
+                return current[0] != null;
+            case "getString":
+                return String.valueOf(current[0]);
+            case "getInt":
+                return current[0];
+            default:
+                return null;
+            }
+        });
+    }
+
+    /**
+     * The methods of a JDBC object which are used by the test
+     */
+    private interface Methods {
+        Object invoke(String method, Object[] args);
+    }
+
+    private static <T> T proxy(Class<T> type, Methods methods) {
+        return type.cast(Proxy.newProxyInstance(PostgreSqlCountEstimateTest.class.getClassLoader(), new Class<?>[] { type },
+                (proxy, method, args) -> {
+                    Object result = methods.invoke(method.getName(), args);
+                    if (result == null && method.getReturnType() == boolean.class) {
+                        return false;
+                    }
+                    return result;
+                }));
+    }
+}
@@ -241,6 +241,18 @@ public class QuantityParmBehaviorUtilTest {
                 // do nothing
             }
 
+            @Override
+            public Long readCommonTokenValueId(int codeSystemId, String tokenValue)
+                    throws FHIRPersistenceDBConnectException, FHIRPersistenceDataAccessException {
+                return null;
+            }
+
+            @Override
+            public void addCommonTokenValuesCacheCandidate(int codeSystemId, String tokenValue, Long commonTokenValueId)
+                    throws FHIRPersistenceException {
+                // do nothing
+            }
+
             @Override
             public void addParameterNamesCacheCandidate(String parameterName, Integer parameterId)
                     throws FHIRPersistenceException {
@@ -251,6 +263,11 @@ public class QuantityParmBehaviorUtilTest {
             public void setExternalConnection(Connection connection) {
                 // do nothing
             }
+
+            @Override
+            public void clearCacheCandidates() {
+                // do nothing
+            }
         };
     }
 
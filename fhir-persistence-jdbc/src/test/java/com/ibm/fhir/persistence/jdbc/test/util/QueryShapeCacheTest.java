@@ -0,0 +1,109 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.persistence.jdbc.util.QueryShapeCache;
+
+/**
+ * Tests the QueryShapeCache
+ */
+public class QueryShapeCacheTest {
+    private static final String SQL = "SELECT R.RESOURCE_ID FROM Patient_RESOURCES R WHERE R.LOGICAL_RESOURCE_ID > ?";
+
+    @BeforeMethod
+    public void reset() throws Exception {
+        FHIRRequestContext.get().setTenantId("default");
+        QueryShapeCache.setMaxSize(QueryShapeCache.DEFAULT_MAX_SIZE);
+        QueryShapeCache.clear();
+    }
+
+    @AfterMethod
+    public void restore() {
+        QueryShapeCache.setMaxSize(QueryShapeCache.DEFAULT_MAX_SIZE);
+        QueryShapeCache.clear();
+    }
+
+    /**
+     * Tests that the same SQL text built twice is counted as one shape.
+     */
+    @Test
+    public void testRecord() {
+        QueryShapeCache.record(new String(SQL));
+        QueryShapeCache.record(new String(SQL));
+        assertEquals(QueryShapeCache.getShapeCount(), 1);
+        QueryShapeCache.record(SQL + " AND 1=1");
+        assertEquals(QueryShapeCache.getShapeCount(), 2);
+    }
+
+    /**
+     * Tests that a query with a recorded shape is counted as a hit, and any other query as a miss.
+     */
+    @Test
+    public void testHitsAndMisses() {
+        QueryShapeCache.record(new String(SQL));
+        QueryShapeCache.record(new String(SQL));
+        QueryShapeCache.record(new String(SQL));
+        QueryShapeCache.record(SQL + " AND 1=1");
+        assertEquals(QueryShapeCache.getHitCount(), 2);
+        assertEquals(QueryShapeCache.getMissCount(), 2);
+        assertTrue(QueryShapeCache.dumpCacheContents().contains("hits=2  misses=2  hitRatio=0.500"));
+
+        QueryShapeCache.clear();
+        assertEquals(QueryShapeCache.getHitCount(), 0);
+        assertEquals(QueryShapeCache.getMissCount(), 0);
+    }
+
+    /**
+     * Tests that each tenant/datastore has its own shapes.
+     */
+    @Test
+    public void testSeparateDatastores() throws Exception {
+        QueryShapeCache.record(SQL);
+        FHIRRequestContext.get().setTenantId("tenant2");
+        try {
+            assertEquals(QueryShapeCache.getShapeCount(), 0);
+            QueryShapeCache.record(SQL);
+            assertEquals(QueryShapeCache.getShapeCount(), 1);
+        } finally {
+            FHIRRequestContext.get().setTenantId("default");
+        }
+        assertEquals(QueryShapeCache.getShapeCount(), 1);
+    }
+
+    /**
+     * Tests that no more shapes are recorded once the maximum is reached.
+     */
+    @Test
+    public void testMaxSize() {
+        QueryShapeCache.setMaxSize(2);
+        QueryShapeCache.record(SQL + " AND 1=1");
+        QueryShapeCache.record(SQL + " AND 2=2");
+        QueryShapeCache.record(SQL + " AND 3=3");
+        QueryShapeCache.record(SQL + " AND 3=3");
+        assertEquals(QueryShapeCache.getShapeCount(), 2);
+        assertEquals(QueryShapeCache.getMissCount(), 4);
+        assertTrue(QueryShapeCache.dumpCacheContents().contains("shapes=2+"));
+    }
+
+    /**
+     * Tests that nothing is recorded when the counting is disabled.
+     */
+    @Test
+    public void testDisabled() {
+        QueryShapeCache.setMaxSize(0);
+        QueryShapeCache.record(SQL);
+        assertEquals(QueryShapeCache.getShapeCount(), 0);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+
+import java.util.Collections;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRConfiguration;
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.fhir.persistence.context.impl.FHIRPersistenceContextImpl;
+import com.ibm.fhir.persistence.interceptor.FHIRPersistenceEvent;
+import com.ibm.fhir.persistence.jdbc.util.ReadReplicaRouter;
+
+/**
+ * Tests the routing decisions of the ReadReplicaRouter
+ */
+public class ReadReplicaRouterTest {
+    private String configHome;
+
+    @BeforeClass
+    public void setConfigHome() {
+        configHome = FHIRConfiguration.getConfigHome();
+        FHIRConfiguration.setConfigHome("target/test-classes");
+    }
+
+    @AfterClass
+    public void resetConfigHome() {
+        FHIRConfiguration.setConfigHome(configHome);
+    }
+
+    @BeforeMethod
+    public void setTenant() throws Exception {
+        FHIRRequestContext.get().setTenantId("replica");
+        FHIRRequestContext.get().setDataStoreId("default");
+        ReadReplicaRouter.clear();
+    }
+
+    @AfterMethod
+    public void resetTenant() throws Exception {
+        ReadReplicaRouter.clear();
+        FHIRRequestContext.get().setTenantId("default");
+        FHIRRequestContext.get().setDataStoreId("default");
+    }
+
+    /**
+     * Tests that a plain read in its own transaction is routed to the configured replica.
+     */
+    @Test
+    public void testRouted() throws Exception {
+        assertEquals(ReadReplicaRouter.getReplicaDatastoreId(), "default-replica");
+        assertEquals(ReadReplicaRouter.selectReplicaDatastoreId(createContext(true), false), "default-replica");
+    }
+
+    /**
+     * Tests that the reads of a transaction bundle or of a conditional write, which are not allowed to use
+     * the replica, are not routed.
+     */
+    @Test
+    public void testNotRoutedInsideTransaction() throws Exception {
+        assertNull(ReadReplicaRouter.selectReplicaDatastoreId(createContext(false), false));
+        assertNull(ReadReplicaRouter.selectReplicaDatastoreId(null, false));
+    }
+
+    /**
+     * Tests that reads are not routed once the transaction has written, nor within the configured time
+     * after a write made through this server.
+     */
+    @Test
+    public void testNotRoutedAfterWrite() throws Exception {
+        assertNull(ReadReplicaRouter.selectReplicaDatastoreId(createContext(true), true));
+
+        ReadReplicaRouter.recordWrite();
+        assertNull(ReadReplicaRouter.selectReplicaDatastoreId(createContext(true), false));
+
+        // a write to another datastore of the tenant does not matter
+        ReadReplicaRouter.clear();
+        FHIRRequestContext.get().setDataStoreId("noreplica");
+        ReadReplicaRouter.recordWrite();
+        FHIRRequestContext.get().setDataStoreId("default");
+        assertEquals(ReadReplicaRouter.selectReplicaDatastoreId(createContext(true), false), "default-replica");
+    }
+
+    /**
+     * Tests that reads stay on the primary datastore when it has no replica.
+     */
+    @Test
+    public void testNoReplicaConfigured() throws Exception {
+        FHIRRequestContext.get().setDataStoreId("noreplica");
+        assertNull(ReadReplicaRouter.getReplicaDatastoreId());
+        assertNull(ReadReplicaRouter.selectReplicaDatastoreId(createContext(true), false));
+    }
+
+    /**
+     * Tests that the datastores configured as the replica of another datastore are found.
+     */
+    @Test
+    public void testReplicaDatastoreIds() throws Exception {
+        assertEquals(ReadReplicaRouter.getReplicaDatastoreIds(), Collections.singleton("default-replica"));
+    }
+
+    private FHIRPersistenceContext createContext(boolean readReplicaAllowed) {
+        FHIRPersistenceContext context = FHIRPersistenceContextFactory.createPersistenceContext(new FHIRPersistenceEvent());
+        ((FHIRPersistenceContextImpl) context).setReadReplicaAllowed(readReplicaAllowed);
+        return context;
+    }
+}
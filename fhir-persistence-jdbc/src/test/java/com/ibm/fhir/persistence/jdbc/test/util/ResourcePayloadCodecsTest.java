@@ -0,0 +1,121 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Collections;
+import java.util.zip.GZIPOutputStream;
+
+import org.testng.annotations.Test;
+
+import com.github.luben.zstd.ZstdDictTrainer;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.generator.FHIRGenerator;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Patient;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.type.Date;
+import com.ibm.fhir.model.type.HumanName;
+import com.ibm.fhir.model.type.code.AdministrativeGender;
+import com.ibm.fhir.persistence.jdbc.codec.GzipPayloadCodec;
+import com.ibm.fhir.persistence.jdbc.codec.Lz4PayloadCodec;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodec;
+import com.ibm.fhir.persistence.jdbc.codec.ResourcePayloadCodecs;
+import com.ibm.fhir.persistence.jdbc.codec.ZstdPayloadCodec;
+
+/**
+ * Tests the encoding and decoding of resource payloads
+ */
+public class ResourcePayloadCodecsTest {
+
+    private static Patient patient(int i) {
+        return Patient.builder()
+                .id("patient-" + i)
+                .name(HumanName.builder()
+                    .family(com.ibm.fhir.model.type.String.of("Family" + i))
+                    .given(com.ibm.fhir.model.type.String.of("Given" + i))
+                    .build())
+                .gender(i % 2 == 0 ? AdministrativeGender.FEMALE : AdministrativeGender.MALE)
+                .birthDate(Date.of("19" + (10 + i % 90) + "-01-01"))
+                .build();
+    }
+
+    private static Resource roundTrip(ResourcePayloadCodec codec, Resource resource) throws Exception {
+        byte[] payload = ResourcePayloadCodecs.encode(codec, resource);
+        assertEquals(payload[0], codec.getFormat());
+        try (InputStream in = ResourcePayloadCodecs.decode(payload)) {
+            return FHIRParser.parser(Format.JSON).parse(in);
+        }
+    }
+
+    @Test
+    public void testBuiltInCodecs() throws Exception {
+        Patient patient = patient(1);
+        for (String name : new String[] { GzipPayloadCodec.NAME, Lz4PayloadCodec.NAME, ZstdPayloadCodec.NAME }) {
+            ResourcePayloadCodec codec = ResourcePayloadCodecs.getCodec(name);
+            assertEquals(roundTrip(codec, patient), patient, name);
+        }
+    }
+
+    /**
+     * Payloads written before codecs were introduced are plain GZIP streams
+     */
+    @Test
+    public void testLegacyGzipPayload() throws Exception {
+        Patient patient = patient(2);
+        ByteArrayOutputStream stream = new ByteArrayOutputStream();
+        try (GZIPOutputStream zipStream = new GZIPOutputStream(stream)) {
+            FHIRGenerator.generator(Format.JSON, false).generate(patient, zipStream);
+            zipStream.finish();
+        }
+
+        try (InputStream in = ResourcePayloadCodecs.decode(stream.toByteArray())) {
+            assertEquals(FHIRParser.parser(Format.JSON).parse(in), patient);
+        }
+    }
+
+    @Test
+    public void testZstdDictionary() throws Exception {
+        ZstdDictTrainer trainer = new ZstdDictTrainer(1024 * 1024, 16 * 1024);
+        for (int i = 0; i < 2000; i++) {
+            ByteArrayOutputStream sample = new ByteArrayOutputStream();
+            FHIRGenerator.generator(Format.JSON, false).generate(patient(i), sample);
+            trainer.addSample(sample.toByteArray());
+        }
+        byte[] dictionary = trainer.trainSamples();
+
+        ZstdPayloadCodec plain = new ZstdPayloadCodec();
+        ZstdPayloadCodec withDictionary = new ZstdPayloadCodec(ZstdPayloadCodec.DEFAULT_LEVEL,
+                Collections.singletonMap("Patient", dictionary));
+
+        Patient patient = patient(5000);
+        byte[] payload = ResourcePayloadCodecs.encode(withDictionary, patient);
+        try (InputStream in = withDictionary.decoder(new ByteArrayInputStream(payload))) {
+            assertEquals(FHIRParser.parser(Format.JSON).parse(in), patient);
+        }
+        assertTrue(payload.length < ResourcePayloadCodecs.encode(plain, patient).length);
+
+        // the dictionary is needed to read the payload back
+        try (InputStream in = plain.decoder(new ByteArrayInputStream(payload))) {
+            fail("decoded without the dictionary");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    @Test(expectedExceptions = IOException.class)
+    public void testUnknownFormat() throws Exception {
+        ResourcePayloadCodecs.decode(new byte[] { (byte) 0x7f, 0, 0 });
+    }
+}
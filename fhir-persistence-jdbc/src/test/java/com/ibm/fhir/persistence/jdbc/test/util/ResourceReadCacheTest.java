@@ -0,0 +1,128 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.jdbc.test.util;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Patient;
+import com.ibm.fhir.model.type.Id;
+import com.ibm.fhir.model.type.Meta;
+import com.ibm.fhir.persistence.jdbc.util.CodeSystemsCache;
+import com.ibm.fhir.persistence.jdbc.util.ResourceReadCache;
+
+/**
+ * Tests the ResourceReadCache
+ */
+public class ResourceReadCacheTest {
+    private String cacheName;
+
+    @BeforeMethod
+    public void enable() {
+        ResourceReadCache.setEnabled(true);
+        ResourceReadCache.setMaxSize(ResourceReadCache.DEFAULT_MAX_SIZE);
+        cacheName = CodeSystemsCache.getCacheNameForTenantDatastore();
+    }
+
+    @AfterMethod
+    public void disable() {
+        ResourceReadCache.setEnabled(false);
+        ResourceReadCache.setMaxSize(ResourceReadCache.DEFAULT_MAX_SIZE);
+    }
+
+    private Patient patient(String id, int version) {
+        return Patient.builder()
+                .id(id)
+                .meta(Meta.builder().versionId(Id.of(Integer.toString(version))).build())
+                .build();
+    }
+
+    /**
+     * Tests that read and vread entries are cached and counted.
+     */
+    @Test
+    public void testPutAndGet() {
+        Patient patient = patient("p1", 2);
+        ResourceReadCache.put(cacheName, patient, true, ResourceReadCache.getGeneration(cacheName));
+
+        assertSame(ResourceReadCache.getLatest("Patient", "p1"), patient);
+        assertSame(ResourceReadCache.getVersion("Patient", "p1", 2), patient);
+        assertNull(ResourceReadCache.getVersion("Patient", "p1", 1));
+        assertNull(ResourceReadCache.getLatest("Practitioner", "p1"));
+        assertEquals(ResourceReadCache.getHits(), 2);
+        assertEquals(ResourceReadCache.getMisses(), 2);
+
+        Patient version1 = patient("p1", 1);
+        ResourceReadCache.put(cacheName, version1, false, ResourceReadCache.getGeneration(cacheName));
+        assertSame(ResourceReadCache.getVersion("Patient", "p1", 1), version1);
+        assertSame(ResourceReadCache.getLatest("Patient", "p1"), patient);
+    }
+
+    /**
+     * Tests that a write removes the current version and the written version, but not older versions.
+     */
+    @Test
+    public void testInvalidate() {
+        Patient patient = patient("p2", 1);
+        ResourceReadCache.put(cacheName, patient, true, ResourceReadCache.getGeneration(cacheName));
+        ResourceReadCache.put(cacheName, patient("p2", 2), false, ResourceReadCache.getGeneration(cacheName));
+
+        ResourceReadCache.invalidate(cacheName, "Patient", "p2", 2);
+        assertNull(ResourceReadCache.getLatest("Patient", "p2"));
+        assertNull(ResourceReadCache.getVersion("Patient", "p2", 2));
+        assertSame(ResourceReadCache.getVersion("Patient", "p2", 1), patient);
+    }
+
+    /**
+     * Tests that a resource read before a concurrent write is not cached.
+     */
+    @Test
+    public void testStaleGeneration() {
+        long generation = ResourceReadCache.getGeneration(cacheName);
+        ResourceReadCache.invalidate(cacheName, "Patient", "p3", 2);
+        ResourceReadCache.put(cacheName, patient("p3", 1), true, generation);
+        assertNull(ResourceReadCache.getLatest("Patient", "p3"));
+        assertNull(ResourceReadCache.getVersion("Patient", "p3", 1));
+    }
+
+    /**
+     * Tests that the least recently used entries are evicted once the cache is full.
+     */
+    @Test
+    public void testEviction() {
+        ResourceReadCache.setMaxSize(4);
+        Patient a = patient("a", 1);
+        Patient b = patient("b", 1);
+        ResourceReadCache.put(cacheName, a, true, ResourceReadCache.getGeneration(cacheName));
+        ResourceReadCache.put(cacheName, b, true, ResourceReadCache.getGeneration(cacheName));
+
+        // touch a so that b is the least recently used
+        assertSame(ResourceReadCache.getLatest("Patient", "a"), a);
+        assertSame(ResourceReadCache.getVersion("Patient", "a", 1), a);
+        ResourceReadCache.put(cacheName, patient("c", 1), true, ResourceReadCache.getGeneration(cacheName));
+
+        assertSame(ResourceReadCache.getLatest("Patient", "a"), a);
+        assertNull(ResourceReadCache.getVersion("Patient", "b", 1));
+        assertNull(ResourceReadCache.getLatest("Patient", "b"));
+    }
+
+    /**
+     * Tests that nothing is cached while the cache is disabled.
+     */
+    @Test
+    public void testDisabled() {
+        ResourceReadCache.setEnabled(false);
+        ResourceReadCache.put(cacheName, patient("p4", 1), true, ResourceReadCache.getGeneration(cacheName));
+        ResourceReadCache.setEnabled(true);
+        assertNull(ResourceReadCache.getLatest("Patient", "p4"));
+    }
+}
@@ -17,6 +17,8 @@ import java.security.SecureRandom;
 import java.sql.Connection;
 import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
 import java.util.Base64;
 import java.util.Base64.Encoder;
 import java.util.Collection;
@@ -110,6 +112,10 @@ public class Main {
     private boolean createOauthSchema = false;
     private boolean updateOauthSchema = false;
 
+    // Partition the resource tables by LAST_UPDATED (PostgreSql only)
+    private boolean partitionResources = false;
+    private int resourcePartitionMonths = 0;
+
     // By default, the dryRun option is OFF, and FALSE
     // When overridden, it simulates the actions.
     private Boolean dryRun = false;
@@ -270,6 +276,16 @@ public class Main {
             case "--dry-run":
                 this.dryRun = Boolean.TRUE;
                 break;
+            case "--partition-resources":
+                this.partitionResources = true;
+                break;
+            case "--add-resource-partitions":
+                if (++i < args.length) {
+                    this.resourcePartitionMonths = Integer.parseInt(args[i]);
+                } else {
+                    throw new IllegalArgumentException("Missing value for argument at posn: " + i);
+                }
+                break;
             case "--db-type":
                 if (++i < args.length) {
                     this.dbType = DbType.from(args[i]);
@@ -543,6 +559,13 @@ public class Main {
 
         // Build/update the FHIR-related tables as well as the stored procedures
         FhirSchemaGenerator gen = new FhirSchemaGenerator(adminSchemaName, schemaName);
+        if (partitionResources) {
+            if (dbType == DbType.POSTGRESQL) {
+                gen.setPartitionResourcesByLastUpdated(true);
+            } else {
+                logger.warning("Partitioning the resource tables by last_updated is only supported for PostgreSql");
+            }
+        }
         PhysicalDataModel pdm = new PhysicalDataModel();
         gen.buildSchema(pdm);
         gen.buildProcedures(pdm);
@@ -561,6 +584,11 @@ public class Main {
         ITaskCollector collector = taskService.makeTaskCollector(pool);
         IDatabaseAdapter adapter = getDbAdapter(connectionPool);
         applyDataModel(pdm, adapter, collector);
+
+        // The PostgreSQL functions are not part of the (Db2) procedure model
+        if (dbType == DbType.POSTGRESQL && this.exitStatus == EXIT_OK) {
+            applyPostgreSqlFunctions(gen);
+        }
     }
 
     /**
@@ -593,10 +621,14 @@ public class Main {
      * into the FHIR resource tables
      */
     protected void updateProcedures() {
-        if (dbType == DbType.DERBY || dbType == DbType.POSTGRESQL) {
+        if (dbType == DbType.DERBY) {
             return;
         }
         FhirSchemaGenerator gen = new FhirSchemaGenerator(adminSchemaName, schemaName);
+        if (dbType == DbType.POSTGRESQL) {
+            applyPostgreSqlFunctions(gen);
+            return;
+        }
         PhysicalDataModel pdm = new PhysicalDataModel();
         gen.buildSchema(pdm);
 
@@ -620,6 +652,62 @@ public class Main {
 
     }
 
+    /**
+     * Create or replace the PostgreSQL functions used by FHIR to insert records
+     * into the FHIR resource tables
+     *
+     * @param gen
+     */
+    protected void applyPostgreSqlFunctions(FhirSchemaGenerator gen) {
+        try {
+            try (Connection c = createConnection()) {
+                try {
+                    JdbcTarget target = new JdbcTarget(c);
+                    PostgreSqlAdapter adapter = new PostgreSqlAdapter(target);
+                    gen.applyPostgreSqlFunctions(adapter);
+                } catch (Exception x) {
+                    c.rollback();
+                    throw x;
+                }
+                c.commit();
+            }
+        } catch (SQLException x) {
+            throw translator.translate(x);
+        }
+    }
+
+    /**
+     * Add the monthly partitions of the resource tables partitioned by LAST_UPDATED, starting with
+     * the current month. Partitions which already exist are left alone, so this can be run regularly
+     * to keep ahead of the data.
+     */
+    protected void addResourcePartitions() {
+        if (dbType != DbType.POSTGRESQL) {
+            logger.warning("Resource partitions are only supported for PostgreSql");
+            return;
+        }
+
+        final int months = this.resourcePartitionMonths > 0 ? this.resourcePartitionMonths : FhirSchemaConstants.DEFAULT_RESOURCE_PARTITION_MONTHS;
+        final YearMonth firstMonth = YearMonth.now(ZoneOffset.UTC);
+        FhirSchemaGenerator gen = new FhirSchemaGenerator(adminSchemaName, schemaName);
+        try {
+            try (Connection c = createConnection()) {
+                try {
+                    JdbcTarget target = new JdbcTarget(c);
+                    PostgreSqlAdapter adapter = new PostgreSqlAdapter(target);
+                    gen.applyResourcePartitions(adapter, firstMonth, months);
+                } catch (Exception x) {
+                    c.rollback();
+                    throw x;
+                }
+                c.commit();
+            }
+        } catch (SQLException x) {
+            throw translator.translate(x);
+        }
+        logger.info("Resource partitions added for " + months + " months from " + firstMonth);
+    }
+
     /**
      * Start the schema object creation tasks and wait for everything to complete
      *
@@ -780,6 +868,11 @@ public class Main {
             dropTenant();
         }
 
+        // Newly partitioned resource tables need partitions for the coming months
+        if (this.exitStatus == EXIT_OK && (this.resourcePartitionMonths > 0 || (this.partitionResources && updateFhirSchema))) {
+            addResourcePartitions();
+        }
+
         if (this.grantTo != null) {
             grantPrivileges(FhirSchemaConstants.FHIR_USER_GRANT_GROUP);
         }
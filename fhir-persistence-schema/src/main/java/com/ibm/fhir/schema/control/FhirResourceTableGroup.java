@@ -7,8 +7,9 @@
 package com.ibm.fhir.schema.control;
 
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE;
-import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE_SYSTEMS;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE_SYSTEM_ID;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.COMMON_TOKEN_VALUES;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.COMMON_TOKEN_VALUE_ID;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CURRENT_ALLERGIES_LIST;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CURRENT_DRUG_ALLERGIES_LIST;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CURRENT_MEDICATIONS_LIST;
@@ -61,9 +62,11 @@ import java.util.Set;
 import com.ibm.fhir.database.utils.api.IDatabaseStatement;
 import com.ibm.fhir.database.utils.common.AddColumn;
 import com.ibm.fhir.database.utils.common.AddForeignKeyConstraint;
+import com.ibm.fhir.database.utils.common.CreateIndexStatement;
 import com.ibm.fhir.database.utils.common.DropColumn;
 import com.ibm.fhir.database.utils.common.DropForeignKeyConstraint;
 import com.ibm.fhir.database.utils.common.DropIndex;
+import com.ibm.fhir.database.utils.model.BigIntColumn;
 import com.ibm.fhir.database.utils.model.ColumnBase;
 import com.ibm.fhir.database.utils.model.ColumnDefBuilder;
 import com.ibm.fhir.database.utils.model.ForeignKeyConstraint;
@@ -98,6 +101,9 @@ public class FhirResourceTableGroup {
     // Privileges to be granted to each of the resource tables created by this class
     private final Collection<GroupPrivilege> resourceTablePrivileges;
 
+    // Partition the xx_RESOURCES tables by LAST_UPDATED (when supported by the target)
+    private final boolean partitionResourcesByLastUpdated;
+
     private static final String _LOGICAL_RESOURCES = "_LOGICAL_RESOURCES";
     private static final String _RESOURCES = "_RESOURCES";
 
@@ -122,12 +128,22 @@ public class FhirResourceTableGroup {
      */
     public FhirResourceTableGroup(PhysicalDataModel model, String schemaName, SessionVariableDef sessionVariable,
             Set<IDatabaseObject> procedureDependencies, Tablespace fhirTablespace, Collection<GroupPrivilege> privileges) {
+        this(model, schemaName, sessionVariable, procedureDependencies, fhirTablespace, privileges, false);
+    }
+
+    /**
+     * Public constructor
+     */
+    public FhirResourceTableGroup(PhysicalDataModel model, String schemaName, SessionVariableDef sessionVariable,
+            Set<IDatabaseObject> procedureDependencies, Tablespace fhirTablespace, Collection<GroupPrivilege> privileges,
+            boolean partitionResourcesByLastUpdated) {
         this.model = model;
         this.schemaName = schemaName;
         this.sessionVariable = sessionVariable;
         this.procedureDependencies = procedureDependencies;
         this.fhirTablespace = fhirTablespace;
         this.resourceTablePrivileges = privileges;
+        this.partitionResourcesByLastUpdated = partitionResourcesByLastUpdated;
     }
 
     /**
@@ -237,7 +253,7 @@ public class FhirResourceTableGroup {
         final List<String> prfIncludeCols = Arrays.asList(LOGICAL_RESOURCE_ID, VERSION_ID, IS_DELETED);
         final String tableName = prefix + _RESOURCES;
 
-        Table tbl = Table.builder(schemaName, tableName)
+        Table.Builder builder = Table.builder(schemaName, tableName)
                 .setTenantColumnName(MT_ID)
                 .addTag(FhirSchemaTags.RESOURCE_TYPE, prefix)
                 .addBigIntColumn(        RESOURCE_ID,              false)
@@ -246,13 +262,21 @@ public class FhirResourceTableGroup {
                 .addTimestampColumn(    LAST_UPDATED,              false)
                 .addCharColumn(           IS_DELETED,           1, false)
                 .addBlobColumn(                 DATA,  2147483647,  10240,   true)
-                .addUniqueIndex(tableName + "_PRF_IN1", prfIndexCols, prfIncludeCols)
                 .addIndex(IDX + tableName + LOGICAL_RESOURCE_ID, LOGICAL_RESOURCE_ID)
-                .addPrimaryKey(tableName + "_PK", RESOURCE_ID)
                 .setTablespace(fhirTablespace)
                 .addPrivileges(resourceTablePrivileges)
-                .enableAccessControl(this.sessionVariable)
-                .build(model);
+                .enableAccessControl(this.sessionVariable);
+
+        if (partitionResourcesByLastUpdated) {
+            // The unique constraints of a partitioned table must include the partition column, so
+            // the primary key is (RESOURCE_ID, LAST_UPDATED) and its index replaces PRF_IN1
+            builder.addPrimaryKey(tableName + "_PK", RESOURCE_ID, LAST_UPDATED)
+                   .setRangePartitionColumn(LAST_UPDATED);
+        } else {
+            builder.addUniqueIndex(tableName + "_PRF_IN1", prfIndexCols, prfIncludeCols)
+                   .addPrimaryKey(tableName + "_PK", RESOURCE_ID);
+        }
+        Table tbl = builder.build(model);
 
         group.add(tbl);
         model.addTable(tbl);
@@ -313,20 +337,23 @@ ALTER TABLE device_str_values ADD CONSTRAINT fk_device_str_values_rid  FOREIGN K
 
     /**
      * <pre>
+CREATE TABLE device_token_values  (
   row_id                BIGINT NOT NULL,
   parameter_name_id        INT NOT NULL,
-  code_system_id           INT NOT NULL,
-  token_value          VARCHAR(255 OCTETS),
-  resource_id           BIGINT NOT NULL
+  logical_resource_id   BIGINT NOT NULL,
+  common_token_value_id BIGINT
 )
 ;
 
-CREATE INDEX idx_device_token_values_pncscv ON device_token_values(parameter_name_id, code_system_id, token_value, resource_id);
-CREATE INDEX idx_device_token_values_rps ON device_token_values(resource_id, parameter_name_id, code_system_id, token_value);
+CREATE INDEX idx_device_token_values_pntr ON device_token_values(parameter_name_id, common_token_value_id, logical_resource_id);
+CREATE INDEX idx_device_token_values_rpt ON device_token_values(logical_resource_id, parameter_name_id, common_token_value_id);
 ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_pn FOREIGN KEY (parameter_name_id) REFERENCES parameter_names;
-ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_cs FOREIGN KEY (code_system_id)    REFERENCES code_systems;
-ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_r  FOREIGN KEY (resource_id)       REFERENCES device_resources;
+ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_ctv FOREIGN KEY (common_token_value_id) REFERENCES common_token_values;
+ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_r  FOREIGN KEY (logical_resource_id) REFERENCES device_logical_resources;
      * </pre>
+     * Version 1 of this table stored the code_system_id and token_value on every row. Version 2 replaces
+     * them with a reference to the normalized common_token_values table. The common_token_value_id is
+     * null for tokens without a value.
      * @param group
      * @param prefix
      */
@@ -335,23 +362,42 @@ ALTER TABLE device_token_values ADD CONSTRAINT fk_device_token_values_r  FOREIGN
         final String logicalResourcesTable = prefix + _LOGICAL_RESOURCES;
 
         Table tbl = Table.builder(schemaName, tableName)
+                .setVersion(2)
                 .addTag(FhirSchemaTags.RESOURCE_TYPE, prefix)
                 .setTenantColumnName(MT_ID)
-                .addBigIntColumn(             ROW_ID,      false)
-                .addIntColumn(     PARAMETER_NAME_ID,      false)
-                .addIntColumn(        CODE_SYSTEM_ID,      false)
-                .addVarcharColumn(       TOKEN_VALUE, 511,  true)
-                .addBigIntColumn(LOGICAL_RESOURCE_ID,      false)
-                .addIndex(IDX + tableName + "_PNCSCV", PARAMETER_NAME_ID, CODE_SYSTEM_ID, TOKEN_VALUE, LOGICAL_RESOURCE_ID)
-                .addIndex(IDX + tableName + "_RPS", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, CODE_SYSTEM_ID, TOKEN_VALUE)
+                .addBigIntColumn(               ROW_ID,      false)
+                .addIntColumn(       PARAMETER_NAME_ID,      false)
+                .addBigIntColumn(  LOGICAL_RESOURCE_ID,      false)
+                .addBigIntColumn(COMMON_TOKEN_VALUE_ID,      true)
+                .addIndex(IDX + tableName + "_PNTR", PARAMETER_NAME_ID, COMMON_TOKEN_VALUE_ID, LOGICAL_RESOURCE_ID)
+                .addIndex(IDX + tableName + "_RPT", LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, COMMON_TOKEN_VALUE_ID)
                 .addPrimaryKey(PK + tableName, ROW_ID)
                 .setIdentityColumn(ROW_ID, Generated.BY_DEFAULT)
                 .addForeignKeyConstraint(FK + tableName + "_PN", schemaName, PARAMETER_NAMES, PARAMETER_NAME_ID)
-                .addForeignKeyConstraint(FK + tableName + "_CS", schemaName, CODE_SYSTEMS, CODE_SYSTEM_ID)
                 .addForeignKeyConstraint(FK + tableName + "_R", schemaName, logicalResourcesTable, LOGICAL_RESOURCE_ID)
+                .addForeignKeyConstraint(FK + tableName + "_CTV", schemaName, COMMON_TOKEN_VALUES, COMMON_TOKEN_VALUE_ID)
                 .setTablespace(fhirTablespace)
                 .addPrivileges(resourceTablePrivileges)
                 .enableAccessControl(this.sessionVariable)
+                .addMigration(priorVersion -> {
+                    List<IDatabaseStatement> statements = new ArrayList<>();
+                    if (priorVersion == 1) {
+                        statements.add(new AddColumn(schemaName, tableName, new BigIntColumn(COMMON_TOKEN_VALUE_ID, true)));
+                        statements.add(new MigrateTokenValues(schemaName, tableName, MT_ID));
+                        statements.add(new DropIndex(schemaName, IDX + tableName + "_PNCSCV"));
+                        statements.add(new DropIndex(schemaName, IDX + tableName + "_RPS"));
+                        statements.add(new DropForeignKeyConstraint(schemaName, tableName, FK + tableName + "_CS"));
+                        statements.add(new DropColumn(schemaName, tableName, CODE_SYSTEM_ID));
+                        statements.add(new DropColumn(schemaName, tableName, TOKEN_VALUE));
+                        statements.add(new CreateIndexStatement(schemaName, IDX + tableName + "_PNTR", tableName, MT_ID,
+                            PARAMETER_NAME_ID, COMMON_TOKEN_VALUE_ID, LOGICAL_RESOURCE_ID));
+                        statements.add(new CreateIndexStatement(schemaName, IDX + tableName + "_RPT", tableName, MT_ID,
+                            LOGICAL_RESOURCE_ID, PARAMETER_NAME_ID, COMMON_TOKEN_VALUE_ID));
+                        statements.add(new AddForeignKeyConstraint(schemaName, tableName, MT_ID,
+                            new ForeignKeyConstraint(FK + tableName + "_CTV", true, schemaName, COMMON_TOKEN_VALUES, COMMON_TOKEN_VALUE_ID)));
+                    }
+                    return statements;
+                })
                 .build(model)
                 ;
 
@@ -14,6 +14,9 @@ public class FhirSchemaConstants {
     // A lower pool size is selected as default to limit the likelihood of contention on the DBMS.
     // Standard connection/thread pool size
     public static final int DEFAULT_POOL_SIZE = 1;
+
+    // The number of monthly partitions added when the resource tables are partitioned by last_updated
+    public static final int DEFAULT_RESOURCE_PARTITION_MONTHS = 3;
     
     // Size of string columns in the search tables. DSTU2 was 511
     public static final int MAX_SEARCH_STRING_BYTES = 1024;
@@ -80,6 +83,7 @@ public class FhirSchemaConstants {
     public static final String CODE_SYSTEM_ID = "CODE_SYSTEM_ID";
     public static final String CODE_SYSTEM_NAME = "CODE_SYSTEM_NAME";
     public static final String TOKEN_VALUE = "TOKEN_VALUE";
+    public static final String COMMON_TOKEN_VALUE_ID = "COMMON_TOKEN_VALUE_ID";
 
     public static final String RESOURCE_TYPES = "RESOURCE_TYPES";
     public static final String RESOURCE_TYPE = "RESOURCE_TYPE";
@@ -102,6 +106,7 @@ public class FhirSchemaConstants {
     // Constants for shared table names
     public static final String PARAMETER_NAMES = "PARAMETER_NAMES";
     public static final String CODE_SYSTEMS = "CODE_SYSTEMS";
+    public static final String COMMON_TOKEN_VALUES = "COMMON_TOKEN_VALUES";
     public static final String TENANTS = "TENANTS";
 
     // Each tenant can have multiple access keys (like API KEYS)
@@ -9,6 +9,8 @@ package com.ibm.fhir.schema.control;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE_SYSTEMS;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE_SYSTEM_ID;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE_SYSTEM_NAME;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.COMMON_TOKEN_VALUES;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.COMMON_TOKEN_VALUE_ID;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.DATE_END;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.DATE_START;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.DATE_VALUES;
@@ -44,6 +46,9 @@ import static com.ibm.fhir.schema.control.FhirSchemaConstants.TENANT_STATUS;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.TOKEN_VALUE;
 import static com.ibm.fhir.schema.control.FhirSchemaConstants.TOKEN_VALUES;
 
+import java.sql.Timestamp;
+import java.time.YearMonth;
+import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -55,6 +60,7 @@ import java.util.stream.Collectors;
 import com.ibm.fhir.database.utils.api.IDatabaseStatement;
 import com.ibm.fhir.database.utils.common.DropColumn;
 import com.ibm.fhir.database.utils.common.DropIndex;
+import com.ibm.fhir.database.utils.model.Generated;
 import com.ibm.fhir.database.utils.model.GroupPrivilege;
 import com.ibm.fhir.database.utils.model.IDatabaseObject;
 import com.ibm.fhir.database.utils.model.NopObject;
@@ -66,6 +72,7 @@ import com.ibm.fhir.database.utils.model.Sequence;
 import com.ibm.fhir.database.utils.model.SessionVariableDef;
 import com.ibm.fhir.database.utils.model.Table;
 import com.ibm.fhir.database.utils.model.Tablespace;
+import com.ibm.fhir.database.utils.postgresql.PostgreSqlAdapter;
 import com.ibm.fhir.model.type.code.FHIRResourceType;
 
 /**
@@ -85,6 +92,12 @@ public class FhirSchemaGenerator {
     private static final String ADD_RESOURCE_TYPE = "ADD_RESOURCE_TYPE";
     private static final String ADD_ANY_RESOURCE = "ADD_ANY_RESOURCE";
 
+    // The templates of the PostgreSql functions
+    private static final String POSTGRESQL_TEMPLATE_DIR = "postgresql/";
+
+    // The suffix of each monthly partition of the xx_RESOURCES tables, e.g. PATIENT_RESOURCES_P202010
+    private static final DateTimeFormatter PARTITION_MONTH_FORMAT = DateTimeFormatter.ofPattern("yyyyMM");
+
     // Tags used to control how we manage privilege grants
     public static final String TAG_GRANT = "GRANT";
     public static final String TAG_RESOURCE_PROCEDURE = "RESOURCE_PROCEDURE";
@@ -133,6 +146,7 @@ public class FhirSchemaGenerator {
     private Set<IDatabaseObject> procedureDependencies = new HashSet<>();
 
     private Table codeSystemsTable;
+    private Table commonTokenValuesTable;
     private Table parameterNamesTable;
     private Table resourceTypesTable;
 
@@ -155,6 +169,9 @@ public class FhirSchemaGenerator {
     // The default tablespace used for everything not specific to a tenant
     private Tablespace fhirTablespace;
 
+    // Partition the xx_RESOURCES tables by LAST_UPDATED when they are created (PostgreSql only)
+    private boolean partitionResourcesByLastUpdated;
+
     /**
      * Generate the IBM FHIR Server Schema for all resourceTypes
      *
@@ -203,6 +220,15 @@ public class FhirSchemaGenerator {
         this.resourceTypes = resourceTypes;
     }
 
+    /**
+     * Partition the xx_RESOURCES tables by month of LAST_UPDATED when they are created. This is
+     * only supported by PostgreSql, and has no effect on tables which already exist.
+     * @param flag
+     */
+    public void setPartitionResourcesByLastUpdated(boolean flag) {
+        this.partitionResourcesByLastUpdated = flag;
+    }
+
     /**
      * Build the admin part of the schema. One admin schema can support multiple FHIRDATA
      * schemas. It is also possible to have multiple admin schemas (on a dev system,
@@ -340,6 +366,7 @@ public class FhirSchemaGenerator {
         addFhirRefSequence(model);
         addParameterNames(model);
         addCodeSystems(model);
+        addCommonTokenValues(model);
         addResourceTypes(model);
         addLogicalResources(model); // for system-level parameter search
 
@@ -588,13 +615,14 @@ public class FhirSchemaGenerator {
 
         // The sessionVariable is used to enable access control on every table, so we
         // provide it as a dependency
-        FhirResourceTableGroup frg = new FhirResourceTableGroup(model, this.schemaName, sessionVariable, this.procedureDependencies, this.fhirTablespace, this.resourceTablePrivileges);
+        FhirResourceTableGroup frg = new FhirResourceTableGroup(model, this.schemaName, sessionVariable, this.procedureDependencies, this.fhirTablespace, this.resourceTablePrivileges,
+            this.partitionResourcesByLastUpdated);
         for (String resourceType: this.resourceTypes) {
             ObjectGroup group = frg.addResourceType(resourceType);
             group.addTag(SCHEMA_GROUP_TAG, FHIRDATA_GROUP);
 
             // Add additional dependencies the group doesn't yet know about
-            group.addDependencies(Arrays.asList(this.codeSystemsTable, this.parameterNamesTable, this.resourceTypesTable));
+            group.addDependencies(Arrays.asList(this.codeSystemsTable, this.commonTokenValuesTable, this.parameterNamesTable, this.resourceTypesTable));
 
             // Add all other dependencies that were explicitly passed
             group.addDependencies(Arrays.asList(dependency));
@@ -688,6 +716,48 @@ public class FhirSchemaGenerator {
 
     }
 
+    /**
+     * Add the common_token_values table to the database schema. Every distinct (code system, token value)
+     * pair is stored once in this table, and the per-resource-type token_values tables refer to it by id
+     * rather than repeating the (potentially long) token value string on every row.
+    CREATE TABLE common_token_values (
+      common_token_value_id  BIGINT GENERATED BY DEFAULT AS IDENTITY NOT NULL
+        CONSTRAINT pk_common_token_values PRIMARY KEY,
+      code_system_id           INT NOT NULL,
+      token_value             VARCHAR(1024 OCTETS) NOT NULL
+    );
+
+    CREATE UNIQUE INDEX idx_common_token_values_tvcs ON common_token_values(token_value, code_system_id) INCLUDE (common_token_value_id);
+    ALTER TABLE common_token_values ADD CONSTRAINT fk_common_token_values_cs FOREIGN KEY (code_system_id) REFERENCES code_systems;
+
+     * @param model
+     */
+    protected void addCommonTokenValues(PhysicalDataModel model) {
+
+        // The token value leads the index so that searches which don't specify a system can use it too
+        String[] tvcsIndexCols = {TOKEN_VALUE, CODE_SYSTEM_ID};
+        String[] tvcsIncludeCols = {COMMON_TOKEN_VALUE_ID};
+
+        commonTokenValuesTable = Table.builder(schemaName, COMMON_TOKEN_VALUES)
+                .setTenantColumnName(MT_ID)
+                .addBigIntColumn(      COMMON_TOKEN_VALUE_ID,                        false)
+                .addIntColumn(                CODE_SYSTEM_ID,                        false)
+                .addVarcharColumn(               TOKEN_VALUE, MAX_TOKEN_VALUE_BYTES, false)
+                .addUniqueIndex(IDX + COMMON_TOKEN_VALUES + "_TVCS", Arrays.asList(tvcsIndexCols), Arrays.asList(tvcsIncludeCols))
+                .addPrimaryKey(COMMON_TOKEN_VALUES + "_PK", COMMON_TOKEN_VALUE_ID)
+                .setIdentityColumn(COMMON_TOKEN_VALUE_ID, Generated.BY_DEFAULT)
+                .addForeignKeyConstraint(FK + COMMON_TOKEN_VALUES + "_CS", schemaName, CODE_SYSTEMS, CODE_SYSTEM_ID)
+                .setTablespace(fhirTablespace)
+                .addPrivileges(resourceTablePrivileges)
+                .enableAccessControl(this.sessionVariable)
+                .build(model);
+
+        this.commonTokenValuesTable.addTag(SCHEMA_GROUP_TAG, FHIRDATA_GROUP);
+        this.procedureDependencies.add(commonTokenValuesTable);
+        model.addTable(commonTokenValuesTable);
+        model.addObject(commonTokenValuesTable);
+    }
+
     /**
      * @param pdm
      */
@@ -701,6 +771,39 @@ public class FhirSchemaGenerator {
         //}
     }
 
+    /**
+     * Create or replace the PostgreSql functions used by FHIR to insert records into the FHIR
+     * resource tables. The procedures added by {@link #buildSchema(PhysicalDataModel)} are written
+     * for Db2 and are not applied to PostgreSql.
+     * @param adapter
+     */
+    public void applyPostgreSqlFunctions(PostgreSqlAdapter adapter) {
+        adapter.createOrReplaceFunction(this.schemaName, ADD_ANY_RESOURCE,
+            () -> SchemaGeneratorUtil.readTemplate(adminSchemaName, schemaName, POSTGRESQL_TEMPLATE_DIR + ADD_ANY_RESOURCE.toLowerCase() + ".sql", null));
+    }
+
+    /**
+     * Add a partition for each month in the given range to each of the xx_RESOURCES tables partitioned
+     * by LAST_UPDATED. Partitions which already exist are left alone. A partition cannot be added once the
+     * default partition holds rows for its month, so partitions should be added ahead of time.
+     * @param adapter
+     * @param firstMonth the month of the first partition (in UTC, like the LAST_UPDATED values)
+     * @param months the number of monthly partitions
+     */
+    public void applyResourcePartitions(PostgreSqlAdapter adapter, YearMonth firstMonth, int months) {
+        for (String resourceType: this.resourceTypes) {
+            final String tableName = resourceType.toUpperCase() + "_RESOURCES";
+            YearMonth month = firstMonth;
+            for (int i = 0; i < months; i++) {
+                final YearMonth next = month.plusMonths(1);
+                final String partitionName = tableName + "_P" + month.format(PARTITION_MONTH_FORMAT);
+                adapter.createRangePartition(this.schemaName, tableName, partitionName,
+                    Timestamp.valueOf(month.atDay(1).atStartOfDay()), Timestamp.valueOf(next.atDay(1).atStartOfDay()));
+                month = next;
+            }
+        }
+    }
+
     /**
      * Read the create procedure template which is made resource-type specific
      * @param resourceType
@@ -0,0 +1,94 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.schema.control;
+
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.CODE_SYSTEM_ID;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.COMMON_TOKEN_VALUES;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.COMMON_TOKEN_VALUE_ID;
+import static com.ibm.fhir.schema.control.FhirSchemaConstants.TOKEN_VALUE;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.database.utils.api.IDatabaseStatement;
+import com.ibm.fhir.database.utils.api.IDatabaseTranslator;
+import com.ibm.fhir.database.utils.common.DataDefinitionUtil;
+
+/**
+ * Moves the token values of an existing {@code <resourceType>_TOKEN_VALUES} table into
+ * COMMON_TOKEN_VALUES, and sets the COMMON_TOKEN_VALUE_ID of each row to the id of its
+ * (code system, token value) pair. Used when migrating the table from version 1, before
+ * the CODE_SYSTEM_ID and TOKEN_VALUE columns are dropped.
+ *
+ * @implNote On Db2, row access control is deactivated while the rows of all the tenants
+ *           are copied. It is activated again for COMMON_TOKEN_VALUES here, and for the
+ *           token values table when the table migration completes.
+ */
+public class MigrateTokenValues implements IDatabaseStatement {
+    private static final Logger logger = Logger.getLogger(MigrateTokenValues.class.getName());
+    private final String schemaName;
+    private final String tableName;
+    private final String tenantColumnName;
+
+    /**
+     * Public constructor
+     * @param schemaName
+     * @param tableName the token values table being migrated
+     * @param tenantColumnName the tenant column of the multi-tenant (Db2) schema
+     */
+    public MigrateTokenValues(String schemaName, String tableName, String tenantColumnName) {
+        DataDefinitionUtil.assertValidName(schemaName);
+        DataDefinitionUtil.assertValidName(tableName);
+        this.schemaName = schemaName;
+        this.tableName = tableName;
+        this.tenantColumnName = tenantColumnName;
+    }
+
+    @Override
+    public void run(IDatabaseTranslator translator, Connection c) {
+        final String tokenValues = DataDefinitionUtil.getQualifiedName(schemaName, tableName);
+        final String commonTokenValues = DataDefinitionUtil.getQualifiedName(schemaName, COMMON_TOKEN_VALUES);
+
+        // Only the Db2 schema is partitioned by tenant
+        final boolean multitenant = tenantColumnName != null && translator.getDriverClassName().contains("db2");
+        final String tenantCol = multitenant ? tenantColumnName + ", " : "";
+        final String tenantJoin = multitenant ? "C." + tenantColumnName + " = T." + tenantColumnName + " AND " : "";
+
+        final String insert = "INSERT INTO " + commonTokenValues + " (" + tenantCol + CODE_SYSTEM_ID + ", " + TOKEN_VALUE + ")"
+                + " SELECT DISTINCT " + (multitenant ? "T." : "") + tenantCol + "T." + CODE_SYSTEM_ID + ", T." + TOKEN_VALUE
+                + " FROM " + tokenValues + " T"
+                + " WHERE T." + TOKEN_VALUE + " IS NOT NULL"
+                + " AND NOT EXISTS (SELECT 1 FROM " + commonTokenValues + " C WHERE " + tenantJoin
+                + "C." + CODE_SYSTEM_ID + " = T." + CODE_SYSTEM_ID + " AND C." + TOKEN_VALUE + " = T." + TOKEN_VALUE + ")";
+
+        final String update = "UPDATE " + tokenValues + " T SET " + COMMON_TOKEN_VALUE_ID + " = "
+                + "(SELECT C." + COMMON_TOKEN_VALUE_ID + " FROM " + commonTokenValues + " C WHERE " + tenantJoin
+                + "C." + CODE_SYSTEM_ID + " = T." + CODE_SYSTEM_ID + " AND C." + TOKEN_VALUE + " = T." + TOKEN_VALUE + ")"
+                + " WHERE T." + TOKEN_VALUE + " IS NOT NULL";
+
+        try (Statement s = c.createStatement()) {
+            if (multitenant) {
+                s.executeUpdate("ALTER TABLE " + tokenValues + " DEACTIVATE ROW ACCESS CONTROL");
+                s.executeUpdate("ALTER TABLE " + commonTokenValues + " DEACTIVATE ROW ACCESS CONTROL");
+            }
+
+            int added = s.executeUpdate(insert);
+            int updated = s.executeUpdate(update);
+            logger.info("Migrated " + tableName + ": " + updated + " rows now refer to "
+                    + COMMON_TOKEN_VALUES + " (" + added + " new token values)");
+
+            if (multitenant) {
+                s.executeUpdate("ALTER TABLE " + commonTokenValues + " ACTIVATE ROW ACCESS CONTROL");
+            }
+        }
+        catch (SQLException x) {
+            throw translator.translate(x);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+-------------------------------------------------------------------------------
+-- (C) Copyright IBM Corp. 2020
+--
+-- SPDX-License-Identifier: Apache-2.0
+-------------------------------------------------------------------------------
+
+-- ----------------------------------------------------------------------------
+-- PostgreSQL function to add a resource version, equivalent to the Db2
+-- add_any_resource procedure. The whole logical resource/version upsert is
+-- done in a single call. The parameters are maintained by the caller, and only
+-- when o_current is 'Y'.
+-- p_resource_type: the resource type name
+-- p_logical_id: the logical id given to the resource by the FHIR server
+-- p_payload:    the BYTEA (of JSON) which is the resource content
+-- p_last_updated the last_updated time given by the FHIR server
+-- p_is_deleted: the soft delete flag
+-- p_version:    the version id if this is a replicated message
+-- o_logical_resource_id: output field returning the logical_resource_id
+-- o_resource_id: output field returning the newly assigned resource_id value
+-- o_new_resource: output field, 'Y' if the logical resource was created
+-- o_current: output field, 'Y' if the new version is now the current version
+-- ----------------------------------------------------------------------------
+    ( IN p_resource_type                 VARCHAR( 36),
+      IN p_logical_id                    VARCHAR(255),
+      IN p_payload                       BYTEA,
+      IN p_last_updated                  TIMESTAMP,
+      IN p_is_deleted                    VARCHAR(  1),
+      IN p_version                       INT,
+      OUT o_logical_resource_id          BIGINT,
+      OUT o_resource_id                  BIGINT,
+      OUT o_new_resource                 VARCHAR(  1),
+      OUT o_current                      VARCHAR(  1)
+    )
+    RETURNS RECORD
+    LANGUAGE plpgsql
+AS $$
+
+DECLARE
+  v_schema_name         VARCHAR(128);
+  v_current_resource_id  BIGINT := NULL;
+  v_resource_type_id        INT := NULL;
+  v_version                 INT := 0;
+  v_insert_version          INT := 0;
+
+BEGIN
+  -- use a variable for the schema in our dynamic statements to make them easier
+  -- to write
+  v_schema_name := '{{SCHEMA_NAME}}';
+  o_new_resource := 'N';
+  o_current := 'Y';
+
+  SELECT resource_type_id INTO v_resource_type_id
+    FROM {{SCHEMA_NAME}}.resource_types WHERE resource_type = p_resource_type;
+
+  IF v_resource_type_id IS NULL
+  THEN
+    -- the resource type is also used to build the table names below, so it must be a known one
+    RAISE EXCEPTION 'resource type not found: %', p_resource_type USING ERRCODE = '99002';
+  END IF;
+
+  -- Get a lock at the system-wide logical resource level
+  SELECT logical_resource_id INTO o_logical_resource_id
+    FROM {{SCHEMA_NAME}}.logical_resources
+   WHERE resource_type_id = v_resource_type_id AND logical_id = p_logical_id
+     FOR UPDATE;
+
+  -- Create the resource if we don't have it already
+  IF o_logical_resource_id IS NULL
+  THEN
+    o_logical_resource_id := nextval('{{SCHEMA_NAME}}.fhir_sequence');
+
+    -- remember that we have a concurrent system...so there is a possibility
+    -- that another thread snuck in before us and created the logical resource. The
+    -- insert then waits for that thread to commit, and does nothing
+    INSERT INTO {{SCHEMA_NAME}}.logical_resources (logical_resource_id, resource_type_id, logical_id)
+         VALUES (o_logical_resource_id, v_resource_type_id, p_logical_id)
+    ON CONFLICT DO NOTHING;
+
+    IF FOUND
+    THEN
+      -- we created the logical resource and therefore we already own the lock. So now we can
+      -- safely create the corresponding record in the resource-type-specific logical_resources table
+      EXECUTE 'INSERT INTO ' || v_schema_name || '.' || p_resource_type || '_logical_resources (logical_resource_id, logical_id) '
+           || '     VALUES ($1, $2)'
+        USING o_logical_resource_id, p_logical_id;
+      o_new_resource := 'Y';
+    ELSE
+      -- row exists, so we just need to obtain a lock on it. Because logical resource records are
+      -- never deleted, we don't need to worry about it disappearing again before we grab the row lock
+      SELECT logical_resource_id INTO o_logical_resource_id
+        FROM {{SCHEMA_NAME}}.logical_resources
+       WHERE resource_type_id = v_resource_type_id AND logical_id = p_logical_id
+         FOR UPDATE;
+    END IF;
+  END IF;
+
+  -- Remember everything is locked at the logical resource level, so we are thread-safe here
+  IF o_new_resource = 'N'
+  THEN
+    -- as this is an existing resource, we need to know the current resource id.
+    -- This is only available at the resource-specific logical_resources level
+    EXECUTE 'SELECT current_resource_id FROM ' || v_schema_name || '.' || p_resource_type || '_logical_resources '
+         || ' WHERE logical_resource_id = $1'
+       INTO v_current_resource_id
+      USING o_logical_resource_id;
+
+    IF v_current_resource_id IS NULL
+    THEN
+      -- our concurrency protection means that this shouldn't happen
+      RAISE EXCEPTION 'Schema data corruption - missing logical resource' USING ERRCODE = '99002';
+    END IF;
+
+    -- resource exists, so if we are storing a specific version, do a quick check to make
+    -- sure that this version doesn't currently exist. This is only done when processing
+    -- replication messages which might be duplicated
+    IF p_version IS NOT NULL
+    THEN
+      EXECUTE 'SELECT resource_id FROM ' || v_schema_name || '.' || p_resource_type || '_resources dr '
+           || ' WHERE dr.logical_resource_id = $1 '
+           || '   AND dr.version_id = $2'
+         INTO o_resource_id
+        USING o_logical_resource_id, p_version;
+
+      IF o_resource_id IS NOT NULL
+      THEN
+        -- this version of this resource already exists, so we bail out right away (we
+        -- don't allow any updating of an existing resource version)
+        o_current := 'N';
+        RETURN;
+      END IF;
+    END IF;
+
+    -- Grab the version_id for the current version
+    EXECUTE 'SELECT version_id FROM ' || v_schema_name || '.' || p_resource_type || '_resources '
+         || ' WHERE resource_id = $1'
+       INTO v_version
+      USING v_current_resource_id;
+
+    IF v_version IS NULL
+    THEN
+      RAISE EXCEPTION 'Schema data corruption - missing current resource' USING ERRCODE = '99002';
+    END IF;
+  END IF;
+
+  -- Persist the data using the given version number if required
+  IF p_version IS NOT NULL
+  THEN
+    v_insert_version := p_version;
+  ELSE
+    v_insert_version := v_version + 1;
+  END IF;
+
+  -- Create the new resource version.
+  -- uses last_updated time from the app-server, so we have consistency between the various DAOs
+  o_resource_id := nextval('{{SCHEMA_NAME}}.fhir_sequence');
+
+  EXECUTE 'INSERT INTO ' || v_schema_name || '.' || p_resource_type || '_resources (resource_id, logical_resource_id, version_id, data, last_updated, is_deleted) '
+       || ' VALUES ($1, $2, $3, $4, $5, $6)'
+    USING o_resource_id, o_logical_resource_id, v_insert_version, p_payload, p_last_updated, p_is_deleted;
+
+  IF p_version IS NULL OR p_version > v_version
+  THEN
+    -- only update the logical resource if the resource we are adding supercedes the
+    -- the current resource
+    EXECUTE 'UPDATE ' || v_schema_name || '.' || p_resource_type || '_logical_resources SET current_resource_id = $1 WHERE logical_resource_id = $2'
+      USING o_resource_id, o_logical_resource_id;
+  ELSE
+    o_current := 'N';
+  END IF;
+END $$
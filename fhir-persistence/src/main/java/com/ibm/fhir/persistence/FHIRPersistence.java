@@ -6,9 +6,15 @@
 
 package com.ibm.fhir.persistence;
 
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
 import com.ibm.fhir.model.resource.OperationOutcome;
 import com.ibm.fhir.model.resource.Resource;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.exception.FHIRPersistenceBatchRolledBackException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceNotSupportedException;
 
@@ -69,6 +75,51 @@ public interface FHIRPersistence {
      */
     <T extends Resource> SingleResourceResult<T> update(FHIRPersistenceContext context, String logicalId, T resource) throws FHIRPersistenceException;
 
+    /**
+     * Stores a batch of new FHIR Resources in the datastore.
+     * Implementations may override this method to store the resources more efficiently than one at a time;
+     * the default implementation simply calls {@link #create(FHIRPersistenceContext, Resource)} for each resource.
+     * When the batch fails, some of its resources may have been stored in the current transaction, unless the
+     * exception is a {@link FHIRPersistenceBatchRolledBackException}. Implementations which cannot undo a failed batch
+     * may instead store the resources one at a time and report the failure of a resource in an unsuccessful result.
+     *
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resources the FHIR Resource instances to be created in the datastore
+     * @return a list of SingleResourceResult, one per resource and in the same order as the passed resources
+     * @throws FHIRPersistenceException
+     */
+    default <T extends Resource> List<SingleResourceResult<T>> createBatch(FHIRPersistenceContext context, List<T> resources)
+            throws FHIRPersistenceException {
+        List<SingleResourceResult<T>> results = new ArrayList<>(resources.size());
+        for (T resource : resources) {
+            results.add(create(context, resource));
+        }
+        return results;
+    }
+
+    /**
+     * Updates a batch of existing FHIR Resources by storing a new version of each in the datastore.
+     * The logical id of each resource is taken from its id element.
+     * Implementations may override this method to store the resources more efficiently than one at a time;
+     * the default implementation simply calls {@link #update(FHIRPersistenceContext, String, Resource)} for each resource.
+     * When the batch fails, some of its resources may have been stored in the current transaction, unless the
+     * exception is a {@link FHIRPersistenceBatchRolledBackException}. Implementations which cannot undo a failed batch
+     * may instead store the resources one at a time and report the failure of a resource in an unsuccessful result.
+     *
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resources the new contents of the FHIR Resources to be stored
+     * @return a list of SingleResourceResult, one per resource and in the same order as the passed resources
+     * @throws FHIRPersistenceException
+     */
+    default <T extends Resource> List<SingleResourceResult<T>> updateBatch(FHIRPersistenceContext context, List<T> resources)
+            throws FHIRPersistenceException {
+        List<SingleResourceResult<T>> results = new ArrayList<>(resources.size());
+        for (T resource : resources) {
+            results.add(update(context, resource.getId(), resource));
+        }
+        return results;
+    }
+
     /**
      * Deletes the specified FHIR Resource from the datastore.
      *
@@ -106,6 +157,43 @@ public interface FHIRPersistence {
      */
     MultiResourceResult<Resource> search(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException;
 
+    /**
+     * Performs a search on the specified target resource type using the specified search parameters, and returns
+     * the resources of the requested page as a stream. Implementations may override this method to read the resources
+     * from the datastore as the stream is consumed, rather than holding the whole page in memory;
+     * the default implementation simply streams the result of {@link #search(FHIRPersistenceContext, Class)}.
+     * The stream may hold datastore resources open, so callers must close it, and must consume it within the
+     * transaction in which it was opened.
+     *
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resourceType the resource type which is the target of the search
+     * @return a Stream of the FHIR Resources in the search result set
+     * @throws FHIRPersistenceException
+     */
+    default Stream<Resource> searchStream(FHIRPersistenceContext context, Class<? extends Resource> resourceType) throws FHIRPersistenceException {
+        List<Resource> resources = search(context, resourceType).getResource();
+        return resources != null ? resources.stream() : Stream.empty();
+    }
+
+    /**
+     * Deletes up to maxVersions of the older versions of resources of the specified type which are not retained by
+     * the specified policy. The current version of a resource is never deleted. A version is retained when it is one
+     * of the keepVersions latest versions of its resource, or when it was last updated at or after keepSince.
+     * Callers prune the history in batches, each within its own transaction, until no more versions are deleted.
+     *
+     * @param context the FHIRPersistenceContext instance associated with the current request
+     * @param resourceType the resource type whose history is pruned
+     * @param keepVersions the number of latest versions to retain, or 0 to retain versions by age only
+     * @param keepSince versions last updated at or after this time are retained, or null to retain versions by count only
+     * @param maxVersions the maximum number of versions to delete
+     * @return the number of versions deleted
+     * @throws FHIRPersistenceException
+     */
+    default int pruneHistory(FHIRPersistenceContext context, Class<? extends Resource> resourceType, int keepVersions, Instant keepSince,
+            int maxVersions) throws FHIRPersistenceException {
+        throw new FHIRPersistenceNotSupportedException("The 'pruneHistory' operation is not supported by this persistence implementation");
+    }
+
     /**
      * Returns true iff the persistence layer implementation supports transactions.
      */
@@ -130,4 +218,11 @@ public interface FHIRPersistence {
     default boolean isDeleteSupported() {
         return false;
     }
+
+    /**
+     * Returns true iff the persistence layer implementation supports the "pruneHistory" operation.
+     */
+    default boolean isHistoryPruningSupported() {
+        return false;
+    }
 }
@@ -38,4 +38,11 @@ public interface FHIRPersistenceContext {
      * Indicates whether the persistence layer should include "deleted" resources in the operation response.
      */
     boolean includeDeleted();
+
+    /**
+     * Indicates whether the reads of the current request may be served by a read replica of the datastore,
+     * which may lag behind the primary database. This is only the case for a plain search, history or vread
+     * interaction running in its own transaction; it is false by default.
+     */
+    boolean isReadReplicaAllowed();
 }
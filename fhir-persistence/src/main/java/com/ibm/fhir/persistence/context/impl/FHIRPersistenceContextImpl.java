@@ -21,6 +21,7 @@ public class FHIRPersistenceContextImpl implements FHIRPersistenceContext {
     private FHIRHistoryContext historyContext;
     private FHIRSearchContext searchContext;
     private boolean includeDeleted;
+    private boolean readReplicaAllowed;
     
     public FHIRPersistenceContextImpl(FHIRPersistenceEvent pe) {
         this.persistenceEvent = pe;
@@ -81,4 +82,16 @@ public class FHIRPersistenceContextImpl implements FHIRPersistenceContext {
     public void setIncludeDeleted(boolean includeDeleted) {
         this.includeDeleted = includeDeleted;
     }
+
+    /* (non-Javadoc)
+     * @see com.ibm.fhir.persistence.context.FHIRPersistenceContext#isReadReplicaAllowed()
+     */
+    @Override
+    public boolean isReadReplicaAllowed() {
+        return readReplicaAllowed;
+    }
+
+    public void setReadReplicaAllowed(boolean readReplicaAllowed) {
+        this.readReplicaAllowed = readReplicaAllowed;
+    }
 }
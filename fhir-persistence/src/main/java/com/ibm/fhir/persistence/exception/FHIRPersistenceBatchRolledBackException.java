@@ -0,0 +1,37 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.exception;
+
+import java.util.Collection;
+
+import com.ibm.fhir.model.resource.OperationOutcome;
+
+/**
+ * Thrown when a batch of resources could not be stored, and the work done for the batch has been rolled back:
+ * none of its resources was stored, and the current transaction can still be used (for example, to store the
+ * same resources one at a time). The cause is the failure of the batch.
+ */
+public class FHIRPersistenceBatchRolledBackException extends FHIRPersistenceException {
+
+    private static final long serialVersionUID = 1L;
+
+    public FHIRPersistenceBatchRolledBackException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+    @Override
+    public FHIRPersistenceException withIssue(OperationOutcome.Issue... issues) {
+        super.withIssue(issues);
+        return this;
+    }
+
+    @Override
+    public FHIRPersistenceException withIssue(Collection<OperationOutcome.Issue> issues) {
+        super.withIssue(issues);
+        return this;
+    }
+}
@@ -44,6 +44,14 @@ public class FHIRTransactionHelper {
         }
     }
 
+    /**
+     * Returns true if this helper instance started the transaction on the current thread (rather than joining
+     * one that was already active), and has not committed it yet.
+     */
+    public boolean isTxnStarted() {
+        return txnStarted;
+    }
+
     /**
      * If we previously started a transaction on this thread using this helper instance,
      * then commit it now.
@@ -59,6 +59,7 @@ public class FHIRPersistenceEvent {
     private Resource fhirResource;
     private Resource prevFhirResource = null;
     private boolean  prevFhirResourceSet = false;
+    private boolean  prevFhirResourceDeleted = false;
     private Map<String, Object> properties;
     
     /**
@@ -130,6 +131,22 @@ public class FHIRPersistenceEvent {
         return prevFhirResourceSet;
     }
 
+    /**
+     * Returns true if the "previous" resource associated with an "update" request is the content of
+     * a deleted resource (read with its deleted versions included).
+     */
+    public boolean isPrevFhirResourceDeleted() {
+        return prevFhirResourceDeleted;
+    }
+
+    /**
+     * Sets whether the "previous" resource associated with an "update" request has been deleted.
+     * Interceptor implementations should *not* call this method.  This method is reserved for use by the FHIR Server.
+     */
+    public void setPrevFhirResourceDeleted(boolean prevFhirResourceDeleted) {
+        this.prevFhirResourceDeleted = prevFhirResourceDeleted;
+    }
+
     /**
      * Returns the resource type associated with the FHIR REST API request that triggered the
      * interceptor invocation.   This will be non-null for a 
@@ -126,8 +126,10 @@ public class ResourceFingerprintVisitor extends PathAwareVisitor {
     @Override
     public void visit(java.lang.String elementName, java.lang.Integer value) {
         if (includePath()) {
+            digest.update(getPath().getBytes(StandardCharsets.UTF_8));
             ByteBuffer bb = ByteBuffer.allocate(4);
             bb.putInt(value);
+            bb.flip();
             digest.update(bb);
         }
     }
@@ -195,7 +197,19 @@ public class ResourceFingerprintVisitor extends PathAwareVisitor {
         String versionIdName = currentResourceName + ".meta.versionId";
         String lastUpdatedName = currentResourceName + ".meta.lastUpdated";
         String path = getPath();
-        return !path.startsWith(idName) && !path.startsWith(versionIdName) && !path.startsWith(lastUpdatedName);
+        return !isPathOrChild(path, idName) && !isPathOrChild(path, versionIdName) && !isPathOrChild(path, lastUpdatedName);
         
     }
+
+    /**
+     * Test whether the path is the given element or one of its children. A plain startsWith
+     * would also match siblings sharing the prefix, such as Patient.identifier for Patient.id
+     * @param path
+     * @param elementPath
+     * @return
+     */
+    private static boolean isPathOrChild(String path, String elementPath) {
+        return path.startsWith(elementPath)
+                && (path.length() == elementPath.length() || path.charAt(elementPath.length()) == '.');
+    }
 }
@@ -202,6 +202,46 @@ public abstract class AbstractSearchIdAndLastUpdatedTest extends AbstractPLSearc
         assertTrue(isResourceInResponse(savedResource, resources), "Expected resource not found in the response");
     }
 
+    @Test
+    public void testSearchUsingLastUpdatedResource() throws Exception {
+        Map<String, List<String>> queryParms = new HashMap<String, List<String>>();
+        String dateTime = savedResource.getMeta().getLastUpdated().getValue().toString();
+        queryParms.put("_lastUpdated", Collections.singletonList(dateTime));
+
+        List<Resource> resources = runQueryTest(Basic.class, queryParms);
+        assertNotNull(resources);
+        assertTrue(isResourceInResponse(savedResource, resources), "Expected resource not found in the response");
+        for (Resource resource : resources) {
+            assertEquals(resource.getMeta().getLastUpdated(), savedResource.getMeta().getLastUpdated());
+        }
+    }
+
+    @Test
+    public void testSearchUsingMultipleIdsResource() throws Exception {
+        Map<String, List<String>> queryParms = new HashMap<String, List<String>>();
+        queryParms.put("_id", Collections.singletonList(savedResource.getId() + ",not-a-saved-id"));
+
+        List<Resource> resources = runQueryTest(Basic.class, queryParms);
+        assertNotNull(resources);
+        assertEquals(resources.size(), 1, "Number of resources returned");
+        assertTrue(isResourceInResponse(savedResource, resources), "Expected resource not found in the response");
+    }
+
+    @Test
+    public void testSearchWholeSystemUsingLastUpdatedAndType() throws Exception {
+        Map<String, List<String>> queryParms = new HashMap<String, List<String>>();
+        String dateTime = savedResource.getMeta().getLastUpdated().getValue().toString();
+        queryParms.put("_lastUpdated", Collections.singletonList("ge" + dateTime));
+        queryParms.put("_type", Collections.singletonList("Basic"));
+
+        List<Resource> resources = runQueryTest(Resource.class, queryParms, 1000);
+        assertNotNull(resources);
+        assertTrue(isResourceInResponse(savedResource, resources), "Expected resource not found in the response");
+        for (Resource resource : resources) {
+            assertTrue(resource instanceof Basic, "Unexpected resource type in the response");
+        }
+    }
+
     @Test()
     public void testPatientCompartmentForBulkData() throws Exception {
 
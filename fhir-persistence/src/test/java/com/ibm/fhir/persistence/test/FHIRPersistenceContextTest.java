@@ -86,5 +86,9 @@ public class FHIRPersistenceContextTest {
         assertEquals(sc, ctxt.getSearchContext());
         assertFalse(ctxt.includeDeleted());
         assertNull(ctxt.getHistoryContext());
+        assertFalse(ctxt.isReadReplicaAllowed());
+
+        ((FHIRPersistenceContextImpl)ctxt).setReadReplicaAllowed(true);
+        assertTrue(ctxt.isReadReplicaAllowed());
     }
 }
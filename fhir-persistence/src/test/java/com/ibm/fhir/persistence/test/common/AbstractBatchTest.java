@@ -0,0 +1,91 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.test.common;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.UUID;
+
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Basic;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.test.TestUtil;
+import com.ibm.fhir.model.type.Code;
+import com.ibm.fhir.model.type.Coding;
+import com.ibm.fhir.model.type.Meta;
+import com.ibm.fhir.persistence.SingleResourceResult;
+import com.ibm.fhir.persistence.context.FHIRHistoryContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+
+/**
+ * This class contains tests for the batch create and update operations.
+ */
+public abstract class AbstractBatchTest extends AbstractPersistenceTest {
+    private List<String> createdIds = new ArrayList<>();
+    private final String tag = "batchTest-" + UUID.randomUUID().toString();
+
+    @Test
+    public void testCreateBatch() throws Exception {
+        Basic basic = TestUtil.readExampleResource("json/ibm/minimal/Basic-1.json");
+        List<Basic> resources = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            resources.add(basic.toBuilder().meta(tag(tag)).build());
+        }
+
+        List<SingleResourceResult<Basic>> results = persistence.createBatch(getDefaultPersistenceContext(), resources);
+        assertEquals(results.size(), 3);
+        for (SingleResourceResult<Basic> result : results) {
+            assertTrue(result.isSuccess());
+            Basic created = result.getResource();
+            assertNotNull(created.getId());
+            assertEquals(created.getMeta().getVersionId().getValue(), "1");
+            createdIds.add(created.getId());
+        }
+        assertEquals(createdIds.stream().distinct().count(), 3);
+
+        List<Resource> searchResults = runQueryTest(Basic.class, "_tag", tag);
+        assertEquals(searchResults.size(), 3);
+    }
+
+    @Test(dependsOnMethods = { "testCreateBatch" })
+    public void testUpdateBatch() throws Exception {
+        Basic basic = persistence.read(getDefaultPersistenceContext(), Basic.class, createdIds.get(0)).getResource();
+        Basic other = persistence.read(getDefaultPersistenceContext(), Basic.class, createdIds.get(1)).getResource();
+
+        // the same resource twice in one batch gets two new versions
+        List<Basic> resources = Arrays.asList(basic, other, basic);
+        List<SingleResourceResult<Basic>> results = persistence.updateBatch(getDefaultPersistenceContext(), resources);
+        assertEquals(results.size(), 3);
+        assertEquals(results.get(0).getResource().getMeta().getVersionId().getValue(), "2");
+        assertEquals(results.get(1).getResource().getMeta().getVersionId().getValue(), "2");
+        assertEquals(results.get(2).getResource().getMeta().getVersionId().getValue(), "3");
+
+        FHIRHistoryContext historyContext = FHIRPersistenceContextFactory.createHistoryContext();
+        FHIRPersistenceContext context = this.getPersistenceContextForHistory(historyContext);
+        List<Basic> history = persistence.history(context, Basic.class, basic.getId()).getResource();
+        assertEquals(history.size(), 3);
+
+        // the search parameters of the previous versions have been replaced, not duplicated
+        List<Resource> searchResults = runQueryTest(Basic.class, "_tag", tag);
+        assertEquals(searchResults.size(), 3);
+    }
+
+    private Meta tag(String tag) {
+        return Meta.builder()
+                   .tag(Coding.builder()
+                              .code(Code.of(tag))
+                              .build())
+                   .build();
+    }
+}
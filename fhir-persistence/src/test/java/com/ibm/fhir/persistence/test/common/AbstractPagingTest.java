@@ -1,5 +1,5 @@
 /*
- * (C) Copyright IBM Corp. 2016,2019
+ * (C) Copyright IBM Corp. 2016,2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
@@ -12,6 +12,8 @@ import static org.testng.Assert.assertTrue;
 import static org.testng.AssertJUnit.assertNotNull;
 import static com.ibm.fhir.model.test.TestUtil.isResourceInResponse;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
@@ -38,6 +40,7 @@ import com.ibm.fhir.persistence.MultiResourceResult;
 import com.ibm.fhir.persistence.context.FHIRHistoryContext;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.search.context.FHIRSearchContext;
 import com.ibm.fhir.search.util.SearchUtil;
 
@@ -120,6 +123,116 @@ public abstract class AbstractPagingTest extends AbstractPersistenceTest {
         assertTrue(isResourceInResponse(resource3, results));
     }
     
+    @Test
+    public void testSearchPagingWithoutTotal() throws Exception {
+        for (String total : Arrays.asList("none", "estimate")) {
+            List<String> ids = new ArrayList<>();
+            for (int page = 1; page <= 3; page++) {
+                Map<String, List<String>> queryParameters = new HashMap<>();
+                queryParameters.put("_sort", Collections.singletonList("integer"));
+                queryParameters.put("_tag", Collections.singletonList("pagingTest"));
+                queryParameters.put("_page", Collections.singletonList(String.valueOf(page)));
+                queryParameters.put("_total", Collections.singletonList(total));
+                FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(Basic.class, queryParameters);
+                MultiResourceResult<Resource> result = runQueryTest(searchContext, Basic.class, queryParameters, 1);
+                assertTrue(result.isSuccess());
+                assertEquals(result.getResource().size(), 1, "expected number of results");
+                ids.add(result.getResource().get(0).getId());
+                // the last page is known once it has been reached
+                assertEquals(searchContext.getLastPageNumber(), page < 3 ? page + 1 : 3, "expected last page number");
+            }
+            assertEquals(ids, Arrays.asList(resource1.getId(), resource2.getId(), resource3.getId()));
+        }
+    }
+    
+    // _count=0 asks for the count alone, which is computed even when the client also asked for _total=none
+    @Test
+    public void testSearchCountOnlyWithoutTotal() throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("_tag", Collections.singletonList("pagingTest"));
+        queryParameters.put("_count", Collections.singletonList("0"));
+        queryParameters.put("_total", Collections.singletonList("none"));
+        FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(Basic.class, queryParameters);
+        MultiResourceResult<Resource> result = runQueryTest(searchContext, Basic.class, queryParameters, null);
+        assertTrue(result.isSuccess());
+        assertTrue(result.getResource().isEmpty(), "expected no resources");
+        assertEquals(searchContext.getTotalCount(), 3, "expected total count");
+    }
+    
+    // This test assumes the persistence layer under test was configured to use keyset pagination
+    @Test
+    public void testSearchPagingWithContinuationToken() throws Exception {
+        assertEquals(searchWithContinuationTokens("integer"),
+                Arrays.asList(resource1.getId(), resource2.getId(), resource3.getId()));
+        assertEquals(searchWithContinuationTokens("-integer"),
+                Arrays.asList(resource3.getId(), resource2.getId(), resource1.getId()));
+        assertEquals(searchWithContinuationTokens(null),
+                Arrays.asList(resource1.getId(), resource2.getId(), resource3.getId()));
+    }
+    
+    // Searches on _id alone are built by the _id/_lastUpdated fast path of the query builder
+    @Test
+    public void testSearchPagingById() throws Exception {
+        String ids = resource1.getId() + "," + resource2.getId() + "," + resource3.getId();
+        List<String> resultIds = new ArrayList<>();
+        for (int page = 1; page <= 3; page++) {
+            Map<String, List<String>> queryParameters = new HashMap<>();
+            queryParameters.put("_id", Collections.singletonList(ids));
+            queryParameters.put("_page", Collections.singletonList(String.valueOf(page)));
+            FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(Basic.class, queryParameters);
+            MultiResourceResult<Resource> result = runQueryTest(searchContext, Basic.class, queryParameters, 1);
+            assertTrue(result.isSuccess());
+            assertEquals(searchContext.getTotalCount(), 3, "expected total count");
+            for (Resource resource : result.getResource()) {
+                resultIds.add(resource.getId());
+            }
+        }
+        assertEquals(resultIds, Arrays.asList(resource1.getId(), resource2.getId(), resource3.getId()));
+
+        Map<String, List<String>> filter = new HashMap<>();
+        filter.put("_id", Collections.singletonList(ids));
+        assertEquals(searchWithContinuationTokens(null, filter),
+                Arrays.asList(resource1.getId(), resource2.getId(), resource3.getId()));
+    }
+    
+    @Test(expectedExceptions = FHIRPersistenceException.class)
+    public void testInvalidContinuationToken() throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("_sort", Collections.singletonList("integer"));
+        queryParameters.put("_tag", Collections.singletonList("pagingTest"));
+        queryParameters.put("_cursor", Collections.singletonList("not-a-valid-token"));
+        runQueryTest(Basic.class, queryParameters, 1);
+    }
+    
+    /**
+     * Follows the continuation tokens of a search with a page size of 1, returning the ids of the resources
+     * in the order they were returned.
+     */
+    private List<String> searchWithContinuationTokens(String sort) throws Exception {
+        return searchWithContinuationTokens(sort, Collections.singletonMap("_tag", Collections.singletonList("pagingTest")));
+    }
+    
+    private List<String> searchWithContinuationTokens(String sort, Map<String, List<String>> filter) throws Exception {
+        List<String> ids = new ArrayList<>();
+        String continuationToken = null;
+        do {
+            Map<String, List<String>> queryParameters = new HashMap<>(filter);
+            if (sort != null) {
+                queryParameters.put("_sort", Collections.singletonList(sort));
+            }
+            if (continuationToken != null) {
+                queryParameters.put("_cursor", Collections.singletonList(continuationToken));
+            }
+            FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(Basic.class, queryParameters);
+            MultiResourceResult<Resource> result = runQueryTest(searchContext, Basic.class, queryParameters, 1);
+            assertTrue(result.isSuccess());
+            assertEquals(result.getResource().size(), 1, "expected number of results");
+            ids.add(result.getResource().get(0).getId());
+            continuationToken = searchContext.getNextContinuationToken();
+        } while (continuationToken != null && ids.size() <= 3);
+        return ids;
+    }
+    
     // history results should be sorted with oldest versions last
     @Test
     public void testHistoryPaging() throws Exception {
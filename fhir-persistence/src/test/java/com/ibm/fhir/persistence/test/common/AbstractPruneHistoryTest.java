@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.test.common;
+
+import static com.ibm.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Substance;
+import com.ibm.fhir.model.type.CodeableConcept;
+import com.ibm.fhir.persistence.context.FHIRHistoryContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+
+/**
+ * This class contains tests for pruning the older versions of resources according to a history retention policy.
+ */
+public abstract class AbstractPruneHistoryTest extends AbstractPersistenceTest {
+    protected String substanceId;
+    protected String otherSubstanceId;
+
+    @BeforeClass
+    public void createResources() throws Exception {
+        substanceId = createVersions("prune-history-1", 5);
+        otherSubstanceId = createVersions("prune-history-2", 2);
+    }
+
+    /**
+     * Creates a Substance with the given number of versions, and returns its logical id.
+     */
+    private String createVersions(String text, int versions) throws Exception {
+        Substance substance = Substance.builder()
+                .code(CodeableConcept.builder().text(string(text + "-v1")).build())
+                .build();
+        String logicalId = persistence.create(getDefaultPersistenceContext(), substance).getResource().getId();
+        for (int v = 2; v <= versions; v++) {
+            substance = persistence.read(getDefaultPersistenceContext(), Substance.class, logicalId).getResource();
+            substance = substance.toBuilder()
+                    .code(CodeableConcept.builder().text(string(text + "-v" + v)).build())
+                    .build();
+            persistence.update(getDefaultPersistenceContext(), logicalId, substance);
+        }
+        return logicalId;
+    }
+
+    @Test
+    public void testPruneNothingSince() throws Exception {
+        assertTrue(persistence.isHistoryPruningSupported());
+
+        // every version was updated after yesterday, so all are retained
+        Instant yesterday = Instant.now().minus(1, ChronoUnit.DAYS);
+        assertEquals(persistence.pruneHistory(getDefaultPersistenceContext(), Substance.class, 0, yesterday, 10), 0);
+        assertEquals(getVersions(substanceId).size(), 5);
+        assertEquals(getVersions(otherSubstanceId).size(), 2);
+    }
+
+    @Test(dependsOnMethods = { "testPruneNothingSince" })
+    public void testPruneKeepVersions() throws Exception {
+        // one version at a time, until nothing is left to prune (the datastore may hold other substances)
+        int total = 0;
+        int deleted;
+        do {
+            deleted = persistence.pruneHistory(getDefaultPersistenceContext(), Substance.class, 3, null, 1);
+            assertTrue(deleted <= 1);
+            total += deleted;
+        } while (deleted > 0);
+        assertTrue(total >= 2);
+
+        List<Substance> versions = getVersions(substanceId);
+        assertEquals(versions.size(), 3);
+        assertEquals(versions.get(0).getMeta().getVersionId().getValue(), "5");
+        assertEquals(versions.get(2).getMeta().getVersionId().getValue(), "3");
+        assertEquals(getVersions(otherSubstanceId).size(), 2);
+    }
+
+    @Test(dependsOnMethods = { "testPruneKeepVersions" })
+    public void testPruneKeepSince() throws Exception {
+        // every version was updated before tomorrow, so only the current versions are retained
+        Instant tomorrow = Instant.now().plus(1, ChronoUnit.DAYS);
+        int deleted;
+        do {
+            deleted = persistence.pruneHistory(getDefaultPersistenceContext(), Substance.class, 0, tomorrow, 100);
+        } while (deleted > 0);
+
+        List<Substance> versions = getVersions(substanceId);
+        assertEquals(versions.size(), 1);
+        assertEquals(versions.get(0).getMeta().getVersionId().getValue(), "5");
+        assertEquals(getVersions(otherSubstanceId).size(), 1);
+
+        Substance current = persistence.read(getDefaultPersistenceContext(), Substance.class, substanceId).getResource();
+        assertEquals(current.getCode().getText().getValue(), "prune-history-1-v5");
+    }
+
+    private List<Substance> getVersions(String logicalId) throws Exception {
+        FHIRHistoryContext historyContext = FHIRPersistenceContextFactory.createHistoryContext();
+        FHIRPersistenceContext context = this.getPersistenceContextForHistory(historyContext);
+        return persistence.history(context, Substance.class, logicalId).getResource();
+    }
+}
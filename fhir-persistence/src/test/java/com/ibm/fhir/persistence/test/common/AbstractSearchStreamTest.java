@@ -0,0 +1,138 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.test.common;
+
+import static org.testng.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.model.resource.Basic;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.test.TestUtil;
+import com.ibm.fhir.model.type.Code;
+import com.ibm.fhir.model.type.Coding;
+import com.ibm.fhir.model.type.Extension;
+import com.ibm.fhir.model.type.Integer;
+import com.ibm.fhir.model.type.Meta;
+import com.ibm.fhir.search.context.FHIRSearchContext;
+import com.ibm.fhir.search.util.SearchUtil;
+
+/**
+ * This class contains tests which check that a streamed search returns the same page of resources, in the same
+ * order, as the corresponding search.
+ */
+public abstract class AbstractSearchStreamTest extends AbstractPersistenceTest {
+    private static final String TAG = "searchStreamTest";
+
+    private List<Basic> savedResources = new ArrayList<>();
+
+    @BeforeClass
+    public void createResources() throws Exception {
+        FHIRRequestContext.get().setTenantId("all");
+
+        Basic resource = TestUtil.readExampleResource("json/ibm/minimal/Basic-1.json");
+
+        // save them in reverse order, so that the sorted order differs from the order of insertion
+        for (int i = 5; i >= 1; i--) {
+            Basic basic = resource.toBuilder()
+                    .extension(Extension.builder()
+                        .url("http://example.org/integer")
+                        .value(Integer.of(i))
+                        .build())
+                    .meta(Meta.builder()
+                        .tag(Coding.builder().code(Code.of(TAG)).build())
+                        .build())
+                    .build();
+            savedResources.add(persistence.create(getDefaultPersistenceContext(), basic).getResource());
+        }
+    }
+
+    @AfterClass
+    public void removeSavedResourcesAndResetTenant() throws Exception {
+        if (persistence.isDeleteSupported()) {
+            for (Resource resource : savedResources) {
+                persistence.delete(getDefaultPersistenceContext(), Basic.class, resource.getId());
+            }
+            if (persistence.isTransactional()) {
+                persistence.getTransaction().commit();
+            }
+        }
+        FHIRRequestContext.get().setTenantId("default");
+    }
+
+    @Test
+    public void testUnsortedStream() throws Exception {
+        for (int page = 1; page <= 3; page++) {
+            Map<String, List<String>> queryParameters = new HashMap<>();
+            queryParameters.put("_tag", Collections.singletonList(TAG));
+            queryParameters.put("_count", Collections.singletonList("2"));
+            queryParameters.put("_page", Collections.singletonList(String.valueOf(page)));
+
+            List<String> expected = ids(runQueryTest(Basic.class, queryParameters));
+            List<String> streamed = ids(runStreamTest(Basic.class, queryParameters));
+            assertEquals(streamed, expected);
+            assertEquals(streamed.size(), page < 3 ? 2 : 1);
+        }
+    }
+
+    @Test
+    public void testSortedStream() throws Exception {
+        List<String> streamed = new ArrayList<>();
+        for (int page = 1; page <= 3; page++) {
+            Map<String, List<String>> queryParameters = new HashMap<>();
+            queryParameters.put("_tag", Collections.singletonList(TAG));
+            queryParameters.put("_sort", Collections.singletonList("integer"));
+            queryParameters.put("_count", Collections.singletonList("2"));
+            queryParameters.put("_page", Collections.singletonList(String.valueOf(page)));
+
+            List<String> pageIds = ids(runStreamTest(Basic.class, queryParameters));
+            assertEquals(pageIds, ids(runQueryTest(Basic.class, queryParameters)));
+            streamed.addAll(pageIds);
+        }
+
+        // sorted by the integer extension, which is the reverse of the order of insertion
+        List<String> expected = ids(new ArrayList<>(savedResources));
+        Collections.reverse(expected);
+        assertEquals(streamed, expected);
+    }
+
+    @Test
+    public void testStreamTotal() throws Exception {
+        Map<String, List<String>> queryParameters = new HashMap<>();
+        queryParameters.put("_tag", Collections.singletonList(TAG));
+        queryParameters.put("_count", Collections.singletonList("2"));
+        FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(Basic.class, queryParameters);
+
+        try (Stream<Resource> stream = persistence.searchStream(getPersistenceContextForSearch(searchContext), Basic.class)) {
+            assertEquals(stream.count(), 2);
+        }
+        assertEquals(searchContext.getTotalCount(), 5);
+        assertEquals(searchContext.getLastPageNumber(), 3);
+    }
+
+    private List<Resource> runStreamTest(Class<? extends Resource> resourceType, Map<String, List<String>> queryParameters) throws Exception {
+        FHIRSearchContext searchContext = SearchUtil.parseQueryParameters(resourceType, queryParameters);
+        try (Stream<Resource> stream = persistence.searchStream(getPersistenceContextForSearch(searchContext), resourceType)) {
+            return stream.collect(Collectors.toList());
+        }
+    }
+
+    private List<String> ids(List<? extends Resource> resources) {
+        return resources.stream().map(Resource::getId).collect(Collectors.toList());
+    }
+}
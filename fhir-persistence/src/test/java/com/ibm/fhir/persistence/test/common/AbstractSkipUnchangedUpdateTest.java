@@ -0,0 +1,166 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.test.common;
+
+import static com.ibm.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.List;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Device;
+import com.ibm.fhir.model.type.Identifier;
+import com.ibm.fhir.persistence.SingleResourceResult;
+import com.ibm.fhir.persistence.context.FHIRHistoryContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.fhir.persistence.interceptor.FHIRPersistenceEvent;
+
+/**
+ * This class contains tests for updates whose content is identical to the current version. The persistence
+ * implementation must be configured to skip such updates.
+ */
+public abstract class AbstractSkipUnchangedUpdateTest extends AbstractPersistenceTest {
+    private static final String MANUFACTURER = "skip-update-test-manufacturer";
+
+    protected String deviceId;
+    protected String otherDeviceId;
+
+    @BeforeClass
+    public void createResources() throws Exception {
+        Device device = Device.builder()
+                .manufacturer(string(MANUFACTURER))
+                .identifier(Identifier.builder().value(string("skip-update-1")).build())
+                .build();
+
+        deviceId = persistence.create(getDefaultPersistenceContext(), device).getResource().getId();
+        otherDeviceId = persistence.create(getDefaultPersistenceContext(), device).getResource().getId();
+        assertNotNull(deviceId);
+        assertNotNull(otherDeviceId);
+    }
+
+    @Test
+    public void testUnchangedUpdate() throws Exception {
+        Device device = persistence.read(getDefaultPersistenceContext(), Device.class, deviceId).getResource();
+        Device updated = persistence.update(getDefaultPersistenceContext(), deviceId, device).getResource();
+
+        assertEquals(updated.getMeta().getVersionId().getValue(), "1");
+        assertEquals(updated.getMeta().getLastUpdated(), device.getMeta().getLastUpdated());
+        assertEquals(getHistorySize(deviceId), 1);
+    }
+
+    @Test(dependsOnMethods = { "testUnchangedUpdate" })
+    public void testChangedUpdate() throws Exception {
+        Device device = persistence.read(getDefaultPersistenceContext(), Device.class, deviceId).getResource();
+
+        // only the value of an identifier changes
+        device = device.toBuilder()
+                .identifier(Arrays.asList(Identifier.builder().value(string("skip-update-2")).build()))
+                .build();
+        Device updated = persistence.update(getDefaultPersistenceContext(), deviceId, device).getResource();
+
+        assertEquals(updated.getMeta().getVersionId().getValue(), "2");
+        assertEquals(getHistorySize(deviceId), 2);
+    }
+
+    @Test(dependsOnMethods = { "testChangedUpdate" })
+    public void testUnchangedUpdateBatch() throws Exception {
+        Device device = persistence.read(getDefaultPersistenceContext(), Device.class, deviceId).getResource();
+        Device other = persistence.read(getDefaultPersistenceContext(), Device.class, otherDeviceId).getResource();
+        other = other.toBuilder()
+                .manufacturer(string(MANUFACTURER + "-changed"))
+                .build();
+
+        List<SingleResourceResult<Device>> results =
+                persistence.updateBatch(getDefaultPersistenceContext(), Arrays.asList(device, other));
+        assertEquals(results.size(), 2);
+        assertEquals(results.get(0).getResource().getId(), deviceId);
+        assertEquals(results.get(0).getResource().getMeta().getVersionId().getValue(), "2");
+        assertEquals(results.get(1).getResource().getId(), otherDeviceId);
+        assertEquals(results.get(1).getResource().getMeta().getVersionId().getValue(), "2");
+        assertEquals(getHistorySize(deviceId), 2);
+        assertEquals(getHistorySize(otherDeviceId), 2);
+    }
+
+    @Test
+    public void testUnchangedUpdatePrefetched() throws Exception {
+        Device device = createDevice("skip-update-prefetched");
+        Device updated = persistence.update(createContextWithPrevious(device, false), device.getId(), device).getResource();
+
+        assertEquals(updated.getMeta().getVersionId().getValue(), "1");
+        assertEquals(getHistorySize(device.getId()), 1);
+    }
+
+    /**
+     * Tests that an update with the content the resource had before it was deleted is stored, and so
+     * undeletes the resource.
+     */
+    @Test
+    public void testUnchangedUpdateOfDeleted() throws Exception {
+        Device device = createDevice("skip-update-deleted");
+        persistence.delete(getDefaultPersistenceContext(), Device.class, device.getId());
+
+        Device updated = persistence.update(getDefaultPersistenceContext(), device.getId(), device).getResource();
+        assertEquals(updated.getMeta().getVersionId().getValue(), "3");
+        assertEquals(getHistorySize(device.getId()), 3);
+        assertNotNull(persistence.read(getDefaultPersistenceContext(), Device.class, device.getId()).getResource());
+    }
+
+    /**
+     * Tests that an update with the content the resource had before it was deleted is stored when the
+     * previous (deleted) resource is passed with the persistence event, like the REST layer does.
+     */
+    @Test
+    public void testUnchangedUpdateOfDeletedPrefetched() throws Exception {
+        Device device = createDevice("skip-update-deleted-prefetched");
+        persistence.delete(getDefaultPersistenceContext(), Device.class, device.getId());
+
+        // the REST layer reads the previous resource including the deleted versions
+        Device previous = persistence.read(FHIRPersistenceContextFactory.createPersistenceContext(null, true),
+                Device.class, device.getId()).getResource();
+        assertNotNull(previous);
+        assertTrue(isSameContent(previous, device));
+
+        Device updated = persistence.update(createContextWithPrevious(previous, true), device.getId(), device).getResource();
+        assertEquals(updated.getMeta().getVersionId().getValue(), "3");
+        assertEquals(getHistorySize(device.getId()), 3);
+        assertNotNull(persistence.read(getDefaultPersistenceContext(), Device.class, device.getId()).getResource());
+    }
+
+    private Device createDevice(String identifier) throws Exception {
+        Device device = Device.builder()
+                .manufacturer(string(MANUFACTURER))
+                .identifier(Identifier.builder().value(string(identifier)).build())
+                .build();
+        return persistence.create(getDefaultPersistenceContext(), device).getResource();
+    }
+
+    /**
+     * Create a persistence context whose event carries the previous resource, like an update by the REST layer
+     */
+    private FHIRPersistenceContext createContextWithPrevious(Device previous, boolean deleted) {
+        FHIRPersistenceEvent event = new FHIRPersistenceEvent();
+        event.setPrevFhirResource(previous);
+        event.setPrevFhirResourceDeleted(deleted);
+        return FHIRPersistenceContextFactory.createPersistenceContext(event);
+    }
+
+    private boolean isSameContent(Device device, Device other) {
+        return device.getIdentifier().equals(other.getIdentifier()) && device.getManufacturer().equals(other.getManufacturer());
+    }
+
+    private int getHistorySize(String logicalId) throws Exception {
+        FHIRHistoryContext historyContext = FHIRPersistenceContextFactory.createHistoryContext();
+        FHIRPersistenceContext context = this.getPersistenceContextForHistory(historyContext);
+        return persistence.history(context, Device.class, logicalId).getResource().size();
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.persistence.test.common;
+
+import static com.ibm.fhir.model.type.String.string;
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.model.resource.Device;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.type.code.FHIRDeviceStatus;
+
+/**
+ * This class contains tests checking the search parameters of updated resources.
+ */
+public abstract class AbstractUpdateTest extends AbstractPersistenceTest {
+    // unique to each run, as the test database may be reused
+    private static final String SUFFIX = UUID.randomUUID().toString();
+    private static final String MANUFACTURER = "update-test-manufacturer-" + SUFFIX;
+    private static final String MODEL_1 = "update-test-model-A-" + SUFFIX;
+    private static final String MODEL_2 = "update-test-model-B-" + SUFFIX;
+
+    protected String deviceId;
+
+    @BeforeClass
+    public void createResources() throws Exception {
+        Device device = Device.builder()
+                .manufacturer(string(MANUFACTURER))
+                .modelNumber(string(MODEL_1))
+                .status(FHIRDeviceStatus.ACTIVE)
+                .build();
+
+        device = persistence.create(getDefaultPersistenceContext(), device).getResource();
+        assertNotNull(device.getId());
+        assertEquals("1", device.getMeta().getVersionId().getValue());
+        this.deviceId = device.getId();
+    }
+
+    @Test
+    public void testUpdateChangedParameter() throws Exception {
+        Device device = persistence.read(getDefaultPersistenceContext(), Device.class, deviceId).getResource();
+        device = device.toBuilder()
+                .modelNumber(string(MODEL_2))
+                .build();
+        persistence.update(getDefaultPersistenceContext(), deviceId, device);
+
+        assertFalse(isFound("model", MODEL_1));
+        assertTrue(isFound("model", MODEL_2));
+        assertTrue(isFound("manufacturer", MANUFACTURER));
+        assertTrue(isFound("status", "active"));
+    }
+
+    @Test(dependsOnMethods = { "testUpdateChangedParameter" })
+    public void testUpdateUnchangedParameters() throws Exception {
+        Device device = persistence.read(getDefaultPersistenceContext(), Device.class, deviceId).getResource();
+        persistence.update(getDefaultPersistenceContext(), deviceId, device);
+
+        assertFalse(isFound("model", MODEL_1));
+        assertTrue(isFound("model", MODEL_2));
+        assertTrue(isFound("manufacturer", MANUFACTURER));
+        assertTrue(isFound("status", "active"));
+    }
+
+    @Test(dependsOnMethods = { "testUpdateUnchangedParameters" })
+    public void testUpdateRemovedParameter() throws Exception {
+        Device device = persistence.read(getDefaultPersistenceContext(), Device.class, deviceId).getResource();
+        device = device.toBuilder()
+                .status(FHIRDeviceStatus.INACTIVE)
+                .manufacturer(null)
+                .build();
+        persistence.update(getDefaultPersistenceContext(), deviceId, device);
+
+        assertTrue(isFound("model", MODEL_2));
+        assertFalse(isFound("manufacturer", MANUFACTURER));
+        assertFalse(isFound("status", "active"));
+        assertTrue(isFound("status", "inactive"));
+    }
+
+    /**
+     * Search the device created by this test with the given parameter value
+     * @return true if the device created by this test is found
+     */
+    private boolean isFound(String parmName, String parmValue) throws Exception {
+        Map<String, List<String>> queryParms = new HashMap<>();
+        queryParms.put("_id", Collections.singletonList(deviceId));
+        queryParms.put(parmName, Collections.singletonList(parmValue));
+        List<Resource> resources = runQueryTest(Device.class, queryParms);
+        assertNotNull(resources);
+        return resources.stream().anyMatch(r -> deviceId.equals(r.getId()));
+    }
+}
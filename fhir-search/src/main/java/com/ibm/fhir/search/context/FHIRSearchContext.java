@@ -1,5 +1,5 @@
 /*
- * (C) Copyright IBM Corp. 2016,2019
+ * (C) Copyright IBM Corp. 2016, 2020
  *
  * SPDX-License-Identifier: Apache-2.0
  */
@@ -10,6 +10,7 @@ import java.util.List;
 
 import com.ibm.fhir.core.context.FHIRPagingContext;
 import com.ibm.fhir.search.SummaryValueSet;
+import com.ibm.fhir.search.TotalValueSet;
 import com.ibm.fhir.search.parameters.InclusionParameter;
 import com.ibm.fhir.search.parameters.QueryParameter;
 import com.ibm.fhir.search.parameters.SortParameter;
@@ -83,4 +84,52 @@ public interface FHIRSearchContext extends FHIRPagingContext {
      * Set the value of the summary parameter.
      */
     void setSummaryParameter(SummaryValueSet summary);
+
+    /**
+     * @return true when the total parameter is not null
+     */
+    boolean hasTotalParameter();
+
+    /**
+     * Get the total parameter.
+     *
+     * @return the value of the _total parameter, or null if the request did not specify one
+     */
+    TotalValueSet getTotalParameter();
+
+    /**
+     * Set the value of the total parameter.
+     */
+    void setTotalParameter(TotalValueSet total);
+
+    /**
+     * Get the continuation token passed in on the request via the _cursor parameter.
+     *
+     * @return the opaque continuation token, or null if the request did not specify one
+     */
+    String getContinuationToken();
+
+    /**
+     * Set the continuation token passed in on the request via the _cursor parameter.
+     */
+    void setContinuationToken(String continuationToken);
+
+    /**
+     * @return true when the continuation token is not null
+     */
+    boolean hasContinuationToken();
+
+    /**
+     * Get the continuation token which identifies the position just after the last search result
+     * of the current page.
+     *
+     * @return the opaque continuation token for the next page, or null if the persistence layer
+     *         did not produce one (e.g. keyset pagination is not in use or there are no more results)
+     */
+    String getNextContinuationToken();
+
+    /**
+     * Set the continuation token to be used for retrieving the next page of search results.
+     */
+    void setNextContinuationToken(String nextContinuationToken);
 }
@@ -6,8 +6,11 @@
 package com.ibm.fhir.search.parameters;
 
 import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
 
 import com.ibm.fhir.model.resource.SearchParameter;
 
@@ -51,6 +54,20 @@ public class ParametersMap {
         return urlMap.get(searchParameterUrl);
     }
 
+    /**
+     * @implSpec package-private; the entries keyed by code, in insertion order
+     */
+    Set<Entry<String, SearchParameter>> codeEntries() {
+        return Collections.unmodifiableMap(codeMap).entrySet();
+    }
+
+    /**
+     * @implSpec package-private; the entries keyed by url, in insertion order
+     */
+    Set<Entry<String, SearchParameter>> urlEntries() {
+        return Collections.unmodifiableMap(urlMap).entrySet();
+    }
+
     public Collection<SearchParameter> values() {
         return codeMap.values();
     }
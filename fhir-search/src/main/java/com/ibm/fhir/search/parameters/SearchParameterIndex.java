@@ -0,0 +1,270 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.search.parameters;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.ibm.fhir.config.PropertyGroup;
+import com.ibm.fhir.model.resource.SearchParameter;
+import com.ibm.fhir.model.util.ModelSupport;
+import com.ibm.fhir.search.SearchConstants;
+
+/**
+ * An immutable index of the search parameters of a tenant, by resource type, code and url. The index combines the
+ * built-in search parameters, filtered per the tenant's search parameter filtering rules, with the tenant's
+ * extension search parameters, so that the search parameters of a resource type are looked up without re-reading
+ * and re-applying the filtering rules.
+ * <br>
+ * The index records the configuration and extension search parameters it was built from, so that the owner of the
+ * index can detect when either of them was reloaded (by identity) and swap in a new index. Each index is given a
+ * new version number.
+ */
+public final class SearchParameterIndex {
+    private static final AtomicLong versions = new AtomicLong();
+
+    private final long version;
+    private final String tenantId;
+
+    // The sources of this index, compared by identity
+    private final PropertyGroup tenantConfig;
+    private final PropertyGroup defaultConfig;
+    private final Map<String, ParametersMap> tenantParameters;
+
+    private final Map<String, ParametersMap> builtinParameters;
+    private final Map<String, List<String>> filterRules;
+    private final Map<String, TypeIndex> typeIndexes;
+
+    /**
+     * The search parameters of a resource type
+     */
+    private static final class TypeIndex {
+        // built-in (filtered) + tenant-specific search parameters
+        final List<SearchParameter> searchParameters;
+        // built-in (filtered) + built-in "Resource" (filtered) + tenant-specific search parameters
+        final List<SearchParameter> applicable;
+        final Map<String, SearchParameter> applicableByCode;
+        final Map<String, SearchParameter> byCode;
+        final Map<String, SearchParameter> byUrl;
+
+        TypeIndex(List<SearchParameter> searchParameters, List<SearchParameter> applicable,
+                Map<String, SearchParameter> applicableByCode, Map<String, SearchParameter> byCode, Map<String, SearchParameter> byUrl) {
+            this.searchParameters = Collections.unmodifiableList(searchParameters);
+            this.applicable = Collections.unmodifiableList(applicable);
+            this.applicableByCode = Collections.unmodifiableMap(applicableByCode);
+            this.byCode = Collections.unmodifiableMap(byCode);
+            this.byUrl = Collections.unmodifiableMap(byUrl);
+        }
+    }
+
+    /**
+     * Builds the index of the search parameters of a tenant for every resource type.
+     *
+     * @param tenantId
+     *            the tenant-id
+     * @param tenantConfig
+     *            the configuration of the tenant (may be null)
+     * @param defaultConfig
+     *            the default configuration (may be null)
+     * @param tenantParameters
+     *            the tenant's (or the default tenant's) extension search parameters, keyed by resource type (may be null)
+     * @param builtinParameters
+     *            the built-in search parameters, keyed by resource type
+     * @param filterRules
+     *            the tenant's search parameter filtering rules, keyed by resource type
+     */
+    public SearchParameterIndex(String tenantId, PropertyGroup tenantConfig, PropertyGroup defaultConfig,
+            Map<String, ParametersMap> tenantParameters, Map<String, ParametersMap> builtinParameters,
+            Map<String, List<String>> filterRules) {
+        this.version = versions.incrementAndGet();
+        this.tenantId = tenantId;
+        this.tenantConfig = tenantConfig;
+        this.defaultConfig = defaultConfig;
+        this.tenantParameters = tenantParameters;
+        this.builtinParameters = builtinParameters;
+        this.filterRules = filterRules;
+
+        Set<String> resourceTypes = new HashSet<>(builtinParameters.keySet());
+        if (tenantParameters != null) {
+            resourceTypes.addAll(tenantParameters.keySet());
+        }
+        for (Class<?> resourceType : ModelSupport.getResourceTypes()) {
+            resourceTypes.add(resourceType.getSimpleName());
+        }
+
+        Map<String, TypeIndex> typeIndexes = new HashMap<>();
+        for (String resourceType : resourceTypes) {
+            typeIndexes.put(resourceType, buildTypeIndex(resourceType));
+        }
+        this.typeIndexes = Collections.unmodifiableMap(typeIndexes);
+    }
+
+    /**
+     * @return the version of this index; a newer index has a greater version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * @return the tenant-id of this index
+     */
+    public String getTenantId() {
+        return tenantId;
+    }
+
+    /**
+     * @return true if this index was built from the specified configurations and extension search parameters
+     */
+    public boolean isCurrent(PropertyGroup tenantConfig, PropertyGroup defaultConfig, Map<String, ParametersMap> tenantParameters) {
+        return this.tenantConfig == tenantConfig && this.defaultConfig == defaultConfig && this.tenantParameters == tenantParameters;
+    }
+
+    /**
+     * @return an unmodifiable list of the built-in (filtered) and tenant-specific search parameters of the resource type
+     */
+    public List<SearchParameter> getSearchParameters(String resourceType) {
+        return getTypeIndex(resourceType).searchParameters;
+    }
+
+    /**
+     * @return an unmodifiable list of the search parameters applicable to the resource type, including those of
+     *         the "Resource" resource type
+     */
+    public List<SearchParameter> getApplicableSearchParameters(String resourceType) {
+        return getTypeIndex(resourceType).applicable;
+    }
+
+    /**
+     * @return an unmodifiable map of the search parameters applicable to the resource type, keyed by code
+     */
+    public Map<String, SearchParameter> getApplicableSearchParametersMap(String resourceType) {
+        return getTypeIndex(resourceType).applicableByCode;
+    }
+
+    /**
+     * @return the search parameter of the resource type with the specified code, or null if it doesn't exist or
+     *         is filtered out
+     */
+    public SearchParameter getSearchParameterByCode(String resourceType, String code) {
+        return getTypeIndex(resourceType).byCode.get(code);
+    }
+
+    /**
+     * @return the search parameter of the resource type with the specified url, or null if it doesn't exist or
+     *         is filtered out
+     */
+    public SearchParameter getSearchParameterByUrl(String resourceType, String url) {
+        return getTypeIndex(resourceType).byUrl.get(url);
+    }
+
+    private TypeIndex getTypeIndex(String resourceType) {
+        TypeIndex result = typeIndexes.get(resourceType);
+        if (result == null) {
+            // Not a known resource type; it has no search parameters of its own, so there's no need to keep it
+            result = buildTypeIndex(resourceType);
+        }
+        return result;
+    }
+
+    private TypeIndex buildTypeIndex(String resourceType) {
+        ParametersMap builtin = builtinParameters.get(resourceType);
+        ParametersMap builtinResource = builtinParameters.get(SearchConstants.RESOURCE_RESOURCE);
+        ParametersMap tenant = tenantParameters != null ? tenantParameters.get(resourceType) : null;
+
+        List<SearchParameter> filteredBuiltin = new ArrayList<>();
+        if (builtin != null && !builtin.isEmpty()) {
+            filteredBuiltin.addAll(filter(resourceType, builtin.values()));
+        }
+        List<SearchParameter> userDefined = new ArrayList<>();
+        if (tenant != null && !tenant.isEmpty()) {
+            userDefined.addAll(tenant.values());
+        }
+
+        List<SearchParameter> searchParameters = new ArrayList<>(filteredBuiltin);
+        searchParameters.addAll(userDefined);
+
+        List<SearchParameter> applicable = new ArrayList<>(filteredBuiltin);
+        if (builtinResource != null && !builtinResource.isEmpty()) {
+            applicable.addAll(filter(SearchConstants.RESOURCE_RESOURCE, builtinResource.values()));
+        }
+        applicable.addAll(userDefined);
+
+        // Later entries override earlier ones with the same code
+        Map<String, SearchParameter> applicableByCode = new HashMap<>();
+        for (SearchParameter sp : applicable) {
+            applicableByCode.put(sp.getCode().getValue(), sp);
+        }
+
+        // The tenant-specific search parameters take precedence over the built-in ones; a built-in search parameter
+        // is filtered per the rules of its (first) base resource type.
+        Map<String, SearchParameter> byCode = new HashMap<>();
+        Map<String, SearchParameter> byUrl = new HashMap<>();
+        if (builtin != null && !builtin.isEmpty()) {
+            for (Entry<String, SearchParameter> entry : builtin.codeEntries()) {
+                if (isIncludedByBase(entry.getValue())) {
+                    byCode.put(entry.getKey(), entry.getValue());
+                }
+            }
+            for (Entry<String, SearchParameter> entry : builtin.urlEntries()) {
+                if (isIncludedByBase(entry.getValue())) {
+                    byUrl.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        if (tenant != null && !tenant.isEmpty()) {
+            for (Entry<String, SearchParameter> entry : tenant.codeEntries()) {
+                byCode.put(entry.getKey(), entry.getValue());
+            }
+            for (Entry<String, SearchParameter> entry : tenant.urlEntries()) {
+                byUrl.put(entry.getKey(), entry.getValue());
+            }
+        }
+
+        return new TypeIndex(searchParameters, applicable, applicableByCode, byCode, byUrl);
+    }
+
+    private boolean isIncludedByBase(SearchParameter sp) {
+        return !filter(sp.getBase().get(0).getValue(), Collections.singleton(sp)).isEmpty();
+    }
+
+    /**
+     * Filters the specified SearchParameters of a resource type according to the filter rules. The filter rules
+     * are keyed by resource type, and list the names of the search parameters to be included ("*" includes all).
+     */
+    private Collection<SearchParameter> filter(String resourceType, Collection<SearchParameter> unfilteredSearchParameters) {
+        List<String> includedSPs = filterRules.get(resourceType);
+        if (includedSPs == null) {
+            // If the specified resource type wasn't found in the Map then retrieve the wildcard entry if present.
+            includedSPs = filterRules.get(SearchConstants.WILDCARD_FILTER);
+        }
+
+        // Without a non-empty list of search parameter names to filter on, nothing is included.
+        if (includedSPs == null || includedSPs.isEmpty()) {
+            return Collections.emptyList();
+        }
+        if (includedSPs.contains(SearchConstants.WILDCARD_FILTER)) {
+            return unfilteredSearchParameters;
+        }
+
+        List<SearchParameter> results = new ArrayList<>();
+        for (SearchParameter sp : unfilteredSearchParameters) {
+            if (includedSPs.contains(sp.getCode().getValue())) {
+                results.add(sp);
+            }
+        }
+        return results;
+    }
+}
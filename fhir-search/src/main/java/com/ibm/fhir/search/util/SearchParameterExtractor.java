@@ -0,0 +1,239 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.search.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.resource.SearchParameter;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.path.FHIRPathTree;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluationContext;
+import com.ibm.fhir.path.exception.FHIRPathException;
+
+/**
+ * Extracts the values of the applicable search parameters from a resource.
+ * <br>
+ * An extraction plan groups the search parameters by expression, so that each distinct expression is evaluated once
+ * per resource, and all expressions are evaluated over a single FHIRPathTree built once per resource.
+ * <br>
+ * The expressions of a plan are independent of one another, so for large resources they may be evaluated in
+ * parallel on a bounded ForkJoinPool, with one evaluator and evaluation context per task sharing the resource's tree.
+ * The pool is also available for extracting the parameters of many resources at once (see {@link #extractAll(List, List, boolean)}).
+ * Parallel extraction is disabled until {@link #setParallelism(int)} is called with a value greater than 1.
+ * <br>
+ * The applicable search parameters depend on the tenant of the current request, so they must be looked up on the
+ * request thread and passed in; the evaluation itself does not depend on the request context.
+ */
+public class SearchParameterExtractor {
+    private static final Logger log = Logger.getLogger(SearchParameterExtractor.class.getName());
+
+    private static final String UNSUPPORTED_EXCEPTION =
+            "Search Parameter includes an unsupported operation or bad expression : [%s] [%s] [%s]";
+    private static final String UNSUPPORTED_EXPR_NULL =
+            "An empty expression is found or the parameter type is unsupported [%s][%s]";
+
+    // The minimum number of distinct expressions handed to each task when evaluating in parallel
+    private static final int MIN_EXPRESSIONS_PER_TASK = 4;
+
+    private static volatile ForkJoinPool pool = null;
+
+    private SearchParameterExtractor() {
+        // No Operation
+    }
+
+    /**
+     * Sets the number of threads used for parallel extraction. A value of 0 or 1 disables parallel extraction.
+     * The previous pool, if any, is shut down once its queued work is done.
+     *
+     * @param parallelism
+     */
+    public static synchronized void setParallelism(int parallelism) {
+        ForkJoinPool current = pool;
+        if (current != null && current.getParallelism() == parallelism) {
+            return;
+        }
+        pool = parallelism > 1 ? new ForkJoinPool(parallelism) : null;
+        if (current != null) {
+            current.shutdown();
+        }
+        if (log.isLoggable(Level.FINE)) {
+            log.fine("Search parameter extraction parallelism set to " + parallelism);
+        }
+    }
+
+    /**
+     * @return the number of threads used for parallel extraction, or 1 if parallel extraction is disabled
+     */
+    public static int getParallelism() {
+        ForkJoinPool current = pool;
+        return current == null ? 1 : current.getParallelism();
+    }
+
+    /**
+     * Extracts the values of the passed search parameters from the passed resource.
+     *
+     * @param resource
+     *     the resource
+     * @param parameters
+     *     the search parameters applicable to the resource, in the order of the returned map
+     * @param skipEmpty
+     *     whether parameters with no values are left out of the returned map
+     * @param parallel
+     *     whether the expressions may be evaluated in parallel (ignored if parallel extraction is disabled)
+     * @return a map from each search parameter to the nodes selected by its expression
+     * @throws Exception
+     */
+    public static Map<SearchParameter, List<FHIRPathNode>> extract(Resource resource, List<SearchParameter> parameters,
+            boolean skipEmpty, boolean parallel) throws Exception {
+        Map<String, List<SearchParameter>> plan = plan(parameters);
+        List<String> expressions = new ArrayList<>(plan.keySet());
+        FHIRPathTree tree = FHIRPathTree.lazyTree(resource);
+
+        ForkJoinPool current = pool;
+        Map<String, Collection<FHIRPathNode>> values;
+        if (parallel && current != null && expressions.size() >= 2 * MIN_EXPRESSIONS_PER_TASK) {
+            int taskCount = Math.min(current.getParallelism(), expressions.size() / MIN_EXPRESSIONS_PER_TASK);
+            int chunkSize = (expressions.size() + taskCount - 1) / taskCount;
+            List<ForkJoinTask<Map<String, Collection<FHIRPathNode>>>> tasks = new ArrayList<>(taskCount);
+            for (int start = 0; start < expressions.size(); start += chunkSize) {
+                List<String> chunk = expressions.subList(start, Math.min(start + chunkSize, expressions.size()));
+                tasks.add(current.submit(() -> evaluate(tree, chunk, plan)));
+            }
+            values = new LinkedHashMap<>();
+            for (ForkJoinTask<Map<String, Collection<FHIRPathNode>>> task : tasks) {
+                values.putAll(join(task));
+            }
+        } else {
+            values = evaluate(tree, expressions, plan);
+        }
+
+        return collect(parameters, values, skipEmpty);
+    }
+
+    /**
+     * Extracts the values of the applicable search parameters from each of the passed resources. When parallel
+     * extraction is enabled, the resources are processed concurrently on the extraction pool.
+     *
+     * @param resources
+     *     the resources
+     * @param parameters
+     *     the search parameters applicable to each resource, in the same order as the resources
+     * @param skipEmpty
+     *     whether parameters with no values are left out of the returned maps
+     * @return the extracted values of each resource, in the same order as the resources
+     * @throws Exception
+     */
+    public static List<Map<SearchParameter, List<FHIRPathNode>>> extractAll(List<? extends Resource> resources,
+            List<List<SearchParameter>> parameters, boolean skipEmpty) throws Exception {
+        List<Map<SearchParameter, List<FHIRPathNode>>> result = new ArrayList<>(resources.size());
+
+        ForkJoinPool current = pool;
+        if (current == null || resources.size() < 2) {
+            for (int i = 0; i < resources.size(); i++) {
+                result.add(extract(resources.get(i), parameters.get(i), skipEmpty, false));
+            }
+        } else {
+            List<ForkJoinTask<Map<SearchParameter, List<FHIRPathNode>>>> tasks = new ArrayList<>(resources.size());
+            for (int i = 0; i < resources.size(); i++) {
+                Resource resource = resources.get(i);
+                List<SearchParameter> resourceParameters = parameters.get(i);
+                tasks.add(current.submit(() -> extract(resource, resourceParameters, skipEmpty, false)));
+            }
+            for (ForkJoinTask<Map<SearchParameter, List<FHIRPathNode>>> task : tasks) {
+                result.add(join(task));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Groups the passed search parameters by expression, leaving out those without an expression.
+     */
+    private static Map<String, List<SearchParameter>> plan(List<SearchParameter> parameters) {
+        Map<String, List<SearchParameter>> plan = new LinkedHashMap<>();
+        for (SearchParameter parameter : parameters) {
+            if (parameter.getExpression() == null) {
+                if (log.isLoggable(Level.FINER)) {
+                    log.finer(String.format(UNSUPPORTED_EXPR_NULL, parameter.getType(), parameter.getCode().getValue()));
+                }
+                continue;
+            }
+            plan.computeIfAbsent(parameter.getExpression().getValue(), k -> new ArrayList<>(1)).add(parameter);
+        }
+        return plan;
+    }
+
+    /**
+     * Evaluates the passed expressions over the passed tree, with an evaluator and evaluation context
+     * which are only used by the calling thread.
+     */
+    private static Map<String, Collection<FHIRPathNode>> evaluate(FHIRPathTree tree, List<String> expressions,
+            Map<String, List<SearchParameter>> plan) {
+        FHIRPathEvaluator evaluator = FHIRPathEvaluator.evaluator();
+        EvaluationContext evaluationContext = new EvaluationContext(tree);
+
+        Map<String, Collection<FHIRPathNode>> values = new LinkedHashMap<>();
+        for (String expression : expressions) {
+            try {
+                values.put(expression, evaluator.evaluate(evaluationContext, expression));
+            } catch (java.lang.UnsupportedOperationException | FHIRPathException e) {
+                StringBuilder codes = new StringBuilder();
+                for (SearchParameter parameter : plan.get(expression)) {
+                    codes.append(codes.length() == 0 ? "" : ",").append(parameter.getCode().getValue());
+                }
+                log.warning(String.format(UNSUPPORTED_EXCEPTION, codes, expression, e.getMessage()));
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Builds the result map, in the order of the passed search parameters.
+     */
+    private static Map<SearchParameter, List<FHIRPathNode>> collect(List<SearchParameter> parameters,
+            Map<String, Collection<FHIRPathNode>> values, boolean skipEmpty) {
+        Map<SearchParameter, List<FHIRPathNode>> result = new LinkedHashMap<>();
+        for (SearchParameter parameter : parameters) {
+            if (parameter.getExpression() == null) {
+                continue;
+            }
+            Collection<FHIRPathNode> nodes = values.get(parameter.getExpression().getValue());
+            if (nodes == null) {
+                // the expression could not be evaluated
+                continue;
+            }
+            if (!nodes.isEmpty() || !skipEmpty) {
+                // each parameter gets its own list, as callers may modify it
+                result.put(parameter, new ArrayList<>(nodes));
+            }
+        }
+        return result;
+    }
+
+    private static <T> T join(ForkJoinTask<T> task) throws Exception {
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+}
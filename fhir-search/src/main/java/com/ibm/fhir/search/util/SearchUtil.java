@@ -13,7 +13,6 @@ import java.text.Normalizer;
 import java.text.Normalizer.Form;
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -22,6 +21,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -39,13 +39,11 @@ import com.ibm.fhir.model.type.code.ResourceType;
 import com.ibm.fhir.model.util.JsonSupport;
 import com.ibm.fhir.model.util.ModelSupport;
 import com.ibm.fhir.path.FHIRPathNode;
-import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
-import com.ibm.fhir.path.evaluator.FHIRPathEvaluator.EvaluationContext;
-import com.ibm.fhir.path.exception.FHIRPathException;
 import com.ibm.fhir.search.SearchConstants;
 import com.ibm.fhir.search.SearchConstants.Modifier;
 import com.ibm.fhir.search.SearchConstants.Type;
 import com.ibm.fhir.search.SummaryValueSet;
+import com.ibm.fhir.search.TotalValueSet;
 import com.ibm.fhir.search.compartment.CompartmentUtil;
 import com.ibm.fhir.search.context.FHIRSearchContext;
 import com.ibm.fhir.search.context.FHIRSearchContextFactory;
@@ -57,6 +55,7 @@ import com.ibm.fhir.search.parameters.ParametersMap;
 import com.ibm.fhir.search.parameters.ParametersUtil;
 import com.ibm.fhir.search.parameters.QueryParameter;
 import com.ibm.fhir.search.parameters.QueryParameterValue;
+import com.ibm.fhir.search.parameters.SearchParameterIndex;
 import com.ibm.fhir.search.parameters.cache.TenantSpecificSearchParameterCache;
 import com.ibm.fhir.search.sort.Sort;
 import com.ibm.fhir.search.uri.UriBuilder;
@@ -71,11 +70,8 @@ public class SearchUtil {
     private static final Logger log = Logger.getLogger(CLASSNAME);
 
     // Logging Strings
-    private static final String EXTRACT_PARAMETERS_LOGGING = "extractParameterValues: [%s] [%s]";
     private static final String NO_TENANT_SP_MAP_LOGGING =
             "No tenant-specific search parameters found for tenant '%s'; trying %s ";
-    private static final String UNSUPPORTED_EXCEPTION =
-            "Search Parameter includes an unsupported operation or bad expression : [%s] [%s] [%s]";
 
     // Exception Strings
     private static final String MODIFIER_NOT_ALLOWED_WITH_CHAINED_EXCEPTION = "Modifier: '%s' not allowed on chained parameter";
@@ -84,8 +80,6 @@ public class SearchUtil {
     private static final String SEARCH_PARAMETER_MODIFIER_NAME =
             "Search parameter: '%s' must have resource type name modifier";
     private static final String INVALID_TARGET_TYPE_EXCEPTION = "Invalid target type for the Inclusion Parameter.";
-    private static final String UNSUPPORTED_EXPR_NULL =
-            "An empty expression is found or the parameter type is unsupported [%s][%s]";
 
     private static final String MODIFIYERRESOURCETYPE_NOT_ALLOWED_FOR_RESOURCETYPE =
             "Modifier resource type [%s] is not allowed for search parameter [%s] of resource type [%s].";
@@ -123,6 +117,9 @@ public class SearchUtil {
      */
     private static TenantSpecificSearchParameterCache searchParameterCache = new TenantSpecificSearchParameterCache();
 
+    // The search parameter index of each tenant, keyed by tenant-id
+    private static final ConcurrentHashMap<String, SearchParameterIndex> searchParameterIndexes = new ConcurrentHashMap<>();
+
     private SearchUtil() {
         // No Operation
         // Hides the Initialization
@@ -167,158 +164,12 @@ public class SearchUtil {
      * @param resourceType
      *                     the resource type associated with the search parameters
      *                     to be returned
-     * @return the list of built-in and tenant-specific search parameters associated
-     *         with the specified resource type
+     * @return the unmodifiable list of built-in and tenant-specific search parameters
+     *         associated with the specified resource type
      * @throws Exception
      */
     public static List<SearchParameter> getSearchParameters(String resourceType) throws Exception {
-
-        List<SearchParameter> result = new ArrayList<>();
-
-        try {
-            String tenantId = FHIRRequestContext.get().getTenantId();
-            if (log.isLoggable(Level.FINEST)) {
-                log.finest("Retrieving SearchParameters for tenant-id '" + tenantId + "' and resource type '"
-                        + resourceType + "'.");
-            }
-
-            // First retrieve built-in search parameters for this resource type and add them to the result.
-            // We'll filter these built-in search parameters to include only the ones
-            // specified by the tenant's filtering (inclusion) rules.
-            ParametersMap spMapResourceType = ParametersUtil.getBuiltInSearchParametersMap().get(resourceType);
-            if (spMapResourceType != null && !spMapResourceType.isEmpty()) {
-                // Retrieve the current tenant's search parameter filtering rules.
-                Map<String, List<String>> filterRules = getFilterRules();
-
-                // Add only the "included" search parameters for this resource type to our result list.
-                result.addAll(filterSearchParameters(filterRules, resourceType, spMapResourceType.values()));
-            }
-
-            // Next, retrieve the specified tenant's search parameters for this resource type and add those
-            // to the result as well.
-            result.addAll(getUserDefinedSearchParameters(resourceType));
-        } finally {
-            // No Operation
-        }
-
-        return result;
-    }
-
-    /**
-     * Retrieves user-defined SearchParameters associated with the specified
-     * resource type and current tenant id.
-     *
-     * @param resourceType
-     *                     the resource type for which user-defined SearchParameters
-     *                     will be returned
-     * @return a list of user-defined SearchParameters associated with the specified
-     *         resource type
-     * @throws Exception
-     */
-    protected static List<SearchParameter> getUserDefinedSearchParameters(String resourceType) throws Exception {
-        List<SearchParameter> result = new ArrayList<>();
-        String tenantId = FHIRRequestContext.get().getTenantId();
-        Map<String, ParametersMap> spMapTenant = getTenantOrDefaultSPMap(tenantId);
-
-        if (spMapTenant != null) {
-            ParametersMap spMapResourceType = spMapTenant.get(resourceType);
-            if (spMapResourceType != null && !spMapResourceType.isEmpty()) {
-                result.addAll(spMapResourceType.values());
-            }
-        }
-        return result;
-    }
-
-    /**
-     * Returns a filtered list of built-in SearchParameters associated with the
-     * specified resource type and those
-     * associated with the "Resource" resource type.
-     *
-     * @param resourceType
-     *                     the resource type
-     * @return a filtered list of SearchParameters
-     * @throws Exception
-     */
-    protected static List<SearchParameter> getFilteredBuiltinSearchParameters(String resourceType) throws Exception {
-        List<SearchParameter> result = new ArrayList<>();
-
-        Map<String, ParametersMap> spBuiltin = ParametersUtil.getBuiltInSearchParametersMap();
-
-        // Retrieve the current tenant's search parameter filtering rules.
-        Map<String, List<String>> filterRules = getFilterRules();
-
-        // Retrieve the SPs associated with the specified resource type and filter per the filter rules.
-        ParametersMap spMap = spBuiltin.get(resourceType);
-        if (spMap != null && !spMap.isEmpty()) {
-            result.addAll(filterSearchParameters(filterRules, resourceType, spMap.values()));
-        }
-
-        // Retrieve the SPs associated with the "Resource" resource type and filter per the filter rules.
-        spMap = spBuiltin.get(SearchConstants.RESOURCE_RESOURCE);
-        if (spMap != null && !spMap.isEmpty()) {
-            result.addAll(filterSearchParameters(filterRules, SearchConstants.RESOURCE_RESOURCE, spMap.values()));
-        }
-
-        return result;
-    }
-
-    /**
-     * Filters the specified input list of SearchParameters according to the filter
-     * rules and input resource type. The
-     * filter rules are contained in a Map<String, List<String>> that is keyed by
-     * resource type. The value of each Map
-     * entry is a list of search parameter names that should be included in our
-     * filtered result.
-     *
-     * @param filterRules
-     *                                   a Map containing filter rules
-     * @param resourceType
-     *                                   the resource type associated with each of
-     *                                   the unfiltered SearchParameters
-     * @param unfilteredSearchParameters
-     *                                   the unfiltered Collection of
-     *                                   SearchParameter objects
-     * @return a filtered Collection of SearchParameters
-     */
-    private static Collection<SearchParameter> filterSearchParameters(Map<String, List<String>> filterRules,
-            String resourceType,
-            Collection<SearchParameter> unfilteredSearchParameters) {
-        List<SearchParameter> results = new ArrayList<>();
-
-        // First, retrieve the filter rule (list of SP names to be included) for the specified resource type.
-        // We know that the SearchParameters in the unfiltered list are all associated with this resource type,
-        // so we can use this same "name list" for each Search Parameter in the unfiltered list.
-        List<String> includedSPs = filterRules.get(resourceType);
-
-        if (includedSPs == null) {
-            // If the specified resource type wasn't found in the Map then retrieve the wildcard entry if present.
-            includedSPs = filterRules.get(SearchConstants.WILDCARD_FILTER);
-        }
-
-        // If we found a non-empty list of search parameter names to filter on,
-        // then do the filtering. Otherwise, we're just going to return an empty list.
-        if (includedSPs != null && !includedSPs.isEmpty()) {
-            // If "*" is contained in the included SP names, then we can just return the unfiltered list
-            // now, since everything in the list will be included anyway.
-            if (includedSPs.contains(SearchConstants.WILDCARD_FILTER)) {
-                return unfilteredSearchParameters;
-            }
-
-            // Otherwise, we'll walk through the unfiltered list and select the ones to be
-            // included in our result.
-            else {
-                for (SearchParameter sp : unfilteredSearchParameters) {
-
-                    String name = sp.getCode().getValue();
-                    if (includedSPs.contains(name)) {
-                        results.add(sp);
-                    }
-
-                }
-            }
-        }
-
-        return results;
+        return getSearchParameterIndex().getSearchParameters(resourceType);
     }
 
     /**
@@ -368,6 +219,36 @@ public class SearchUtil {
         return result;
     }
 
+    /**
+     * Returns the search parameter index of the current tenant. The index is built on first use, and is rebuilt
+     * (and swapped in atomically) when the tenant's configuration, the default configuration or the tenant's
+     * extension search parameters have been reloaded since it was built.
+     *
+     * @throws Exception
+     */
+    public static SearchParameterIndex getSearchParameterIndex() throws Exception {
+        String tenantId = FHIRRequestContext.get().getTenantId();
+        PropertyGroup tenantConfig = FHIRConfiguration.getInstance().loadConfigurationForTenant(tenantId);
+        PropertyGroup defaultConfig = FHIRConfiguration.DEFAULT_TENANT_ID.equals(tenantId)
+                ? tenantConfig : FHIRConfiguration.getInstance().loadConfiguration();
+        Map<String, ParametersMap> tenantParameters = getTenantOrDefaultSPMap(tenantId);
+
+        SearchParameterIndex index = searchParameterIndexes.get(tenantId);
+        if (index == null || !index.isCurrent(tenantConfig, defaultConfig, tenantParameters)) {
+            SearchParameterIndex newIndex = new SearchParameterIndex(tenantId, tenantConfig, defaultConfig, tenantParameters,
+                    ParametersUtil.getBuiltInSearchParametersMap(), getFilterRules());
+
+            // Only replace the index we've found, so that a concurrently built (newer) index is not overwritten.
+            boolean swapped = index == null ? searchParameterIndexes.putIfAbsent(tenantId, newIndex) == null
+                    : searchParameterIndexes.replace(tenantId, index, newIndex);
+            if (swapped && log.isLoggable(Level.FINE)) {
+                log.fine("Built the search parameter index version " + newIndex.getVersion() + " for tenant-id '" + tenantId + "'");
+            }
+            index = newIndex;
+        }
+        return index;
+    }
+
     /**
      * Returns the SearchParameter map (keyed by resource type) for the specified
      * tenant-id, or null if there are no SearchParameters for the tenant.
@@ -414,46 +295,8 @@ public class SearchUtil {
      * @throws Exception
      */
     public static SearchParameter getSearchParameter(String resourceType, String code) throws Exception {
-        String tenantId = FHIRRequestContext.get().getTenantId();
-
-        // First try to find the search parameter within the specified tenant's map.
-        SearchParameter result = getSearchParameterByCodeIfPresent(getTenantOrDefaultSPMap(tenantId), resourceType, code);
-
-        // If we didn't find it within the tenant's map, then look within the built-in map.
-        if (result == null) {
-            result = getSearchParameterByCodeIfPresent(ParametersUtil.getBuiltInSearchParametersMap(), resourceType, code);
-
-            // If we found it within the built-in search parameters, apply our filtering rules.
-            if (result != null) {
-
-                ResourceType rt = result.getBase().get(0).as(ResourceType.class);
-                Collection<SearchParameter> filteredResult =
-                        filterSearchParameters(getFilterRules(), rt.getValue(), Collections.singleton(result));
-
-                // If our filtered result is non-empty, then just return the first (and only) item.
-                result = (filteredResult.isEmpty() ? null : filteredResult.iterator().next());
-            }
-        }
-        return result;
-    }
-
-    /**
-     * @param spMaps
-     * @param resourceType
-     * @param uri
-     * @return the SearchParameter for type {@code resourceType} with code {@code code} or null if it doesn't exist
-     */
-    private static SearchParameter getSearchParameterByCodeIfPresent(Map<String, ParametersMap> spMaps, String resourceType, String code) {
-        SearchParameter result = null;
-
-        if (spMaps != null && !spMaps.isEmpty()) {
-            ParametersMap parametersMap = spMaps.get(resourceType);
-            if (parametersMap != null && !parametersMap.isEmpty()) {
-                result = parametersMap.lookupByCode(code);
-            }
-        }
-
-        return result;
+        // The tenant's search parameters take precedence over the (filtered) built-in search parameters.
+        return getSearchParameterIndex().getSearchParameterByCode(resourceType, code);
     }
 
     public static SearchParameter getSearchParameter(Class<?> resourceType, Canonical uri) throws Exception {
@@ -467,48 +310,10 @@ public class SearchUtil {
      * @throws Exception
      */
     public static SearchParameter getSearchParameter(String resourceType, Canonical uri) throws Exception {
-        String tenantId = FHIRRequestContext.get().getTenantId();
-
-        // First try to find the search parameter within the specified tenant's map.
-        SearchParameter result = getSearchParameterByUrlIfPresent(getTenantOrDefaultSPMap(tenantId), resourceType, uri);
-
-        // If we didn't find it within the tenant's map, then look within the built-in map.
-        if (result == null) {
-            result = getSearchParameterByUrlIfPresent(ParametersUtil.getBuiltInSearchParametersMap(), resourceType, uri);
-
-            // If we found it within the built-in search parameters, apply our filtering rules.
-            if (result != null) {
-                ResourceType rt = result.getBase().get(0);
-                Collection<SearchParameter> filteredResult =
-                        filterSearchParameters(getFilterRules(), rt.getValue(), Collections.singleton(result));
-
-                // If our filtered result is non-empty, then just return the first (and only) item.
-                result = (filteredResult.isEmpty() ? null : filteredResult.iterator().next());
-            }
-        }
-        return result;
+        // The tenant's search parameters take precedence over the (filtered) built-in search parameters.
+        return getSearchParameterIndex().getSearchParameterByUrl(resourceType, uri.getValue());
     }
 
-    /**
-     * @param spMaps
-     * @param resourceType
-     * @param uri
-     * @return the SearchParameter for type {@code resourceType} with url {@code uri} or null if it doesn't exist
-     */
-    private static SearchParameter getSearchParameterByUrlIfPresent(Map<String, ParametersMap> spMaps, String resourceType, Canonical uri) {
-        SearchParameter result = null;
-
-        if (spMaps != null && !spMaps.isEmpty()) {
-            ParametersMap parametersMap = spMaps.get(resourceType);
-            if (parametersMap != null && !parametersMap.isEmpty()) {
-                result = parametersMap.lookupByUrl(uri.getValue());
-            }
-        }
-
-        return result;
-    }
-
-
     /**
      * skips the empty extracted search parameters
      *
@@ -531,60 +336,23 @@ public class SearchUtil {
      */
     public static Map<SearchParameter, List<FHIRPathNode>> extractParameterValues(Resource resource, boolean skipEmpty)
             throws Exception {
+        return extractParameterValues(resource, skipEmpty, false);
+    }
 
-        Map<SearchParameter, List<FHIRPathNode>> result = new LinkedHashMap<>();
-
-        // Get the Parameters for the class.
-        Class<?> resourceType = resource.getClass();
-
-        // Create one time.
-        FHIRPathEvaluator evaluator = FHIRPathEvaluator.evaluator();
-        EvaluationContext evaluationContext = new EvaluationContext(resource);
-
-        List<SearchParameter> parameters = getApplicableSearchParameters(resourceType.getSimpleName());
-
-        for (SearchParameter parameter : parameters) {
-
-            com.ibm.fhir.model.type.String expression = parameter.getExpression();
-
-            // Outputs the Expression and the Name of the SearchParameter
-            if (log.isLoggable(Level.FINEST)) {
-                String loggedValue = "EMPTY";
-                if (expression != null) {
-                    loggedValue = expression.getValue();
-                }
-
-                log.finest(String.format(EXTRACT_PARAMETERS_LOGGING, parameter.getCode().getValue(), loggedValue));
-            }
-
-            // Process the Expression
-            if (expression == null) {
-                if (log.isLoggable(Level.FINER)) {
-                    log.finer(String.format(UNSUPPORTED_EXPR_NULL, parameter.getType(), parameter.getCode().getValue()));
-                }
-                continue;
-            }
-            try {
-                Collection<FHIRPathNode> tmpResults = evaluator.evaluate(evaluationContext, expression.getValue());
-
-                if (log.isLoggable(Level.FINEST)) {
-                    log.finest("Expression [" + expression.getValue() + "] parameter-code ["
-                            + parameter.getCode().getValue() + "] Size -[" + tmpResults.size() + "]");
-                }
-
-                // Adds only if !skipEmpty || tmpResults is not empty
-                if (!tmpResults.isEmpty() || !skipEmpty) {
-                    result.put(parameter, new ArrayList<>(tmpResults));
-                }
-
-            } catch (java.lang.UnsupportedOperationException | FHIRPathException uoe) {
-                // switched to using code instead of name
-                log.warning(String.format(UNSUPPORTED_EXCEPTION, parameter.getCode().getValue(),
-                        expression.getValue(), uoe.getMessage()));
-            }
-        }
-
-        return result;
+    /**
+     * extract parameter values.
+     *
+     * @param resource
+     * @param skipEmpty
+     * @param parallel
+     *     whether the search parameter expressions may be evaluated in parallel; see {@link SearchParameterExtractor}
+     * @return
+     * @throws Exception
+     */
+    public static Map<SearchParameter, List<FHIRPathNode>> extractParameterValues(Resource resource, boolean skipEmpty,
+            boolean parallel) throws Exception {
+        List<SearchParameter> parameters = getApplicableSearchParameters(resource.getClass().getSimpleName());
+        return SearchParameterExtractor.extract(resource, parameters, skipEmpty, parallel);
     }
 
     public static FHIRSearchContext parseQueryParameters(Class<?> resourceType,
@@ -977,27 +745,20 @@ public class SearchUtil {
 
     /**
      * Retrieves the applicable search parameters for the specified resource type,
-     * then builds a map from it, keyed by
+     * as an unmodifiable map, keyed by
      * search parameter name for quick access.
      */
     public static Map<String, SearchParameter> getApplicableSearchParametersMap(String resourceType) throws Exception {
-        Map<String, SearchParameter> result = new HashMap<>();
-        List<SearchParameter> list = getApplicableSearchParameters(resourceType);
-        for (SearchParameter sp : list) {
-            result.put(sp.getCode().getValue(), sp);
-        }
-        return result;
+        return getSearchParameterIndex().getApplicableSearchParametersMap(resourceType);
     }
 
     /**
-     * Returns a list of SearchParameters that consist of those associated with the
+     * Returns an unmodifiable list of SearchParameters that consist of those associated with the
      * "Resource" base resource type, as
      * well as those associated with the specified resource type.
      */
     public static List<SearchParameter> getApplicableSearchParameters(String resourceType) throws Exception {
-        List<SearchParameter> result = getFilteredBuiltinSearchParameters(resourceType);
-        result.addAll(getUserDefinedSearchParameters(resourceType));
-        return result;
+        return getSearchParameterIndex().getApplicableSearchParameters(resourceType);
     }
 
     public static FHIRSearchContext parseQueryParameters(String compartmentName, String compartmentLogicalId,
@@ -1093,6 +854,9 @@ public class SearchUtil {
             } else if (SearchConstants.PAGE.equals(name)) {
                 int pageNumber = Integer.parseInt(first);
                 context.setPageNumber(pageNumber);
+            } else if (SearchConstants.CURSOR.equals(name)) {
+                // the continuation token is opaque here; it is decoded and validated by the persistence layer
+                context.setContinuationToken(first);
             } else if (SearchConstants.SORT.equals(name)) {
                 // in R4, we only look for _sort
                 sort.parseSortParameter(resourceTypeName, context, values, lenient);
@@ -1102,6 +866,8 @@ public class SearchUtil {
                 parseElementsParameter(resourceType, context, values, lenient);
             } else if (SearchConstants.SUMMARY.equals(name) && first != null) {
                 context.setSummaryParameter(SummaryValueSet.from(first));
+            } else if (SearchConstants.TOTAL.equals(name) && first != null) {
+                context.setTotalParameter(TotalValueSet.from(first));
             }
         } catch (FHIRSearchException se) {
             throw se;
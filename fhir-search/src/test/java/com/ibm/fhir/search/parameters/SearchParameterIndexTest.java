@@ -0,0 +1,110 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.search.parameters;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRConfiguration;
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.model.resource.SearchParameter;
+import com.ibm.fhir.model.type.Canonical;
+import com.ibm.fhir.search.test.BaseSearchTest;
+import com.ibm.fhir.search.util.SearchUtil;
+
+/**
+ * Tests the per-tenant search parameter index used by SearchUtil.
+ */
+public class SearchParameterIndexTest extends BaseSearchTest {
+
+    @BeforeClass
+    public void setup() {
+        FHIRConfiguration.setConfigHome("target/test-classes");
+    }
+
+    @AfterMethod
+    public void resetTenant() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext("default"));
+    }
+
+    @Test
+    public void testIndexIsReused() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext("tenant1"));
+        SearchParameterIndex index = SearchUtil.getSearchParameterIndex();
+        assertEquals(index.getTenantId(), "tenant1");
+        assertSame(SearchUtil.getSearchParameterIndex(), index);
+
+        // The same (precomputed) lists and maps are returned on each call
+        assertSame(SearchUtil.getApplicableSearchParameters("Observation"), SearchUtil.getApplicableSearchParameters("Observation"));
+        assertSame(SearchUtil.getApplicableSearchParametersMap("Patient"), SearchUtil.getApplicableSearchParametersMap("Patient"));
+    }
+
+    @Test
+    public void testIndexPerTenant() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext("default"));
+        SearchParameterIndex defaultIndex = SearchUtil.getSearchParameterIndex();
+        FHIRRequestContext.set(new FHIRRequestContext("tenant1"));
+        SearchParameterIndex tenant1Index = SearchUtil.getSearchParameterIndex();
+
+        assertNotSame(defaultIndex, tenant1Index);
+        assertEquals(defaultIndex.getApplicableSearchParameters("Observation").size(), 50);
+        // tenant1's filtering includes only the "code" search parameter for Observation
+        assertEquals(tenant1Index.getApplicableSearchParameters("Observation").size(), 8);
+        assertNotNull(defaultIndex.getSearchParameterByCode("Observation", "value-quantity"));
+        assertNull(tenant1Index.getSearchParameterByCode("Observation", "value-quantity"));
+    }
+
+    @Test(expectedExceptions = UnsupportedOperationException.class)
+    public void testIndexIsUnmodifiable() throws Exception {
+        List<SearchParameter> result = SearchUtil.getApplicableSearchParameters("Patient");
+        result.clear();
+    }
+
+    @Test
+    public void testLookupByCodeAndUrl() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext("default"));
+        Map<String, SearchParameter> applicable = SearchUtil.getApplicableSearchParametersMap("Patient");
+        for (SearchParameter sp : SearchUtil.getSearchParameters("Patient")) {
+            String code = sp.getCode().getValue();
+            assertSame(applicable.get(code), sp, code);
+            assertSame(SearchUtil.getSearchParameter("Patient", code), sp, code);
+            assertSame(SearchUtil.getSearchParameter("Patient", Canonical.of(sp.getUrl().getValue())), sp, code);
+        }
+
+        // The "Resource" search parameters are applicable to every resource type
+        assertTrue(applicable.containsKey("_id"));
+        assertNotNull(SearchUtil.getSearchParameter("Resource", "_id"));
+
+        // Unknown resource types have no search parameters of their own
+        assertTrue(SearchUtil.getSearchParameters("NotAResourceType").isEmpty());
+        assertNull(SearchUtil.getSearchParameter("NotAResourceType", "_id"));
+    }
+
+    @Test
+    public void testIndexIsRebuiltOnConfigurationReload() throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext("tenant1"));
+        SearchParameterIndex index = SearchUtil.getSearchParameterIndex();
+
+        FHIRConfiguration.getInstance().clearConfiguration();
+        SearchParameterIndex reloaded = SearchUtil.getSearchParameterIndex();
+        assertNotSame(reloaded, index);
+        assertTrue(reloaded.getVersion() > index.getVersion());
+        assertEquals(reloaded.getApplicableSearchParameters("Observation"), index.getApplicableSearchParameters("Observation"));
+        assertSame(SearchUtil.getSearchParameterIndex(), reloaded);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.search.test;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.ibm.fhir.config.FHIRConfiguration;
+import com.ibm.fhir.model.format.Format;
+import com.ibm.fhir.model.parser.FHIRParser;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.resource.SearchParameter;
+import com.ibm.fhir.path.FHIRPathNode;
+import com.ibm.fhir.search.util.SearchParameterExtractor;
+import com.ibm.fhir.search.util.SearchUtil;
+
+/**
+ * Tests that the serial and parallel evaluation of the search parameter expressions give the same result.
+ */
+public class SearchParameterExtractorTest extends BaseSearchTest {
+
+    @Override
+    @BeforeClass
+    public void setup() {
+        FHIRConfiguration.setConfigHome("target/test-classes");
+        SearchParameterExtractor.setParallelism(4);
+    }
+
+    @AfterClass
+    public void tearDown() {
+        SearchParameterExtractor.setParallelism(1);
+    }
+
+    private Resource load(String file) throws Exception {
+        try (InputStream stream = SearchParameterExtractorTest.class.getResourceAsStream("/testdata/extract/" + file)) {
+            return FHIRParser.parser(Format.JSON).parse(stream);
+        }
+    }
+
+    /**
+     * Converts the result to a map of parameter code to selected paths, for comparison
+     */
+    private Map<String, List<String>> paths(Map<SearchParameter, List<FHIRPathNode>> values) {
+        Map<String, List<String>> result = new LinkedHashMap<>();
+        for (Map.Entry<SearchParameter, List<FHIRPathNode>> entry : values.entrySet()) {
+            List<String> paths = new ArrayList<>();
+            for (FHIRPathNode node : entry.getValue()) {
+                paths.add(node.path() == null ? node.toString() : node.path());
+            }
+            result.put(entry.getKey().getCode().getValue(), paths);
+        }
+        return result;
+    }
+
+    @Test
+    public void testParallelMatchesSerial() throws Exception {
+        for (String file : Arrays.asList("observation-full.json", "observation-some.json", "patient-deceased-time.json")) {
+            Resource resource = load(file);
+            List<SearchParameter> parameters = SearchUtil.getApplicableSearchParameters(resource.getClass().getSimpleName());
+
+            Map<String, List<String>> serial = paths(SearchParameterExtractor.extract(resource, parameters, true, false));
+            Map<String, List<String>> parallel = paths(SearchParameterExtractor.extract(resource, parameters, true, true));
+            assertFalse(serial.isEmpty());
+            assertEquals(parallel, serial, file);
+            assertEquals(new ArrayList<>(parallel.keySet()), new ArrayList<>(serial.keySet()), file);
+
+            // The public entry point gives the same result
+            assertEquals(paths(SearchUtil.extractParameterValues(resource)), serial, file);
+        }
+    }
+
+    @Test
+    public void testSkipEmpty() throws Exception {
+        Resource resource = load("observation-empty.json");
+        List<SearchParameter> parameters = SearchUtil.getApplicableSearchParameters(resource.getClass().getSimpleName());
+
+        Map<SearchParameter, List<FHIRPathNode>> all = SearchParameterExtractor.extract(resource, parameters, false, true);
+        Map<SearchParameter, List<FHIRPathNode>> nonEmpty = SearchParameterExtractor.extract(resource, parameters, true, true);
+        for (SearchParameter parameter : parameters) {
+            if (parameter.getExpression() != null) {
+                assertEquals(all.containsKey(parameter), true, parameter.getCode().getValue());
+            }
+        }
+        for (List<FHIRPathNode> nodes : nonEmpty.values()) {
+            assertFalse(nodes.isEmpty());
+        }
+    }
+
+    @Test
+    public void testExtractAll() throws Exception {
+        List<Resource> resources = new ArrayList<>();
+        List<List<SearchParameter>> parameters = new ArrayList<>();
+        for (String file : Arrays.asList("observation-full.json", "patient-deceased-boolean.json", "observation-some.json")) {
+            Resource resource = load(file);
+            resources.add(resource);
+            parameters.add(SearchUtil.getApplicableSearchParameters(resource.getClass().getSimpleName()));
+        }
+
+        List<Map<SearchParameter, List<FHIRPathNode>>> values = SearchParameterExtractor.extractAll(resources, parameters, true);
+        assertEquals(values.size(), resources.size());
+        for (int i = 0; i < resources.size(); i++) {
+            assertEquals(paths(values.get(i)), paths(SearchParameterExtractor.extract(resources.get(i), parameters.get(i), true, false)));
+        }
+    }
+}
@@ -7,20 +7,30 @@
 package com.ibm.fhir.server.listener;
 
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_CHECK_REFERENCE_TYPES;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_ENABLED;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_INTERVAL_MINUTES;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_JDBC_BOOTSTRAP_DB;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_CONNECTIONPROPS;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_ENABLED;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_KAFKA_TOPICNAME;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_SERVER_REGISTRY_RESOURCE_PROVIDER_ENABLED;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_WARM_UP_ENABLED;
 import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_WEBSOCKET_ENABLED;
 
+import java.util.HashSet;
 import java.util.List;
 import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.naming.InitialContext;
 import javax.naming.NameNotFoundException;
+import javax.naming.NamingException;
 import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 import javax.servlet.annotation.WebListener;
@@ -36,16 +46,25 @@ import com.ibm.fhir.config.PropertyGroup;
 import com.ibm.fhir.config.PropertyGroup.PropertyEntry;
 import com.ibm.fhir.database.utils.derby.DerbyServerPropertiesMgr;
 import com.ibm.fhir.model.config.FHIRModelConfig;
+import com.ibm.fhir.model.resource.CodeSystem;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.resource.SearchParameter;
+import com.ibm.fhir.model.resource.ValueSet;
+import com.ibm.fhir.model.util.ModelSupport;
 import com.ibm.fhir.model.util.FHIRUtil;
 import com.ibm.fhir.notification.websocket.impl.FHIRNotificationServiceEndpointConfig;
 import com.ibm.fhir.notifications.kafka.impl.FHIRNotificationKafkaPublisher;
 import com.ibm.fhir.operation.registry.FHIROperationRegistry;
+import com.ibm.fhir.path.evaluator.FHIRPathEvaluator;
+import com.ibm.fhir.persistence.FHIRPersistence;
 import com.ibm.fhir.persistence.helper.FHIRPersistenceHelper;
 import com.ibm.fhir.persistence.interceptor.impl.FHIRPersistenceInterceptorMgr;
 import com.ibm.fhir.persistence.jdbc.util.DerbyBootstrapper;
+import com.ibm.fhir.persistence.jdbc.util.ReadReplicaRouter;
 import com.ibm.fhir.registry.FHIRRegistry;
 import com.ibm.fhir.search.util.SearchUtil;
 import com.ibm.fhir.server.registry.ServerRegistryResourceProvider;
+import com.ibm.fhir.server.util.HistoryRetentionJob;
 
 @WebListener("IBM FHIR Server Servlet Context Listener")
 public class FHIRServletContextListener implements ServletContextListener {
@@ -55,6 +74,11 @@ public class FHIRServletContextListener implements ServletContextListener {
     private static final String DEFAULT_KAFKA_TOPICNAME = "fhirNotifications";
     public static final String FHIR_SERVER_INIT_COMPLETE = "com.ibm.fhir.webappInitComplete";
     private static FHIRNotificationKafkaPublisher kafkaPublisher = null;
+    private static final String MANAGED_SCHEDULED_EXECUTOR_JNDI_NAME = "java:comp/DefaultManagedScheduledExecutorService";
+    private static final int DEFAULT_HISTORY_RETENTION_INTERVAL_MINUTES = 60;
+    private static volatile HistoryRetentionJob historyRetentionJob = null;
+    private static ScheduledFuture<?> historyRetentionFuture = null;
+    private static ScheduledExecutorService historyRetentionExecutor = null;
 
     @Override
     public void contextInitialized(ServletContextEvent event) {
@@ -135,6 +159,13 @@ public class FHIRServletContextListener implements ServletContextListener {
             log.fine("Initializing FHIRRegistry...");
             FHIRRegistry.getInstance();
 
+            // The registry is warmed up before the ServerRegistryResourceProvider is registered, so that only the
+            // resources of the packaged registry providers are loaded, and not those stored in each tenant's database
+            Boolean warmUpEnabled = fhirConfig.getBooleanProperty(PROPERTY_WARM_UP_ENABLED, Boolean.TRUE);
+            if (warmUpEnabled) {
+                warmUpRegistry();
+            }
+
             Boolean serverRegistryResourceProviderEnabled = fhirConfig.getBooleanProperty(PROPERTY_SERVER_REGISTRY_RESOURCE_PROVIDER_ENABLED, Boolean.FALSE);
             if (serverRegistryResourceProviderEnabled) {
                 log.info("Registering ServerRegistryResourceProvider...");
@@ -143,6 +174,21 @@ public class FHIRServletContextListener implements ServletContextListener {
                 FHIRPersistenceInterceptorMgr.getInstance().addInterceptor(provider);
             }
 
+            if (warmUpEnabled) {
+                warmUp(persistenceHelper);
+            } else {
+                log.info("Server warm-up is disabled.");
+            }
+
+            // If history retention is enabled, schedule the job which prunes the older resource versions.
+            Boolean historyRetentionEnabled = fhirConfig.getBooleanProperty(PROPERTY_HISTORY_RETENTION_ENABLED, Boolean.FALSE);
+            if (historyRetentionEnabled) {
+                int intervalMinutes = fhirConfig.getIntProperty(PROPERTY_HISTORY_RETENTION_INTERVAL_MINUTES, DEFAULT_HISTORY_RETENTION_INTERVAL_MINUTES);
+                scheduleHistoryRetention(persistenceHelper, intervalMinutes);
+            } else {
+                log.info("Bypassing history retention init.");
+            }
+
             // Finally, set our "initComplete" flag to true.
             event.getServletContext().setAttribute(FHIR_SERVER_INIT_COMPLETE, Boolean.TRUE);
         } catch(Throwable t) {
@@ -212,6 +258,124 @@ public class FHIRServletContextListener implements ServletContextListener {
         FHIRRequestContext.remove();
     }
 
+    /**
+     * Warms up the server before it takes any requests, so the first requests of each tenant don't each pay for
+     * loading and parsing what they need. For each configured tenant, the applicable search parameters are loaded
+     * and their FHIRPath expressions are parsed, and a persistence instance is created for each of its datastores
+     * (except read replicas), which loads the parameter name, code system and resource type caches of that datastore.
+     * Failures are only logged, because the server then simply warms up as it is used.
+     */
+    private void warmUp(FHIRPersistenceHelper persistenceHelper) {
+        log.info("Warming up the server...");
+        long start = System.nanoTime();
+        Set<String> expressions = new HashSet<>();
+        int datastoreCount = 0;
+
+        List<String> tenantIds = FHIRConfiguration.getInstance().getConfiguredTenants();
+        for (String tenantId : tenantIds) {
+            try {
+                FHIRRequestContext.set(new FHIRRequestContext(tenantId, FHIRConfiguration.DEFAULT_DATASTORE_ID));
+                for (Class<? extends Resource> resourceType : ModelSupport.getResourceTypes()) {
+                    for (SearchParameter searchParameter : SearchUtil.getApplicableSearchParameters(resourceType.getSimpleName())) {
+                        if (searchParameter.getExpression() != null
+                                && expressions.add(searchParameter.getExpression().getValue())) {
+                            FHIRPathEvaluator.precompile(searchParameter.getExpression().getValue());
+                        }
+                    }
+                }
+
+                PropertyGroup pg = FHIRConfigHelper.getPropertyGroup(FHIRConfiguration.PROPERTY_DATASOURCES);
+                if (pg != null) {
+                    // A read replica is a read-only copy of another datastore, whose caches are loaded with the primary's
+                    Set<String> replicaDsIds = ReadReplicaRouter.getReplicaDatastoreIds();
+                    for (PropertyEntry entry : pg.getProperties()) {
+                        if (replicaDsIds.contains(entry.getName())) {
+                            log.fine("Skipping read replica datastore for tenantId/dsId: " + tenantId + "/" + entry.getName());
+                            continue;
+                        }
+                        warmUpDatastore(persistenceHelper, tenantId, entry.getName());
+                        datastoreCount++;
+                    }
+                }
+            } catch (Throwable t) {
+                log.log(Level.WARNING, "Failure warming up tenantId: " + tenantId, t);
+            } finally {
+                FHIRRequestContext.remove();
+            }
+        }
+
+        log.info("Finished server warm-up in " + (System.nanoTime() - start)/1000000 + "ms: " + tenantIds.size() + " tenants, "
+                + datastoreCount + " datastores, " + expressions.size() + " search parameter expressions");
+    }
+
+    /**
+     * Loads the ValueSet and CodeSystem resources of the registry, which are otherwise parsed on first use, for example
+     * by the first memberOf() evaluation of each value set during validation. The value sets are not expanded here:
+     * the memberOf() expansion cache holds fewer entries than the registry has value sets, and an expansion is only
+     * needed for the value sets that are bound by the profiles actually used.
+     * Failures are only logged, because the resources are then simply loaded as they are used.
+     */
+    private void warmUpRegistry() {
+        long start = System.nanoTime();
+        try {
+            int valueSetCount = FHIRRegistry.getInstance().getResources(ValueSet.class).size();
+            int codeSystemCount = FHIRRegistry.getInstance().getResources(CodeSystem.class).size();
+            log.info("Loaded the registry in " + (System.nanoTime() - start)/1000000 + "ms: " + valueSetCount + " value sets, "
+                    + codeSystemCount + " code systems");
+        } catch (Throwable t) {
+            log.log(Level.WARNING, "Failure warming up the registry", t);
+        }
+    }
+
+    /**
+     * Creates a persistence instance for the specified tenant and datastore, which loads the caches of the datastore.
+     */
+    private void warmUpDatastore(FHIRPersistenceHelper persistenceHelper, String tenantId, String dsId) {
+        try {
+            FHIRRequestContext.set(new FHIRRequestContext(tenantId, dsId));
+            FHIRPersistence persistence = persistenceHelper.getFHIRPersistenceImplementation();
+            if (persistence.isTransactional()) {
+                // end an empty transaction, so the connection opened by the persistence instance is released
+                persistence.getTransaction().begin();
+                persistence.getTransaction().commit();
+            }
+            log.fine("Warmed up tenantId/dsId: " + tenantId + "/" + dsId);
+        } catch (Throwable t) {
+            log.log(Level.WARNING, "Failure warming up tenantId/dsId: " + tenantId + "/" + dsId, t);
+        }
+    }
+
+    /**
+     * Schedules the history retention job to run at the specified interval, using the server's managed scheduled
+     * executor so that the job runs with the application's context (e.g. for JNDI lookups of the datasources and
+     * transactions). If the managed executor is not available, a daemon thread of our own is used instead.
+     */
+    private void scheduleHistoryRetention(FHIRPersistenceHelper persistenceHelper, int intervalMinutes) throws Exception {
+        ScheduledExecutorService executor;
+        try {
+            executor = (ScheduledExecutorService) new InitialContext().lookup(MANAGED_SCHEDULED_EXECUTOR_JNDI_NAME);
+        } catch (NamingException e) {
+            log.warning("Managed scheduled executor '" + MANAGED_SCHEDULED_EXECUTOR_JNDI_NAME + "' not found; using an unmanaged thread for history retention");
+            historyRetentionExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "fhir-history-retention");
+                t.setDaemon(true);
+                return t;
+            });
+            executor = historyRetentionExecutor;
+        }
+
+        historyRetentionJob = new HistoryRetentionJob(persistenceHelper);
+        historyRetentionFuture = executor.scheduleWithFixedDelay(historyRetentionJob, intervalMinutes, intervalMinutes, TimeUnit.MINUTES);
+        log.info("Scheduled the history retention job every " + intervalMinutes + " minutes.");
+    }
+
+    /**
+     * @return the history retention job, or null if it isn't scheduled
+     */
+    public static HistoryRetentionJob getHistoryRetentionJob() {
+        return historyRetentionJob;
+    }
+
     @Override
     public void contextDestroyed(ServletContextEvent event) {
         if (log.isLoggable(Level.FINER)) {
@@ -226,6 +390,17 @@ public class FHIRServletContextListener implements ServletContextListener {
                 kafkaPublisher.shutdown();
                 kafkaPublisher = null;
             }
+
+            // If we previously scheduled the history retention job, then cancel it now.
+            if (historyRetentionFuture != null) {
+                historyRetentionFuture.cancel(false);
+                historyRetentionFuture = null;
+                historyRetentionJob = null;
+            }
+            if (historyRetentionExecutor != null) {
+                historyRetentionExecutor.shutdownNow();
+                historyRetentionExecutor = null;
+            }
         } catch (Exception e) {
         } finally {
             if (log.isLoggable(Level.FINER)) {
@@ -71,6 +71,7 @@ import com.ibm.fhir.persistence.SingleResourceResult;
 import com.ibm.fhir.persistence.context.FHIRHistoryContext;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
 import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.fhir.persistence.context.impl.FHIRPersistenceContextImpl;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceResourceDeletedException;
 import com.ibm.fhir.persistence.exception.FHIRPersistenceResourceNotFoundException;
@@ -83,6 +84,7 @@ import com.ibm.fhir.rest.FHIRResourceHelpers;
 import com.ibm.fhir.rest.FHIRRestOperationResponse;
 import com.ibm.fhir.search.SearchConstants;
 import com.ibm.fhir.search.SummaryValueSet;
+import com.ibm.fhir.search.TotalValueSet;
 import com.ibm.fhir.search.context.FHIRSearchContext;
 import com.ibm.fhir.search.exception.FHIRSearchException;
 import com.ibm.fhir.search.util.SearchUtil;
@@ -153,7 +155,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
                 try {
                     MultivaluedMap<String, String> searchParameters = getQueryParameterMap(ifNoneExist);
                     responseBundle =
-                            doSearch(type, null, null, searchParameters, null, requestProperties, resource);
+                            doSearch(type, null, null, searchParameters, null, requestProperties, resource, false);
                 } catch (FHIROperationException e) {
                     throw e;
                 } catch (Throwable t) {
@@ -299,7 +301,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
                     MultivaluedMap<String, String> searchParameters =
                             getQueryParameterMap(searchQueryString);
                     responseBundle =
-                            doSearch(type, null, null, searchParameters, null, requestProperties, newResource);
+                            doSearch(type, null, null, searchParameters, null, requestProperties, newResource, false);
                 } catch (FHIROperationException e) {
                     throw e;
                 } catch (Throwable t) {
@@ -403,6 +405,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
 
             // Next, set the "previous resource" in the persistence event.
             event.setPrevFhirResource(ior.getPrevResource());
+            event.setPrevFhirResourceDeleted(isDeleted);
 
             // Next, invoke the 'beforeUpdate' or 'beforeCreate' interceptor methods as appropriate.
             boolean updateCreate = (ior.getPrevResource() == null);
@@ -523,7 +526,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
                     MultivaluedMap<String, String> searchParameters = getQueryParameterMap(searchQueryString);
                     searchParameters.putSingle(SearchConstants.COUNT, Integer.toString(searchPageSize));
                     // TODO add support for collecting the warnings from the search
-                    responseBundle = doSearch(type, null, null, searchParameters, null, requestProperties, null);
+                    responseBundle = doSearch(type, null, null, searchParameters, null, requestProperties, null, false);
                 } catch (FHIROperationException e) {
                     throw e;
                 } catch (Throwable t) {
@@ -773,6 +776,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
 
             FHIRPersistenceContext persistenceContext =
                     FHIRPersistenceContextFactory.createPersistenceContext(event);
+            setReadReplicaAllowed(persistenceContext, txn.isTxnStarted());
             resource = persistence.vread(persistenceContext, resourceType, id, versionId).getResource();
             if (resource == null) {
                 throw new FHIRPersistenceResourceNotFoundException("Resource '"
@@ -849,6 +853,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
 
             FHIRPersistenceContext persistenceContext =
                     FHIRPersistenceContextFactory.createPersistenceContext(event, historyContext);
+            setReadReplicaAllowed(persistenceContext, txn.isTxnStarted());
             List<? extends Resource> resources =
                     persistence.history(persistenceContext, resourceType, id).getResource();
             bundle = createHistoryBundle(resources, historyContext, type);
@@ -893,6 +898,16 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
     public Bundle doSearch(String type, String compartment, String compartmentId,
             MultivaluedMap<String, String> queryParameters, String requestUri,
             Map<String, String> requestProperties, Resource contextResource) throws Exception {
+        return doSearch(type, compartment, compartmentId, queryParameters, requestUri, requestProperties, contextResource, true);
+    }
+
+    /**
+     * Performs a 'search' operation, which is served by the primary datastore when readReplicaAllowed is false
+     * (e.g. for the search of a conditional create, update or delete, which must see the latest writes).
+     */
+    private Bundle doSearch(String type, String compartment, String compartmentId,
+            MultivaluedMap<String, String> queryParameters, String requestUri,
+            Map<String, String> requestProperties, Resource contextResource, boolean readReplicaAllowed) throws Exception {
         log.entering(this.getClass().getName(), "doSearch");
 
         FHIRTransactionHelper txn = new FHIRTransactionHelper(getTransaction());
@@ -926,6 +941,7 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
 
             FHIRPersistenceContext persistenceContext =
                     FHIRPersistenceContextFactory.createPersistenceContext(event, searchContext);
+            setReadReplicaAllowed(persistenceContext, readReplicaAllowed && txn.isTxnStarted());
             List<Resource> resources =
                     persistence.search(persistenceContext, resourceType).getResource();
 
@@ -2188,6 +2204,11 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
 
         // throws if we have a count of more than 2,147,483,647 resources
         UnsignedInt totalCount = UnsignedInt.of(searchContext.getTotalCount());
+        // the total is omitted when the client asked for _total=none, unless the count is all that was asked for
+        if (TotalValueSet.NONE.equals(searchContext.getTotalParameter())
+                && !SummaryValueSet.COUNT.equals(searchContext.getSummaryParameter())) {
+            totalCount = null;
+        }
         // generate ID for this bundle and set total
         Bundle.Builder bundleBuider = Bundle.builder()
                                             .type(BundleType.SEARCHSET)
@@ -2295,11 +2316,15 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
     private Bundle addLinks(FHIRPagingContext context, Bundle responseBundle, String requestUri) throws Exception {
         String selfUri = null;
         SummaryValueSet summaryParameter = null;
+        String continuationToken = null;
+        String nextContinuationToken = null;
         Bundle.Builder bundleBuilder = responseBundle.toBuilder();
 
         if (context instanceof FHIRSearchContext) {
             FHIRSearchContext searchContext = (FHIRSearchContext) context;
             summaryParameter = searchContext.getSummaryParameter();
+            continuationToken = searchContext.getContinuationToken();
+            nextContinuationToken = searchContext.getNextContinuationToken();
             try {
                 selfUri = SearchUtil.buildSearchSelfUri(requestUri, searchContext);
             } catch (Exception e) {
@@ -2317,7 +2342,41 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
         // If for search with _summary=count or pageSize == 0, then don't add previous and next links.
         if (!SummaryValueSet.COUNT.equals(summaryParameter) && context.getPageSize() > 0) {
             int nextPageNumber = context.getPageNumber() + 1;
-            if (nextPageNumber <= context.getLastPageNumber()) {
+            if (nextContinuationToken != null) {
+                // With keyset pagination, the next page is identified by a continuation token rather than a page number
+
+                // starting with the self URI
+                String nextLinkUrl = selfUri;
+
+                // remove existing _page and _cursor parameters from the query string
+                nextLinkUrl =
+                        nextLinkUrl.replace("&_page=" + context.getPageNumber(), "").replace("_page="
+                                + context.getPageNumber() + "&", "").replace("_page="
+                                        + context.getPageNumber(), "");
+                if (continuationToken != null) {
+                    nextLinkUrl =
+                            nextLinkUrl.replace("&_cursor=" + continuationToken, "").replace("_cursor="
+                                    + continuationToken + "&", "").replace("_cursor="
+                                            + continuationToken, "");
+                }
+
+                if (nextLinkUrl.contains("?")) {
+                    if (!nextLinkUrl.endsWith("?")) {
+                        // there are other parameters in the query string
+                        nextLinkUrl += "&";
+                    }
+                } else {
+                    nextLinkUrl += "?";
+                }
+
+                // add new _cursor parameter to the query string
+                nextLinkUrl += "_cursor=" + nextContinuationToken;
+
+                // create 'next' link
+                Bundle.Link nextLink =
+                        Bundle.Link.builder().relation(string("next")).url(Url.of(nextLinkUrl)).build();
+                bundleBuilder.link(nextLink);
+            } else if (continuationToken == null && nextPageNumber <= context.getLastPageNumber()) {
 
                 // starting with the self URI
                 String nextLinkUrl = selfUri;
@@ -2346,8 +2405,9 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
                 bundleBuilder.link(nextLink);
             }
 
+            // A continuation token only allows paging forward, so there is no 'previous' link for keyset pages
             int prevPageNumber = context.getPageNumber() - 1;
-            if (prevPageNumber > 0) {
+            if (prevPageNumber > 0 && continuationToken == null) {
 
                 // starting with the original request URI
                 String prevLinkUrl = requestUri;
@@ -2461,6 +2521,17 @@ public class FHIRRestHelper implements FHIRResourceHelpers {
         return props;
     }
 
+    /**
+     * Marks whether the reads of the persistence context may be served by a read replica. They may only be when the
+     * transaction was started for this interaction alone, and not by a transaction bundle or a conditional write,
+     * which must see the latest writes.
+     */
+    private void setReadReplicaAllowed(FHIRPersistenceContext persistenceContext, boolean readReplicaAllowed) {
+        if (persistenceContext instanceof FHIRPersistenceContextImpl) {
+            ((FHIRPersistenceContextImpl) persistenceContext).setReadReplicaAllowed(readReplicaAllowed);
+        }
+    }
+
     /**
      * Sets various properties on the FHIROperationContext instance.
      *
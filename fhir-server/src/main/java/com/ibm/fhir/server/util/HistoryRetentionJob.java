@@ -0,0 +1,254 @@
+/*
+ * (C) Copyright IBM Corp. 2020
+ *
+ * SPDX-License-Identifier: Apache-2.0
+ */
+
+package com.ibm.fhir.server.util;
+
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_BATCH_SIZE;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_ENABLED;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_KEEP_DAYS;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_KEEP_VERSIONS;
+import static com.ibm.fhir.config.FHIRConfiguration.PROPERTY_HISTORY_RETENTION_RESOURCE_TYPES;
+
+import java.lang.reflect.Modifier;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.ibm.fhir.config.FHIRConfigHelper;
+import com.ibm.fhir.config.FHIRConfiguration;
+import com.ibm.fhir.config.FHIRRequestContext;
+import com.ibm.fhir.config.PropertyGroup;
+import com.ibm.fhir.config.PropertyGroup.PropertyEntry;
+import com.ibm.fhir.model.resource.Resource;
+import com.ibm.fhir.model.util.ModelSupport;
+import com.ibm.fhir.persistence.FHIRPersistence;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContext;
+import com.ibm.fhir.persistence.context.FHIRPersistenceContextFactory;
+import com.ibm.fhir.persistence.helper.FHIRPersistenceHelper;
+import com.ibm.fhir.persistence.jdbc.util.ReadReplicaRouter;
+
+/**
+ * A background job which prunes the older versions of resources, according to the history retention policy
+ * configured for each tenant and resource type. For each resource type, the versions to keep are given by
+ * the number of latest versions (keepVersions) and/or the number of days (keepDays); a version is kept if any
+ * of the configured rules keeps it, and the current version is always kept. Resource types with neither rule
+ * keep their whole history.
+ * <br>
+ * Each datastore is pruned in batches of at most batchSize versions, each within its own transaction, so that
+ * the locks held by the job are short-lived. The datastores configured as the read replica of another datastore
+ * are skipped, and the pruned versions are removed from the read cache of the persistence layer. The progress of the job is logged, and counted over all its runs.
+ */
+public class HistoryRetentionJob implements Runnable {
+    private static final Logger log = Logger.getLogger(HistoryRetentionJob.class.getName());
+
+    public static final int DEFAULT_BATCH_SIZE = 100;
+
+    private final FHIRPersistenceHelper persistenceHelper;
+
+    // Progress metrics, over all the runs of this job
+    private final LongAdder runs = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder versionsPruned = new LongAdder();
+    private final LongAdder failures = new LongAdder();
+    private volatile long lastRunMillis = -1;
+
+    /**
+     * The history retention policy of a resource type
+     */
+    private static class RetentionPolicy {
+        final int keepVersions;
+        final Instant keepSince;
+
+        RetentionPolicy(int keepVersions, int keepDays, Instant now) {
+            this.keepVersions = keepVersions > 0 ? keepVersions : 0;
+            this.keepSince = keepDays > 0 ? now.minus(keepDays, ChronoUnit.DAYS) : null;
+        }
+
+        boolean isEmpty() {
+            return keepVersions == 0 && keepSince == null;
+        }
+    }
+
+    /**
+     * Public constructor
+     * @param persistenceHelper used to obtain the persistence implementation of each tenant/datastore
+     */
+    public HistoryRetentionJob(FHIRPersistenceHelper persistenceHelper) {
+        this.persistenceHelper = persistenceHelper;
+    }
+
+    @Override
+    public void run() {
+        log.info("Starting the history retention job...");
+        long start = System.nanoTime();
+        long prunedBefore = versionsPruned.sum();
+
+        List<String> tenantIds = FHIRConfiguration.getInstance().getConfiguredTenants();
+        for (String tenantId : tenantIds) {
+            try {
+                FHIRRequestContext.set(new FHIRRequestContext(tenantId, FHIRConfiguration.DEFAULT_DATASTORE_ID));
+                if (!FHIRConfigHelper.getBooleanProperty(PROPERTY_HISTORY_RETENTION_ENABLED, Boolean.FALSE)) {
+                    continue;
+                }
+
+                PropertyGroup pg = FHIRConfigHelper.getPropertyGroup(FHIRConfiguration.PROPERTY_DATASOURCES);
+                if (pg != null) {
+                    // A read replica is a read-only copy of another datastore, which is pruned at its source
+                    Set<String> replicaDsIds = ReadReplicaRouter.getReplicaDatastoreIds();
+                    for (PropertyEntry entry : pg.getProperties()) {
+                        if (replicaDsIds.contains(entry.getName())) {
+                            log.fine("Skipping read replica datastore for tenantId/dsId: " + tenantId + "/" + entry.getName());
+                            continue;
+                        }
+                        pruneDatastore(tenantId, entry.getName());
+                    }
+                }
+            } catch (Throwable t) {
+                failures.increment();
+                log.log(Level.WARNING, "Failure pruning the history of tenantId: " + tenantId, t);
+            } finally {
+                FHIRRequestContext.remove();
+            }
+        }
+
+        runs.increment();
+        lastRunMillis = (System.nanoTime() - start) / 1000000;
+        log.info("Finished the history retention job in " + lastRunMillis + "ms: " + (versionsPruned.sum() - prunedBefore)
+                + " versions pruned; " + this);
+    }
+
+    /**
+     * Prunes the history of each resource type with a retention policy in the specified tenant/datastore.
+     * The tenant's configuration is read in the datastore's request context, so it applies to each of its datastores.
+     */
+    private void pruneDatastore(String tenantId, String dsId) throws Exception {
+        FHIRRequestContext.set(new FHIRRequestContext(tenantId, dsId));
+        final int batchSize = FHIRConfigHelper.getIntProperty(PROPERTY_HISTORY_RETENTION_BATCH_SIZE, DEFAULT_BATCH_SIZE);
+        final int keepVersions = FHIRConfigHelper.getIntProperty(PROPERTY_HISTORY_RETENTION_KEEP_VERSIONS, 0);
+        final int keepDays = FHIRConfigHelper.getIntProperty(PROPERTY_HISTORY_RETENTION_KEEP_DAYS, 0);
+        final PropertyGroup resourceTypePolicies = FHIRConfigHelper.getPropertyGroup(PROPERTY_HISTORY_RETENTION_RESOURCE_TYPES);
+        final Instant now = Instant.now();
+
+        FHIRPersistence persistence = persistenceHelper.getFHIRPersistenceImplementation();
+        if (!persistence.isHistoryPruningSupported()) {
+            log.fine("History pruning is not supported for tenantId/dsId: " + tenantId + "/" + dsId);
+            return;
+        }
+        FHIRPersistenceContext context = FHIRPersistenceContextFactory.createPersistenceContext(null);
+
+        for (Class<? extends Resource> resourceType : ModelSupport.getResourceTypes()) {
+            if (Modifier.isAbstract(resourceType.getModifiers())) {
+                continue;
+            }
+
+            RetentionPolicy policy;
+            PropertyGroup typePolicy = resourceTypePolicies != null ? resourceTypePolicies.getPropertyGroup(resourceType.getSimpleName()) : null;
+            if (typePolicy != null) {
+                policy = new RetentionPolicy(typePolicy.getIntProperty("keepVersions", keepVersions), typePolicy.getIntProperty("keepDays", keepDays), now);
+            } else {
+                policy = new RetentionPolicy(keepVersions, keepDays, now);
+            }
+
+            if (!policy.isEmpty()) {
+                long pruned = pruneResourceType(persistence, context, resourceType, policy, batchSize);
+                if (pruned > 0) {
+                    log.info("Pruned " + pruned + " versions of " + resourceType.getSimpleName() + " for tenantId/dsId: " + tenantId + "/" + dsId);
+                }
+            }
+        }
+    }
+
+    /**
+     * Prunes the history of a resource type, one batch (and transaction) at a time, until a batch is not full.
+     * @return the number of versions pruned
+     */
+    private long pruneResourceType(FHIRPersistence persistence, FHIRPersistenceContext context, Class<? extends Resource> resourceType,
+            RetentionPolicy policy, int batchSize) {
+        long pruned = 0;
+        int deleted;
+        do {
+            deleted = 0;
+            boolean committed = false;
+            try {
+                if (persistence.isTransactional()) {
+                    persistence.getTransaction().begin();
+                }
+                deleted = persistence.pruneHistory(context, resourceType, policy.keepVersions, policy.keepSince, batchSize);
+                if (persistence.isTransactional()) {
+                    persistence.getTransaction().commit();
+                }
+                committed = true;
+            } catch (Throwable t) {
+                failures.increment();
+                log.log(Level.WARNING, "Failure pruning the history of resource type: " + resourceType.getSimpleName(), t);
+            } finally {
+                if (!committed && persistence.isTransactional()) {
+                    try {
+                        persistence.getTransaction().rollback();
+                    } catch (Throwable t) {
+                        log.log(Level.FINE, "Failure rolling back the history retention transaction", t);
+                    }
+                    // move on to the next resource type
+                    deleted = 0;
+                }
+            }
+
+            batches.increment();
+            versionsPruned.add(deleted);
+            pruned += deleted;
+            if (log.isLoggable(Level.FINE)) {
+                log.fine("Pruned a batch of " + deleted + " versions of " + resourceType.getSimpleName() + " (" + pruned + " so far)");
+            }
+        } while (deleted >= batchSize);
+
+        return pruned;
+    }
+
+    /**
+     * @return the number of runs of this job
+     */
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    /**
+     * @return the number of batches (transactions) run by this job
+     */
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    /**
+     * @return the number of versions pruned by this job
+     */
+    public long getVersionsPruned() {
+        return versionsPruned.sum();
+    }
+
+    /**
+     * @return the number of failures of this job
+     */
+    public long getFailures() {
+        return failures.sum();
+    }
+
+    /**
+     * @return the duration of the last run of this job in milliseconds, or -1 if it hasn't run
+     */
+    public long getLastRunMillis() {
+        return lastRunMillis;
+    }
+
+    @Override
+    public String toString() {
+        return "runs=" + getRuns() + " batches=" + getBatches() + " versionsPruned=" + getVersionsPruned()
+                + " failures=" + getFailures() + " lastRunMillis=" + getLastRunMillis();
+    }
+}